@@ -2,8 +2,10 @@ package com.fabricio.practice.chat_fusion;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class ChatFusionApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,35 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+// Utility that picks the BCrypt cost for this machine based on a target hashing time
+public final class BcryptStrengthCalibrator {
+
+	private static final Logger log = LoggerFactory.getLogger(BcryptStrengthCalibrator.class);
+
+	// Sample password used only to time the hashing
+	private static final String SAMPLE = "calibration-sample";
+
+	private BcryptStrengthCalibrator() {
+	}
+
+	// Returns the highest strength whose hash time stays within the target, bounded by min and max
+	// Each extra point of strength doubles the work, so a single measurement at the minimum is enough
+	public static int calibrate(long targetMillis, int minStrength, int maxStrength) {
+		BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(minStrength);
+		// Warms up the JIT so the measurement is not dominated by the first run
+		encoder.encode(SAMPLE);
+
+		long start = System.nanoTime();
+		encoder.encode(SAMPLE);
+		double elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000.0);
+
+		int extra = (int) Math.floor(Math.log(targetMillis / elapsedMillis) / Math.log(2));
+		int strength = Math.max(minStrength, Math.min(maxStrength, minStrength + extra));
+
+		log.info("BCrypt strength {} selected ({} ms at strength {}, target {} ms)", strength, Math.round(elapsedMillis), minStrength, targetMillis);
+		return strength;
+	}
+}
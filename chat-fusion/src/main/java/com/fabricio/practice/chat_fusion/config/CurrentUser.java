@@ -0,0 +1,16 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a controller parameter that receives the authenticated user resolved by CurrentUserArgumentResolver
+// By default the user is the snapshot carried in the JWT (ID, email, username and profile picture)
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CurrentUser {
+
+	// When true the user is fetched from the database instead of using the token snapshot
+	boolean fresh() default false;
+}
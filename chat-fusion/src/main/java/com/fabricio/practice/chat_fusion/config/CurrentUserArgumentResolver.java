@@ -0,0 +1,56 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import com.fabricio.practice.chat_fusion.model.User;
+import com.fabricio.practice.chat_fusion.service.UserService;
+
+// Resolves @CurrentUser parameters from the user snapshot that JwtValidator put in the security context
+@Component
+public class CurrentUserArgumentResolver implements HandlerMethodArgumentResolver {
+
+	// Service used when a handler asks for fresh data or the token has no user ID
+	private final UserService userService;
+
+	// Constructor to inject the UserService
+	public CurrentUserArgumentResolver(UserService userService) {
+		this.userService = userService;
+	}
+
+	// Supports User parameters annotated with @CurrentUser
+	@Override
+	public boolean supportsParameter(MethodParameter parameter) {
+		return parameter.hasParameterAnnotation(CurrentUser.class) && User.class.equals(parameter.getParameterType());
+	}
+
+	// Returns the token snapshot or fetches the user from the database when needed
+	@Override
+	public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+			NativeWebRequest webRequest, WebDataBinderFactory binderFactory) throws Exception {
+		// Retrieves the authentication set by the JwtValidator
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		if (authentication == null || !(authentication.getPrincipal() instanceof User user)) {
+			throw new BadCredentialsException("Invalid token received");
+		}
+
+		// Tokens issued before the ID claim was added fall back to the lookup by email
+		if (user.getId() == null) {
+			return userService.findUserProfile(webRequest.getHeader("Authorization"));
+		}
+
+		// Fetches the full user only when the handler needs fresh data
+		if (parameter.getParameterAnnotation(CurrentUser.class).fresh()) {
+			return userService.findUserById(user.getId());
+		}
+
+		return user;
+	}
+}
@@ -0,0 +1,359 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.model.Chat;
+import com.fabricio.practice.chat_fusion.model.MemberState;
+import com.fabricio.practice.chat_fusion.model.MessagePreview;
+import com.fabricio.practice.chat_fusion.model.User;
+
+import com.mongodb.DBRef;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+// One-off data migrations, each runs once and is recorded in the "migrations" collection
+// They run in the background once the application is ready and must be safe to run again if interrupted
+@Component
+public class DataMigrations {
+
+	private static final Logger log = LoggerFactory.getLogger(DataMigrations.class);
+
+	// Collection where the applied migrations are recorded
+	private static final String APPLIED = "migrations";
+	// Documents written per bulk request
+	private static final int BATCH_SIZE = 1000;
+
+	// MongoTemplate to reach the collections
+	private final MongoTemplate mongoTemplate;
+	// Whether the pending migrations run when the application starts
+	private final boolean runOnStartup;
+	// Migrations by ID in the order they run, an applied migration is never renamed
+	private final Map<String, Runnable> migrations = new LinkedHashMap<>();
+
+	// Constructor for dependency injection and the registration of the migrations
+	public DataMigrations(MongoTemplate mongoTemplate, @Value("${mongo.migrations.run-on-startup:true}") boolean runOnStartup) {
+		this.mongoTemplate = mongoTemplate;
+		this.runOnStartup = runOnStartup;
+		migrations.put("message-author-snapshots", this::backfillMessageAuthors);
+		migrations.put("chat-member-ids", this::backfillChatMemberIds);
+		migrations.put("chat-pair-keys", this::backfillChatPairKeys);
+		migrations.put("member-unread-counts", this::moveUnreadCountsToMemberStates);
+		migrations.put("user-search-keys", this::backfillUserSearchKeys);
+		migrations.put("member-inbox-entries", this::backfillInboxEntries);
+	}
+
+	// Runs the pending migrations in the background so they never delay the startup
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		if (runOnStartup) {
+			CompletableFuture.runAsync(this::runPending);
+		}
+	}
+
+	// Runs every migration not yet recorded, stopping at the first failure since later ones may depend on it
+	public void runPending() {
+		MongoCollection<Document> applied = mongoTemplate.getCollection(APPLIED);
+		for (Map.Entry<String, Runnable> migration : migrations.entrySet()) {
+			if (applied.find(Filters.eq("_id", migration.getKey())).first() != null) {
+				continue;
+			}
+			try {
+				long start = System.currentTimeMillis();
+				migration.getValue().run();
+				applied.insertOne(new Document("_id", migration.getKey()).append("appliedAt", new Date()));
+				log.info("Migration {} applied in {} ms", migration.getKey(), System.currentTimeMillis() - start);
+			} catch (MongoException e) {
+				log.warn("Migration {} failed, it will be retried on the next startup: {}", migration.getKey(), e.getMessage());
+				return;
+			}
+		}
+	}
+
+	// Replaces the author reference of older messages with the embedded snapshot, in a single pass over those messages
+	private void backfillMessageAuthors() {
+		MongoCollection<Document> messages = mongoTemplate.getCollection("messages");
+		// Snapshots already built, by user ID
+		Map<Object, Document> authors = new HashMap<>();
+		List<WriteModel<Document>> batch = new ArrayList<>(BATCH_SIZE);
+
+		try (MongoCursor<Document> cursor = messages.find(Filters.and(Filters.exists("author", false), Filters.exists("user")))
+				.projection(Projections.include("user")).batchSize(BATCH_SIZE).iterator()) {
+			while (cursor.hasNext()) {
+				Document mssg = cursor.next();
+				Object userId = mssg.get("user", DBRef.class).getId();
+				Document author = authors.computeIfAbsent(userId, this::authorSnapshot);
+
+				batch.add(new UpdateOneModel<>(Filters.eq("_id", mssg.get("_id")),
+						Updates.combine(Updates.set("author", author), Updates.unset("user"))));
+				flushIfFull(messages, batch);
+			}
+		}
+		flush(messages, batch);
+	}
+
+	// Replaces the member references of older chats with the array of member IDs
+	private void backfillChatMemberIds() {
+		MongoCollection<Document> chats = mongoTemplate.getCollection("chats");
+		List<WriteModel<Document>> batch = new ArrayList<>(BATCH_SIZE);
+
+		try (MongoCursor<Document> cursor = chats.find(Filters.and(Filters.exists("memberIds", false), Filters.exists("members")))
+				.projection(Projections.include("members")).batchSize(BATCH_SIZE).iterator()) {
+			while (cursor.hasNext()) {
+				Document chat = cursor.next();
+				List<String> memberIds = new ArrayList<>();
+				for (DBRef member : chat.getList("members", DBRef.class, List.of())) {
+					memberIds.add(member.getId().toString());
+				}
+
+				batch.add(new UpdateOneModel<>(Filters.eq("_id", chat.get("_id")),
+						Updates.combine(Updates.set("memberIds", memberIds), Updates.unset("members"))));
+				flushIfFull(chats, batch);
+			}
+		}
+		flush(chats, batch);
+	}
+
+	// Sets the pair key of the existing one to one chats
+	// When a pair already has several chats only the oldest one gets the key, the others stay reachable from the chat list
+	private void backfillChatPairKeys() {
+		MongoCollection<Document> chats = mongoTemplate.getCollection("chats");
+		// Keys already taken, including those of the chats created since the deployment
+		Set<String> taken = new HashSet<>();
+		for (Document chat : chats.find(Filters.exists("pairKey")).projection(Projections.include("pairKey"))) {
+			taken.add(chat.getString("pairKey"));
+		}
+
+		List<WriteModel<Document>> batch = new ArrayList<>(BATCH_SIZE);
+		int duplicates = 0;
+		try (MongoCursor<Document> cursor = chats.find(Filters.and(Filters.eq("isGroup", false), Filters.exists("pairKey", false)))
+				.projection(Projections.include("memberIds")).sort(Sorts.ascending("_id")).batchSize(BATCH_SIZE).iterator()) {
+			while (cursor.hasNext()) {
+				Document chat = cursor.next();
+				List<String> memberIds = chat.getList("memberIds", String.class, List.of());
+				if (memberIds.isEmpty() || memberIds.size() > 2) {
+					continue;
+				}
+				// A chat with oneself has a single member
+				String pairKey = Chat.pairKeyOf(memberIds.get(0), memberIds.get(memberIds.size() - 1));
+				if (!taken.add(pairKey)) {
+					duplicates++;
+					continue;
+				}
+
+				batch.add(new UpdateOneModel<>(Filters.eq("_id", chat.get("_id")), Updates.set("pairKey", pairKey)));
+				flushIfFull(chats, batch);
+			}
+		}
+		flush(chats, batch);
+
+		if (duplicates > 0) {
+			log.warn("{} duplicate one to one chats were left without a pair key", duplicates);
+		}
+	}
+
+	// Moves the unread counts embedded in the chats to the member states
+	// The counts are added so increments made since the deployment are kept, and each state records that it received its count
+	// A run interrupted before the chats are cleared adds nothing the second time to the states already marked
+	private void moveUnreadCountsToMemberStates() {
+		MongoCollection<Document> chats = mongoTemplate.getCollection("chats");
+		MongoCollection<Document> memberStates = mongoTemplate.getCollection("member_states");
+		List<WriteModel<Document>> counts = new ArrayList<>(BATCH_SIZE);
+		List<WriteModel<Document>> unsets = new ArrayList<>(BATCH_SIZE);
+
+		try (MongoCursor<Document> cursor = chats.find(Filters.exists("unreadCounts"))
+				.projection(Projections.include("unreadCounts")).batchSize(BATCH_SIZE).iterator()) {
+			while (cursor.hasNext()) {
+				Document chat = cursor.next();
+				String chatId = chat.get("_id").toString();
+				for (Map.Entry<String, Object> count : chat.get("unreadCounts", Document.class).entrySet()) {
+					int unread = ((Number) count.getValue()).intValue();
+					if (unread > 0) {
+						counts.add(new UpdateOneModel<>(Filters.eq("_id", MemberState.idOf(chatId, count.getKey())),
+								addUnreadCount(chatId, count.getKey(), unread), new UpdateOptions().upsert(true)));
+					}
+				}
+				unsets.add(new UpdateOneModel<>(Filters.eq("_id", chat.get("_id")), Updates.unset("unreadCounts")));
+
+				// The counters are written before their chats are cleared
+				if (counts.size() >= BATCH_SIZE || unsets.size() == BATCH_SIZE) {
+					flush(memberStates, counts);
+					flush(chats, unsets);
+				}
+			}
+		}
+		flush(memberStates, counts);
+		flush(chats, unsets);
+	}
+
+	// Pipeline update adding the moved count to the state unless it was already added, the marker makes it safe to apply again
+	private static List<Bson> addUnreadCount(String chatId, String userId, int unread) {
+		Document added = new Document("$add", List.of(new Document("$ifNull", List.of("$unreadCount", 0)), unread));
+		return List.of(new Document("$set", new Document("unreadCount", new Document("$cond", List.of("$unreadCountMoved", "$unreadCount", added)))
+				.append("unreadCountMoved", true)
+				.append("chatId", chatId)
+				.append("userId", userId)));
+	}
+
+	// Sets the search keys of the users created before the typeahead search
+	private void backfillUserSearchKeys() {
+		MongoCollection<Document> users = mongoTemplate.getCollection("users");
+		List<WriteModel<Document>> batch = new ArrayList<>(BATCH_SIZE);
+
+		try (MongoCursor<Document> cursor = users.find(Filters.exists("searchKeys", false))
+				.projection(Projections.include("username", "email")).batchSize(BATCH_SIZE).iterator()) {
+			while (cursor.hasNext()) {
+				Document user = cursor.next();
+				List<String> searchKeys = User.searchKeysOf(user.getString("username"), user.getString("email"));
+
+				batch.add(new UpdateOneModel<>(Filters.eq("_id", user.get("_id")), Updates.set("searchKeys", searchKeys)));
+				flushIfFull(users, batch);
+			}
+		}
+		flush(users, batch);
+	}
+
+	// Creates the inbox entries of the members of the existing chats with the latest message of each chat
+	// Entries written since the deployment are overwritten with the same values
+	private void backfillInboxEntries() {
+		MongoCollection<Document> chats = mongoTemplate.getCollection("chats");
+		MongoCollection<Document> messages = mongoTemplate.getCollection("messages");
+		MongoCollection<Document> memberStates = mongoTemplate.getCollection("member_states");
+		// Profiles already read, by user ID
+		Map<String, Document> profiles = new HashMap<>();
+		List<WriteModel<Document>> batch = new ArrayList<>(BATCH_SIZE);
+
+		try (MongoCursor<Document> cursor = chats.find()
+				.projection(Projections.include("isGroup", "chat_name", "chat_image", "memberIds")).batchSize(BATCH_SIZE).iterator()) {
+			while (cursor.hasNext()) {
+				Document chat = cursor.next();
+				String chatId = chat.get("_id").toString();
+				boolean group = chat.getBoolean("isGroup", false);
+				List<String> memberIds = chat.getList("memberIds", String.class, List.of());
+
+				// Latest message through the chat_history index
+				Document latest = messages.find(Filters.eq("chatId", chatId))
+						.sort(Sorts.descending("timestamp", "_id")).limit(1).first();
+
+				for (String memberId : memberIds) {
+					List<Bson> updates = new ArrayList<>();
+					updates.add(Updates.set("group", group));
+					updates.add(Updates.setOnInsert("chatId", chatId));
+					updates.add(Updates.setOnInsert("userId", memberId));
+
+					// Groups show their own details, one to one chats the profile of the other member
+					Object title = chat.get("chat_name");
+					Object image = chat.get("chat_image");
+					if (!group) {
+						String peerId = memberIds.stream().filter(id -> !id.equals(memberId)).findFirst().orElse(memberId);
+						Document peer = profiles.computeIfAbsent(peerId, this::profile);
+						title = peer.get("username");
+						image = peer.get("pfp");
+						updates.add(Updates.set("peerId", peerId));
+					}
+					if (title != null) {
+						updates.add(Updates.set("title", title));
+					}
+					if (image != null) {
+						updates.add(Updates.set("image", image));
+					}
+
+					if (latest != null) {
+						updates.add(Updates.set("lastMessage", preview(latest)));
+						updates.add(Updates.set("lastActivityAt", latest.get("timestamp")));
+					} else {
+						updates.add(Updates.set("lastActivityAt", new Date()));
+					}
+
+					batch.add(new UpdateOneModel<>(Filters.eq("_id", MemberState.idOf(chatId, memberId)), Updates.combine(updates),
+							new UpdateOptions().upsert(true)));
+					flushIfFull(memberStates, batch);
+				}
+			}
+		}
+		flush(memberStates, batch);
+	}
+
+	// Builds the inbox preview of a message the way the mapping of MessagePreview stores it
+	private Document preview(Document mssg) {
+		Document preview = new Document("messageId", mssg.get("_id").toString());
+		Document author = mssg.get("author", Document.class);
+		if (author != null && author.get("username") != null) {
+			preview.append("authorName", author.get("username"));
+		}
+		if (mssg.get("type") != null) {
+			preview.append("type", mssg.get("type"));
+		}
+		String content = mssg.getString("content");
+		if ("text".equals(mssg.get("type")) && content != null) {
+			preview.append("content", content.length() > MessagePreview.MAX_CONTENT ? content.substring(0, MessagePreview.MAX_CONTENT) : content);
+		}
+		return preview.append("timestamp", mssg.get("timestamp"));
+	}
+
+	// Reads the public profile of an user, an empty document when the user no longer exists
+	private Document profile(String userId) {
+		Object id = ObjectId.isValid(userId) ? new ObjectId(userId) : userId;
+		Document user = mongoTemplate.getCollection("users").find(Filters.eq("_id", id))
+				.projection(Projections.include("username", "pfp")).first();
+		return user != null ? user : new Document();
+	}
+
+	// Builds the author snapshot the way the mapping of MessageAuthor stores it, deleted users keep only their ID
+	private Document authorSnapshot(Object userId) {
+		Document author = new Document("_id", userId);
+		Document user = mongoTemplate.getCollection("users").find(Filters.eq("_id", userId))
+				.projection(Projections.include("username", "pfp")).first();
+		if (user != null) {
+			if (user.get("username") != null) {
+				author.append("username", user.get("username"));
+			}
+			if (user.get("pfp") != null) {
+				author.append("pfp", user.get("pfp"));
+			}
+		}
+		return author;
+	}
+
+	// Writes the batch once it reaches the batch size
+	private void flushIfFull(MongoCollection<Document> collection, List<WriteModel<Document>> batch) {
+		if (batch.size() == BATCH_SIZE) {
+			flush(collection, batch);
+		}
+	}
+
+	// Writes the pending updates in one unordered bulk request
+	private void flush(MongoCollection<Document> collection, List<WriteModel<Document>> batch) {
+		if (!batch.isEmpty()) {
+			collection.bulkWrite(batch, new BulkWriteOptions().ordered(false));
+			batch.clear();
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+// Configuration class for the executor that writes the streamed responses, the chat exports
+// An export holds one of these threads instead of a servlet thread for as long as the client keeps reading
+@Configuration
+public class ExportExecutorConfig {
+
+	// Bean definition for the bounded export executor, used by the export route for its async task
+	// Exports beyond the queue capacity are rejected right away instead of piling up
+	@Bean(name = "exportExecutor")
+	public AsyncTaskExecutor exportExecutor(MeterRegistry meterRegistry,
+			@Value("${messages.export.threads:4}") int threads,
+			@Value("${messages.export.queue-capacity:20}") int queueCapacity) {
+		// Counts the exports rejected because the executor was saturated
+		Counter rejected = Counter.builder("export.executor.rejected")
+				.description("Chat exports rejected because the export executor queue was full")
+				.register(meterRegistry);
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity),
+				new CustomizableThreadFactory("export-"),
+				(task, pool) -> {
+					rejected.increment();
+					throw new RejectedExecutionException("Export executor is saturated");
+				});
+
+		// Exposes pool size, active threads, queued and completed tasks under the "export" name
+		new ExecutorServiceMetrics(executor, "export", Collections.emptyList()).bindTo(meterRegistry);
+		return new TaskExecutorAdapter(executor);
+	}
+}
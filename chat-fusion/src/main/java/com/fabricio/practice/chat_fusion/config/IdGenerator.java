@@ -0,0 +1,10 @@
+package com.fabricio.practice.chat_fusion.config;
+
+// Generates the IDs assigned to new chats and messages
+// The strategy is selected with the "ids.strategy" property, see IdGeneratorConfig
+@FunctionalInterface
+public interface IdGenerator {
+
+	// Returns a new unique ID
+	public String nextId();
+}
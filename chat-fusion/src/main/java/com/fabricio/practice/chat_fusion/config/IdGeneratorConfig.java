@@ -0,0 +1,39 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Configuration class for the ID generator of new chats and messages
+@Configuration
+public class IdGeneratorConfig {
+
+	// Source of randomness for UUIDv7
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	// Bean definition for the ID generator
+	// objectid: 24 hex chars that Spring Data stores as a 12 byte ObjectId, time ordered (default)
+	// uuidv7: time ordered UUID string, for deployments that need UUIDs
+	// uuid: random UUID string, the previous behavior
+	@Bean
+	public IdGenerator idGenerator(@Value("${ids.strategy:objectid}") String strategy) {
+		return switch (strategy) {
+			case "objectid" -> () -> new ObjectId().toHexString();
+			case "uuidv7" -> () -> uuidV7().toString();
+			case "uuid" -> () -> UUID.randomUUID().toString();
+			default -> throw new IllegalArgumentException("Unknown ids.strategy: " + strategy);
+		};
+	}
+
+	// Builds a UUID version 7, the first 48 bits are the Unix time in milliseconds and the rest is random
+	static UUID uuidV7() {
+		long millis = System.currentTimeMillis();
+		long msb = (millis << 16) | 0x7000L | (RANDOM.nextInt() & 0x0FFFL);
+		long lsb = (RANDOM.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+		return new UUID(msb, lsb);
+	}
+}
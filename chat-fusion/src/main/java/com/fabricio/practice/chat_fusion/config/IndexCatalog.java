@@ -0,0 +1,202 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+
+// Single place where every index needed by the repository queries is declared
+// The indexes are created (or verified) in the background once the application is ready
+@Component
+public class IndexCatalog {
+
+	private static final Logger log = LoggerFactory.getLogger(IndexCatalog.class);
+
+	// Declared index, identified by its key pattern
+	// A partial filter limits the index to the documents that match it, null indexes every document
+	// A TTL removes the documents that many seconds after the date in the indexed field, null keeps them
+	public record IndexDefinition(String collection, String name, Document keys, boolean unique, Document partialFilter, Long expireAfterSeconds) {
+
+		public IndexDefinition(String collection, String name, Document keys, boolean unique) {
+			this(collection, name, keys, unique, null, null);
+		}
+
+		public IndexDefinition(String collection, String name, Document keys, boolean unique, Document partialFilter) {
+			this(collection, name, keys, unique, partialFilter, null);
+		}
+	}
+
+	// Every index the queries rely on, add the index here when adding a query
+	public static final List<IndexDefinition> INDEXES = List.of(
+			// UserRepository.findByEmail, also guarantees one account per email
+			new IndexDefinition("users", "email", new Document("email", 1), true),
+			// UserSearchIndex.search, prefix ranges on the normalized username, its words and the email
+			new IndexDefinition("users", "search_keys", new Document("searchKeys", 1), false),
+			// ChatRepository.findChatByUserId and the presence contacts lookup, multikey on the member IDs
+			new IndexDefinition("chats", "member_ids", new Document("memberIds", 1), false),
+			// ChatRepository.findByPairKey and insertDirectChatIfAbsent, one direct chat per pair of users, groups have no key
+			new IndexDefinition("chats", "pair_key", new Document("pairKey", 1), true,
+					new Document("pairKey", new Document("$exists", true))),
+			// MessageRepository.findHistory and findLatest, newest first with the ID as tiebreaker
+			new IndexDefinition("messages", "chat_history", new Document("chatId", 1).append("timestamp", -1).append("_id", -1), false),
+			// MessageRepository.search, the text of a chat, only text messages are indexed since media messages hold a file URL
+			new IndexDefinition("messages", "content_text", new Document("chatId", 1).append("content", "text"), false,
+					new Document("type", "text")),
+			// MessageArchive.findHistory and findLatest, segments of a chat with the newest first
+			new IndexDefinition("messages_archive", "chat_segments", new Document("chatId", 1).append("to", -1), false),
+			// MessageRepository.updateAuthor and the author backfill, messages of an author
+			new IndexDefinition("messages", "author", new Document("author._id", 1), false),
+			// MessageBucketStore.findHistory and findLatest, the open bucket of a chat and MessageArchive.archiveChat, buckets of a chat with the newest first
+			new IndexDefinition("message_buckets", "chat_history", new Document("chatId", 1).append("end", -1), false),
+			// MessageBucketStore.findById, save and deleteById, the bucket holding a message, multikey on the message IDs
+			new IndexDefinition("message_buckets", "message_ids", new Document("messages._id", 1), false),
+			// MessageBucketStore.updateAuthor, buckets holding messages of an author
+			new IndexDefinition("message_buckets", "author", new Document("messages.author._id", 1), false),
+			// MessageBucketStore.search, buckets of a chat matching the search text
+			new IndexDefinition("message_buckets", "content_text", new Document("chatId", 1).append("messages.content", "text"), false),
+			// MemberStateRepository.findByChatId, read watermarks of the members of a chat
+			new IndexDefinition("member_states", "chat", new Document("chatId", 1), false),
+			// MemberStateRepository.findByUserIdAndUnreadCountGreaterThan, unread counters of a user across their chats
+			new IndexDefinition("member_states", "user_unread", new Document("userId", 1).append("unreadCount", 1), false),
+			// InboxProjection.findInbox, inbox of a user with the latest activity first
+			new IndexDefinition("member_states", "inbox", new Document("userId", 1).append("lastActivityAt", -1).append("_id", -1), false),
+			// InboxProjection.profileUpdated, one to one entries titled with a user's profile, group entries have no peer
+			new IndexDefinition("member_states", "peer", new Document("peerId", 1), false,
+					new Document("peerId", new Document("$exists", true))),
+			// ChangeFeed.findChanges and findLatestToken, events of the chats of a user in log order
+			new IndexDefinition("change_events", "chat", new Document("chatId", 1).append("position", 1), false),
+			// ChangeFeed.findChanges and findLatestToken, events addressed to a user in log order, chat events have no recipients
+			new IndexDefinition("change_events", "recipients", new Document("userIds", 1).append("position", 1), false,
+					new Document("userIds", new Document("$exists", true))),
+			// Retention of the change feed, each event carries the date at which it is removed
+			new IndexDefinition("change_events", "expires_at", new Document("expiresAt", 1), false, null, 0L));
+
+	// MongoTemplate to reach the collections
+	private final MongoTemplate mongoTemplate;
+	// Whether the indexes are created when the application starts
+	private final boolean ensureOnStartup;
+
+	// Constructor for dependency injection
+	public IndexCatalog(MongoTemplate mongoTemplate, @Value("${mongo.indexes.ensure-on-startup:true}") boolean ensureOnStartup) {
+		this.mongoTemplate = mongoTemplate;
+		this.ensureOnStartup = ensureOnStartup;
+	}
+
+	// Creates the indexes in the background so a slow build never delays the startup
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		if (ensureOnStartup) {
+			CompletableFuture.runAsync(this::ensureIndexes);
+		}
+	}
+
+	// Creates every declared index, existing indexes with the same keys and options are left as they are
+	// An existing index with the name of a declared one but other keys is dropped first, so a changed declaration is rebuilt
+	public void ensureIndexes() {
+		for (IndexDefinition index : INDEXES) {
+			try {
+				MongoCollection<Document> collection = mongoTemplate.getCollection(index.collection());
+				for (Document existing : collection.listIndexes()) {
+					if (index.name().equals(existing.getString("name")) && !index.keys().equals(declaredKeys(existing))) {
+						log.info("Index {}.{} changed from {}, rebuilding it", index.collection(), index.name(), declaredKeys(existing).toJson());
+						collection.dropIndex(index.name());
+					}
+				}
+				IndexOptions options = new IndexOptions().name(index.name()).unique(index.unique()).background(true);
+				if (index.partialFilter() != null) {
+					options.partialFilterExpression(index.partialFilter());
+				}
+				if (index.expireAfterSeconds() != null) {
+					options.expireAfter(index.expireAfterSeconds(), TimeUnit.SECONDS);
+				}
+				collection.createIndex(index.keys(), options);
+				log.info("Index {}.{} verified", index.collection(), index.name());
+			} catch (MongoException e) {
+				// An index with the same keys but a different name or options makes the creation fail, it is reported instead
+				log.warn("Could not create index {}.{} {}: {}", index.collection(), index.name(), index.keys().toJson(), e.getMessage());
+			}
+		}
+	}
+
+	// Compares the declared indexes with the ones in the database
+	// missing: declared but not found, unused: no accesses since the server started, undeclared: found but not in the catalog
+	public Map<String, Object> report() {
+		Map<String, Object> report = new LinkedHashMap<>();
+		for (String collectionName : INDEXES.stream().map(IndexDefinition::collection).distinct().toList()) {
+			MongoCollection<Document> collection = mongoTemplate.getCollection(collectionName);
+			List<IndexDefinition> declared = INDEXES.stream().filter(index -> index.collection().equals(collectionName)).toList();
+
+			// Existing indexes by name with their key pattern
+			Map<String, Document> existing = new LinkedHashMap<>();
+			for (Document index : collection.listIndexes()) {
+				existing.put(index.getString("name"), declaredKeys(index));
+			}
+
+			// Accesses per index since the server started
+			Map<String, Long> usage = new LinkedHashMap<>();
+			for (Document stats : collection.aggregate(List.of(new Document("$indexStats", new Document())))) {
+				Number ops = stats.get("accesses", Document.class).get("ops", Number.class);
+				usage.put(stats.getString("name"), ops.longValue());
+			}
+
+			List<String> missing = new ArrayList<>();
+			for (IndexDefinition index : declared) {
+				if (!existing.containsValue(index.keys())) {
+					missing.add(index.name());
+				}
+			}
+			List<String> undeclared = existing.entrySet().stream()
+					.filter(entry -> !entry.getKey().equals("_id_"))
+					.filter(entry -> declared.stream().noneMatch(index -> index.keys().equals(entry.getValue())))
+					.map(Map.Entry::getKey)
+					.toList();
+			List<String> unused = usage.entrySet().stream()
+					.filter(entry -> !entry.getKey().equals("_id_") && entry.getValue() == 0)
+					.map(Map.Entry::getKey)
+					.toList();
+
+			Map<String, Object> collectionReport = new LinkedHashMap<>();
+			collectionReport.put("missing", missing);
+			collectionReport.put("unused", unused);
+			collectionReport.put("undeclared", undeclared);
+			collectionReport.put("usage", usage);
+			report.put(collectionName, collectionReport);
+		}
+		return report;
+	}
+
+	// Key pattern of an existing index as it is declared, text indexes are listed with internal keys and their fields as weights
+	// The regular keys of a compound text index keep their place around the text fields
+	private static Document declaredKeys(Document index) {
+		Document keys = index.get("key", Document.class);
+		if (!keys.containsKey("_fts")) {
+			return keys;
+		}
+		Document textKeys = new Document();
+		for (Map.Entry<String, Object> key : keys.entrySet()) {
+			if (key.getKey().equals("_fts")) {
+				for (String field : index.get("weights", Document.class).keySet()) {
+					textKeys.append(field, "text");
+				}
+			} else if (!key.getKey().equals("_ftsx")) {
+				textKeys.append(key.getKey(), key.getValue());
+			}
+		}
+		return textKeys;
+	}
+}
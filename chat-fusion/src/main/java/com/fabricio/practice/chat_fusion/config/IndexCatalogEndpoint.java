@@ -0,0 +1,27 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+// Actuator endpoint (/actuator/indexes) reporting missing, unused and undeclared indexes
+@Component
+@Endpoint(id = "indexes")
+public class IndexCatalogEndpoint {
+
+	// Catalog with the declared indexes
+	private final IndexCatalog indexCatalog;
+
+	// Constructor to inject the catalog
+	public IndexCatalogEndpoint(IndexCatalog indexCatalog) {
+		this.indexCatalog = indexCatalog;
+	}
+
+	// Returns the report for each collection of the catalog
+	@ReadOperation
+	public Map<String, Object> indexes() {
+		return indexCatalog.report();
+	}
+}
@@ -5,9 +5,10 @@ import java.util.Date;
 import javax.crypto.SecretKey;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
 
+import com.fabricio.practice.chat_fusion.model.User;
+
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 
@@ -19,9 +20,13 @@ public class JwtProvider {
 	@Autowired
 	private JwtSecretProvider secretProvider;
 	
+	// Injects the shared verifier used to read tokens
+	@Autowired
+	private JwtTokenVerifier tokenVerifier;
+	
 	
-	// Method to create a JWT
-	public String generateJwt(Authentication authentication) {
+	// Method to create a JWT carrying the user's ID and a small profile snapshot
+	public String generateJwt(User user) {
 		
 		// Retrieves the secret key dynamically from JwtSecretProvider
         SecretKey key = secretProvider.getSecretKey();
@@ -33,7 +38,11 @@ public class JwtProvider {
 				// Sets the expiration day to 1 day (24hrs)
 				.setExpiration(new Date(new Date().getTime() +86400000 ))
 				// Stores the user's email as a claim
-				.claim("email", authentication.getName())
+				.claim("email", user.getEmail())
+				// Stores the user's ID and profile snapshot so requests can be resolved without a database lookup
+				.claim("id", user.getId())
+				.claim("username", user.getUsername())
+				.claim("pfp", user.getPfp())
 				// Signs the token with the secret key
 				.signWith(key)
 				// Builds and serializes the token into a compact string
@@ -45,14 +54,11 @@ public class JwtProvider {
 	// Method to get the email from the JWT
 	public String getEmailFromJwt(String jwt) {
 		
-		// Retrieves the secret key dynamically from JwtSecretProvider
-        SecretKey key = secretProvider.getSecretKey();
-		
 		// Removes the "Bearer" prefix from the JWT
 		jwt=jwt.substring(7);
 		
-		// Parses the JWT, validates it, and extracts the claims (key-value pairs inside the JWT)
-		Claims claim = Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(jwt).getBody();
+		// Validates the JWT and extracts the claims, the filter already verified this token so it is usually a cache hit
+		Claims claim = tokenVerifier.verify(jwt);
 		
 		// Extracts the email from the claims
 		String email = String.valueOf(claim.get("email"));
@@ -11,12 +11,16 @@ import io.jsonwebtoken.security.Keys;
 @Component
 public class JwtSecretProvider {
 
-	// Fetches the secret key from the application properties
-    @Value("${jwt.secret}")
-    private String secretKey;
+	// Secret key derived once from the application properties
+    private final SecretKey secretKey;
 
-    // Converts the raw secret key string into a SecretKey object for cryptographic operations
+    // Fetches the secret key from the application properties and converts it into a SecretKey object for cryptographic operations
+    public JwtSecretProvider(@Value("${jwt.secret}") String secretKey) {
+        this.secretKey = Keys.hmacShaKeyFor(secretKey.getBytes());
+    }
+
+    // Returns the cached SecretKey instead of re-deriving it on every call
     public SecretKey getSecretKey() {
-        return Keys.hmacShaKeyFor(secretKey.getBytes());
+        return secretKey;
     }
 }
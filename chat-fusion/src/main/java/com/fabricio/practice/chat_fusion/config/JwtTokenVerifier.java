@@ -0,0 +1,110 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.model.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+// Component shared by the HTTP filter, the controllers and the WebSocket layer to verify JWTs
+// Keeps a single immutable parser and caches the verified claims until the token expires
+@Component
+public class JwtTokenVerifier {
+
+	// Parser built once with the signing key, it is immutable and thread safe
+	private final JwtParser parser;
+	// Bounded cache of verified claims keyed by the SHA-256 digest of the token
+	private final Cache<String, Claims> verifiedTokens;
+	// Upper bound for how long a token can stay cached, also used for tokens without expiration
+	private final Duration maxTtl;
+
+	// Constructor to build the parser and the cache and to register the cache metrics
+	public JwtTokenVerifier(JwtSecretProvider secretProvider, MeterRegistry meterRegistry,
+			@Value("${jwt.cache.max-size:10000}") long maxSize,
+			@Value("${jwt.cache.max-ttl:PT24H}") Duration maxTtl) {
+		this.parser = Jwts.parserBuilder().setSigningKey(secretProvider.getSecretKey()).build();
+		this.maxTtl = maxTtl;
+		this.verifiedTokens = Caffeine.newBuilder()
+				.maximumSize(maxSize)
+				// Each entry lives until its token expires so a cache hit never returns expired claims
+				.expireAfter(new TokenExpiry())
+				.recordStats()
+				.build();
+		// Exposes hit, miss and eviction counters under the "jwt.verified" cache name
+		CaffeineCacheMetrics.monitor(meterRegistry, verifiedTokens, "jwt.verified");
+	}
+
+	// Returns the verified claims of a token (without the "Bearer " prefix)
+	// Throws a JwtException if the token is malformed, expired or its signature is invalid
+	public Claims verify(String jwt) {
+		String digest = digest(jwt);
+		Claims claims = verifiedTokens.getIfPresent(digest);
+		if (claims != null) {
+			return claims;
+		}
+		// Full signature verification only happens on a cache miss
+		claims = parser.parseClaimsJws(jwt).getBody();
+		verifiedTokens.put(digest, claims);
+		return claims;
+	}
+
+	// Builds the profile snapshot carried in the claims, the ID is null for tokens issued before it was included
+	public User toUser(Claims claims) {
+		User user = new User();
+		user.setId(claims.get("id", String.class));
+		user.setEmail(claims.get("email", String.class));
+		user.setUsername(claims.get("username", String.class));
+		user.setPfp(claims.get("pfp", String.class));
+		return user;
+	}
+
+	// Hashes the token so raw credentials are never kept as cache keys
+	private static String digest(String jwt) {
+		try {
+			MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+			return Base64.getEncoder().encodeToString(sha256.digest(jwt.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is mandatory on every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// Expiry policy that evicts each cached entry when its token expires
+	private class TokenExpiry implements Expiry<String, Claims> {
+
+		@Override
+		public long expireAfterCreate(String key, Claims claims, long currentTime) {
+			Date expiration = claims.getExpiration();
+			if (expiration == null) {
+				return maxTtl.toNanos();
+			}
+			long remaining = expiration.getTime() - System.currentTimeMillis();
+			return Duration.ofMillis(Math.max(0, Math.min(remaining, maxTtl.toMillis()))).toNanos();
+		}
+
+		@Override
+		public long expireAfterUpdate(String key, Claims claims, long currentTime, long currentDuration) {
+			return expireAfterCreate(key, claims, currentTime);
+		}
+
+		@Override
+		public long expireAfterRead(String key, Claims claims, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+}
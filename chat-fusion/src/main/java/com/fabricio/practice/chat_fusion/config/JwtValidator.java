@@ -3,8 +3,6 @@ package com.fabricio.practice.chat_fusion.config;
 import java.io.IOException;
 import java.util.List;
 
-import javax.crypto.SecretKey;
-
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -13,8 +11,9 @@ import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.filter.OncePerRequestFilter;
 
+import com.fabricio.practice.chat_fusion.model.User;
+
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jwts;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -23,14 +22,12 @@ import jakarta.servlet.http.HttpServletResponse;
 // Class to validate the JWT for every incoming request
 public class JwtValidator extends OncePerRequestFilter {
 	
-//	// Injects the JwtSecretProvider to retrieve the secret key for token validation
-//	@Autowired
-//	private JwtSecretProvider secretProvider;
-	private final JwtSecretProvider secretProvider;
+	// Shared verifier that keeps the parser and the cache of verified tokens
+	private final JwtTokenVerifier tokenVerifier;
 
-    // Constructor to inject JwtSecretProvider
-    public JwtValidator(JwtSecretProvider secretProvider) {
-        this.secretProvider = secretProvider;
+    // Constructor to inject JwtTokenVerifier
+    public JwtValidator(JwtTokenVerifier tokenVerifier) {
+        this.tokenVerifier = tokenVerifier;
     }
 
 	// Method to process the JWT validation for incoming requests	
@@ -56,21 +53,19 @@ public class JwtValidator extends OncePerRequestFilter {
 				// Removes the "Bearer" prefix from the JWT
 				jwt= jwt.substring(7);
 				
-				// Fetches the secret key from JwtSecretProvide
-				SecretKey key = secretProvider.getSecretKey();
-				// Parses the JWT, validates it, and extracts the claims (key-value pairs inside the JWT)
-				Claims claim = Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(jwt).getBody();
+				// Validates the JWT and extracts the claims (key-value pairs inside the JWT), reusing previously verified claims when cached
+				Claims claim = tokenVerifier.verify(jwt);
 				
-				// Extracts the email from the claims
-				String email = String.valueOf(claim.get("email"));
+				// Builds the user snapshot (ID, email, username and profile picture) from the claims
+				User user = tokenVerifier.toUser(claim);
 				// Extracts the authorities (roles/permissions) from the claims
 				String authorities = String.valueOf(claim.get("authorities"));
 				
 				// Converts the comma separated string of authorities into a list of GrantedAuthority objects, which are needed to represent roles or privileges in Spring Security 
 				List<GrantedAuthority> auths = AuthorityUtils.commaSeparatedStringToAuthorityList(authorities);
 				
-				// Creates a new Authentication object with the email and authorities
-				Authentication authentication = new UsernamePasswordAuthenticationToken(email,null, auths); 
+				// Creates a new Authentication object with the user snapshot as principal so controllers can resolve it with @CurrentUser
+				Authentication authentication = new UsernamePasswordAuthenticationToken(user, null, auths); 
 				
 				// Sets the Authentication object into the security context, making it available globally
 				SecurityContextHolder.getContext().setAuthentication(authentication);
@@ -0,0 +1,47 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+// Configuration class for the executor that runs password hashing for login and signup
+// Keeps BCrypt work off the servlet threads so login bursts can't starve the rest of the API
+@Configuration
+public class LoginExecutorConfig {
+
+	// Bean definition for the bounded login executor
+	// Requests beyond the queue capacity are rejected right away instead of piling up
+	@Bean(name = "loginExecutor")
+	public ExecutorService loginExecutor(MeterRegistry meterRegistry,
+			@Value("${auth.login.threads:4}") int threads,
+			@Value("${auth.login.queue-capacity:200}") int queueCapacity) {
+		// Counts the logins rejected because the executor was saturated
+		Counter rejected = Counter.builder("login.executor.rejected")
+				.description("Login and signup requests rejected because the login executor queue was full")
+				.register(meterRegistry);
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity),
+				new CustomizableThreadFactory("login-"),
+				(task, pool) -> {
+					rejected.increment();
+					throw new RejectedExecutionException("Login executor is saturated");
+				});
+
+		// Exposes pool size, active threads, queued and completed tasks under the "login" name
+		new ExecutorServiceMetrics(executor, "login", Collections.emptyList()).bindTo(meterRegistry);
+		return executor;
+	}
+}
@@ -0,0 +1,29 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.service.MessageArchiver;
+
+// Actuator endpoint (/actuator/archive) reporting the progress of the message archival
+@Component
+@Endpoint(id = "archive")
+public class MessageArchiveEndpoint {
+
+	// Job moving the old messages to the archive
+	private final MessageArchiver messageArchiver;
+
+	// Constructor to inject the archiver
+	public MessageArchiveEndpoint(MessageArchiver messageArchiver) {
+		this.messageArchiver = messageArchiver;
+	}
+
+	// Returns the progress of the current or last run
+	@ReadOperation
+	public Map<String, Object> archive() {
+		return messageArchiver.progress();
+	}
+}
@@ -1,5 +1,6 @@
 package com.fabricio.practice.chat_fusion.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -11,6 +12,7 @@ import org.springframework.security.web.authentication.www.BasicAuthenticationFi
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.http.HttpServletRequest;
 
 import java.util.Arrays;
@@ -21,11 +23,11 @@ import java.util.Collections;
 public class SecurityConfig {
 	
 	
-	private final JwtSecretProvider secretProvider;
+	private final JwtTokenVerifier tokenVerifier;
 
-    // Injects JwtSecretProvider via constructor
-    public SecurityConfig(JwtSecretProvider secretProvider) {
-        this.secretProvider = secretProvider;
+    // Injects JwtTokenVerifier via constructor
+    public SecurityConfig(JwtTokenVerifier tokenVerifier) {
+        this.tokenVerifier = tokenVerifier;
     }
 	
 
@@ -41,13 +43,19 @@ public class SecurityConfig {
             ) 
             .authorizeHttpRequests(authz ->
                 authz
+                // Allows the async dispatch that completes a streamed response, the request was authorized when it came in
+                    .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                 // Requires authentication for all requests that match  "/api/**"
                     .requestMatchers("/api/**").authenticated() 
+                // Leaves the health check open for the load balancer and the deployment probes
+                    .requestMatchers("/actuator/health", "/actuator/health/**").permitAll()
+                // Requires authentication for the other actuator endpoints, the index and archive reports expose the database layout and errors
+                    .requestMatchers("/actuator/**").authenticated()
                 // Allows all other requests without requiring authentication
                     .anyRequest().permitAll()
             )
             // Adds custom JWT filter before the BasicAuthenticationFilter
-            .addFilterBefore(new JwtValidator(secretProvider), BasicAuthenticationFilter.class)
+            .addFilterBefore(new JwtValidator(tokenVerifier), BasicAuthenticationFilter.class)
             // Disables Cross-Site Request Forgery (CSRF) protection
             // CSRF is not needed when using JWT as authentication is handled via headers and not cookies
             .csrf(csrf -> csrf.disable())
@@ -83,9 +91,16 @@ public class SecurityConfig {
     }
 
     // Use BCryptPasswordEncoder for password hashing
+    // The cost is calibrated at startup to the target hash time unless a fixed strength is configured
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${security.password.bcrypt.strength:0}") int strength,
+    		@Value("${security.password.bcrypt.target-ms:250}") long targetMillis,
+    		@Value("${security.password.bcrypt.min-strength:10}") int minStrength,
+    		@Value("${security.password.bcrypt.max-strength:14}") int maxStrength) {
+    	if (strength <= 0) {
+    		strength = BcryptStrengthCalibrator.calibrate(targetMillis, minStrength, maxStrength);
+    	}
+        return new BCryptPasswordEncoder(strength);
     }
 }
 
@@ -0,0 +1,85 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.model.User;
+import com.fabricio.practice.chat_fusion.service.UserService;
+
+import io.jsonwebtoken.Claims;
+
+// Channel interceptor that authenticates STOMP sessions on the CONNECT frame
+// The principal name is the user ID, so convertAndSendToUser(userId, ...) reaches every session of that user
+@Component
+public class StompAuthChannelInterceptor implements ChannelInterceptor {
+
+	// Session attribute holding the user snapshot for the rest of the connection
+	public static final String USER_ATTRIBUTE = "user";
+
+	// Shared verifier that keeps the parser and the cache of verified tokens
+	private final JwtTokenVerifier tokenVerifier;
+	// Service used when the token has no user ID
+	private final UserService userService;
+
+	// Constructor to inject the dependencies
+	public StompAuthChannelInterceptor(JwtTokenVerifier tokenVerifier, UserService userService) {
+		this.tokenVerifier = tokenVerifier;
+		this.userService = userService;
+	}
+
+	// Validates the JWT on CONNECT and binds the principal to the session
+	@Override
+	public Message<?> preSend(Message<?> message, MessageChannel channel) {
+		StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+
+		// Only the CONNECT frame carries the token, later frames inherit the session principal
+		if (accessor == null || !StompCommand.CONNECT.equals(accessor.getCommand())) {
+			return message;
+		}
+
+		// Retrieves the JWT from the CONNECT frame's native headers
+		String jwt = accessor.getFirstNativeHeader("Authorization");
+		if (jwt == null || !jwt.startsWith("Bearer ")) {
+			throw new MessageDeliveryException("Missing token on CONNECT");
+		}
+
+		User user;
+		List<GrantedAuthority> auths;
+		try {
+			// Validates the JWT, reusing previously verified claims when cached
+			Claims claims = tokenVerifier.verify(jwt.substring(7));
+			user = tokenVerifier.toUser(claims);
+			auths = AuthorityUtils.commaSeparatedStringToAuthorityList(String.valueOf(claims.get("authorities")));
+
+			// Tokens issued before the ID claim was added fall back to the lookup by email
+			if (user.getId() == null) {
+				user = userService.findUserProfile(jwt);
+			}
+		} catch (Exception e) {
+			// Handles exceptions such as invalid tokens, the client receives an ERROR frame
+			throw new MessageDeliveryException("Invalid token received");
+		}
+
+		// Keeps the user snapshot in the session attributes for the rest of the connection
+		Map<String, Object> attributes = accessor.getSessionAttributes();
+		if (attributes != null) {
+			attributes.put(USER_ATTRIBUTE, user);
+		}
+
+		// Binds the principal to the session using the user ID as its name
+		accessor.setUser(new UsernamePasswordAuthenticationToken(user.getId(), null, auths));
+		return message;
+	}
+}
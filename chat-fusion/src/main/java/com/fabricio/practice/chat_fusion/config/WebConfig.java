@@ -0,0 +1,26 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import java.util.List;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// Configuration class for Spring MVC
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+	// Resolver for @CurrentUser controller parameters
+	private final CurrentUserArgumentResolver currentUserArgumentResolver;
+
+	// Constructor to inject the argument resolver
+	public WebConfig(CurrentUserArgumentResolver currentUserArgumentResolver) {
+		this.currentUserArgumentResolver = currentUserArgumentResolver;
+	}
+
+	// Registers the custom argument resolvers
+	@Override
+	public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+		resolvers.add(currentUserArgumentResolver);
+	}
+}
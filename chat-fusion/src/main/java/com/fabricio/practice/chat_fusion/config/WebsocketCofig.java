@@ -1,6 +1,7 @@
 package com.fabricio.practice.chat_fusion.config;
 
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
@@ -12,6 +13,14 @@ import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerCo
 @EnableWebSocketMessageBroker
 public class WebsocketCofig implements WebSocketMessageBrokerConfigurer {
 	
+	// Interceptor that authenticates the session on the STOMP CONNECT frame
+	private final StompAuthChannelInterceptor stompAuthChannelInterceptor;
+	
+	// Constructor to inject the interceptor
+	public WebsocketCofig(StompAuthChannelInterceptor stompAuthChannelInterceptor) {
+		this.stompAuthChannelInterceptor = stompAuthChannelInterceptor;
+	}
+	
 	// Registers WebSocket connection points for clients
 	@Override
 	public void registerStompEndpoints(StompEndpointRegistry registry) {
@@ -25,7 +34,15 @@ public class WebsocketCofig implements WebSocketMessageBrokerConfigurer {
 		// Prefix for client-to-server messages
 		registry.setApplicationDestinationPrefixes("/app");
 		// Enable in-memory message broker for chat destinations
-	    registry.enableSimpleBroker("/chat", "/topic");
+	    registry.enableSimpleBroker("/chat", "/topic", "/queue");
+	    // Prefix for per-user destinations, resolved against the session principal
+	    registry.setUserDestinationPrefix("/user");
+	}
+	
+	// Registers the authentication interceptor for frames sent by clients
+	@Override
+	public void configureClientInboundChannel(ChannelRegistration registration) {
+		registration.interceptors(stompAuthChannelInterceptor);
 	}
 	
 }
@@ -13,20 +13,22 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
-import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.fabricio.practice.chat_fusion.config.CurrentUser;
 import com.fabricio.practice.chat_fusion.exception.ChatException;
 import com.fabricio.practice.chat_fusion.exception.UserException;
 import com.fabricio.practice.chat_fusion.model.Chat;
 import com.fabricio.practice.chat_fusion.model.User;
+import com.fabricio.practice.chat_fusion.request.BulkMembersRequest;
 import com.fabricio.practice.chat_fusion.request.GroupChatRequest;
 import com.fabricio.practice.chat_fusion.request.SingleChatRequest;
 import com.fabricio.practice.chat_fusion.request.UpdateRequest;
 import com.fabricio.practice.chat_fusion.response.ApiResponse;
+import com.fabricio.practice.chat_fusion.response.InboxResponse;
 import com.fabricio.practice.chat_fusion.service.ChatService;
-import com.fabricio.practice.chat_fusion.service.UserService;
 
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkClientException;
@@ -40,20 +42,15 @@ public class ChatController {
 	
 	// Service to handle chat-related business logic
 	private ChatService chatService;
-	// Service to handle user-related business logic
-	private UserService userService;
 	
 	// Constructor to initialize the dependencies through dependency injection
-	public ChatController (ChatService chatService, UserService userService) {
+	public ChatController (ChatService chatService) {
 		this.chatService = chatService;
-		this.userService = userService;
 	}
 	
 	// Route to create a one to one chat
 	@PostMapping("/single")
-	public ResponseEntity<Chat>creatChatHandler(@RequestBody SingleChatRequest req, @RequestHeader("Authorization") String jwt) throws UserException{
-		// Retrieves the user's profile based on the JWT token
-		User reqUser = userService.findUserProfile(jwt);
+	public ResponseEntity<Chat>creatChatHandler(@RequestBody SingleChatRequest req, @CurrentUser User reqUser) throws UserException{
 		// Creates the one to one chat with the provided IDs
 		Chat chat = chatService.createChat(reqUser, req.getUserId());
 		
@@ -62,9 +59,7 @@ public class ChatController {
 	
 	// Route to create a group chat 
 	@PostMapping(value = "/group", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-	public ResponseEntity<Chat>creatGroupHandler(@ModelAttribute GroupChatRequest groupChatRequest, @RequestHeader("Authorization") String jwt) throws UserException, S3Exception, AwsServiceException, SdkClientException, IOException{
-		// Retrieves the user's profile based on the JWT token
-		User reqUser = userService.findUserProfile(jwt);
+	public ResponseEntity<Chat>creatGroupHandler(@ModelAttribute GroupChatRequest groupChatRequest, @CurrentUser User reqUser) throws UserException, S3Exception, AwsServiceException, SdkClientException, IOException{
 		// Creates the group chat based on the request data and logged-in user's ID
 		Chat groupChat = chatService.createGroup(groupChatRequest, reqUser);
 		
@@ -74,8 +69,8 @@ public class ChatController {
 	// Route to get a chat by it's ID
 	@GetMapping("/{chatId}")
 	public ResponseEntity<Chat>findChatByIdHandler(@PathVariable String chatId) throws ChatException {
-		// Retrieves a chat based on it's ID
- 		Chat chat = chatService.findChatById(chatId);
+		// Retrieves a chat based on it's ID with the profiles of its members
+ 		Chat chat = chatService.findChatWithMembers(chatId);
 		
 		return  new ResponseEntity<Chat>(chat, HttpStatus.OK);
 	}
@@ -83,10 +78,7 @@ public class ChatController {
 	
 	// Route to get all the chats an user is a member of
 	@GetMapping("/user")
-	public ResponseEntity<List<Chat>>findChatsByUserHandler( @RequestHeader("Authorization") String jwt) throws UserException{
-		// Retrieves the user's profile based on the JWT token
-		User reqUser = userService.findUserProfile(jwt);
-		
+	public ResponseEntity<List<Chat>>findChatsByUserHandler(@CurrentUser User reqUser) throws UserException{
 		// Retrieves a list of chats where the user is a member
 		List<Chat> chats = chatService.findAllChatsByUserId(reqUser.getId());
 		
@@ -94,11 +86,32 @@ public class ChatController {
 	}
 	
 	
+	// Route to get a page of the inbox of the user, latest activity first
+	// Each entry holds the title, image, last message preview and unread count of a chat
+	@GetMapping("/inbox")
+	public ResponseEntity<InboxResponse>findInboxHandler(@CurrentUser User reqUser,
+			@RequestParam(defaultValue = "0") int page,
+			@RequestParam(defaultValue = "30") int size) {
+		// Caps the page size
+		int pageSize = Math.max(1, Math.min(size, 100));
+		// Retrieves the page of inbox entries
+		InboxResponse inbox = chatService.findInbox(reqUser.getId(), Math.max(0, page), pageSize);
+		
+		return  new ResponseEntity<InboxResponse>(inbox, HttpStatus.OK);
+	}
+	
+	// Route to get the number of unread messages of the user across all their chats
+	@GetMapping("/unread")
+	public ResponseEntity<Integer>findTotalUnreadCountHandler(@CurrentUser User reqUser) {
+		// Sums the unread counters of the user
+		int total = chatService.findTotalUnreadCount(reqUser.getId());
+		
+		return  new ResponseEntity<Integer>(total, HttpStatus.OK);
+	}
+	
 	// Route to add an user to a chat
 	@PutMapping("/{chatId}/add/{userId}")
-	public ResponseEntity<Chat>addUserToGroupHandler( @PathVariable String chatId, @PathVariable String userId,@RequestHeader("Authorization") String jwt) throws UserException, ChatException{
-		// Retrieves the user's profile based on the JWT token
-		User reqUser = userService.findUserProfile(jwt);
+	public ResponseEntity<Chat>addUserToGroupHandler( @PathVariable String chatId, @PathVariable String userId, @CurrentUser User reqUser) throws UserException, ChatException{
 		// Adds an user to an specified chat
 		Chat chat = chatService.addUserToGroup(reqUser.getId(), userId, chatId);
 		
@@ -107,10 +120,7 @@ public class ChatController {
 	
 	// Route to grant admin privileges to an user 
 	@PutMapping("/{chatId}/makeAdmin/{userId}")
-	public ResponseEntity<Chat>makeUserAdminHandler( @PathVariable String chatId, @PathVariable String userId,@RequestHeader("Authorization") String jwt) throws UserException, ChatException{
-		// Retrieves the user's profile based on the JWT token
-		User reqUser = userService.findUserProfile(jwt);
-		
+	public ResponseEntity<Chat>makeUserAdminHandler( @PathVariable String chatId, @PathVariable String userId, @CurrentUser User reqUser) throws UserException, ChatException{
 		// Grants an user admin privileges in an specified chat
 		Chat chat = chatService.makeUserAdmin(reqUser.getId(), userId, chatId);
 		
@@ -119,23 +129,44 @@ public class ChatController {
 	
 	// Route to remove an user from a chat
 	@PutMapping("/{chatId}/remove/{userId}")
-	public ResponseEntity<Chat>removeUserFromGroupHandler( @PathVariable String chatId, @PathVariable String userId,@RequestHeader("Authorization") String jwt) throws UserException, ChatException{
-		// Retrieves the user's profile based on the JWT token
-		User reqUser = userService.findUserProfile(jwt);
-		
+	public ResponseEntity<Chat>removeUserFromGroupHandler( @PathVariable String chatId, @PathVariable String userId, @CurrentUser User reqUser) throws UserException, ChatException{
 		// Removes an user from an specified chat
 		Chat chat = chatService.removeFromGroup(reqUser, userId, chatId);
 		
 		return  new ResponseEntity<Chat>(chat, HttpStatus.OK);
 	}
 	
+	// Route to add several users to a chat at once
+	@PutMapping("/{chatId}/members/add")
+	public ResponseEntity<Chat>addUsersToGroupHandler( @PathVariable String chatId, @RequestBody BulkMembersRequest req, @CurrentUser User reqUser) throws UserException, ChatException{
+		// Adds the users to an specified chat
+		Chat chat = chatService.addUsersToGroup(reqUser.getId(), req.getUserIds(), chatId);
+		
+		return  new ResponseEntity<Chat>(chat, HttpStatus.OK);
+	}
+	
+	// Route to remove several users from a chat at once
+	@PutMapping("/{chatId}/members/remove")
+	public ResponseEntity<Chat>removeUsersFromGroupHandler( @PathVariable String chatId, @RequestBody BulkMembersRequest req, @CurrentUser User reqUser) throws UserException, ChatException{
+		// Removes the users from an specified chat
+		Chat chat = chatService.removeUsersFromGroup(reqUser, req.getUserIds(), chatId);
+		
+		return  new ResponseEntity<Chat>(chat, HttpStatus.OK);
+	}
+	
+	// Route to grant admin privileges to several users at once
+	@PutMapping("/{chatId}/members/admins")
+	public ResponseEntity<Chat>makeUsersAdminsHandler( @PathVariable String chatId, @RequestBody BulkMembersRequest req, @CurrentUser User reqUser) throws UserException, ChatException{
+		// Grants the users admin privileges in an specified chat
+		Chat chat = chatService.makeUsersAdmins(reqUser.getId(), req.getUserIds(), chatId);
+		
+		return  new ResponseEntity<Chat>(chat, HttpStatus.OK);
+	}
+	
 	
 	// Route to update a group chat 
 	@PutMapping(value ="update/{chatId}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-	public ResponseEntity<Chat>renameGroupnHandler( @PathVariable String chatId, @ModelAttribute UpdateRequest req ,@RequestHeader("Authorization") String jwt) throws UserException, ChatException, S3Exception, AwsServiceException, SdkClientException, IOException{
-		// Retrieves the user's profile based on the JWT token
-		User reqUser = userService.findUserProfile(jwt);
-		
+	public ResponseEntity<Chat>renameGroupnHandler( @PathVariable String chatId, @ModelAttribute UpdateRequest req , @CurrentUser User reqUser) throws UserException, ChatException, S3Exception, AwsServiceException, SdkClientException, IOException{
 		// Updates the group chat image or name based on the request contents
 		Chat chat = chatService.updateGroup(reqUser, chatId, req);
 		
@@ -144,10 +175,7 @@ public class ChatController {
 	
 	// Route to delete a chat
 	@DeleteMapping("/delete/{chatId}")
-	public ResponseEntity<ApiResponse>deleteChatHandler( @PathVariable String chatId, @RequestHeader("Authorization") String jwt) throws ChatException, UserException{
-		// Retrieves the user's profile based on the JWT token
-		User reqUser = userService.findUserProfile(jwt);
-		
+	public ResponseEntity<ApiResponse>deleteChatHandler( @PathVariable String chatId, @CurrentUser User reqUser) throws ChatException, UserException{
 		// Deletes the specified chat
 		 chatService.deleteChat(reqUser, chatId);
 		
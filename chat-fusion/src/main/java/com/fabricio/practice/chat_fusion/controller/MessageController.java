@@ -1,8 +1,14 @@
 package com.fabricio.practice.chat_fusion.controller;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -13,11 +19,13 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
-import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fabricio.practice.chat_fusion.config.CurrentUser;
 import com.fabricio.practice.chat_fusion.exception.ChatException;
 import com.fabricio.practice.chat_fusion.exception.MessageException;
 import com.fabricio.practice.chat_fusion.exception.UserException;
@@ -26,10 +34,12 @@ import com.fabricio.practice.chat_fusion.model.User;
 import com.fabricio.practice.chat_fusion.request.EditMessageRequest;
 import com.fabricio.practice.chat_fusion.request.SendMessageRequest;
 import com.fabricio.practice.chat_fusion.response.ApiResponse;
+import com.fabricio.practice.chat_fusion.response.MessageSearchResponse;
+import com.fabricio.practice.chat_fusion.response.MessageSliceResponse;
 import com.fabricio.practice.chat_fusion.service.MessageService;
-import com.fabricio.practice.chat_fusion.service.UserService;
 import com.fabricio.practice.chat_fusion.service.WebsocketService;
 
+import jakarta.servlet.http.HttpServletResponse;
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.services.s3.model.S3Exception;
@@ -40,20 +50,23 @@ public class MessageController {
 	
 	// Service to handle message-related business logic
 	private MessageService messageService;
-	// Service to handle user-related business logic
-	private UserService userService; 
+	// Executor writing the chat exports, only used by the export route
+	private AsyncTaskExecutor exportExecutor;
+	// Time an export may take, a large export is limited by how fast the client reads
+	private Duration exportTimeout;
 	
 	// Constructor to initialize the dependencies through dependency injection
-	public MessageController(MessageService messageService, UserService userService, WebsocketService websocketService ) {
+	public MessageController(MessageService messageService, WebsocketService websocketService,
+			@Qualifier("exportExecutor") AsyncTaskExecutor exportExecutor,
+			@Value("${messages.export.timeout:PT1H}") Duration exportTimeout) {
 		this.messageService = messageService;
-		this.userService = userService;
+		this.exportExecutor = exportExecutor;
+		this.exportTimeout = exportTimeout;
 	}
 	
 	// Route to create a new message
 	@PostMapping(value = "/send", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-	public ResponseEntity<Message> sendMessageHandler(@ModelAttribute SendMessageRequest req, @RequestHeader("Authorization") String jwt) throws  ChatException, MessageException, UserException, S3Exception, AwsServiceException, SdkClientException, IOException {
-		// Retrieves the user's profile based on the JWT token
-		User reqUser = userService.findUserProfile(jwt);
+	public ResponseEntity<Message> sendMessageHandler(@ModelAttribute SendMessageRequest req, @CurrentUser User reqUser) throws  ChatException, MessageException, UserException, S3Exception, AwsServiceException, SdkClientException, IOException {
 		// Creates the message
 		Message mssg = messageService.sendMessage(req, reqUser);
 
@@ -65,13 +78,10 @@ public class MessageController {
 	@GetMapping("/chat/{chatId}")
 	public ResponseEntity<List<Message>> getChatMessageHandler(
 	    @PathVariable String chatId, 
-	    @RequestHeader("Authorization") String jwt,
+	    @CurrentUser User reqUser,
 	    @RequestParam(defaultValue = "0") int skip)    // Default to no skipped messages
 	    throws ChatException, UserException {
 
-	    // Retrieves the user's profile based on the JWT token
-	    User reqUser = userService.findUserProfile(jwt);
-
 	    // Retrieves paginated messages for the specified chat
 	    List<Message> mssgs = messageService.getChatMessages(chatId, reqUser, 100, skip);
 
@@ -79,12 +89,76 @@ public class MessageController {
 	    return new ResponseEntity<>(mssgs, HttpStatus.OK);
 	}
 
+	// Route to get the chat history with cursor pagination, newest first
+	// The cost of a page does not depend on how far back it is
+	@GetMapping("/chat/{chatId}/history")
+	public ResponseEntity<MessageSliceResponse> getChatHistoryHandler(
+	    @PathVariable String chatId, 
+	    @CurrentUser User reqUser,
+	    @RequestParam(required = false) String before,    // Cursor returned by the previous page, omitted for the latest messages
+	    @RequestParam(defaultValue = "100") int limit)
+	    throws ChatException, MessageException {
+
+		// Caps the page size
+		int pageSize = Math.max(1, Math.min(limit, 100));
+	    // Retrieves the page of messages older than the cursor
+	    MessageSliceResponse slice = messageService.getChatHistory(chatId, reqUser, before, pageSize);
+
+	    return new ResponseEntity<>(slice, HttpStatus.OK);
+	}
+
+	// Route to export the whole history of a chat, oldest first
+	// ndjson writes one message per line and json a single {chatId, exportedAt, messages} document
+	// With media=true the manifest of the media files follows the messages, as {"media": entry} lines or a media array
+	// The body is written on the bounded export executor with its own timeout, other async requests keep the default executor
+	@GetMapping("/chat/{chatId}/export")
+	public WebAsyncTask<ResponseEntity<Void>> exportChatHandler(
+	    @PathVariable String chatId,
+	    @CurrentUser User reqUser,
+	    @RequestParam(defaultValue = "ndjson") String format,
+	    @RequestParam(defaultValue = "false") boolean media,
+	    HttpServletResponse response)
+	    throws ChatException, MessageException {
+
+	    // Checks access and returns the body, which is streamed from the database cursors
+	    StreamingResponseBody body = messageService.exportChat(chatId, reqUser, format, media);
+
+	    ContentDisposition disposition = ContentDisposition.attachment().filename("chat-" + chatId + "." + format).build();
+	    response.setStatus(HttpStatus.OK.value());
+	    response.setContentType(("json".equals(format) ? MediaType.APPLICATION_JSON : MediaType.APPLICATION_NDJSON).toString());
+	    response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition.toString());
+
+	    // Writes the body straight to the response, nothing is left to write once the task completes
+	    return new WebAsyncTask<>(exportTimeout.toMillis(), exportExecutor, () -> {
+	    	body.writeTo(response.getOutputStream());
+	    	response.flushBuffer();
+	    	return null;
+	    });
+	}
+
+	// Route to search the text messages of the user's chats, or of one chat, best match first
+	// Without a chat ID only the 50 most recently active chats of the user are searched, older chats are searched by passing their ID
+	@GetMapping("/search")
+	public ResponseEntity<MessageSearchResponse> searchMessagesHandler(
+	    @RequestParam String q,
+	    @CurrentUser User reqUser,
+	    @RequestParam(required = false) String chatId,    // Limits the search to one chat, omitted to search the user's 50 most recently active chats
+	    @RequestParam(defaultValue = "0") int page,
+	    @RequestParam(defaultValue = "20") int size)
+	    throws ChatException, MessageException {
+
+		// Caps the page size
+		int pageSize = Math.max(1, Math.min(size, 50));
+	    // Retrieves the page of matching messages
+	    MessageSearchResponse results = messageService.searchMessages(reqUser, q, chatId, page, pageSize);
+
+	    return new ResponseEntity<>(results, HttpStatus.OK);
+	}
+
 	
 	// Route to edit the content of an existing message
 	@PutMapping("/edit")
-	public ResponseEntity <Message> editMessageHandler(@RequestBody EditMessageRequest req, @RequestHeader("Authorization") String jwt) throws  MessageException, UserException {
-		// Retrieves the user's profile based on the JWT token
-		User reqUser = userService.findUserProfile(jwt);
+	public ResponseEntity <Message> editMessageHandler(@RequestBody EditMessageRequest req, @CurrentUser User reqUser) throws  MessageException, UserException {
 		// Calls the service to update the message content
 		Message updatedMssg = messageService.editMessage(req, reqUser.getId());
 		
@@ -93,10 +167,7 @@ public class MessageController {
 	
 	// Route to delete a message
 	@DeleteMapping("/delete/{messageId}/{chatId}")
-	public ResponseEntity <ApiResponse> deleteMessageHandler(@PathVariable String messageId, @PathVariable String chatId, @RequestHeader("Authorization") String jwt) throws  MessageException, UserException, ChatException {
-		// Retrieves the user's profile based on the JWT token
-		User reqUser = userService.findUserProfile(jwt);
-		
+	public ResponseEntity <ApiResponse> deleteMessageHandler(@PathVariable String messageId, @PathVariable String chatId, @CurrentUser User reqUser) throws  MessageException, UserException, ChatException {
 		// Calls the service to delete the message if the user is authorized
 		messageService.deleteMessage(messageId, reqUser.getId());
 		
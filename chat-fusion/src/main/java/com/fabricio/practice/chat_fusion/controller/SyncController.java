@@ -0,0 +1,43 @@
+package com.fabricio.practice.chat_fusion.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fabricio.practice.chat_fusion.config.CurrentUser;
+import com.fabricio.practice.chat_fusion.exception.ChatException;
+import com.fabricio.practice.chat_fusion.model.User;
+import com.fabricio.practice.chat_fusion.response.SyncResponse;
+import com.fabricio.practice.chat_fusion.service.SyncService;
+
+//Controller responsible for the delta sync of reconnecting clients
+@RestController
+//Base path for all routes
+@RequestMapping("/api/sync")
+public class SyncController {
+
+	// Service to handle the sync logic
+	private SyncService syncService;
+
+	// Constructor to initialize the dependencies through dependency injection
+	public SyncController(SyncService syncService) {
+		this.syncService = syncService;
+	}
+
+	// Route to get the changes the user missed since the token of their last sync
+	// Without a token returns the current position, to be kept by the client until it reconnects
+	@GetMapping
+	public ResponseEntity<SyncResponse> syncHandler(@CurrentUser User reqUser,
+			@RequestParam(required = false) String since,
+			@RequestParam(defaultValue = "200") int size) throws ChatException {
+		// Caps the page size
+		int pageSize = Math.max(1, Math.min(size, 500));
+		// Retrieves the page of changes
+		SyncResponse changes = syncService.findChanges(reqUser.getId(), since, pageSize);
+
+		return new ResponseEntity<SyncResponse>(changes, HttpStatus.OK);
+	}
+}
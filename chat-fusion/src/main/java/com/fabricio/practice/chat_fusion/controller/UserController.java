@@ -11,10 +11,10 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PutMapping;
-import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.fabricio.practice.chat_fusion.config.CurrentUser;
 import com.fabricio.practice.chat_fusion.exception.UserException;
 import com.fabricio.practice.chat_fusion.model.User;
 import com.fabricio.practice.chat_fusion.request.UpdateRequest;
@@ -42,9 +42,8 @@ public class UserController {
 
 	// Route to retrieve the authenticated user's profile information
 	@GetMapping("/profile")
-	public ResponseEntity<User> getUserProfileHandler(@RequestHeader("Authorization") String jwt) throws UserException {
-		// Retrieves the user's profile based on the JWT token
-		User user = userService.findUserProfile(jwt);
+	public ResponseEntity<User> getUserProfileHandler(@CurrentUser(fresh = true) User user) throws UserException {
+		// The profile is fetched from the database since it must reflect the latest changes
 		return new ResponseEntity<User>(user, HttpStatus.OK);
 	}
 	
@@ -66,9 +65,7 @@ public class UserController {
 	
 	// Route to update the user's profile information
 	@PutMapping(value = "/update", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-	public ResponseEntity<ApiResponse> updateUserHandler(@ModelAttribute UpdateRequest req, @RequestHeader("Authorization") String jwt) throws UserException, S3Exception, AwsServiceException, SdkClientException, IOException {
-		// Retrieves the current user's profile based on the JWT token
-		User user = userService.findUserProfile(jwt);
+	public ResponseEntity<ApiResponse> updateUserHandler(@ModelAttribute UpdateRequest req, @CurrentUser User user) throws UserException, S3Exception, AwsServiceException, SdkClientException, IOException {
 		// Updates the user's information with the data from the request body
 		userService.updateUser(user.getId(), req);
 		// Creates a response to confirm the update operation was successful
@@ -1,22 +1,26 @@
 package com.fabricio.practice.chat_fusion.controller;
 
+import java.security.Principal;
 import java.time.Instant;
 
+import org.springframework.context.event.EventListener;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
 import com.fabricio.practice.chat_fusion.config.JwtProvider;
 import com.fabricio.practice.chat_fusion.exception.ChatException;
-import com.fabricio.practice.chat_fusion.exception.UserException;
 import com.fabricio.practice.chat_fusion.model.Chat;
-import com.fabricio.practice.chat_fusion.model.User;
 import com.fabricio.practice.chat_fusion.request.CallEventRequest;
 import com.fabricio.practice.chat_fusion.request.CallRequest;
 import com.fabricio.practice.chat_fusion.request.UpdateStatusRequest;
 import com.fabricio.practice.chat_fusion.service.ChatService;
+import com.fabricio.practice.chat_fusion.service.PresenceDigestService;
+import com.fabricio.practice.chat_fusion.service.PresenceService;
 import com.fabricio.practice.chat_fusion.service.UserService;
 
 @Controller
@@ -25,46 +29,70 @@ public class WebsocketController {
 	private SimpMessagingTemplate simpMessagingTemplate;
 	private UserService userService; 
 	private ChatService chatService;
+	// In-memory registry of the users that have each chat open
+	private PresenceService presenceService;
+	// Batches online status changes and pushes them to the contacts
+	private PresenceDigestService presenceDigestService;
 	
 	// Constructor for dependency injection
-	public WebsocketController(SimpMessagingTemplate simpMessagingTemplate, JwtProvider  jwtProvider, UserService userService, ChatService chatService) {
+	public WebsocketController(SimpMessagingTemplate simpMessagingTemplate, JwtProvider  jwtProvider, UserService userService, ChatService chatService, PresenceService presenceService, PresenceDigestService presenceDigestService) {
 	    this.simpMessagingTemplate = simpMessagingTemplate;
 	    this.userService = userService;
 	    this.chatService = chatService;
+	    this.presenceService = presenceService;
+	    this.presenceDigestService = presenceDigestService;
 	}
 	
 	// Endpoint to notify what users are online
 	@MessageMapping("/user.online.status")
-	public void updateUserStatus(@Payload UpdateStatusRequest statusReq) throws UserException {
-		// Gets the email and status from the request
-		String email = statusReq.getEmail();
+	public void updateUserStatus(@Payload UpdateStatusRequest statusReq, Principal principal) {
+		// Gets the status from the request and the user bound to the session
+		String userId = principal.getName();
 		boolean isOnline = statusReq.isOnline();
 		
 
-		// Updates the user's last connection
-		userService.updateLastConnection(email, isOnline ? null : Instant.now());
+		// Updates the last connection of the user
+		userService.updateLastConnection(userId, isOnline ? null : Instant.now());
 		
-		// Forwards the status change to all subscribers
-		simpMessagingTemplate.convertAndSend("/topic/online-status/"+ email, isOnline);
+		// Queues the status change for the next presence digest sent to the user's contacts
+		presenceDigestService.statusChanged(userId, isOnline);
 	}
 	
 	// Endpoint to notify what users are connected to a chat
 	@MessageMapping("/connected/{chatId}")
-	public void handleUserChatConnection(@DestinationVariable String chatId, @Payload UpdateStatusRequest statusReq) throws ChatException {
+	public void handleUserChatConnection(@DestinationVariable String chatId, @Payload UpdateStatusRequest statusReq, Principal principal, SimpMessageHeaderAccessor headerAccessor) {
+		// Uses the user bound to the session on CONNECT instead of trusting the payload
+		String userId = principal.getName();
+		statusReq.setUserId(userId);
 		
-		// If the user is connecting to the chat add it to the connectedUsers
+		// If the user is connecting to the chat register the session in the presence registry
 		if(statusReq.isOnline()) {
-			chatService.addConnectedUser(chatId, statusReq.getUserId());
+			presenceService.connect(chatId, userId, headerAccessor.getSessionId());
 			
-		} else {
-			// Removes the user from the connected list
-			chatService.removeConnectedUser(chatId, statusReq.getUserId());
+		} else if(!presenceService.disconnect(chatId, userId, headerAccessor.getSessionId())) {
+			// The user still has the chat open in another session, so the others are not notified
+			return;
 		}
 		
 		// Forwards the connection change to the chat to all users connected
 		simpMessagingTemplate.convertAndSend("/chat/" + chatId + "/connected", statusReq);
 	}
 	
+	// Cleans up the presence of sockets that were closed without leaving their chats
+	@EventListener
+	public void handleSessionDisconnect(SessionDisconnectEvent event) {
+		// Sessions that never authenticated have nothing to clean up
+		if(event.getUser() == null) {
+			return;
+		}
+		String userId = event.getUser().getName();
+		
+		// Notifies the chats the user is no longer connected to
+		for(String chatId : presenceService.disconnectSession(userId, event.getSessionId())) {
+			simpMessagingTemplate.convertAndSend("/chat/" + chatId + "/connected", new UpdateStatusRequest(null, false, userId));
+		}
+	}
+	
 	// Endpoint to notify users of incoming calls
 	@MessageMapping("/call/{chatId}")
 	public void handleIncomingCall(@DestinationVariable String chatId, @Payload CallRequest callRequest) throws ChatException {
@@ -72,9 +100,9 @@ public class WebsocketController {
 		Chat chat = chatService.findChatById(chatId);
 		
 		// Notifies all members of the chat excluding the caller of the incoming call
-		for(User member : chat.getMembers()) {
-			if(!member.getId().equals(callRequest.getUserId())) {
-				simpMessagingTemplate.convertAndSend("/topic/call/"+ member.getEmail(), callRequest);
+		for(String memberId : chat.getMemberIds()) {
+			if(!memberId.equals(callRequest.getUserId())) {
+				simpMessagingTemplate.convertAndSendToUser(memberId, "/queue/call", callRequest);
 			}
 		}
 	}
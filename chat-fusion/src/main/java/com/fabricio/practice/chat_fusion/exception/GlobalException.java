@@ -1,6 +1,7 @@
 package com.fabricio.practice.chat_fusion.exception;
 
 import java.time.LocalDateTime;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -87,6 +88,14 @@ public class GlobalException {
 	
 	
 	
+	// Handles RejectedExecutionException, which occurs when the login executor is saturated, with a response status of SERVICE_UNAVAILABLE
+	@ExceptionHandler(RejectedExecutionException.class)
+	public ResponseEntity<ErrorDetail> RejectedExecutionExceptionHandler(RejectedExecutionException e, WebRequest req) {
+		// Creates an ErrorDetail object asking the client to retry later
+		ErrorDetail err = new ErrorDetail("Too many requests, try again shortly", req.getDescription(false), LocalDateTime.now());
+		return new ResponseEntity<ErrorDetail>(err, HttpStatus.SERVICE_UNAVAILABLE);
+	}
+	
 	// Handles any other exceptions that are not explicitly caught above
 	@ExceptionHandler(Exception.class)
 	public ResponseEntity<ErrorDetail> OtherExceptionHandler(Exception e, WebRequest req) {
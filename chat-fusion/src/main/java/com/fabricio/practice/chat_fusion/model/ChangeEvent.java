@@ -0,0 +1,136 @@
+package com.fabricio.practice.chat_fusion.model;
+
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import org.bson.BsonTimestamp;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+//Marks this class as a MongoDB document corresponding to the "change_events" collection
+// Append-only log of the message and chat mutations, read by reconnecting clients to catch up on what they missed
+@Document(collection = "change_events")
+public class ChangeEvent {
+
+	// Specifies the unique identifier for this document in the collection
+	@Id
+	private String id;
+	// Position of the event in the log, generated by the database server when the event is written
+	private BsonTimestamp position;
+	private String chatId;
+	// Users the event is addressed to, when null the event is for the current members of the chat
+	private List<String> userIds;
+	// Event type, the same as the websocket event (send, edit, delete, addChat, updateChat, membersChanged, removeChat)
+	private String type;
+	private Object payload;
+	private LocalDateTime timestamp;
+	// Time at which the event is removed by the TTL index
+	private Date expiresAt;
+
+	// No-args constructor for serialization and deserialization frameworks
+	public ChangeEvent() {
+	}
+
+	// Full-args constructor for initializing all fields of the ChangeEvent object
+	public ChangeEvent(String id, String chatId, List<String> userIds, String type, Object payload, LocalDateTime timestamp, Date expiresAt) {
+		super();
+		this.id = id;
+		this.chatId = chatId;
+		this.userIds = userIds;
+		this.type = type;
+		this.payload = payload;
+		this.timestamp = timestamp;
+		this.expiresAt = expiresAt;
+	}
+
+	// Sync token of a position, the 64 bit value of the timestamp in hexadecimal so tokens compare like the positions
+	public static String tokenOf(BsonTimestamp position) {
+		return String.format("%016x", position.getValue());
+	}
+
+	// Getters and Setters
+	// The recipients and the expiration are not exposed to the clients, the position is exposed as its token
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getToken() {
+		return position == null ? null : tokenOf(position);
+	}
+
+	public void setPosition(BsonTimestamp position) {
+		this.position = position;
+	}
+
+	public String getChatId() {
+		return chatId;
+	}
+
+	public void setChatId(String chatId) {
+		this.chatId = chatId;
+	}
+
+	public void setUserIds(List<String> userIds) {
+		this.userIds = userIds;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public Object getPayload() {
+		return payload;
+	}
+
+	public void setPayload(Object payload) {
+		this.payload = payload;
+	}
+
+	public LocalDateTime getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(LocalDateTime timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public void setExpiresAt(Date expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
+	// Overrides the hashCode method to generate the hash based on the ID
+	@Override
+	public int hashCode() {
+		return Objects.hash(id);
+	}
+
+	// Overrides the equals method to compare ChangeEvent objects based on their ID
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ChangeEvent other = (ChangeEvent) obj;
+		return Objects.equals(id, other.id);
+	}
+
+	// Overrides the toString method to represent the ChangeEvent object as a string
+	@Override
+	public String toString() {
+		return "ChangeEvent [id=" + id + ", position=" + position + ", chatId=" + chatId + ", userIds=" + userIds + ", type=" + type + ", timestamp="
+				+ timestamp + "]";
+	}
+}
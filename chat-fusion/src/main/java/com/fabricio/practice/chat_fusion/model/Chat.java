@@ -7,7 +7,8 @@ import java.util.Objects;
 import java.util.Set;
 
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 //Marks this class as a MongoDB document corresponding to the "chats" collection
@@ -21,12 +22,20 @@ public class Chat {
     private String chat_image;
     private boolean isGroup;
     private String createdById;
+    // Canonical key of a one to one chat built from the sorted IDs of its members, null for groups
+    private String pairKey;
+    // Unread count of the requesting user, not stored since the counters live in the member states
+    @Transient
     private Map<String, Integer> unreadCounts = new HashMap<>();
     private Set<String> adminIds = new HashSet<>();
-    private Set<String> connectedUserIds = new HashSet<>();
-    // Use @DBRef to reference User entities for members
-    @DBRef
+    // IDs of the members, a multikey index on this array serves the membership queries
+    private Set<String> memberIds = new HashSet<>();
+    // Profiles of the members, not stored but loaded in one batch by ChatMemberLoader for the responses
+    @Transient
     private Set<User> members = new HashSet<>();
+    // Incremented by every change to the members, admins or details so conflicting edits can be detected
+    @Version
+    private Long version;
 
     // No-args constructor for serialization and deserialization frameworks
     public Chat() {
@@ -34,7 +43,7 @@ public class Chat {
 
     // Full-args constructor for initializing all fields of the Chat object
     public Chat(String id, String chat_name, String chat_image, boolean isGroup, String createdById,
-			Map<String, Integer> unreadCounts, Set<String> adminIds, Set<String> connectedUserIds, Set<User> members) {
+			Map<String, Integer> unreadCounts, Set<String> adminIds, Set<String> memberIds) {
 		super();
 		this.id = id;
 		this.chat_name = chat_name;
@@ -43,8 +52,7 @@ public class Chat {
 		this.createdById = createdById;
 		this.unreadCounts = unreadCounts;
 		this.adminIds = adminIds;
-		this.connectedUserIds = connectedUserIds;
-		this.members = members;
+		this.memberIds = memberIds;
 	}
     
 
@@ -98,6 +106,14 @@ public class Chat {
         this.adminIds = adminIds;
     }
 
+    public Set<String> getMemberIds() {
+        return memberIds;
+    }
+
+    public void setMemberIds(Set<String> memberIds) {
+        this.memberIds = memberIds;
+    }
+
     public Set<User> getMembers() {
         return members;
     }
@@ -114,18 +130,42 @@ public class Chat {
 		this.unreadCounts = unreadCounts;
 	}
 
-	public Set<String> getConnectedUserIds() {
-		return connectedUserIds;
+	public String getPairKey() {
+		return pairKey;
+	}
+
+	public void setPairKey(String pairKey) {
+		this.pairKey = pairKey;
+	}
+
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
+	// Builds the key of the one to one chat between two users, the same whatever the order of the IDs
+	public static String pairKeyOf(String userId1, String userId2) {
+		return userId1.compareTo(userId2) <= 0 ? userId1 + ":" + userId2 : userId2 + ":" + userId1;
+	}
+
+	// Checks if an user is a member of the chat by their ID
+	public boolean hasMember(String userId) {
+		return memberIds.contains(userId);
 	}
 
-	public void setConnectedUserIds(Set<String> connectedUserIds) {
-		this.connectedUserIds = connectedUserIds;
+	// Adds an user to the members along with the profile already at hand
+	public void addMember(User user) {
+		memberIds.add(user.getId());
+		members.add(user);
 	}
 
 	// hashCode, equals, and toString for proper object comparison and debugging
 	@Override
 	public int hashCode() {
-		return Objects.hash(adminIds, chat_image, chat_name, createdById, id, isGroup, members, unreadCounts);
+		return Objects.hash(adminIds, chat_image, chat_name, createdById, id, isGroup, memberIds, pairKey, unreadCounts);
 	}
 
 	@Override
@@ -139,15 +179,16 @@ public class Chat {
 		Chat other = (Chat) obj;
 		return Objects.equals(adminIds, other.adminIds) && Objects.equals(chat_image, other.chat_image)
 				&& Objects.equals(chat_name, other.chat_name) && Objects.equals(createdById, other.createdById)
-				&& Objects.equals(id, other.id) && isGroup == other.isGroup && Objects.equals(members, other.members)
+				&& Objects.equals(id, other.id) && isGroup == other.isGroup && Objects.equals(memberIds, other.memberIds)
+				&& Objects.equals(pairKey, other.pairKey)
 				&& Objects.equals(unreadCounts, other.unreadCounts);
 	}
 
 	@Override
 	public String toString() {
 		return "Chat [id=" + id + ", chat_name=" + chat_name + ", chat_image=" + chat_image + ", isGroup=" + isGroup
-				+ ", createdById=" + createdById + ", unreadCounts=" + unreadCounts + ", adminIds=" + adminIds
-				+ ", members=" + members + "]";
+				+ ", createdById=" + createdById + ", pairKey=" + pairKey + ", unreadCounts=" + unreadCounts + ", adminIds=" + adminIds
+				+ ", memberIds=" + memberIds + "]";
 	}
 
 	
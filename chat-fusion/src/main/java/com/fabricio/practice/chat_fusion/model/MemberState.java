@@ -0,0 +1,169 @@
+package com.fabricio.practice.chat_fusion.model;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+//Marks this class as a MongoDB document corresponding to the "member_states" collection
+// Holds the per member state of a chat, one document per (chat, member)
+// Also the member's inbox entry for the chat, kept up to date as messages and members change so the inbox is a single indexed read
+@Document(collection = "member_states")
+public class MemberState {
+
+    // Specifies the unique identifier for this document in the collection, "chatId:userId"
+    @Id
+    private String id;
+    private String chatId;
+    private String userId;
+    // Timestamp of the latest message the member has read, messages up to it count as seen by the member
+    private LocalDateTime lastReadAt;
+    // Messages received by the member since the chat was last opened
+    private int unreadCount;
+    private boolean group;
+    // Name and image shown in the inbox, those of the group or of the other member of a one to one chat
+    private String title;
+    private String image;
+    // Other member of a one to one chat, used to refresh the title when their profile changes
+    private String peerId;
+    private MessagePreview lastMessage;
+    // Time of the latest message, or of the moment the member joined when there are no messages
+    private LocalDateTime lastActivityAt;
+
+    // No-args constructor for serialization and deserialization frameworks
+    public MemberState() {
+    }
+
+    // Full-args constructor for initializing all fields of the MemberState object
+    public MemberState(String id, String chatId, String userId, LocalDateTime lastReadAt) {
+		super();
+		this.id = id;
+		this.chatId = chatId;
+		this.userId = userId;
+		this.lastReadAt = lastReadAt;
+	}
+
+    // Builds the ID of the state of a member in a chat
+    public static String idOf(String chatId, String userId) {
+    	return chatId + ":" + userId;
+    }
+
+	// Getters and Setters
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getChatId() {
+		return chatId;
+	}
+
+	public void setChatId(String chatId) {
+		this.chatId = chatId;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public void setUserId(String userId) {
+		this.userId = userId;
+	}
+
+	public LocalDateTime getLastReadAt() {
+		return lastReadAt;
+	}
+
+	public void setLastReadAt(LocalDateTime lastReadAt) {
+		this.lastReadAt = lastReadAt;
+	}
+
+	public int getUnreadCount() {
+		return unreadCount;
+	}
+
+	public void setUnreadCount(int unreadCount) {
+		this.unreadCount = unreadCount;
+	}
+
+	public boolean isGroup() {
+		return group;
+	}
+
+	public void setGroup(boolean group) {
+		this.group = group;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public void setTitle(String title) {
+		this.title = title;
+	}
+
+	public String getImage() {
+		return image;
+	}
+
+	public void setImage(String image) {
+		this.image = image;
+	}
+
+	public String getPeerId() {
+		return peerId;
+	}
+
+	public void setPeerId(String peerId) {
+		this.peerId = peerId;
+	}
+
+	public MessagePreview getLastMessage() {
+		return lastMessage;
+	}
+
+	public void setLastMessage(MessagePreview lastMessage) {
+		this.lastMessage = lastMessage;
+	}
+
+	public LocalDateTime getLastActivityAt() {
+		return lastActivityAt;
+	}
+
+	public void setLastActivityAt(LocalDateTime lastActivityAt) {
+		this.lastActivityAt = lastActivityAt;
+	}
+
+	// hashCode, equals, and toString for proper object comparison and debugging
+	@Override
+	public int hashCode() {
+		return Objects.hash(chatId, group, id, image, lastActivityAt, lastMessage, lastReadAt, peerId, title, unreadCount, userId);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MemberState other = (MemberState) obj;
+		return Objects.equals(chatId, other.chatId) && Objects.equals(id, other.id)
+				&& Objects.equals(lastReadAt, other.lastReadAt) && unreadCount == other.unreadCount
+				&& group == other.group && Objects.equals(title, other.title) && Objects.equals(image, other.image)
+				&& Objects.equals(peerId, other.peerId) && Objects.equals(lastMessage, other.lastMessage)
+				&& Objects.equals(lastActivityAt, other.lastActivityAt) && Objects.equals(userId, other.userId);
+	}
+
+	@Override
+	public String toString() {
+		return "MemberState [id=" + id + ", chatId=" + chatId + ", userId=" + userId + ", lastReadAt=" + lastReadAt + ", unreadCount=" + unreadCount
+				+ ", group=" + group + ", title=" + title + ", image=" + image + ", peerId=" + peerId + ", lastMessage=" + lastMessage
+				+ ", lastActivityAt=" + lastActivityAt + "]";
+	}
+}
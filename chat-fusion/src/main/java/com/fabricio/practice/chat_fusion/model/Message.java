@@ -1,14 +1,13 @@
 package com.fabricio.practice.chat_fusion.model;
 
 import java.time.LocalDateTime;
-import java.util.HashSet;
 import java.util.Objects;
-import java.util.Set;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
 
 //Marks this class as a MongoDB document corresponding to the "messages" collection
 @Document(collection = "messages")
@@ -23,11 +22,15 @@ public class Message {
     @Indexed
     private LocalDateTime timestamp;
 
-    // Use @DBRef to reference User entities for user
-    @DBRef
-    private User user;
+    // Embedded snapshot of the author, stored as "author" since older messages keep a reference under "user"
+    @Field("author")
+    private MessageAuthor user;
+
+    // Author reference of older messages, only read until the backfill replaces it with the snapshot
+    // Kept mapped so saving an older message before the backfill does not drop its author
     @DBRef
-    private Set<User> readBy = new HashSet<>();
+    @Field("user")
+    private User legacyUser;
     
     private String chatId; 
 
@@ -36,15 +39,13 @@ public class Message {
     }
 
     // Full-args constructor for initializing all fields of the Message object
-    public Message(String id, String type, String content, LocalDateTime timestamp, User user, Set<User> readBy,
-			String chatId) {
+    public Message(String id, String type, String content, LocalDateTime timestamp, MessageAuthor user, String chatId) {
 		super();
 		this.id = id;
 		this.type = type;
 		this.content = content;
 		this.timestamp = timestamp;
 		this.user = user;
-		this.readBy = readBy;
 		this.chatId = chatId;
 	}
     
@@ -74,11 +75,15 @@ public class Message {
         this.timestamp = timestamp;
     }
 
-    public User getUser() {
+    // Older messages not yet backfilled take the snapshot from their author reference
+    public MessageAuthor getUser() {
+        if (user == null && legacyUser != null) {
+            return MessageAuthor.of(legacyUser);
+        }
         return user;
     }
 
-    public void setUser(User user) {
+    public void setUser(MessageAuthor user) {
         this.user = user;
     }
 
@@ -97,28 +102,18 @@ public class Message {
 	public void setType(String type) {
 		this.type = type;
 	}
-	
-	
-
-    public Set<User> getReadBy() {
-		return readBy;
-	}
-
-	public void setReadBy(Set<User> readBy) {
-		this.readBy = readBy;
-	}
 
 	// To string method
 	@Override
 	public String toString() {
 		return "Message [id=" + id + ", type=" + type + ", content=" + content + ", timestamp=" + timestamp + ", user="
-				+ user + ", readBy=" + readBy + ", chatId=" + chatId + "]";
+				+ user + ", chatId=" + chatId + "]";
 	}
 
 	// Hash code method
 	@Override
 	public int hashCode() {
-		return Objects.hash(chatId, content, id, readBy, timestamp, type, user);
+		return Objects.hash(chatId, content, id, timestamp, type, user);
 	}
 
 	// Equals method
@@ -132,7 +127,7 @@ public class Message {
 			return false;
 		Message other = (Message) obj;
 		return Objects.equals(chatId, other.chatId) && Objects.equals(content, other.content)
-				&& Objects.equals(id, other.id) && Objects.equals(readBy, other.readBy)
+				&& Objects.equals(id, other.id)
 				&& Objects.equals(timestamp, other.timestamp) && Objects.equals(type, other.type)
 				&& Objects.equals(user, other.user);
 	}
@@ -0,0 +1,77 @@
+package com.fabricio.practice.chat_fusion.model;
+
+import java.util.Objects;
+
+// Snapshot of the author embedded in every message so history reads need no lookups on the "users" collection
+// Only the public profile is copied, the snapshots are refreshed in the background when the profile changes
+public class MessageAuthor {
+
+	private String id;
+	private String username;
+	private String pfp;
+
+	// No-args constructor for serialization and deserialization frameworks
+	public MessageAuthor() {
+	}
+
+	// Full-args constructor for initializing all fields of the MessageAuthor object
+	public MessageAuthor(String id, String username, String pfp) {
+		super();
+		this.id = id;
+		this.username = username;
+		this.pfp = pfp;
+	}
+
+	// Takes the snapshot of the public profile of an user
+	public static MessageAuthor of(User user) {
+		return new MessageAuthor(user.getId(), user.getUsername(), user.getPfp());
+	}
+
+	// Getters and Setters
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public void setUsername(String username) {
+		this.username = username;
+	}
+
+	public String getPfp() {
+		return pfp;
+	}
+
+	public void setPfp(String pfp) {
+		this.pfp = pfp;
+	}
+
+	// hashCode, equals, and toString for proper object comparison and debugging
+	@Override
+	public int hashCode() {
+		return Objects.hash(id, pfp, username);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MessageAuthor other = (MessageAuthor) obj;
+		return Objects.equals(id, other.id) && Objects.equals(pfp, other.pfp) && Objects.equals(username, other.username);
+	}
+
+	@Override
+	public String toString() {
+		return "MessageAuthor [id=" + id + ", username=" + username + ", pfp=" + pfp + "]";
+	}
+}
@@ -0,0 +1,113 @@
+package com.fabricio.practice.chat_fusion.model;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+//Marks this class as a MongoDB document corresponding to the "message_buckets" collection
+// Messages of a chat sent within one time window packed in one document, used when messages.storage=bucket
+@Document(collection = "message_buckets")
+public class MessageBucket {
+
+	// Specifies the unique identifier for this document in the collection
+	@Id
+	private String id;
+	private String chatId;
+	// Timestamps of the oldest and newest messages of the bucket
+	private LocalDateTime start;
+	private LocalDateTime end;
+	// Messages appended to the bucket, deletes do not free a slot so a bucket is never reopened
+	private int count;
+	// Messages currently in the bucket
+	private int size;
+	// Messages in the order they were appended, oldest first
+	private List<Message> messages = new ArrayList<>();
+
+	// No-args constructor for serialization and deserialization frameworks
+	public MessageBucket() {
+	}
+
+	// Getters and Setters
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getChatId() {
+		return chatId;
+	}
+
+	public void setChatId(String chatId) {
+		this.chatId = chatId;
+	}
+
+	public LocalDateTime getStart() {
+		return start;
+	}
+
+	public void setStart(LocalDateTime start) {
+		this.start = start;
+	}
+
+	public LocalDateTime getEnd() {
+		return end;
+	}
+
+	public void setEnd(LocalDateTime end) {
+		this.end = end;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public void setSize(int size) {
+		this.size = size;
+	}
+
+	public List<Message> getMessages() {
+		return messages;
+	}
+
+	public void setMessages(List<Message> messages) {
+		this.messages = messages;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(id);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MessageBucket other = (MessageBucket) obj;
+		return Objects.equals(id, other.id);
+	}
+
+	@Override
+	public String toString() {
+		return "MessageBucket [id=" + id + ", chatId=" + chatId + ", start=" + start + ", end=" + end + ", count=" + count
+				+ ", size=" + size + "]";
+	}
+}
@@ -0,0 +1,113 @@
+package com.fabricio.practice.chat_fusion.model;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+// Preview of the latest message of a chat, embedded in the inbox entries of its members
+public class MessagePreview {
+
+	// Characters of a text message kept in the preview
+	public static final int MAX_CONTENT = 100;
+
+	private String messageId;
+	private String authorName;
+	private String type;
+	// Start of the text, null for media messages whose content is a file URL
+	private String content;
+	private LocalDateTime timestamp;
+
+	// No-args constructor for serialization and deserialization frameworks
+	public MessagePreview() {
+	}
+
+	// Full-args constructor for initializing all fields of the MessagePreview object
+	public MessagePreview(String messageId, String authorName, String type, String content, LocalDateTime timestamp) {
+		super();
+		this.messageId = messageId;
+		this.authorName = authorName;
+		this.type = type;
+		this.content = content;
+		this.timestamp = timestamp;
+	}
+
+	// Builds the preview of a message
+	public static MessagePreview of(Message mssg) {
+		return new MessagePreview(mssg.getId(), mssg.getUser() != null ? mssg.getUser().getUsername() : null, mssg.getType(),
+				contentOf(mssg), mssg.getTimestamp());
+	}
+
+	// Start of the text of a message, null for media messages
+	public static String contentOf(Message mssg) {
+		if (!"text".equals(mssg.getType()) || mssg.getContent() == null) {
+			return null;
+		}
+		return mssg.getContent().length() > MAX_CONTENT ? mssg.getContent().substring(0, MAX_CONTENT) : mssg.getContent();
+	}
+
+	// Getters and Setters
+	public String getMessageId() {
+		return messageId;
+	}
+
+	public void setMessageId(String messageId) {
+		this.messageId = messageId;
+	}
+
+	public String getAuthorName() {
+		return authorName;
+	}
+
+	public void setAuthorName(String authorName) {
+		this.authorName = authorName;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getContent() {
+		return content;
+	}
+
+	public void setContent(String content) {
+		this.content = content;
+	}
+
+	public LocalDateTime getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(LocalDateTime timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	// hashCode, equals, and toString for proper object comparison and debugging
+	@Override
+	public int hashCode() {
+		return Objects.hash(authorName, content, messageId, timestamp, type);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MessagePreview other = (MessagePreview) obj;
+		return Objects.equals(authorName, other.authorName) && Objects.equals(content, other.content)
+				&& Objects.equals(messageId, other.messageId) && Objects.equals(timestamp, other.timestamp)
+				&& Objects.equals(type, other.type);
+	}
+
+	@Override
+	public String toString() {
+		return "MessagePreview [messageId=" + messageId + ", authorName=" + authorName + ", type=" + type + ", content=" + content
+				+ ", timestamp=" + timestamp + "]";
+	}
+}
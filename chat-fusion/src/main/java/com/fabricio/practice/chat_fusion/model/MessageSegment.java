@@ -0,0 +1,122 @@
+package com.fabricio.practice.chat_fusion.model;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+//Marks this class as a MongoDB document corresponding to the "messages_archive" collection
+// Consecutive archived messages of a chat packed in one compressed document, so the archive needs one index entry per segment instead of per message
+@Document(collection = "messages_archive")
+public class MessageSegment {
+
+	// Specifies the unique identifier for this document in the collection, "chatId:firstMessageId"
+	@Id
+	private String id;
+	private String chatId;
+	// Number of messages in the segment
+	private int count;
+	// Timestamps of the oldest and newest messages of the segment
+	private LocalDateTime from;
+	private LocalDateTime to;
+	// Gzip compressed sequence of the BSON documents of the messages, oldest first
+	private byte[] data;
+	private LocalDateTime archivedAt;
+
+	// No-args constructor for serialization and deserialization frameworks
+	public MessageSegment() {
+	}
+
+	// Full-args constructor for initializing all fields of the MessageSegment object
+	public MessageSegment(String id, String chatId, int count, LocalDateTime from, LocalDateTime to, byte[] data, LocalDateTime archivedAt) {
+		super();
+		this.id = id;
+		this.chatId = chatId;
+		this.count = count;
+		this.from = from;
+		this.to = to;
+		this.data = data;
+		this.archivedAt = archivedAt;
+	}
+
+	// Getters and Setters
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getChatId() {
+		return chatId;
+	}
+
+	public void setChatId(String chatId) {
+		this.chatId = chatId;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	public LocalDateTime getFrom() {
+		return from;
+	}
+
+	public void setFrom(LocalDateTime from) {
+		this.from = from;
+	}
+
+	public LocalDateTime getTo() {
+		return to;
+	}
+
+	public void setTo(LocalDateTime to) {
+		this.to = to;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	public void setData(byte[] data) {
+		this.data = data;
+	}
+
+	public LocalDateTime getArchivedAt() {
+		return archivedAt;
+	}
+
+	public void setArchivedAt(LocalDateTime archivedAt) {
+		this.archivedAt = archivedAt;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(id);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MessageSegment other = (MessageSegment) obj;
+		return Objects.equals(id, other.id);
+	}
+
+	@Override
+	public String toString() {
+		return "MessageSegment [id=" + id + ", chatId=" + chatId + ", count=" + count + ", from=" + from + ", to=" + to
+				+ ", archivedAt=" + archivedAt + "]";
+	}
+}
@@ -2,8 +2,14 @@ package com.fabricio.practice.chat_fusion.model;
 
 
 
+import java.text.Normalizer;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.Indexed;
@@ -23,6 +29,9 @@ public class User {
 	private String password;
 	private String pfp;
 	private Instant lastConnection;
+	// Normalized username, its words, email and email name, kept in sync by the setters for the indexed typeahead search
+	// Not exposed through a getter so it never reaches the responses
+	private List<String> searchKeys = new ArrayList<>();
 
 	
 	// No-args constructor for serialization and deserialization frameworks
@@ -40,6 +49,40 @@ public class User {
 		this.password = password;
 		this.pfp = pfp;
 		this.lastConnection = lastConnection;
+		this.searchKeys = searchKeysOf(username, email);
+	}
+
+	// Lowercases the text and strips accents and surrounding whitespace so searches match regardless of them
+	public static String normalize(String text) {
+		if (text == null) {
+			return "";
+		}
+		String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+		return decomposed.toLowerCase(Locale.ROOT).trim().replaceAll("\\s+", " ");
+	}
+
+	// Builds the search keys of an user, each one can be matched by prefix
+	public static List<String> searchKeysOf(String username, String email) {
+		Set<String> keys = new LinkedHashSet<>();
+		String name = normalize(username);
+		if (!name.isEmpty()) {
+			keys.add(name);
+			// Every word of the username so a search can match the middle of the name
+			for (String word : name.split("[^\\p{L}\\p{N}]+")) {
+				if (!word.isEmpty()) {
+					keys.add(word);
+				}
+			}
+		}
+		String mail = normalize(email);
+		if (!mail.isEmpty()) {
+			keys.add(mail);
+			int at = mail.indexOf('@');
+			if (at > 0) {
+				keys.add(mail.substring(0, at));
+			}
+		}
+		return new ArrayList<>(keys);
 	}
 
 
@@ -56,12 +99,14 @@ public class User {
 	}
 	public void setUsername(String username) {
 		this.username = username;
+		this.searchKeys = searchKeysOf(username, email);
 	}
 	public String getEmail() {
 		return email;
 	}
 	public void setEmail(String email) {
 		this.email = email;
+		this.searchKeys = searchKeysOf(username, email);
 	}
 	public String getPassword() {
 		return password;
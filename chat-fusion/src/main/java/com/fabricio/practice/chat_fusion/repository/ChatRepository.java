@@ -2,7 +2,6 @@ package com.fabricio.practice.chat_fusion.repository;
 
 import java.util.List;
 
-import org.bson.types.ObjectId;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 //import org.springframework.data.mongodb.repository.Query;
@@ -13,17 +12,18 @@ import com.fabricio.practice.chat_fusion.model.Chat;
 
 //Repository interface for interacting with the "chats" collection in MongoDB
 @Repository
-public interface ChatRepository extends MongoRepository<Chat, String>{
+public interface ChatRepository extends MongoRepository<Chat, String>, ChatRepositoryCustom {
 	// Custom query method to find all chats where the user is a member
-	@Query("{ 'members': ?0 }")
+	@Query("{ 'memberIds': ?0 }")
 	public List<Chat> findChatByUserId(String userId);
 
 	
-	// Custom query method to find a single non-group chat with specific members
-	@Query("{ $and: [ " +
-	        "{ isGroup: false }, " +
-	        "{ 'members.$id': { $all: [?0, ?1] } } ] }")
-	Chat findSingleChatByUserIds(ObjectId id1, ObjectId id2);
+	// Finds the chats where the user is a member with only their ID loaded
+	@Query(value = "{ 'memberIds': ?0 }", fields = "{ '_id': 1 }")
+	public List<Chat> findChatIdsByUserId(String userId);
+	
+	// Finds the one to one chat with the given pair key, see Chat.pairKeyOf
+	Chat findByPairKey(String pairKey);
 
 
 	
@@ -0,0 +1,39 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import java.util.Collection;
+
+import com.fabricio.practice.chat_fusion.model.Chat;
+
+// Custom repository interface for targeted updates on the "chats" collection
+// Each method changes only the fields involved instead of saving the whole document
+public interface ChatRepositoryCustom {
+
+	// Inserts the one to one chat unless a chat with the same pair key exists, returns the stored chat
+	// The returned chat has a different ID than the given one when another request created it first
+	public Chat insertDirectChatIfAbsent(Chat chat);
+
+	// Adds a member to the group if the requester is an admin, returns the updated chat or null if no chat matched
+	public Chat addMember(String chatId, String adminId, String userId);
+
+	// Grants admin privileges if the requester is an admin and the user is not one yet, returns the updated chat or null if no chat matched
+	public Chat addAdmin(String chatId, String adminId, String userId);
+
+	// Updates the name and/or image of the chat if it was not modified since it was read, returns the updated chat or null on conflict
+	public Chat updateDetails(String chatId, Long expectedVersion, String chatName, String chatImage);
+
+	// Removes a member (and their admin privileges) if the chat was not modified since it was read, returns the updated chat or null on conflict
+	// When newAdminId is not null it replaces the admins, used when the last admin leaves
+	public Chat removeMember(String chatId, Long expectedVersion, String userId, String newAdminId);
+
+	// Adds the users to the group in one update if the requester is an admin and none of them is a member yet
+	// Returns the updated chat or null if no chat matched
+	public Chat addMembers(String chatId, String adminId, Collection<String> userIds);
+
+	// Grants admin privileges to the users in one update if the chat is a group, the requester is an admin and all of them are members
+	// Returns the updated chat or null if no chat matched
+	public Chat addAdmins(String chatId, String adminId, Collection<String> userIds);
+
+	// Removes the users and replaces the admins in one update if the chat was not modified since it was read
+	// Returns the updated chat or null on conflict
+	public Chat removeMembers(String chatId, Long expectedVersion, Collection<String> userIds, Collection<String> adminIds);
+}
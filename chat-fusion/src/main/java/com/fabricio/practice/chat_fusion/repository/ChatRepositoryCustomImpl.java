@@ -0,0 +1,135 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.fabricio.practice.chat_fusion.model.Chat;
+
+// Implementation of the ChatRepositoryCustom interface using atomic update operators
+public class ChatRepositoryCustomImpl implements ChatRepositoryCustom {
+
+	// MongoTemplate for performing the targeted updates
+	private final MongoTemplate mongoTemplate;
+
+	// Constructor for dependency injection
+	public ChatRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	// Inserts the one to one chat unless a chat with the same pair key exists, in one upsert on the unique pair key
+	@Override
+	public Chat insertDirectChatIfAbsent(Chat chat) {
+		// Every field is only written when the upsert inserts, an existing chat is returned unchanged
+		chat.setVersion(0L);
+		Document fields = new Document();
+		mongoTemplate.getConverter().write(chat, fields);
+		Update update = new Update();
+		fields.forEach(update::setOnInsert);
+
+		Query query = new Query(Criteria.where("pairKey").is(chat.getPairKey()));
+		try {
+			return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().upsert(true).returnNew(true), Chat.class);
+		} catch (DuplicateKeyException e) {
+			// Two upserts raced to insert, the unique index let only one through
+			return mongoTemplate.findOne(query, Chat.class);
+		}
+	}
+
+	// Adds a member to the group if the requester is an admin
+	@Override
+	public Chat addMember(String chatId, String adminId, String userId) {
+		Query query = new Query(Criteria.where("_id").is(chatId).and("adminIds").is(adminId));
+		Update update = new Update()
+				.addToSet("memberIds", userId)
+				.inc("version", 1);
+		return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Chat.class);
+	}
+
+	// Grants admin privileges if the requester is an admin and the user is not one yet
+	@Override
+	public Chat addAdmin(String chatId, String adminId, String userId) {
+		Query query = new Query(Criteria.where("_id").is(chatId).andOperator(
+				Criteria.where("adminIds").is(adminId),
+				Criteria.where("adminIds").ne(userId)));
+		Update update = new Update()
+				.addToSet("adminIds", userId)
+				.inc("version", 1);
+		return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Chat.class);
+	}
+
+	// Updates the name and/or image of the chat if it was not modified since it was read
+	@Override
+	public Chat updateDetails(String chatId, Long expectedVersion, String chatName, String chatImage) {
+		Update update = new Update().inc("version", 1);
+		if (chatName != null) {
+			update.set("chat_name", chatName);
+		}
+		if (chatImage != null) {
+			update.set("chat_image", chatImage);
+		}
+		return mongoTemplate.findAndModify(versioned(chatId, expectedVersion), update, FindAndModifyOptions.options().returnNew(true), Chat.class);
+	}
+
+	// Removes a member (and their admin privileges) if the chat was not modified since it was read
+	@Override
+	public Chat removeMember(String chatId, Long expectedVersion, String userId, String newAdminId) {
+		Update update = new Update()
+				.pull("memberIds", userId)
+				.inc("version", 1);
+		// The same field can't be pulled from and added to in one update, so the admins are replaced instead
+		if (newAdminId != null) {
+			update.set("adminIds", List.of(newAdminId));
+		} else {
+			update.pull("adminIds", userId);
+		}
+		return mongoTemplate.findAndModify(versioned(chatId, expectedVersion), update, FindAndModifyOptions.options().returnNew(true), Chat.class);
+	}
+
+	// Adds the users to the group in one update if the requester is an admin and none of them is a member yet
+	@Override
+	public Chat addMembers(String chatId, String adminId, Collection<String> userIds) {
+		// Matching only while none of them is a member keeps racing requests from announcing the same members twice
+		Query query = new Query(Criteria.where("_id").is(chatId).and("adminIds").is(adminId).and("memberIds").nin(userIds));
+		Update update = new Update()
+				.addToSet("memberIds").each(userIds.toArray())
+				.inc("version", 1);
+		return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Chat.class);
+	}
+
+	// Grants admin privileges to the users in one update if the chat is a group, the requester is an admin and all of them are members
+	@Override
+	public Chat addAdmins(String chatId, String adminId, Collection<String> userIds) {
+		Query query = new Query(Criteria.where("_id").is(chatId).and("isGroup").is(true).and("adminIds").is(adminId).and("memberIds").all(userIds));
+		Update update = new Update()
+				.addToSet("adminIds").each(userIds.toArray())
+				.inc("version", 1);
+		return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Chat.class);
+	}
+
+	// Removes the users and replaces the admins in one update if the chat was not modified since it was read
+	@Override
+	public Chat removeMembers(String chatId, Long expectedVersion, Collection<String> userIds, Collection<String> adminIds) {
+		Update update = new Update()
+				.pullAll("memberIds", userIds.toArray())
+				.set("adminIds", adminIds)
+				.inc("version", 1);
+		return mongoTemplate.findAndModify(versioned(chatId, expectedVersion), update, FindAndModifyOptions.options().returnNew(true), Chat.class);
+	}
+
+	// Matches the chat only if its version is still the one that was read
+	// Chats created before the version field existed match while the field is missing
+	private Query versioned(String chatId, Long expectedVersion) {
+		Criteria version = expectedVersion == null
+				? Criteria.where("version").exists(false)
+				: Criteria.where("version").is(expectedVersion);
+		return new Query(Criteria.where("_id").is(chatId).andOperator(version));
+	}
+}
@@ -0,0 +1,20 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import java.util.List;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import com.fabricio.practice.chat_fusion.model.MemberState;
+
+//Repository interface for interacting with the "member_states" collection in MongoDB
+public interface MemberStateRepository extends MongoRepository<MemberState, String>, MemberStateRepositoryCustom {
+
+	// Finds the state of every member of a chat
+	public List<MemberState> findByChatId(String chatId);
+
+	// Finds the states of an user with unread messages, across all of their chats
+	public List<MemberState> findByUserIdAndUnreadCountGreaterThan(String userId, int unreadCount);
+
+	// Deletes the state of every member of a chat
+	public void deleteAllByChatId(String chatId);
+}
@@ -0,0 +1,12 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+// Custom repository interface for targeted updates on the "member_states" collection
+public interface MemberStateRepositoryCustom {
+
+	// Moves the read watermark of each member forward to readAt, never backwards
+	// Only existing states are updated, a state is created when the member joins the chat
+	public void markRead(String chatId, Collection<String> userIds, LocalDateTime readAt);
+}
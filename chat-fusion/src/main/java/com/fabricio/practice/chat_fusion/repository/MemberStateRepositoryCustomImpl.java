@@ -0,0 +1,41 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.fabricio.practice.chat_fusion.model.MemberState;
+
+// Implementation of the MemberStateRepositoryCustom interface using bulk updates
+public class MemberStateRepositoryCustomImpl implements MemberStateRepositoryCustom {
+
+	// MongoTemplate for performing the targeted updates
+	private final MongoTemplate mongoTemplate;
+
+	// Constructor for dependency injection
+	public MemberStateRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	// Moves the read watermark of each member forward to readAt in one unordered bulk write
+	@Override
+	public void markRead(String chatId, Collection<String> userIds, LocalDateTime readAt) {
+		if (userIds.isEmpty()) {
+			return;
+		}
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, MemberState.class);
+		for (String userId : userIds) {
+			// $max keeps the latest watermark when reads arrive out of order
+			// Update only, a read racing with the removal of the member does not create their state again
+			ops.updateOne(new Query(Criteria.where("_id").is(MemberState.idOf(chatId, userId))),
+					new Update().max("lastReadAt", readAt));
+		}
+		ops.execute();
+	}
+}
@@ -0,0 +1,348 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
+import com.fabricio.practice.chat_fusion.model.MessageBucket;
+import com.mongodb.bulk.BulkWriteError;
+
+// Bucketed layout of the messages (messages.storage=bucket), the messages of a chat are appended to a bucket until it holds
+// bucket-size messages or its first message is older than bucket-window, then a new bucket is opened
+// A history page reads one or two buckets instead of one document per message and the chat index has one entry per bucket
+// Edits and deletes are applied in place through the index on the message IDs
+class MessageBucketStore {
+
+	// Newest first, the ID breaks ties between messages with the same timestamp
+	private static final Comparator<Message> HISTORY_ORDER = Comparator.comparing(Message::getTimestamp)
+			.thenComparing(Message::getId).reversed();
+	// Newest bucket first
+	private static final Sort BUCKET_ORDER = Sort.by(Sort.Order.desc("end"));
+	// Oldest bucket first, the order of an export
+	private static final Sort EXPORT_ORDER = Sort.by(Sort.Order.asc("end"));
+
+	// MongoTemplate for performing the queries
+	private final MongoTemplate mongoTemplate;
+	// Messages appended to a bucket before a new one is opened
+	private final int bucketSize;
+	// Time after the first message of a bucket during which messages are appended to it
+	private final Duration bucketWindow;
+
+	// Constructor with the bucket bounds
+	MessageBucketStore(MongoTemplate mongoTemplate, int bucketSize, Duration bucketWindow) {
+		this.mongoTemplate = mongoTemplate;
+		this.bucketSize = bucketSize;
+		this.bucketWindow = bucketWindow;
+	}
+
+	// Appends a new message to the open bucket of its chat, opening one if there is none
+	Message insert(Message mssg) {
+		mongoTemplate.upsert(openBucketQuery(mssg.getChatId(), mssg.getTimestamp(), 1), appendUpdate(List.of(mssg)), MessageBucket.class);
+		return mssg;
+	}
+
+	// Appends new messages with one upsert per chat and bucket worth of messages, in a single ordered bulk write
+	void insertAll(Collection<? extends Message> mssgs) {
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.ORDERED, MessageBucket.class);
+		for (List<Message> chunk : chunks(mssgs)) {
+			Message last = chunk.get(chunk.size() - 1);
+			ops.upsert(openBucketQuery(last.getChatId(), last.getTimestamp(), chunk.size()), appendUpdate(chunk));
+		}
+		ops.execute();
+	}
+
+	// Appends new messages like insertAll in an unordered bulk write, returns the error of each message not stored by its ID
+	// A failed upsert leaves out every message of its chunk, the chunks of other chats are still appended
+	Map<String, String> insertUnordered(Collection<? extends Message> mssgs) {
+		List<List<Message>> chunks = chunks(mssgs);
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, MessageBucket.class);
+		for (List<Message> chunk : chunks) {
+			Message last = chunk.get(chunk.size() - 1);
+			ops.upsert(openBucketQuery(last.getChatId(), last.getTimestamp(), chunk.size()), appendUpdate(chunk));
+		}
+
+		Map<String, String> errors = new LinkedHashMap<>();
+		try {
+			ops.execute();
+		} catch (BulkOperationException e) {
+			// Each error points to the position of the chunk in the bulk write
+			for (BulkWriteError error : e.getErrors()) {
+				for (Message mssg : chunks.get(error.getIndex())) {
+					errors.put(mssg.getId(), error.getMessage());
+				}
+			}
+		}
+		return errors;
+	}
+
+	// Groups the messages by chat keeping their order and splits each chat in bucket sized chunks
+	private List<List<Message>> chunks(Collection<? extends Message> mssgs) {
+		Map<String, List<Message>> byChat = new LinkedHashMap<>();
+		for (Message mssg : mssgs) {
+			byChat.computeIfAbsent(mssg.getChatId(), chatId -> new ArrayList<>()).add(mssg);
+		}
+		List<List<Message>> chunks = new ArrayList<>();
+		for (List<Message> chatMssgs : byChat.values()) {
+			for (int from = 0; from < chatMssgs.size(); from += bucketSize) {
+				chunks.add(chatMssgs.subList(from, Math.min(from + bucketSize, chatMssgs.size())));
+			}
+		}
+		return chunks;
+	}
+
+	// Replaces the message in its bucket, appends it if it is not stored yet
+	Message save(Message mssg) {
+		long matched = mongoTemplate.updateFirst(messageQuery(mssg.getId()).addCriteria(Criteria.where("chatId").is(mssg.getChatId())),
+				new Update().set("messages.$", mssg), MessageBucket.class).getMatchedCount();
+		return matched > 0 ? mssg : insert(mssg);
+	}
+
+	// Finds a message by its ID, only the matching element of the bucket is returned
+	Optional<Message> findById(String id) {
+		Query query = messageQuery(id);
+		query.fields().position("messages", 1);
+		MessageBucket bucket = mongoTemplate.findOne(query, MessageBucket.class);
+		return bucket == null || bucket.getMessages().isEmpty() ? Optional.empty() : Optional.of(bucket.getMessages().get(0));
+	}
+
+	// Removes a message from its bucket
+	void deleteById(String id) {
+		mongoTemplate.updateFirst(messageQuery(id),
+				new Update().pull("messages", Query.query(Criteria.where("_id").is(id))).inc("size", -1), MessageBucket.class);
+	}
+
+	// Deletes the buckets of a chat
+	void deleteAllByChatId(String chatId) {
+		mongoTemplate.remove(new Query(Criteria.where("chatId").is(chatId)), MessageBucket.class);
+	}
+
+	// Counts the messages of a chat from the sizes of its buckets
+	long countByChatId(String chatId) {
+		Document total = mongoTemplate.aggregate(Aggregation.newAggregation(
+				Aggregation.match(Criteria.where("chatId").is(chatId)),
+				Aggregation.group().sum("size").as("total")), MessageBucket.class, Document.class).getUniqueMappedResult();
+		return total == null ? 0 : total.get("total", Number.class).longValue();
+	}
+
+	// Finds up to limit messages of the chat older than the (timestamp, id) position, newest first
+	// The buckets are read newest first until the next one can only hold messages older than the whole page
+	List<Message> findHistory(String chatId, LocalDateTime beforeTimestamp, String beforeId, int limit) {
+		List<Message> page = new ArrayList<>();
+		try (Stream<MessageBucket> buckets = mongoTemplate.stream(bucketsQuery(chatId, beforeTimestamp), MessageBucket.class)) {
+			Iterator<MessageBucket> iterator = buckets.iterator();
+			while (iterator.hasNext()) {
+				MessageBucket bucket = iterator.next();
+				if (page.size() >= limit && bucket.getEnd().isBefore(page.get(limit - 1).getTimestamp())) {
+					break;
+				}
+				for (Message mssg : bucket.getMessages()) {
+					if (isBefore(mssg, beforeTimestamp, beforeId)) {
+						page.add(mssg);
+					}
+				}
+				// Buckets opened by concurrent writers may overlap, the page is kept sorted across them
+				page.sort(HISTORY_ORDER);
+				if (page.size() > limit) {
+					page = new ArrayList<>(page.subList(0, limit));
+				}
+			}
+		}
+		return page;
+	}
+
+	// Streams every message of the chat oldest first, one bucket at a time
+	// Messages of overlapping buckets come out in bucket order, each bucket is sorted on its own
+	Stream<Message> streamChat(String chatId) {
+		return mongoTemplate.stream(exportQuery(chatId), MessageBucket.class)
+				.flatMap(bucket -> bucket.getMessages().stream().sorted(HISTORY_ORDER.reversed()));
+	}
+
+	// Finds the timestamp of the oldest message of the chat, the earliest start of its buckets
+	Optional<LocalDateTime> findOldestTimestamp(String chatId) {
+		Query query = new Query(Criteria.where("chatId").is(chatId)).with(Sort.by(Sort.Order.asc("start")));
+		query.fields().include("start");
+		return Optional.ofNullable(mongoTemplate.findOne(query, MessageBucket.class)).map(MessageBucket::getStart);
+	}
+
+	// Finds up to limit messages of the chat after skipping the newest ones, newest first
+	// Whole buckets are skipped by their size, only the buckets holding the page are read
+	List<Message> findLatest(String chatId, int skip, int limit) {
+		Query sizesQuery = bucketsQuery(chatId, null);
+		sizesQuery.fields().include("size");
+
+		int offset = skip;
+		int available = 0;
+		List<String> ids = new ArrayList<>();
+		for (MessageBucket bucket : mongoTemplate.find(sizesQuery, MessageBucket.class)) {
+			if (ids.isEmpty() && offset >= bucket.getSize()) {
+				offset -= bucket.getSize();
+				continue;
+			}
+			ids.add(bucket.getId());
+			available += bucket.getSize();
+			if (available - offset >= limit) {
+				break;
+			}
+		}
+		if (ids.isEmpty()) {
+			return List.of();
+		}
+
+		List<Message> mssgs = new ArrayList<>();
+		for (MessageBucket bucket : mongoTemplate.find(new Query(Criteria.where("_id").in(ids)), MessageBucket.class)) {
+			mssgs.addAll(bucket.getMessages());
+		}
+		mssgs.sort(HISTORY_ORDER);
+		return mssgs.subList(Math.min(offset, mssgs.size()), Math.min(offset + limit, mssgs.size()));
+	}
+
+	// Finds up to limit text messages of the chats containing a word of the search text after skipping the first results
+	// The text index is prefixed by the chat ID so each chat is searched on its own, its best matching buckets are read until
+	// skip + limit messages are found, and the messages of every chat are ranked together by the score of their bucket
+	List<Message> search(Collection<String> chatIds, String text, int skip, int limit) {
+		List<String> words = new ArrayList<>();
+		for (String word : text.toLowerCase(Locale.ROOT).split("\\s+")) {
+			if (!word.isBlank()) {
+				words.add(word);
+			}
+		}
+
+		String collection = mongoTemplate.getCollectionName(MessageBucket.class);
+		List<ScoredMessage> results = new ArrayList<>();
+		for (String chatId : chatIds) {
+			int found = 0;
+			// Read as documents to keep the text score, which is not a field of the bucket
+			try (Stream<Document> buckets = mongoTemplate.stream(searchQuery(chatId, text), Document.class, collection)) {
+				Iterator<Document> iterator = buckets.iterator();
+				while (found < skip + limit && iterator.hasNext()) {
+					Document document = iterator.next();
+					double score = document.get(ScoredMessage.SCORE_FIELD, Number.class).doubleValue();
+					for (Message mssg : mongoTemplate.getConverter().read(MessageBucket.class, document).getMessages()) {
+						if ("text".equals(mssg.getType()) && mssg.getContent() != null && containsAny(mssg.getContent(), words)) {
+							results.add(new ScoredMessage(score, mssg));
+							found++;
+						}
+					}
+				}
+			}
+		}
+		return ScoredMessage.page(results, skip, limit);
+	}
+
+	// Replaces the outdated author snapshots of the user, returns the number of buckets updated
+	long updateAuthor(MessageAuthor author) {
+		return mongoTemplate.updateMulti(authorQuery(author),
+				new Update().set("messages.$[m].user", author).filterArray(Criteria.where("m.author._id").is(storedId(author.getId())).orOperator(
+						Criteria.where("m.author.username").ne(author.getUsername()),
+						Criteria.where("m.author.pfp").ne(author.getPfp()))),
+				MessageBucket.class).getModifiedCount();
+	}
+
+	// Builds the query of the bucket a message is appended to, one with room for the messages whose first message is recent enough
+	// A chat has one open bucket, a new one is created by the upsert when it is full or too old
+	static Query openBucketQuery(String chatId, LocalDateTime timestamp, int messages, int bucketSize, Duration bucketWindow) {
+		return new Query(Criteria.where("chatId").is(chatId)
+				.and("count").lte(bucketSize - messages)
+				.and("start").gt(timestamp.minus(bucketWindow)));
+	}
+
+	// Builds the query of the buckets of a chat holding messages at or before the timestamp, newest first, also used by the query plan tests
+	static Query bucketsQuery(String chatId, LocalDateTime beforeTimestamp) {
+		Criteria criteria = Criteria.where("chatId").is(chatId);
+		if (beforeTimestamp != null) {
+			criteria.and("start").lte(beforeTimestamp);
+		}
+		return new Query(criteria).with(BUCKET_ORDER).cursorBatchSize(2);
+	}
+
+	// Builds the query of the buckets of a chat matching the search text, best match first, also used by the query plan tests
+	static Query searchQuery(String chatId, String text) {
+		return TextQuery.queryText(TextCriteria.forDefaultLanguage().matching(text)).sortByScore()
+				.includeScore(ScoredMessage.SCORE_FIELD)
+				.addCriteria(Criteria.where("chatId").is(chatId))
+				.cursorBatchSize(2);
+	}
+
+	// Builds the query of the bucket holding a message, also used by the query plan tests
+	static Query messageQuery(String id) {
+		return new Query(Criteria.where("messages._id").is(id));
+	}
+
+	// Builds the query of every bucket of a chat, oldest first, also used by the query plan tests
+	static Query exportQuery(String chatId) {
+		return new Query(Criteria.where("chatId").is(chatId)).with(EXPORT_ORDER).cursorBatchSize(2);
+	}
+
+	// Builds the query of the buckets holding outdated author snapshots of the user, also used by the query plan tests
+	static Query authorQuery(MessageAuthor author) {
+		return new Query(Criteria.where("messages").elemMatch(Criteria.where("user.id").is(author.getId()).orOperator(
+				Criteria.where("user.username").ne(author.getUsername()),
+				Criteria.where("user.pfp").ne(author.getPfp()))));
+	}
+
+	// Builds the open bucket query with the configured bucket size and window
+	private Query openBucketQuery(String chatId, LocalDateTime timestamp, int messages) {
+		return openBucketQuery(chatId, timestamp, messages, bucketSize, bucketWindow);
+	}
+
+	// Appends the messages and widens the time range of the bucket, the upsert sets the start of a new bucket
+	private static Update appendUpdate(List<Message> mssgs) {
+		Message first = mssgs.stream().min(Comparator.comparing(Message::getTimestamp)).orElseThrow();
+		Message last = mssgs.stream().max(Comparator.comparing(Message::getTimestamp)).orElseThrow();
+		return new Update().push("messages").each(mssgs.toArray())
+				.inc("count", mssgs.size())
+				.inc("size", mssgs.size())
+				.min("start", first.getTimestamp())
+				.max("end", last.getTimestamp());
+	}
+
+	// Whether the message comes before the (timestamp, id) position in the history
+	private static boolean isBefore(Message mssg, LocalDateTime beforeTimestamp, String beforeId) {
+		if (beforeTimestamp == null) {
+			return true;
+		}
+		int order = mssg.getTimestamp().compareTo(beforeTimestamp);
+		return order < 0 || (order == 0 && mssg.getId().compareTo(beforeId) < 0);
+	}
+
+	// Whether the text contains one of the lowercase words
+	private static boolean containsAny(String content, List<String> words) {
+		String lower = content.toLowerCase(Locale.ROOT);
+		for (String word : words) {
+			if (lower.contains(word)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// ID as stored by the mapping, strings that are valid ObjectIds are stored as ObjectIds, needed where the criteria is not mapped
+	private static Object storedId(String id) {
+		return ObjectId.isValid(id) ? new ObjectId(id) : id;
+	}
+}
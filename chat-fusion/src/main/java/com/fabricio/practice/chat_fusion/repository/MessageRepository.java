@@ -1,21 +1,30 @@
 package com.fabricio.practice.chat_fusion.repository;
 
 
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import java.util.List;
+import java.util.Optional;
+
 import org.springframework.data.mongodb.repository.MongoRepository;
-import org.springframework.data.mongodb.repository.Query;
 
 import com.fabricio.practice.chat_fusion.model.Message;
 
-public interface MessageRepository extends MongoRepository <Message, String>{
+public interface MessageRepository extends MongoRepository <Message, String>, MessageRepositoryCustom {
+
+	// The CRUD methods are implemented by MessageRepositoryCustomImpl so they follow the configured storage layout
+	// Redeclared here since they are inherited from both MongoRepository and MessageRepositoryCustom
+	@Override
+	public <S extends Message> S insert(S mssg);
+
+	@Override
+	public <S extends Message> List<S> insert(Iterable<S> mssgs);
+
+	@Override
+	public <S extends Message> S save(S mssg);
 
-	// Custom query to find all messages from a chat
-	@Query("{ 'chatId': ?0 }")
-	public Page<Message> findByChatId(String chatId, Pageable pageable);
-	
-	// Method to delete all messages from a chat
-	public void deleteAllByChatId(String chatId);
+	@Override
+	public Optional<Message> findById(String id);
 
+	@Override
+	public void deleteById(String id);
 
 }
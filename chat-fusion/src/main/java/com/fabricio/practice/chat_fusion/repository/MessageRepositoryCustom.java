@@ -0,0 +1,60 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
+
+// Custom repository interface for the chat history queries and bulk updates on the messages
+// The messages are stored one per document in "messages" or packed in "message_buckets" depending on messages.storage
+public interface MessageRepositoryCustom {
+
+	// Stores a new message
+	public <S extends Message> S insert(S mssg);
+
+	// Stores new messages in one bulk write
+	public <S extends Message> List<S> insert(Iterable<S> mssgs);
+
+	// Stores new messages in one unordered bulk write, a message that fails does not stop the others
+	// Returns the error of each message that was not stored by its ID, empty when every message was stored
+	public Map<String, String> insertUnordered(List<? extends Message> mssgs);
+
+	// Replaces a stored message, stores it if it is new
+	public <S extends Message> S save(S mssg);
+
+	// Finds a message by its ID
+	public Optional<Message> findById(String id);
+
+	// Deletes a message by its ID
+	public void deleteById(String id);
+
+	// Deletes all the messages of a chat
+	public void deleteAllByChatId(String chatId);
+
+	// Counts the messages of a chat
+	public long countByChatId(String chatId);
+
+	// Finds up to limit messages of the chat older than the (timestamp, id) position, newest first
+	// A null beforeTimestamp starts from the latest message
+	public List<Message> findHistory(String chatId, LocalDateTime beforeTimestamp, String beforeId, int limit);
+
+	// Streams every message of the chat oldest first from a cursor, the stream has to be closed to release the cursor
+	public Stream<Message> streamChat(String chatId);
+
+	// Finds the timestamp of the oldest message of the chat, empty when the chat has no messages
+	public Optional<LocalDateTime> findOldestTimestamp(String chatId);
+
+	// Finds up to limit messages of the chat after skipping the newest ones, newest first, without counting the chat's messages
+	public List<Message> findLatest(String chatId, int skip, int limit);
+
+	// Finds up to limit text messages of the chats matching the search text after skipping the first results, best match first
+	public List<Message> search(Collection<String> chatIds, String text, int skip, int limit);
+
+	// Replaces the outdated author snapshots of the user's messages, returns the number of documents updated
+	public long updateAuthor(MessageAuthor author);
+}
@@ -0,0 +1,259 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.Streamable;
+
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
+import com.mongodb.bulk.BulkWriteError;
+
+// Implementation of the MessageRepositoryCustom interface
+// The history queries are served by the chat_history index, the author updates by the author index and the search by the content text index declared in IndexCatalog
+// With messages.storage=bucket every method is served by MessageBucketStore instead
+public class MessageRepositoryCustomImpl implements MessageRepositoryCustom {
+
+	// Newest first, the ID breaks ties between messages with the same timestamp
+	private static final Sort HISTORY_ORDER = Sort.by(Sort.Order.desc("timestamp"), Sort.Order.desc("_id"));
+	// Oldest first, the order of an export
+	private static final Sort EXPORT_ORDER = Sort.by(Sort.Order.asc("timestamp"), Sort.Order.asc("_id"));
+	// Messages fetched per round trip while streaming a chat
+	private static final int EXPORT_BATCH_SIZE = 500;
+
+	// MongoTemplate for performing the queries
+	private final MongoTemplate mongoTemplate;
+	// Bucketed layout, null when the messages are stored one per document
+	private final MessageBucketStore buckets;
+
+	// Constructor for dependency injection
+	public MessageRepositoryCustomImpl(MongoTemplate mongoTemplate,
+			@Value("${messages.storage:document}") String storage,
+			@Value("${messages.storage.bucket-size:200}") int bucketSize,
+			@Value("${messages.storage.bucket-window:P7D}") Duration bucketWindow) {
+		this.mongoTemplate = mongoTemplate;
+		this.buckets = "bucket".equals(storage) ? new MessageBucketStore(mongoTemplate, bucketSize, bucketWindow) : null;
+	}
+
+	// Stores a new message, in bucket mode it is appended to the open bucket of its chat
+	@Override
+	public <S extends Message> S insert(S mssg) {
+		if (buckets != null) {
+			buckets.insert(mssg);
+			return mssg;
+		}
+		return mongoTemplate.insert(mssg);
+	}
+
+	// Stores new messages in one bulk write
+	@Override
+	public <S extends Message> List<S> insert(Iterable<S> mssgs) {
+		List<S> list = Streamable.of(mssgs).toList();
+		if (buckets != null) {
+			buckets.insertAll(list);
+		} else {
+			mongoTemplate.insert(list, Message.class);
+		}
+		return list;
+	}
+
+	// Stores new messages in one unordered bulk write and reports the errors of the messages that were not stored
+	@Override
+	public Map<String, String> insertUnordered(List<? extends Message> mssgs) {
+		if (buckets != null) {
+			return buckets.insertUnordered(mssgs);
+		}
+		Map<String, String> errors = new LinkedHashMap<>();
+		try {
+			mongoTemplate.bulkOps(BulkMode.UNORDERED, Message.class).insert(mssgs).execute();
+		} catch (BulkOperationException e) {
+			// Each error points to the position of the message in the bulk write
+			for (BulkWriteError error : e.getErrors()) {
+				errors.put(mssgs.get(error.getIndex()).getId(), error.getMessage());
+			}
+		}
+		return errors;
+	}
+
+	// Replaces a stored message, stores it if it is new
+	@Override
+	public <S extends Message> S save(S mssg) {
+		if (buckets != null) {
+			buckets.save(mssg);
+			return mssg;
+		}
+		return mongoTemplate.save(mssg);
+	}
+
+	// Finds a message by its ID
+	@Override
+	public Optional<Message> findById(String id) {
+		return buckets != null ? buckets.findById(id) : Optional.ofNullable(mongoTemplate.findById(id, Message.class));
+	}
+
+	// Deletes a message by its ID
+	@Override
+	public void deleteById(String id) {
+		if (buckets != null) {
+			buckets.deleteById(id);
+		} else {
+			mongoTemplate.remove(new Query(Criteria.where("_id").is(id)), Message.class);
+		}
+	}
+
+	// Deletes all the messages of a chat
+	@Override
+	public void deleteAllByChatId(String chatId) {
+		if (buckets != null) {
+			buckets.deleteAllByChatId(chatId);
+		} else {
+			mongoTemplate.remove(new Query(Criteria.where("chatId").is(chatId)), Message.class);
+		}
+	}
+
+	// Counts the messages of a chat
+	@Override
+	public long countByChatId(String chatId) {
+		return buckets != null ? buckets.countByChatId(chatId) : mongoTemplate.count(new Query(Criteria.where("chatId").is(chatId)), Message.class);
+	}
+
+	// Finds up to limit messages of the chat older than the (timestamp, id) position, newest first
+	@Override
+	public List<Message> findHistory(String chatId, LocalDateTime beforeTimestamp, String beforeId, int limit) {
+		if (buckets != null) {
+			return buckets.findHistory(chatId, beforeTimestamp, beforeId, limit);
+		}
+		return mongoTemplate.find(historyQuery(chatId, beforeTimestamp, beforeId, limit), Message.class);
+	}
+
+	// Streams every message of the chat oldest first, the chat_history index is walked backwards
+	@Override
+	public Stream<Message> streamChat(String chatId) {
+		if (buckets != null) {
+			return buckets.streamChat(chatId);
+		}
+		return mongoTemplate.stream(exportQuery(chatId), Message.class);
+	}
+
+	// Finds the timestamp of the oldest message of the chat, the first entry of the export order
+	@Override
+	public Optional<LocalDateTime> findOldestTimestamp(String chatId) {
+		if (buckets != null) {
+			return buckets.findOldestTimestamp(chatId);
+		}
+		Query query = exportQuery(chatId);
+		query.fields().include("timestamp");
+		return Optional.ofNullable(mongoTemplate.findOne(query, Message.class)).map(Message::getTimestamp);
+	}
+
+	// Finds up to limit messages of the chat after skipping the newest ones, newest first
+	@Override
+	public List<Message> findLatest(String chatId, int skip, int limit) {
+		if (buckets != null) {
+			return buckets.findLatest(chatId, skip, limit);
+		}
+		return mongoTemplate.find(latestQuery(chatId, skip, limit), Message.class);
+	}
+
+	// Finds up to limit text messages of the chats matching the search text, served by the content text index
+	// The index is prefixed by the chat ID, which the text query has to match by equality, so each chat is searched on its own
+	// with one index lookup, and the best skip + limit results of every chat are ranked together by their text score
+	// Only the ID, timestamp and score of the matches are read for the ranking, the full messages are read for the page alone
+	@Override
+	public List<Message> search(Collection<String> chatIds, String text, int skip, int limit) {
+		if (buckets != null) {
+			return buckets.search(chatIds, text, skip, limit);
+		}
+		String collection = mongoTemplate.getCollectionName(Message.class);
+		List<ScoredMessage> results = new ArrayList<>();
+		for (String chatId : chatIds) {
+			// Read as documents to keep the text score, which is not a field of the message
+			for (Document document : mongoTemplate.find(searchQuery(chatId, text, skip + limit), Document.class, collection)) {
+				results.add(new ScoredMessage(document.get(ScoredMessage.SCORE_FIELD, Number.class).doubleValue(),
+						mongoTemplate.getConverter().read(Message.class, document)));
+			}
+		}
+		List<String> ids = ScoredMessage.page(results, skip, limit).stream().map(Message::getId).toList();
+		if (ids.isEmpty()) {
+			return List.of();
+		}
+
+		// Reads the messages of the page and returns them in the ranked order, skipping those deleted in between
+		Map<String, Message> found = new HashMap<>();
+		for (Message mssg : mongoTemplate.find(new Query(Criteria.where("_id").in(ids)), Message.class)) {
+			found.put(mssg.getId(), mssg);
+		}
+		return ids.stream().map(found::get).filter(Objects::nonNull).toList();
+	}
+
+	// Replaces the author snapshots that differ from the current profile, messages already up to date are not rewritten
+	@Override
+	public long updateAuthor(MessageAuthor author) {
+		if (buckets != null) {
+			return buckets.updateAuthor(author);
+		}
+		return mongoTemplate.updateMulti(authorQuery(author), new Update().set("user", author), Message.class).getModifiedCount();
+	}
+
+	// Builds the history query, also used by the query plan tests
+	static Query historyQuery(String chatId, LocalDateTime beforeTimestamp, String beforeId, int limit) {
+		Criteria criteria = Criteria.where("chatId").is(chatId);
+		if (beforeTimestamp != null) {
+			// Seeks directly to the position instead of skipping the newer messages
+			criteria.orOperator(
+					Criteria.where("timestamp").lt(beforeTimestamp),
+					Criteria.where("timestamp").is(beforeTimestamp).and("_id").lt(beforeId));
+		}
+		return new Query(criteria).with(HISTORY_ORDER).limit(limit);
+	}
+
+	// Builds the export query, also used by the query plan tests
+	static Query exportQuery(String chatId) {
+		return new Query(Criteria.where("chatId").is(chatId)).with(EXPORT_ORDER).cursorBatchSize(EXPORT_BATCH_SIZE);
+	}
+
+	// Builds the skip based query, also used by the query plan tests
+	static Query latestQuery(String chatId, int skip, int limit) {
+		return new Query(Criteria.where("chatId").is(chatId)).with(HISTORY_ORDER).skip(skip).limit(limit);
+	}
+
+	// Builds the search query of a chat ranked by text score with the newest first among equal scores, also used by the query plan tests
+	// The type condition is required to use the text index, which only covers text messages, only the fields used to rank are read
+	static Query searchQuery(String chatId, String text, int limit) {
+		Query query = TextQuery.queryText(TextCriteria.forDefaultLanguage().matching(text)).sortByScore()
+				.includeScore(ScoredMessage.SCORE_FIELD)
+				.addCriteria(Criteria.where("chatId").is(chatId).and("type").is("text"))
+				.with(Sort.by(Sort.Order.desc("timestamp")))
+				.limit(limit);
+		query.fields().include("timestamp");
+		return query;
+	}
+
+	// Builds the outdated author snapshots query, also used by the query plan tests
+	static Query authorQuery(MessageAuthor author) {
+		return new Query(Criteria.where("user.id").is(author.getId()).orOperator(
+				Criteria.where("user.username").ne(author.getUsername()),
+				Criteria.where("user.pfp").ne(author.getPfp())));
+	}
+}
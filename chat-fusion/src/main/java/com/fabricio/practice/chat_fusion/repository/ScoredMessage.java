@@ -0,0 +1,24 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import com.fabricio.practice.chat_fusion.model.Message;
+
+// Search result with the text score of the document it was found in, used to merge the results of the searches of several chats
+record ScoredMessage(double score, Message message) {
+
+	// Best match first, the newest message first among equal scores and the ID breaks ties
+	static final Comparator<ScoredMessage> RANKING = Comparator.comparingDouble(ScoredMessage::score).reversed()
+			.thenComparing(scored -> scored.message().getTimestamp(), Comparator.reverseOrder())
+			.thenComparing(scored -> scored.message().getId(), Comparator.reverseOrder());
+
+	// Field of the text score in the projection of a search
+	static final String SCORE_FIELD = "score";
+
+	// Ranks the results of every chat together and returns up to limit messages after skipping the first ones
+	static List<Message> page(Collection<ScoredMessage> results, int skip, int limit) {
+		return results.stream().sorted(RANKING).skip(skip).limit(limit).map(ScoredMessage::message).toList();
+	}
+}
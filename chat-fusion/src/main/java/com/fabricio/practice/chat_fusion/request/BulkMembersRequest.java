@@ -0,0 +1,30 @@
+package com.fabricio.practice.chat_fusion.request;
+
+import java.util.List;
+
+//DTO (Data Transfer Object) for the bulk membership operations on a group
+public class BulkMembersRequest {
+	
+	// IDs of the users to add, remove or promote
+	private List<String> userIds;
+	
+	// Default no-arguments constructor
+	public BulkMembersRequest() {
+		
+	}
+
+	// Constructor to create a BulkMembersRequest with the specified fields
+	public BulkMembersRequest(List<String> userIds) {
+		super();
+		this.userIds = userIds;
+	}
+
+	// Getters and Setters
+	public List<String> getUserIds() {
+		return userIds;
+	}
+
+	public void setUserIds(List<String> userIds) {
+		this.userIds = userIds;
+	}
+}
@@ -6,7 +6,7 @@ public class UpdateStatusRequest {
 	private String email;
 	// Boolean to track if the user is online or not
 	private boolean online;
-	// ID of the user to add to the chat connectedUsers field
+	// ID of the user connecting to or leaving the chat
 	private String userId;
 	
 	// Default no-arguments constructor
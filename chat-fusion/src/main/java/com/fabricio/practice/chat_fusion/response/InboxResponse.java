@@ -0,0 +1,36 @@
+package com.fabricio.practice.chat_fusion.response;
+
+import java.util.List;
+
+import com.fabricio.practice.chat_fusion.model.MemberState;
+
+// Response model for a page of the inbox of an user, latest activity first
+public class InboxResponse {
+	// Inbox entries of the page, one per chat
+	private List<MemberState> entries;
+	// Index of the page, starting at zero
+	private int page;
+	// Flag indicating if there are more chats
+	private boolean hasMore;
+
+	// Parameterized constructor to initialize the fields
+	public InboxResponse(List<MemberState> entries, int page, boolean hasMore) {
+		super();
+		this.entries = entries;
+		this.page = page;
+		this.hasMore = hasMore;
+	}
+
+	// Getter methods for the response fields
+	public List<MemberState> getEntries() {
+		return entries;
+	}
+
+	public int getPage() {
+		return page;
+	}
+
+	public boolean isHasMore() {
+		return hasMore;
+	}
+}
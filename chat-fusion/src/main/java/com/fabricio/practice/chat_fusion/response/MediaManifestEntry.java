@@ -0,0 +1,39 @@
+package com.fabricio.practice.chat_fusion.response;
+
+// Entry of the media manifest of a chat export, the S3 object holding the file of a media message
+public class MediaManifestEntry {
+	// ID of the message the file was sent with
+	private String messageId;
+	// Type of the message
+	private String type;
+	// Object key of the file in the bucket
+	private String key;
+	// URL stored in the message
+	private String url;
+
+	// Parameterized constructor to initialize the fields
+	public MediaManifestEntry(String messageId, String type, String key, String url) {
+		super();
+		this.messageId = messageId;
+		this.type = type;
+		this.key = key;
+		this.url = url;
+	}
+
+	// Getter methods for the entry fields
+	public String getMessageId() {
+		return messageId;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+}
@@ -0,0 +1,36 @@
+package com.fabricio.practice.chat_fusion.response;
+
+import java.util.List;
+
+import com.fabricio.practice.chat_fusion.model.Message;
+
+// Response model for a page of message search results, best match first
+public class MessageSearchResponse {
+	// Messages of the page
+	private List<Message> messages;
+	// Index of the page, starting at zero
+	private int page;
+	// Flag indicating if there are more results
+	private boolean hasMore;
+
+	// Parameterized constructor to initialize the fields
+	public MessageSearchResponse(List<Message> messages, int page, boolean hasMore) {
+		super();
+		this.messages = messages;
+		this.page = page;
+		this.hasMore = hasMore;
+	}
+
+	// Getter methods for the response fields
+	public List<Message> getMessages() {
+		return messages;
+	}
+
+	public int getPage() {
+		return page;
+	}
+
+	public boolean isHasMore() {
+		return hasMore;
+	}
+}
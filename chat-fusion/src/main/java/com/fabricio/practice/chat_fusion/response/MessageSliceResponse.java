@@ -0,0 +1,45 @@
+package com.fabricio.practice.chat_fusion.response;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import com.fabricio.practice.chat_fusion.model.Message;
+
+// Response model for a page of chat history, newest message first
+public class MessageSliceResponse {
+	// Messages of the page
+	private List<Message> messages;
+	// Opaque token to request the next (older) page, null when there are no more messages
+	private String nextCursor;
+	// Flag indicating if there are older messages
+	private boolean hasMore;
+	// Last read timestamp of each member by user ID, only sent with the first page
+	private Map<String, LocalDateTime> readWatermarks;
+
+	// Parameterized constructor to initialize the fields
+	public MessageSliceResponse(List<Message> messages, String nextCursor, boolean hasMore, Map<String, LocalDateTime> readWatermarks) {
+		super();
+		this.messages = messages;
+		this.nextCursor = nextCursor;
+		this.hasMore = hasMore;
+		this.readWatermarks = readWatermarks;
+	}
+
+	// Getter methods for the response fields
+	public List<Message> getMessages() {
+		return messages;
+	}
+
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public boolean isHasMore() {
+		return hasMore;
+	}
+
+	public Map<String, LocalDateTime> getReadWatermarks() {
+		return readWatermarks;
+	}
+}
@@ -0,0 +1,43 @@
+package com.fabricio.practice.chat_fusion.response;
+
+import java.util.List;
+
+import com.fabricio.practice.chat_fusion.model.ChangeEvent;
+
+// Response model for a page of the changes a client missed, oldest first
+public class SyncResponse {
+	// Changes of the page
+	private List<ChangeEvent> events;
+	// Token to send as since on the next request
+	private String token;
+	// Flag indicating if there are more changes after this page
+	private boolean hasMore;
+	// Flag indicating the since token is older than the retention, the client has to reload its chats
+	private boolean resetRequired;
+
+	// Parameterized constructor to initialize the fields
+	public SyncResponse(List<ChangeEvent> events, String token, boolean hasMore, boolean resetRequired) {
+		super();
+		this.events = events;
+		this.token = token;
+		this.hasMore = hasMore;
+		this.resetRequired = resetRequired;
+	}
+
+	// Getter methods for the response fields
+	public List<ChangeEvent> getEvents() {
+		return events;
+	}
+
+	public String getToken() {
+		return token;
+	}
+
+	public boolean isHasMore() {
+		return hasMore;
+	}
+
+	public boolean isResetRequired() {
+		return resetRequired;
+	}
+}
@@ -0,0 +1,50 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
+import com.fabricio.practice.chat_fusion.model.User;
+import com.fabricio.practice.chat_fusion.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+// Cache of the public profiles embedded as the author of new messages, the token claims keep the profile of the login
+// A profile update replaces the entry on this instance, the expiry bounds how long other instances keep the previous profile
+@Component
+public class AuthorProfiles {
+
+	// User repository to read the profiles on a cache miss
+	private final UserRepository userRepository;
+	// Bounded cache of the author snapshots keyed by user ID
+	private final Cache<String, MessageAuthor> profiles;
+
+	// Constructor to build the cache and to register the cache metrics
+	public AuthorProfiles(UserRepository userRepository, MeterRegistry meterRegistry,
+			@Value("${messages.author-cache.max-size:10000}") long maxSize,
+			@Value("${messages.author-cache.ttl:PT1M}") Duration ttl) {
+		this.userRepository = userRepository;
+		this.profiles = Caffeine.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(ttl)
+				.recordStats()
+				.build();
+		// Exposes hit, miss and eviction counters under the "messages.authors" cache name
+		CaffeineCacheMetrics.monitor(meterRegistry, profiles, "messages.authors");
+	}
+
+	// Returns the current profile of the user, the snapshot of the token is only used if the user is not stored
+	public MessageAuthor of(User user) {
+		return profiles.get(user.getId(), id -> userRepository.findById(id).map(MessageAuthor::of).orElseGet(() -> MessageAuthor.of(user)));
+	}
+
+	// Replaces the cached profile once the user changed it
+	public void updated(MessageAuthor author) {
+		profiles.put(author.getId(), author);
+	}
+}
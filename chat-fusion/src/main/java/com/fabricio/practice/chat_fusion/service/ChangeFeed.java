@@ -0,0 +1,133 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.model.ChangeEvent;
+
+// Append-only log of the message and chat mutations, one event per mutation whatever the number of members
+// The position in the log (the sync token) is a BSON timestamp generated by MongoDB as part of the insert, the seconds of the
+// server clock and a counter, so the order of the events never depends on the clocks of the application instances
+// Events older than the retention are removed by a TTL index
+@Component
+public class ChangeFeed {
+
+	// A token is the 64 bit value of a position in hexadecimal
+	private static final Pattern TOKEN = Pattern.compile("[0-9a-f]{16}");
+
+	// MongoTemplate to append and read the events
+	private final MongoTemplate mongoTemplate;
+	// How long the events are kept, older tokens can no longer catch up
+	private final Duration retention;
+
+	// Constructor for dependency injection
+	public ChangeFeed(MongoTemplate mongoTemplate, @Value("${sync.retention:P7D}") Duration retention) {
+		this.mongoTemplate = mongoTemplate;
+		this.retention = retention;
+	}
+
+	// Records a mutation of a chat, visible to the members of the chat at the time it is read
+	public void chatChanged(String chatId, String type, Object payload) {
+		append(chatId, null, type, payload);
+	}
+
+	// Records a mutation addressed to some users, visible to them even when they are no longer members, e.g. a removal
+	public void usersNotified(String chatId, Collection<String> userIds, String type, Object payload) {
+		if (!userIds.isEmpty()) {
+			append(chatId, new ArrayList<>(userIds), type, payload);
+		}
+	}
+
+	// Events visible to the user after the since token and before the until token, oldest first
+	public List<ChangeEvent> findChanges(String userId, Collection<String> chatIds, String since, String until, int limit) {
+		return mongoTemplate.find(changesQuery(userId, chatIds, since, until, limit), ChangeEvent.class);
+	}
+
+	// Token of the newest event visible to the user, empty when there is none
+	public Optional<String> findLatestToken(String userId, Collection<String> chatIds) {
+		return Optional.ofNullable(mongoTemplate.findOne(latestQuery(userId, chatIds), ChangeEvent.class)).map(ChangeEvent::getToken);
+	}
+
+	// Current time of the database server, the clock the positions are generated with
+	public Instant serverTime() {
+		return mongoTemplate.executeCommand(new Document("hello", 1)).getDate("localTime").toInstant();
+	}
+
+	// How long the events are kept
+	public Duration getRetention() {
+		return retention;
+	}
+
+	// Token placed before every event created from the given second on, in the server clock
+	public static String tokenAt(Instant instant) {
+		return ChangeEvent.tokenOf(new BsonTimestamp((int) instant.getEpochSecond(), 0));
+	}
+
+	// Time of the event a token points at, with second precision
+	public static Instant instantOf(String token) {
+		return Instant.ofEpochSecond(positionOf(token).getTime());
+	}
+
+	// Whether the text is a token
+	public static boolean isToken(String token) {
+		return token != null && TOKEN.matcher(token).matches();
+	}
+
+	// Events of the chats of the user plus the ones addressed to them, each branch is a range on one index
+	public static Query changesQuery(String userId, Collection<String> chatIds, String since, String until, int limit) {
+		BsonTimestamp after = positionOf(since);
+		BsonTimestamp before = positionOf(until);
+		Criteria ofChats = Criteria.where("chatId").in(chatIds).and("userIds").exists(false).and("position").gt(after).lt(before);
+		Criteria ofUser = Criteria.where("userIds").is(userId).and("position").gt(after).lt(before);
+		return new Query(new Criteria().orOperator(ofChats, ofUser))
+				.with(Sort.by(Sort.Direction.ASC, "position"))
+				.limit(limit);
+	}
+
+	// Newest event of the chats of the user or addressed to them, the same index branches walked backwards
+	public static Query latestQuery(String userId, Collection<String> chatIds) {
+		Criteria ofChats = Criteria.where("chatId").in(chatIds).and("userIds").exists(false);
+		Criteria ofUser = Criteria.where("userIds").is(userId);
+		return new Query(new Criteria().orOperator(ofChats, ofUser))
+				.with(Sort.by(Sort.Direction.DESC, "position"))
+				.limit(1);
+	}
+
+	// Appends an event, the upsert always inserts and $currentDate sets the position on the server as the document is written
+	private void append(String chatId, List<String> userIds, String type, Object payload) {
+		Update update = new Update()
+				.setOnInsert("chatId", chatId)
+				.setOnInsert("type", type)
+				.setOnInsert("payload", payload)
+				.setOnInsert("timestamp", LocalDateTime.now())
+				.setOnInsert("expiresAt", Date.from(Instant.now().plus(retention)))
+				.currentTimestamp("position");
+		if (userIds != null) {
+			update.setOnInsert("userIds", userIds);
+		}
+		mongoTemplate.upsert(new Query(Criteria.where("_id").is(new ObjectId())), update, ChangeEvent.class);
+	}
+
+	// Position a token points at
+	private static BsonTimestamp positionOf(String token) {
+		return new BsonTimestamp(Long.parseUnsignedLong(token, 16));
+	}
+}
@@ -0,0 +1,158 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.repository.MessageRepository;
+import com.fabricio.practice.chat_fusion.response.MediaManifestEntry;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Writes the whole history of a chat, oldest first, straight from the database cursors to an output stream
+// The archived segments are written first and then the hot messages, only one batch of each is held in memory at a time
+@Component
+public class ChatExporter {
+
+	// Messages written between flushes, so the client keeps receiving data on long exports
+	private static final int FLUSH_EVERY = 1000;
+
+	// Object mapper configured by Spring, messages are written the same way the API returns them
+	private final ObjectMapper objectMapper;
+	// Message repository for the hot messages
+	private final MessageRepository messageRepository;
+	// Archive for the messages moved out of the hot storage
+	private final MessageArchive messageArchive;
+
+	// Constructor for dependency injection
+	public ChatExporter(ObjectMapper objectMapper, MessageRepository messageRepository, MessageArchive messageArchive) {
+		this.objectMapper = objectMapper;
+		this.messageRepository = messageRepository;
+		this.messageArchive = messageArchive;
+	}
+
+	// Writes the messages of the chat as one JSON object per line
+	// With includeMedia the manifest follows the messages, one {"media": entry} line per media message
+	public void writeNdjson(String chatId, boolean includeMedia, OutputStream out) throws IOException {
+		try (JsonGenerator gen = generator(out)) {
+			// One value per line, without the space Jackson puts between root values
+			gen.setRootValueSeparator(null);
+			forEachMessage(chatId, mssg -> true, mssg -> {
+				objectMapper.writeValue(gen, mssg);
+				gen.writeRaw('\n');
+			}, gen);
+			if (includeMedia) {
+				forEachMessage(chatId, ChatExporter::isMedia, mssg -> {
+					gen.writeStartObject();
+					gen.writeFieldName("media");
+					objectMapper.writeValue(gen, manifestEntryOf(mssg));
+					gen.writeEndObject();
+					gen.writeRaw('\n');
+				}, gen);
+			}
+		}
+	}
+
+	// Writes the messages of the chat as a single JSON document {chatId, exportedAt, messages[, media]}
+	public void writeJson(String chatId, boolean includeMedia, OutputStream out) throws IOException {
+		try (JsonGenerator gen = generator(out)) {
+			gen.writeStartObject();
+			gen.writeStringField("chatId", chatId);
+			gen.writeFieldName("exportedAt");
+			objectMapper.writeValue(gen, LocalDateTime.now());
+			gen.writeArrayFieldStart("messages");
+			forEachMessage(chatId, mssg -> true, mssg -> objectMapper.writeValue(gen, mssg), gen);
+			gen.writeEndArray();
+			if (includeMedia) {
+				gen.writeArrayFieldStart("media");
+				forEachMessage(chatId, ChatExporter::isMedia, mssg -> objectMapper.writeValue(gen, manifestEntryOf(mssg)), gen);
+				gen.writeEndArray();
+			}
+			gen.writeEndObject();
+		}
+	}
+
+	// Object key of a file from the URL stored in its message, the path of the URL without the leading slash
+	// Null when the content is not a valid URL, the entry still lists the message
+	static String mediaKeyOf(String url) {
+		try {
+			String path = URI.create(url).getPath();
+			return path == null ? null : path.startsWith("/") ? path.substring(1) : path;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	// Writes the messages of both tiers that pass the filter
+	// The manifest is a second pass over the cursors so neither the messages nor the keys have to be kept until the end
+	private void forEachMessage(String chatId, Predicate<Message> filter, MessageWriter writer, JsonGenerator gen) throws IOException {
+		int written = 0;
+		// A message being archived during the export can be in both tiers, only archived messages at or after the oldest
+		// hot message can be, their IDs are kept to skip them in the hot messages, older ones are written without tracking
+		LocalDateTime overlapStart = messageRepository.findOldestTimestamp(chatId).orElse(null);
+		Set<String> overlap = new HashSet<>();
+		try (Stream<Message> archived = messageArchive.streamChat(chatId)) {
+			Iterator<Message> iterator = archived.iterator();
+			while (iterator.hasNext()) {
+				Message mssg = iterator.next();
+				if (overlapStart != null && !mssg.getTimestamp().isBefore(overlapStart)) {
+					overlap.add(mssg.getId());
+				}
+				if (filter.test(mssg)) {
+					writer.write(mssg);
+					written = flushIfDue(gen, written + 1);
+				}
+			}
+		}
+		try (Stream<Message> hot = messageRepository.streamChat(chatId)) {
+			Iterator<Message> iterator = hot.iterator();
+			while (iterator.hasNext()) {
+				Message mssg = iterator.next();
+				if (overlap.contains(mssg.getId())) {
+					continue;
+				}
+				if (filter.test(mssg)) {
+					writer.write(mssg);
+					written = flushIfDue(gen, written + 1);
+				}
+			}
+		}
+	}
+
+	// Generator writing to the response, the response stream is closed by the container
+	private JsonGenerator generator(OutputStream out) throws IOException {
+		return objectMapper.getFactory().createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	}
+
+	// Flushes every FLUSH_EVERY messages
+	private static int flushIfDue(JsonGenerator gen, int written) throws IOException {
+		if (written % FLUSH_EVERY == 0) {
+			gen.flush();
+		}
+		return written;
+	}
+
+	// Whether the message holds the URL of a file
+	private static boolean isMedia(Message mssg) {
+		return !"text".equals(mssg.getType()) && mssg.getContent() != null && !mssg.getContent().isBlank();
+	}
+
+	private static MediaManifestEntry manifestEntryOf(Message mssg) {
+		return new MediaManifestEntry(mssg.getId(), mssg.getType(), mediaKeyOf(mssg.getContent()), mssg.getContent());
+	}
+
+	// Writes one message, allowed to throw the IOException of the output stream
+	@FunctionalInterface
+	private interface MessageWriter {
+		void write(Message mssg) throws IOException;
+	}
+}
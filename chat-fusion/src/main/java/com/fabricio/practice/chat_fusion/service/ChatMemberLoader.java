@@ -0,0 +1,66 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.model.Chat;
+import com.fabricio.practice.chat_fusion.model.User;
+
+// Loads the member profiles of the chats returned to the client
+// The IDs of every chat are deduplicated and fetched with a single $in query, whatever the number of chats
+@Component
+public class ChatMemberLoader {
+
+	// MongoTemplate for performing the batched lookup
+	private final MongoTemplate mongoTemplate;
+
+	// Constructor for dependency injection
+	public ChatMemberLoader(MongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	// Sets the member profiles of a single chat
+	public void loadMembers(Chat chat) {
+		loadMembers(List.of(chat));
+	}
+
+	// Sets the member profiles of every chat with one query, members whose account no longer exists are left out
+	public void loadMembers(Collection<Chat> chats) {
+		Set<String> ids = new HashSet<>();
+		for (Chat chat : chats) {
+			ids.addAll(chat.getMemberIds());
+		}
+		if (ids.isEmpty()) {
+			return;
+		}
+
+		// Reads only the public profile, the password hash never leaves the database
+		Query query = new Query(Criteria.where("_id").in(ids));
+		query.fields().exclude("password");
+		Map<String, User> users = new HashMap<>();
+		for (User user : mongoTemplate.find(query, User.class)) {
+			users.put(user.getId(), user);
+		}
+
+		for (Chat chat : chats) {
+			Set<User> members = new LinkedHashSet<>();
+			for (String memberId : chat.getMemberIds()) {
+				User member = users.get(memberId);
+				if (member != null) {
+					members.add(member);
+				}
+			}
+			chat.setMembers(members);
+		}
+	}
+}
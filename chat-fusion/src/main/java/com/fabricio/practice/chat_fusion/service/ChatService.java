@@ -9,6 +9,7 @@ import com.fabricio.practice.chat_fusion.model.Chat;
 import com.fabricio.practice.chat_fusion.model.User;
 import com.fabricio.practice.chat_fusion.request.GroupChatRequest;
 import com.fabricio.practice.chat_fusion.request.UpdateRequest;
+import com.fabricio.practice.chat_fusion.response.InboxResponse;
 
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkClientException;
@@ -23,9 +24,18 @@ public interface ChatService {
 	// Finds a chat based on its ID
 	public Chat findChatById(String chatId) throws ChatException;
 	
+	// Finds a chat based on its ID along with the profiles of its members
+	public Chat findChatWithMembers(String chatId) throws ChatException;
+	
 	// Retrieves all the chats a user is a member of
 	public List<Chat> findAllChatsByUserId(String userId);
 	
+	// Retrieves a page of the inbox of a user, latest activity first
+	public InboxResponse findInbox(String userId, int page, int size);
+	
+	// Retrieves the number of unread messages of a user across all their chats
+	public int findTotalUnreadCount(String userId);
+	
 	// Creates a group chat with the specified detail 
 	public Chat createGroup(GroupChatRequest req, User reqUser) throws UserException, S3Exception, AwsServiceException, SdkClientException, IOException;
 	
@@ -41,12 +51,15 @@ public interface ChatService {
 	// Removes an user from a group chat
 	public Chat removeFromGroup(User reqUser, String userId2, String chatId) throws ChatException,UserException;
 	
-	// Deletes a chat
-	public void deleteChat(User reqUser, String chatId) throws ChatException,UserException;
+	// Adds several users to a group chat at once
+	public Chat addUsersToGroup(String reqUserId, List<String> userIds, String chatId) throws ChatException, UserException;
+	
+	// Removes several users from a group chat at once
+	public Chat removeUsersFromGroup(User reqUser, List<String> userIds, String chatId) throws ChatException, UserException;
 	
-	// Adds a user to the connected users of a chat
-	public void addConnectedUser(String chatId, String userId) throws ChatException;
+	// Grants admin privileges to several members of a group chat at once
+	public Chat makeUsersAdmins(String reqUserId, List<String> userIds, String chatId) throws ChatException, UserException;
 	
-	// Removes a user to the connected users of a chat
-	public void removeConnectedUser(String chatId, String userId) throws ChatException;
+	// Deletes a chat
+	public void deleteChat(User reqUser, String chatId) throws ChatException,UserException;
 }
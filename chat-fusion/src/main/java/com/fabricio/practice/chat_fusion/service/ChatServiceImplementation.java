@@ -1,24 +1,30 @@
 package com.fabricio.practice.chat_fusion.service;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.Set;
 
-import org.bson.types.ObjectId;
 import org.springframework.stereotype.Service;
 
+import com.fabricio.practice.chat_fusion.config.IdGenerator;
 import com.fabricio.practice.chat_fusion.exception.ChatException;
 import com.fabricio.practice.chat_fusion.exception.UserException;
 import com.fabricio.practice.chat_fusion.model.Chat;
+import com.fabricio.practice.chat_fusion.model.MemberState;
 import com.fabricio.practice.chat_fusion.model.User;
 import com.fabricio.practice.chat_fusion.repository.ChatRepository;
+import com.fabricio.practice.chat_fusion.repository.MemberStateRepository;
 import com.fabricio.practice.chat_fusion.repository.MessageRepository;
 import com.fabricio.practice.chat_fusion.request.GroupChatRequest;
 import com.fabricio.practice.chat_fusion.request.UpdateRequest;
+import com.fabricio.practice.chat_fusion.response.InboxResponse;
 
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkClientException;
@@ -28,6 +34,9 @@ import software.amazon.awssdk.services.s3.model.S3Exception;
 @Service
 public class ChatServiceImplementation implements ChatService {
 	
+	// Maximum number of users changed by a single bulk membership request
+	private static final int MAX_BULK_USERS = 5000;
+	
 	// Chat repository to interact with chat data in the database
 	private ChatRepository chatRepository;
 	// User Service for handling user-related operations
@@ -38,14 +47,35 @@ public class ChatServiceImplementation implements ChatService {
 	private AwsService awsS3Client;
 	// Websocket service for real time notifications
 	private WebsocketService websocketService;
+	// Generator for the IDs of new chats
+	private IdGenerator idGenerator;
+	// Member state repository holding the read watermarks
+	private MemberStateRepository memberStateRepository;
+	// Batched loader for the member profiles of the returned chats
+	private ChatMemberLoader chatMemberLoader;
+	// Write-behind buffer for the unread counters of the members
+	private UnreadCounterBuffer unreadCounterBuffer;
+	// Inbox entries of the members, kept up to date with the chats
+	private InboxProjection inboxProjection;
+	// Change feed read by reconnecting clients
+	private ChangeFeed changeFeed;
+	// Cold tier holding the old messages
+	private MessageArchive messageArchive;
 	
 	// Constructor for dependency injection of the necessary dependencies
-	public ChatServiceImplementation(ChatRepository chatRepository, UserService userService, MessageRepository messageRepository, AwsService awsS3Client, WebsocketService websocketService) { 
+	public ChatServiceImplementation(ChatRepository chatRepository, UserService userService, MessageRepository messageRepository, AwsService awsS3Client, WebsocketService websocketService, IdGenerator idGenerator, MemberStateRepository memberStateRepository, ChatMemberLoader chatMemberLoader, UnreadCounterBuffer unreadCounterBuffer, InboxProjection inboxProjection, ChangeFeed changeFeed, MessageArchive messageArchive) { 
 		this.chatRepository = chatRepository;
 		this.userService = userService;
 		this.messageRepository = messageRepository;
 		this.awsS3Client = awsS3Client;
 		this.websocketService = websocketService;
+		this.idGenerator = idGenerator;
+		this.memberStateRepository = memberStateRepository;
+		this.chatMemberLoader = chatMemberLoader;
+		this.unreadCounterBuffer = unreadCounterBuffer;
+		this.inboxProjection = inboxProjection;
+		this.changeFeed = changeFeed;
+		this.messageArchive = messageArchive;
 	}
 	
 
@@ -55,33 +85,48 @@ public class ChatServiceImplementation implements ChatService {
 		
 		User user2 = userService.findUserById(userId2); // Validation to ensure the second user exists
 		
-		// Converts user string IDs to ObjectId to match DBRef format in the 'members' field
-		ObjectId objectUser1Id = new ObjectId(reqUser.getId());
-		ObjectId objectUser2Id = new ObjectId(user2.getId());
-
-		Chat existingChat = chatRepository.findSingleChatByUserIds(objectUser1Id, objectUser2Id);;
+		// Looks up the chat by its pair key, a single indexed read
+		String pairKey = Chat.pairKeyOf(reqUser.getId(), user2.getId());
+		Chat existingChat = chatRepository.findByPairKey(pairKey);
 		if(existingChat != null ) {
-			// Returns the existing chat if found
+			// Returns the existing chat if found, with the profiles of its members
+			chatMemberLoader.loadMembers(existingChat);
 			return existingChat;
 		}
 		
+		// The members and the inbox entry of the other user get the current profile of the requester, not the one in the token
+		User creator = user2.getId().equals(reqUser.getId()) ? user2 : userService.findUserById(reqUser.getId());
+		
 		// Creates a new one to one chat
 		Chat chat = new Chat();
-		chat.setId(UUID.randomUUID().toString()); 
+		chat.setId(idGenerator.nextId()); 
 		chat.setCreatedById(reqUser.getId());
-		chat.getMembers().add(user2);
-		chat.getMembers().add(reqUser);
+		chat.addMember(user2);
+		chat.addMember(creator);
 		chat.setGroup(false);
+		chat.setPairKey(pairKey);
 		
 		// Initializes unread counts
 		chat.getUnreadCounts().put(reqUser.getId(), 0);
 		chat.getUnreadCounts().put(userId2, 0);
 		
+		// Inserts the chat unless a simultaneous request already created it
+		Chat stored = chatRepository.insertDirectChatIfAbsent(chat);
+		if (!chat.getId().equals(stored.getId())) {
+			// Returns the chat created by the other request, whose members were already notified
+			chatMemberLoader.loadMembers(stored);
+			return stored;
+		}
+		
+		// Creates the inbox entries of both users
+		inboxProjection.addDirectEntries(chat, creator, user2);
+		changeFeed.chatChanged(chat.getId(), "addChat", chat.getId());
+		
 		websocketService.chatNotificationEvent(chat.getId(), userId2, "addChat",chat);
 		websocketService.chatNotificationEvent(chat.getId(), reqUser.getId(), "addChat",chat);
 		
-		// Saves and returns the new chat
-		return chatRepository.save(chat); 
+		// Returns the new chat
+		return chat; 
 		
 	}
 
@@ -99,14 +144,61 @@ public class ChatServiceImplementation implements ChatService {
 		throw new ChatException("Chat not found by id " + chatId);
 	}
 
+	// Finds a chat based on its ID along with the profiles of its members
+	@Override
+	public Chat findChatWithMembers(String chatId) throws ChatException {
+		Chat chat = findChatById(chatId);
+		chatMemberLoader.loadMembers(chat);
+		return chat;
+	}
+
 	// Retrieves all the chats a user is a member of
 	@Override
 	public List<Chat> findAllChatsByUserId(String userId)  {
 		// Fetches all chats where the user is a member
 		List<Chat> chats = chatRepository.findChatByUserId(userId);
+		// Loads the members of every chat with a single query
+		chatMemberLoader.loadMembers(chats);
+		// Fills the unread count of the user in every chat from their member states
+		Map<String, Integer> unreadCounts = findUnreadCounts(userId);
+		for (Chat chat : chats) {
+			chat.getUnreadCounts().put(userId, unreadCounts.getOrDefault(chat.getId(), 0));
+		}
 		return chats;
 	}
 
+	// Retrieves a page of the inbox of a user, latest activity first
+	@Override
+	public InboxResponse findInbox(String userId, int page, int size) {
+		// Fetches one extra entry to know if there are more chats without counting
+		List<MemberState> entries = inboxProjection.findInbox(userId, page * size, size + 1);
+		boolean hasMore = entries.size() > size;
+		if (hasMore) {
+			entries = entries.subList(0, size);
+		}
+		
+		// Applies the unread counter changes that are not written yet
+		Map<String, Integer> unreadCounts = new HashMap<>();
+		for (MemberState entry : entries) {
+			unreadCounts.put(entry.getChatId(), entry.getUnreadCount());
+		}
+		unreadCounterBuffer.applyPending(userId, unreadCounts);
+		for (MemberState entry : entries) {
+			entry.setUnreadCount(unreadCounts.get(entry.getChatId()));
+		}
+		return new InboxResponse(entries, page, hasMore);
+	}
+
+	// Retrieves the number of unread messages of a user across all their chats
+	@Override
+	public int findTotalUnreadCount(String userId) {
+		int total = 0;
+		for (int count : findUnreadCounts(userId).values()) {
+			total += count;
+		}
+		return total;
+	}
+
 	// Creates a group chat with the specified detail
 	@Override
 	public Chat createGroup(GroupChatRequest req, User reqUser) throws UserException, S3Exception, AwsServiceException, SdkClientException, IOException {
@@ -114,7 +206,7 @@ public class ChatServiceImplementation implements ChatService {
 		// Initializes a new group chat
 		Chat groupChat = new Chat();
 		groupChat.setGroup(true);
-	    groupChat.setId(UUID.randomUUID().toString());
+	    groupChat.setId(idGenerator.nextId());
 		
 		// Verifies if the request includes an image
 		if(req.getChat_image() != null) {
@@ -130,19 +222,21 @@ public class ChatServiceImplementation implements ChatService {
 		groupChat.getAdminIds().add(reqUser.getId());
 		
 		// Adds the requesting user and other members to the group chat
-		groupChat.getMembers().add(reqUser);
+		groupChat.addMember(reqUser);
 		// Initializes the unread count for the creator of the group
 		groupChat.getUnreadCounts().put(reqUser.getId(), 0);
 		
 		// Handles null or empty userIds in case it is a solo group at the moment of creation
 		List<String> userIds = req.getUserIds() != null ? req.getUserIds() : Collections.emptyList();
 		
-		// Validates that all provided user IDs correspond to existing users and adds them to the group
-		for (String memberId : userIds) {
-			groupChat.getMembers().add(userService.findUserById(memberId));
-			// Initializes the unread counts
-			groupChat.getUnreadCounts().put(memberId, 0);
-		 }
+		// Validates that all provided user IDs correspond to existing users with a single query and adds them to the group
+		if (!userIds.isEmpty()) {
+			for (User member : userService.findUsersByIds(userIds)) {
+				groupChat.addMember(member);
+				// Initializes the unread counts
+				groupChat.getUnreadCounts().put(member.getId(), 0);
+			}
+		}
 		
 		// Notifies all members of the creation of the group
 		websocketService.chatNotificationEvent(groupChat.getId(), reqUser.getId(), "addChat", groupChat);
@@ -150,37 +244,44 @@ public class ChatServiceImplementation implements ChatService {
 			websocketService.chatNotificationEvent(groupChat.getId(), memberId, "addChat", groupChat);
 		 }
 
-		// Saves the new group chat to the database and returns it
-		return chatRepository.save(groupChat);
+		// Saves the new group chat to the database and creates the inbox entries of its members
+		Chat saved = chatRepository.save(groupChat);
+		inboxProjection.addGroupEntries(saved, saved.getMemberIds());
+		changeFeed.chatChanged(saved.getId(), "addChat", saved.getId());
+		return saved;
 	}
 
 	// Adds an user to a group chat
 	@Override
 	public Chat addUserToGroup(String reqUserId, String userId2, String chatId) throws ChatException, UserException {
-		// Retrieves the chat
-		Chat chat = findChatById(chatId);
 		User user2 = userService.findUserById(userId2); //Validation to ensure the user exists
 
-			if(chat.getAdminIds().contains(reqUserId)) {
-				chat.getMembers().add(user2);
-				// Initializes the unread counts for the new user
-				chat.getUnreadCounts().put(userId2, 0);
-				
+		// Adds the member and initializes their unread count in one atomic update, only matches if the requester is an admin
+		Chat chat = chatRepository.addMember(chatId, reqUserId, userId2);
+		
+			if(chat != null) {
+				// Loads the members so the new member receives the whole chat
+				chatMemberLoader.loadMembers(chat);
+				// Creates the inbox entry of the new member
+				inboxProjection.addGroupEntries(chat, List.of(userId2));
+				recordMembersChanged(chat, List.of(userId2), List.of());
 				// Notify the users real time of the added member
-				for (User member : chat.getMembers() ) {
+				for (String memberId : chat.getMemberIds() ) {
 					// For the new member add the chat to their list
-					if(member.getId().equals(userId2)) {
+					if(memberId.equals(userId2)) {
 						websocketService.chatNotificationEvent(chatId, userId2, "addChat", chat);
 						continue;
 					}
 					// For old members add the user to their members list
-					websocketService.chatNotificationEvent(chatId, member.getId(), "addMember", user2);
+					websocketService.chatNotificationEvent(chatId, memberId, "addMember", user2);
 				 }
 				
-				// Saves and return the updated chat
-				return chatRepository.save(chat);
+				// Returns the updated chat
+				return chat;
 				}
 			
+			// Throws a chat not found exception if the chat does not exist
+			findChatById(chatId);
 			// Throws an exception if the requester lacks admin privileges
 			throw new ChatException("Non admins can't add users to the group");
 		}
@@ -190,22 +291,22 @@ public class ChatServiceImplementation implements ChatService {
 	// Grants admin privileges to an user in a group chat
 	@Override 
 	public Chat makeUserAdmin(String reqUserId, String userId2, String chatId) throws ChatException, UserException {
-		// Retrieves the chat
-		Chat chat = findChatById(chatId);
-	    
 	    userService.findUserById(userId2); // Validation to ensure the user exists
 	    
+	    // Adds the admin in one atomic update, only matches if the requester is an admin and the user is not one yet
+	    Chat updated = chatRepository.addAdmin(chatId, reqUserId, userId2);
+	    
+	        if (updated != null) {
+	        	// Notifies the user that is now an admin
+	        	websocketService.chatNotificationEvent(chatId, userId2, "addAdmin", chatId );
+	        	recordMembersChanged(updated, List.of(), List.of());
+	        	chatMemberLoader.loadMembers(updated);
+	        	return updated;
+	        }
+	        
+	        // Retrieves the chat to report why the update did not apply
+	        Chat chat = findChatById(chatId);
 	        if (chat.getAdminIds().contains(reqUserId)) {
-	        	// Adds the user as an admin if not already an admin
-	            if (!chat.getAdminIds().contains(userId2)) {
-	                chat.getAdminIds().add(userId2);
-	                
-	                // Notifies the user that is now an admin
-	                websocketService.chatNotificationEvent(chatId, userId2, "addAdmin", chatId );
-	                
-	                // Saves the group chat to the database and returns it
-	                return chatRepository.save(chat);
-	            }
 	            throw new ChatException("User is already an admin");
 	        }
 			// Throws an exception if the requester lacks admin privileges
@@ -221,11 +322,14 @@ public class ChatServiceImplementation implements ChatService {
 		Chat chat = findChatById(chatId);
 	        
 	    	// Verifies the requesting user is a member of the chat
-	        if(chat.getMembers().contains(reqUser)) {
+	        if(chat.hasMember(reqUser.getId())) {
 	        	
 	        	// Prepare the event payload
 	            Map<String, Object> eventPayload = new HashMap<>();
 	            eventPayload.put("chatId", chatId);
+	            // New values to write, null fields are left unchanged
+	            String newName = null;
+	            String newImage = null;
 	            
 	            // Updates group name if provided and valid
 	            if (req.getName() != null && !req.getName().isBlank()) {
@@ -238,8 +342,8 @@ public class ChatServiceImplementation implements ChatService {
 	                
 	                // Adds the name to the event payload
 	                eventPayload.put("chat_name",updatedGroupName);
-	                // Updates the chat name
-	                chat.setChat_name(updatedGroupName);
+	                // Sets the chat name to update
+	                newName = updatedGroupName;
 	            }
 
 	            // Updates group image if provided
@@ -251,19 +355,32 @@ public class ChatServiceImplementation implements ChatService {
 	            	if(chat.getChat_image() == null) {
 	            		// Adds the name to the event payload
 		                eventPayload.put("chat_image",awsUrl);
-		                // Updates the chat image
-	            		chat.setChat_image(awsUrl);
+		                // Sets the chat image to update
+	            		newImage = awsUrl;
 	            	}
 	            }
 	            
+	            // Writes only the changed fields, failing if the chat was modified since it was read
+	            Chat updated = chat;
+	            if (newName != null || newImage != null) {
+	            	updated = chatRepository.updateDetails(chatId, chat.getVersion(), newName, newImage);
+	            	if (updated == null) {
+	            		throw new ChatException("The chat was modified by another request, try again");
+	            	}
+	            	// Updates the inbox entries of the members
+	            	inboxProjection.groupUpdated(chatId, newName, newImage);
+	            	changeFeed.chatChanged(chatId, "updateChat", eventPayload);
+	            }
+	            
 	            // Notifies all members of the changes
-	            for( User member : chat.getMembers()) {	            	
-	            	websocketService.chatNotificationEvent(chatId, member.getId(), "updateChat", eventPayload);
+	            for( String memberId : chat.getMemberIds()) {	            	
+	            	websocketService.chatNotificationEvent(chatId, memberId, "updateChat", eventPayload);
 	            }
 	            
 
-	            // Saves and return the updated chat
-	            return chatRepository.save(chat);
+	            // Returns the updated chat with the profiles of its members
+	            chatMemberLoader.loadMembers(updated);
+	            return updated;
 	        }
 	        
 	     // Throws an exception if the user is not a member of the group
@@ -286,63 +403,63 @@ public class ChatServiceImplementation implements ChatService {
 	        }
 
 	        // Verifies the user to be removed is a group member
-	        if (!chat.getMembers().contains(user2)) {
+	        if (!chat.hasMember(userId2)) {
 	            throw new ChatException("User is not a member of this group");
 	        }
 
 	        // Allows admins to remove any user
 	        if (chat.getAdminIds().contains(reqUser.getId())) {
-	        	chat.getMembers().remove(user2);
-	            chat.getAdminIds().remove(user2.getId());
-	            // Removes the user unread count
-	            chat.getUnreadCounts().remove(userId2);
+	        	// Handles the cases where there are no admins left after the removal
+	        	String newAdminId = null;
+	        	if (chat.getAdminIds().size() == 1 && chat.getAdminIds().contains(userId2)) {
+	        		Optional<String> nextAdmin = chat.getMemberIds().stream().filter(memberId -> !memberId.equals(userId2)).findFirst();
+	        		if (nextAdmin.isEmpty()) {
+	                	// Deletes the group if no members remain, which also notifies the removed member
+	                    deleteChat(reqUser, chatId);
+	                    return null;
+	        		}
+	        		newAdminId = nextAdmin.get();
+	        	}
+	        	
+	        	// Removes the member, their admin privileges and unread count in one update conditioned on the version that was read
+	        	Chat updated = removeMember(chat, user2.getId(), newAdminId);
 	            
 	         // For the removed member remove the chat from their list
 			 websocketService.chatNotificationEvent(chatId, userId2, "removeChat", chatId);
+			 recordRemoved(updated, List.of(userId2));
 
-	            // Handles the cases where there are no admins lefs
-	            if (chat.getAdminIds().isEmpty()) {
-	                if (!chat.getMembers().isEmpty()) {
-	                    User newAdminId = chat.getMembers().iterator().next();
-	                    chat.getAdminIds().add(newAdminId.getId());
-	                    // Notifies the user that is now an admin
-		                websocketService.chatNotificationEvent(chatId, newAdminId.getId(), "addAdmin", chatId );
-	                } else {
-	                	// Deletes the group if no members remain
-	                    deleteChat(reqUser, chatId);
-	                    return null;
-	                }
+	            if (newAdminId != null) {
+	                // Notifies the user that is now an admin
+	                websocketService.chatNotificationEvent(chatId, newAdminId, "addAdmin", chatId );
 	            }
 	            
-	            
 	            // Notifies the users real time of the removed member
-				for (User member : chat.getMembers() ) {
+				for (String memberId : updated.getMemberIds() ) {
 					// For other members removes the user from their members list
-					websocketService.chatNotificationEvent(chatId, member.getId(), "removeMember", userId2);
+					websocketService.chatNotificationEvent(chatId, memberId, "removeMember", userId2);
 				 }
 	            
-	            // Save and return the updated chat
-	            return chatRepository.save(chat);
+	            // Returns the updated chat with the profiles of its members
+	            chatMemberLoader.loadMembers(updated);
+	            return updated;
 	        }
 
 	        // Allow users to remove themselves if they are not admins
-	        if (chat.getMembers().contains(reqUser) && reqUser.getId().equals(userId2)) {
-	            chat.getMembers().remove(user2);
-	            // Removes the user unread count
-	            chat.getUnreadCounts().remove(userId2);
+	        if (chat.hasMember(reqUser.getId()) && reqUser.getId().equals(userId2)) {
+	        	// Removes the member and their unread count in one update conditioned on the version that was read
+	        	Chat updated = removeMember(chat, userId2, null);
 	            
+	            // Notifies the removed member to remove the chat from their list
+	            websocketService.chatNotificationEvent(chatId, userId2, "removedChat", chat.getId());
+	            recordRemoved(updated, List.of(userId2));
 	            // Notifies the users real time of the removed member
-				for (User member : chat.getMembers() ) {
-					// For the removed member remove the chat from their list
-					if(member.getId().equals(userId2)) {
-						websocketService.chatNotificationEvent(chatId, userId2, "removedChat", chat.getId());
-						continue;
-					}
+				for (String memberId : updated.getMemberIds() ) {
 					// For other members removes the user from their members list
-					websocketService.chatNotificationEvent(chatId, member.getId(), "removeMember", chat.getId());
+					websocketService.chatNotificationEvent(chatId, memberId, "removeMember", chat.getId());
 				 }
 				
-	            return chatRepository.save(chat);
+	            chatMemberLoader.loadMembers(updated);
+	            return updated;
 	        }
 
 	        // Throws an exception if the requester lacks admin privileges
@@ -364,12 +481,18 @@ public class ChatServiceImplementation implements ChatService {
 	            if (chat.getAdminIds().contains(reqUser.getId())) {
 	            	
 	            	// Notifies all members that the chat will be deleted
-	                for (User member : chat.getMembers()) {
-	                    websocketService.chatNotificationEvent(chatId, member.getId(), "removeChat", chatId);
+	                for (String memberId : chat.getMemberIds()) {
+	                    websocketService.chatNotificationEvent(chatId, memberId, "removeChat", chatId);
 	                }
 	            	
-	            	// Deletes the messages related to the chat
+	            	changeFeed.usersNotified(chatId, chat.getMemberIds(), "removeChat", chatId);
+	            	
+	            	// Deletes the messages related to the chat, recent and archived
 	            	messageRepository.deleteAllByChatId(chatId);
+	            	messageArchive.deleteChat(chatId);
+	            	// Deletes the read watermarks and unread counters of the members
+	            	unreadCounterBuffer.discard(chatId, chat.getMemberIds());
+	            	memberStateRepository.deleteAllByChatId(chatId);
 	            	
 	            	// Deletes all files in the chat from the AWS S3 bucket
 		        	awsS3Client.deleteAllChatFiles(chatId);
@@ -383,15 +506,21 @@ public class ChatServiceImplementation implements ChatService {
 	        }
 
 	        // Handles deletion for one to one chats chats
-	        if (chat.getMembers().contains(reqUser)) {
+	        if (chat.hasMember(reqUser.getId())) {
 	        	
 	        	// Notifies both users that the chat will be deleted
-	            for (User member : chat.getMembers()) {
-	                websocketService.chatNotificationEvent(chatId, member.getId(), "removeChat", chatId);
+	            for (String memberId : chat.getMemberIds()) {
+	                websocketService.chatNotificationEvent(chatId, memberId, "removeChat", chatId);
 	            }
 	        	
-	        	// Deletes the messages related to the chat
+	        	changeFeed.usersNotified(chatId, chat.getMemberIds(), "removeChat", chatId);
+	        	
+	        	// Deletes the messages related to the chat, recent and archived
 	        	messageRepository.deleteAllByChatId(chatId);
+	        	messageArchive.deleteChat(chatId);
+	        	// Deletes the read watermarks and unread counters of the members
+	        	unreadCounterBuffer.discard(chatId, chat.getMemberIds());
+	        	memberStateRepository.deleteAllByChatId(chatId);
 	        	
 	        	// Deletes all files in the chat from the AWS S3 bucket
 	        	awsS3Client.deleteAllChatFiles(chatId);
@@ -407,23 +536,215 @@ public class ChatServiceImplementation implements ChatService {
 	    }
 
 
-	// Adds a user to the connected users of a chat
+	// Adds several users to a group chat at once
 	@Override
-	public void addConnectedUser(String chatId, String userId) throws ChatException {
+	public Chat addUsersToGroup(String reqUserId, List<String> userIds, String chatId) throws ChatException, UserException {
+		Set<String> ids = bulkIds(userIds);
+		// Retrieves the chat
 		Chat chat = findChatById(chatId);
-		chat.getConnectedUserIds().add(userId);
-		chatRepository.save(chat);
-		return;
 		
+		// Ensures the operation is for a group chat
+		if (!chat.isGroup()) {
+			throw new ChatException("Operation only allowed for group chats");
+		}
+		// Throws an exception if the requester lacks admin privileges
+		if (!chat.getAdminIds().contains(reqUserId)) {
+			throw new ChatException("Non admins can't add users to the group");
+		}
+		
+		// Skips the users that are already members
+		ids.removeAll(chat.getMemberIds());
+		if (ids.isEmpty()) {
+			chatMemberLoader.loadMembers(chat);
+			return chat;
+		}
+		
+		userService.findUsersByIds(ids); // Validation to ensure every user exists, in one query
+		
+		// Adds every member and initializes their unread counts in one atomic update
+		Chat updated = chatRepository.addMembers(chatId, reqUserId, ids);
+		if (updated == null) {
+			throw new ChatException("The chat was modified by another request, try again");
+		}
+		
+		// Loads the members for the events of the existing members and the response
+		chatMemberLoader.loadMembers(updated);
+		// Creates the inbox entries of the new members
+		inboxProjection.addGroupEntries(updated, ids);
+		recordMembersChanged(updated, ids, List.of());
+		List<User> added = new ArrayList<>();
+		for (User member : updated.getMembers()) {
+			if (ids.contains(member.getId())) {
+				added.add(member);
+			}
+		}
+		
+		// For the new members add the chat to their list, the event carries the chat ID like the change feed
+		// and each client fetches the chat once, so the events do not grow with the members times the new members
+		for (String memberId : ids) {
+			websocketService.chatNotificationEvent(chatId, memberId, "addChat", chatId);
+		}
+		// For old members a single event with every added user
+		notifyMembersChanged(updated, added, List.of(), ids);
+		
+		return updated;
 	}
-
-	// Removes a user to the connected users of a chat
+	
+	// Removes several users from a group chat at once
 	@Override
-	public void removeConnectedUser(String chatId, String userId) throws ChatException {
+	public Chat removeUsersFromGroup(User reqUser, List<String> userIds, String chatId) throws ChatException, UserException {
+		Set<String> ids = bulkIds(userIds);
+		// Retrieves the chat
 		Chat chat = findChatById(chatId);
-		chat.getConnectedUserIds().remove(userId);
-		chatRepository.save(chat);
-		return;
 		
-	}	
+		// Ensures the operation is for a group chat
+		if (!chat.isGroup()) {
+			throw new ChatException("Operation only allowed for group chats");
+		}
+		// Throws an exception if the requester lacks admin privileges
+		if (!chat.getAdminIds().contains(reqUser.getId())) {
+			throw new ChatException("Non-admins can only remove themselves");
+		}
+		
+		// Skips the users that are not members
+		ids.retainAll(chat.getMemberIds());
+		if (ids.isEmpty()) {
+			chatMemberLoader.loadMembers(chat);
+			return chat;
+		}
+		
+		Set<String> remaining = new LinkedHashSet<>(chat.getMemberIds());
+		remaining.removeAll(ids);
+		if (remaining.isEmpty()) {
+			// Deletes the group if no members remain, which also notifies the removed members
+			deleteChat(reqUser, chatId);
+			return null;
+		}
+		
+		// Handles the case where there are no admins left after the removal
+		Set<String> adminIds = new LinkedHashSet<>(chat.getAdminIds());
+		adminIds.removeAll(ids);
+		if (adminIds.isEmpty()) {
+			adminIds.add(remaining.iterator().next());
+		}
+		
+		// Removes the members, their admin privileges and unread counts in one update conditioned on the version that was read
+		Chat updated = chatRepository.removeMembers(chatId, chat.getVersion(), ids, adminIds);
+		if (updated == null) {
+			throw new ChatException("The chat was modified by another request, try again");
+		}
+		deleteMemberStates(chatId, ids);
+		recordRemoved(updated, ids);
+		
+		// For the removed members remove the chat from their list
+		for (String memberId : ids) {
+			websocketService.chatNotificationEvent(chatId, memberId, "removeChat", chatId);
+		}
+		// For the remaining members a single event with every removed user
+		notifyMembersChanged(updated, List.of(), ids, Set.of());
+		
+		// Returns the updated chat with the profiles of its members
+		chatMemberLoader.loadMembers(updated);
+		return updated;
+	}
+	
+	// Grants admin privileges to several members of a group chat at once
+	@Override
+	public Chat makeUsersAdmins(String reqUserId, List<String> userIds, String chatId) throws ChatException, UserException {
+		Set<String> ids = bulkIds(userIds);
+		
+		// Adds the admins in one atomic update, only matches a group where the requester is an admin and all the users are members
+		Chat updated = chatRepository.addAdmins(chatId, reqUserId, ids);
+		
+		if (updated == null) {
+			// Retrieves the chat to report why the update did not apply
+			Chat chat = findChatById(chatId);
+			// Ensures the operation is for a group chat
+			if (!chat.isGroup()) {
+				throw new ChatException("Operation only allowed for group chats");
+			}
+			if (!chat.getAdminIds().contains(reqUserId)) {
+				// Throws an exception if the requester lacks admin privileges
+				throw new ChatException("Non-admins can't give admin privileges");
+			}
+			throw new ChatException("Only members of the group can be made admins");
+		}
+		
+		// Notifies the members of the new admins with a single event each
+		notifyMembersChanged(updated, List.of(), List.of(), Set.of());
+		recordMembersChanged(updated, List.of(), List.of());
+		chatMemberLoader.loadMembers(updated);
+		return updated;
+	}
+
+	// Deduplicates the user IDs of a bulk operation and validates their count
+	private Set<String> bulkIds(List<String> userIds) throws ChatException {
+		if (userIds == null || userIds.isEmpty()) {
+			throw new ChatException("At least one user is required");
+		}
+		if (userIds.size() > MAX_BULK_USERS) {
+			throw new ChatException("At most " + MAX_BULK_USERS + " users can be changed at once");
+		}
+		return new LinkedHashSet<>(userIds);
+	}
+	
+	// Sends one coalesced event with the membership changes to every member except the skipped ones
+	private void notifyMembersChanged(Chat chat, List<User> added, Collection<String> removed, Set<String> skip) {
+		// Prepare the event payload
+		Map<String, Object> eventPayload = new HashMap<>();
+		eventPayload.put("added", added);
+		eventPayload.put("removed", removed);
+		eventPayload.put("adminIds", chat.getAdminIds());
+		
+		for (String memberId : chat.getMemberIds()) {
+			if (!skip.contains(memberId)) {
+				websocketService.chatNotificationEvent(chat.getId(), memberId, "membersChanged", eventPayload);
+			}
+		}
+	}
+
+	// Records the membership changes in the change feed, the users are referenced by ID to keep the event small
+	private void recordMembersChanged(Chat chat, Collection<String> added, Collection<String> removed) {
+		Map<String, Object> payload = new HashMap<>();
+		payload.put("added", added);
+		payload.put("removed", removed);
+		payload.put("adminIds", chat.getAdminIds());
+		changeFeed.chatChanged(chat.getId(), "membersChanged", payload);
+	}
+	
+	// Records the removal of members, for the remaining members and for the removed ones that no longer see the chat events
+	private void recordRemoved(Chat chat, Collection<String> userIds) {
+		recordMembersChanged(chat, List.of(), userIds);
+		changeFeed.usersNotified(chat.getId(), userIds, "removeChat", chat.getId());
+	}
+
+	// Removes a member through a version conditioned update, throws if the chat was modified since it was read
+	private Chat removeMember(Chat chat, String userId, String newAdminId) throws ChatException {
+		Chat updated = chatRepository.removeMember(chat.getId(), chat.getVersion(), userId, newAdminId);
+		if (updated == null) {
+			throw new ChatException("The chat was modified by another request, try again");
+		}
+		deleteMemberStates(chat.getId(), List.of(userId));
+		return updated;
+	}
+
+	// Deletes the read watermarks and unread counters of members that left the chat
+	private void deleteMemberStates(String chatId, Collection<String> userIds) {
+		unreadCounterBuffer.discard(chatId, userIds);
+		List<String> ids = new ArrayList<>();
+		for (String userId : userIds) {
+			ids.add(MemberState.idOf(chatId, userId));
+		}
+		memberStateRepository.deleteAllById(ids);
+	}
+
+	// Unread counts of the user by chat ID, the stored counters come from one indexed query and the buffered changes are applied on top
+	private Map<String, Integer> findUnreadCounts(String userId) {
+		Map<String, Integer> unreadCounts = new HashMap<>();
+		for (MemberState state : memberStateRepository.findByUserIdAndUnreadCountGreaterThan(userId, 0)) {
+			unreadCounts.put(state.getChatId(), state.getUnreadCount());
+		}
+		return unreadCounterBuffer.applyPending(userId, unreadCounts);
+	}
+
 }
@@ -0,0 +1,253 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.model.Chat;
+import com.fabricio.practice.chat_fusion.model.MemberState;
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
+import com.fabricio.practice.chat_fusion.model.MessagePreview;
+import com.fabricio.practice.chat_fusion.model.User;
+import com.fabricio.practice.chat_fusion.repository.MessageRepository;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+// Maintains the inbox entries stored in the member states, one per (chat, member)
+// Every change is a targeted update on the entries of the chat so reading the inbox never touches chats, users or messages
+// New messages are buffered per chat and only the latest one is written, in periodic unordered bulk updates like the unread counters
+@Component
+public class InboxProjection {
+
+	private static final Logger log = LoggerFactory.getLogger(InboxProjection.class);
+
+	// Latest activity first, the ID breaks ties
+	private static final Sort INBOX_ORDER = Sort.by(Sort.Order.desc("lastActivityAt"), Sort.Order.desc("_id"));
+
+	// Latest message sent to a chat and the members of the chat when it was sent
+	record PendingPreview(Message message, Set<String> memberIds) {
+
+		// Keeps the newer of two messages, the later one wins a tie
+		PendingPreview then(PendingPreview newer) {
+			return newer.message().getTimestamp().isBefore(message.getTimestamp()) ? this : newer;
+		}
+	}
+
+	// Chat ID -> latest message not yet written to the entries of the members
+	private final Map<String, PendingPreview> pending = new ConcurrentHashMap<>();
+	// MongoTemplate for the targeted updates
+	private final MongoTemplate mongoTemplate;
+	// Message repository to find the latest message of a chat
+	private final MessageRepository messageRepository;
+
+	// Constructor for dependency injection
+	public InboxProjection(MongoTemplate mongoTemplate, MessageRepository messageRepository, MeterRegistry meterRegistry) {
+		this.mongoTemplate = mongoTemplate;
+		this.messageRepository = messageRepository;
+		// Exposes how many chats have a preview waiting to be written
+		Gauge.builder("chat.inbox.pending", pending, Map::size)
+			.description("Chats with a new message not yet written to the inbox entries")
+			.register(meterRegistry);
+	}
+
+	// Creates the entries of both members of a one to one chat, each one titled with the profile of the other member
+	public void addDirectEntries(Chat chat, User user1, User user2) {
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, MemberState.class);
+		ops.upsert(entry(chat.getId(), user1.getId()), entryUpdate(chat, user1.getId(), user2.getId(), user2.getUsername(), user2.getPfp(), null));
+		// A chat with oneself has a single entry
+		if (!user1.getId().equals(user2.getId())) {
+			ops.upsert(entry(chat.getId(), user2.getId()), entryUpdate(chat, user2.getId(), user1.getId(), user1.getUsername(), user1.getPfp(), null));
+		}
+		ops.execute();
+	}
+
+	// Creates the entries of the members joining a group, with the latest message of the chat
+	public void addGroupEntries(Chat chat, Collection<String> userIds) {
+		if (userIds.isEmpty()) {
+			return;
+		}
+		List<Message> latest = messageRepository.findLatest(chat.getId(), 0, 1);
+		Message lastMessage = latest.isEmpty() ? null : latest.get(0);
+
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, MemberState.class);
+		for (String userId : userIds) {
+			ops.upsert(entry(chat.getId(), userId), entryUpdate(chat, userId, null, chat.getChat_name(), chat.getChat_image(), lastMessage));
+		}
+		ops.execute();
+	}
+
+	// Buffers the new message of the chat, replacing an older one still pending
+	public void messageSent(Message mssg, Collection<String> memberIds) {
+		pending.merge(mssg.getChatId(), new PendingPreview(mssg, Set.copyOf(memberIds)), PendingPreview::then);
+	}
+
+	// Updates the preview when the edited message is the latest of the chat
+	public void messageEdited(Message mssg) {
+		// A pending preview of the message is replaced so the flush writes the edited content
+		pending.computeIfPresent(mssg.getChatId(), (id, preview) ->
+				preview.message().getId().equals(mssg.getId()) ? new PendingPreview(mssg, preview.memberIds()) : preview);
+		mongoTemplate.updateMulti(latestIs(mssg.getChatId(), mssg.getId()),
+				new Update().set("lastMessage.content", MessagePreview.contentOf(mssg)), MemberState.class);
+	}
+
+	// Replaces the preview with the new latest message when the deleted message was the latest of the chat
+	public void messageDeleted(String chatId, String messageId) {
+		// A pending preview of the message is dropped, the stored one is still of an older message
+		pending.computeIfPresent(chatId, (id, preview) -> preview.message().getId().equals(messageId) ? null : preview);
+		Query query = latestIs(chatId, messageId);
+		if (!mongoTemplate.exists(query, MemberState.class)) {
+			return;
+		}
+		List<Message> latest = messageRepository.findLatest(chatId, 0, 1);
+		Update update = latest.isEmpty() ? new Update().unset("lastMessage") : new Update().set("lastMessage", MessagePreview.of(latest.get(0)));
+		mongoTemplate.updateMulti(query, update, MemberState.class);
+	}
+
+	// Updates the title and/or image of a group in the entries of its members, null values are left unchanged
+	public void groupUpdated(String chatId, String title, String image) {
+		Update update = new Update();
+		if (title != null) {
+			update.set("title", title);
+		}
+		if (image != null) {
+			update.set("image", image);
+		}
+		if (!update.getUpdateObject().isEmpty()) {
+			mongoTemplate.updateMulti(new Query(Criteria.where("chatId").is(chatId)), update, MemberState.class);
+		}
+	}
+
+	// Updates the title and image of the one to one chats with the user after a profile change
+	public void profileUpdated(MessageAuthor author) {
+		mongoTemplate.updateMulti(peerQuery(author.getId()),
+				new Update().set("title", author.getUsername()).set("image", author.getPfp()), MemberState.class);
+	}
+
+	// Finds a page of the inbox of the user, latest activity first
+	// The entries show the pending previews of their chats, the order catches up on the next flush
+	public List<MemberState> findInbox(String userId, int skip, int limit) {
+		List<MemberState> entries = mongoTemplate.find(inboxQuery(userId, skip, limit), MemberState.class);
+		for (MemberState entry : entries) {
+			PendingPreview preview = pending.get(entry.getChatId());
+			if (preview != null && preview.memberIds().contains(userId)
+					&& (entry.getLastActivityAt() == null || !preview.message().getTimestamp().isBefore(entry.getLastActivityAt()))) {
+				entry.setLastMessage(MessagePreview.of(preview.message()));
+				entry.setLastActivityAt(preview.message().getTimestamp());
+			}
+		}
+		return entries;
+	}
+
+	// Writes the pending previews in a single unordered bulk operation
+	@Scheduled(fixedDelayString = "${chat.inbox.flush-ms:500}")
+	public void flush() {
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		// Takes the previews out of the buffer one chat at a time, messages sent during the write start new entries for the next flush
+		List<PendingPreview> batch = new ArrayList<>();
+		for (String chatId : pending.keySet()) {
+			PendingPreview preview = pending.remove(chatId);
+			if (preview != null) {
+				batch.add(preview);
+			}
+		}
+
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, MemberState.class);
+		for (PendingPreview preview : batch) {
+			Message mssg = preview.message();
+			ops.updateMulti(sentQuery(mssg.getChatId(), preview.memberIds(), mssg.getTimestamp()),
+					new Update().set("lastMessage", MessagePreview.of(mssg)).set("lastActivityAt", mssg.getTimestamp()));
+		}
+
+		try {
+			ops.execute();
+		} catch (RuntimeException e) {
+			// Puts the previews back unless a newer message was sent during the write, the next flush retries them
+			log.warn("Failed to flush the inbox previews of {} chats", batch.size(), e);
+			for (PendingPreview preview : batch) {
+				pending.merge(preview.message().getChatId(), preview, PendingPreview::then);
+			}
+		}
+	}
+
+	// Writes whatever is still pending before the application stops
+	@PreDestroy
+	public void shutdown() {
+		flush();
+	}
+
+	// Builds the inbox query served by the inbox index, also used by the query plan tests
+	public static Query inboxQuery(String userId, int skip, int limit) {
+		return new Query(Criteria.where("userId").is(userId)).with(INBOX_ORDER).skip(skip).limit(limit);
+	}
+
+	// Matches the one to one entries titled with the profile of the user, served by the peer index, also used by the query plan tests
+	public static Query peerQuery(String userId) {
+		return new Query(Criteria.where("peerId").is(userId));
+	}
+
+	// Matches the entries of the members of a chat that are older than a message
+	// Only the members of the chat when the message was sent are matched, and it is an update without upsert,
+	// so a removed member never gets the preview and their deleted entry is not created again
+	public static Query sentQuery(String chatId, Collection<String> memberIds, LocalDateTime timestamp) {
+		return new Query(Criteria.where("chatId").is(chatId).and("userId").in(memberIds).orOperator(
+				Criteria.where("lastActivityAt").lte(timestamp),
+				Criteria.where("lastActivityAt").exists(false)));
+	}
+
+	// Matches the entry of a member in a chat
+	private Query entry(String chatId, String userId) {
+		return new Query(Criteria.where("_id").is(MemberState.idOf(chatId, userId)));
+	}
+
+	// Matches the entries of a chat whose preview is the given message
+	private Query latestIs(String chatId, String messageId) {
+		return new Query(Criteria.where("chatId").is(chatId).and("lastMessage.messageId").is(messageId));
+	}
+
+	// Sets every field of an entry, the read watermark and the unread count are left as they are
+	private Update entryUpdate(Chat chat, String userId, String peerId, String title, String image, Message lastMessage) {
+		Update update = new Update()
+				.set("group", chat.isGroup())
+				.setOnInsert("chatId", chat.getId())
+				.setOnInsert("userId", userId);
+		// Null values are left out so the documents never hold explicit nulls
+		if (title != null) {
+			update.set("title", title);
+		}
+		if (image != null) {
+			update.set("image", image);
+		}
+		if (peerId != null) {
+			update.set("peerId", peerId);
+		}
+		if (lastMessage != null) {
+			update.set("lastMessage", MessagePreview.of(lastMessage)).set("lastActivityAt", lastMessage.getTimestamp());
+		} else {
+			update.set("lastActivityAt", LocalDateTime.now());
+		}
+		return update;
+	}
+}
@@ -0,0 +1,89 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.model.User;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+// Write-behind buffer for the users' last connection
+// Only the latest value per user is kept and the pending values are written in periodic unordered bulk updates
+@Component
+public class LastConnectionBuffer {
+
+	private static final Logger log = LoggerFactory.getLogger(LastConnectionBuffer.class);
+
+	// User ID -> latest last connection, an empty value means the user is online
+	private final Map<String, Optional<Instant>> pending = new ConcurrentHashMap<>();
+	// MongoTemplate for the bulk updates
+	private final MongoTemplate mongoTemplate;
+
+	// Constructor for dependency injection
+	public LastConnectionBuffer(MongoTemplate mongoTemplate, MeterRegistry meterRegistry) {
+		this.mongoTemplate = mongoTemplate;
+		// Exposes how many users are waiting to be written
+		Gauge.builder("presence.last-connection.pending", pending, Map::size)
+			.description("Users whose last connection is buffered and not yet written")
+			.register(meterRegistry);
+	}
+
+	// Records the user's last connection, replacing any value that was not written yet
+	public void put(String userId, Instant lastConnection) {
+		pending.put(userId, Optional.ofNullable(lastConnection));
+	}
+
+	// Returns the buffered value for the user, or null when nothing is pending
+	public Optional<Instant> get(String userId) {
+		return pending.get(userId);
+	}
+
+	// Writes the pending values in a single unordered bulk operation
+	@Scheduled(fixedDelayString = "${presence.last-connection.flush-ms:1000}")
+	public void flush() {
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		// Snapshot of the values to write, newer values put during the write stay for the next flush
+		Map<String, Optional<Instant>> batch = new HashMap<>(pending);
+
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, User.class);
+		batch.forEach((userId, lastConnection) -> ops.updateOne(
+				new Query(Criteria.where("_id").is(userId)),
+				new Update().set("lastConnection", lastConnection.orElse(null))));
+
+		try {
+			ops.execute();
+		} catch (RuntimeException e) {
+			// Keeps the values buffered so the next flush retries them
+			log.warn("Failed to flush {} last connection updates", batch.size(), e);
+			return;
+		}
+
+		// Removes only the entries that were not replaced while writing
+		batch.forEach(pending::remove);
+	}
+
+	// Writes whatever is still pending before the application stops
+	@PreDestroy
+	public void shutdown() {
+		flush();
+	}
+}
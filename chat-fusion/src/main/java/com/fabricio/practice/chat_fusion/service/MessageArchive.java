@@ -0,0 +1,313 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessageSegment;
+
+// Cold tier of the messages, old messages are moved out of the "messages" collection into compressed segments
+// Keeps the hot collection and its indexes sized to the recent history, the archive is only read when a page goes past it
+@Component
+public class MessageArchive {
+
+	// Messages packed in one segment, and the size of their documents before compression, so a segment stays well under the document limit
+	static final int SEGMENT_SIZE = 500;
+	static final int SEGMENT_MAX_BYTES = 8 * 1024 * 1024;
+
+	// Oldest first, the order in which the messages are packed
+	private static final Sort ARCHIVE_ORDER = Sort.by(Sort.Order.asc("timestamp"), Sort.Order.asc("_id"));
+	// Newest segment first, the order in which the history is read
+	private static final Sort SEGMENT_ORDER = Sort.by(Sort.Order.desc("to"));
+	// Oldest segment first, the order of an export
+	private static final Sort EXPORT_ORDER = Sort.by(Sort.Order.asc("to"));
+	private static final DocumentCodec CODEC = new DocumentCodec();
+
+	// MongoTemplate to move the messages and read the segments
+	private final MongoTemplate mongoTemplate;
+	// Whether the hot messages are packed in buckets (messages.storage=bucket)
+	private final boolean bucketed;
+
+	// Constructor for dependency injection
+	public MessageArchive(MongoTemplate mongoTemplate, @Value("${messages.storage:document}") String storage) {
+		this.mongoTemplate = mongoTemplate;
+		this.bucketed = "bucket".equals(storage);
+	}
+
+	// Moves the messages of the chat older than the cutoff into segments, returns the number of messages moved
+	// Each segment is written before its messages are deleted, a run interrupted in between finds the segment already written
+	// and only deletes the messages it holds
+	public int archiveChat(String chatId, LocalDateTime cutoff) {
+		if (bucketed) {
+			return archiveBuckets(chatId, cutoff);
+		}
+		int archived = 0;
+		while (true) {
+			List<Document> batch = mongoTemplate.find(archivableQuery(chatId, cutoff, SEGMENT_SIZE), Document.class, "messages");
+			if (batch.isEmpty()) {
+				return archived;
+			}
+
+			// Takes the messages in order until the segment is full
+			List<byte[]> packed = new ArrayList<>();
+			List<Object> ids = new ArrayList<>();
+			int bytes = 0;
+			for (Document doc : batch) {
+				byte[] bson = toBson(doc);
+				if (!packed.isEmpty() && bytes + bson.length > SEGMENT_MAX_BYTES) {
+					break;
+				}
+				packed.add(bson);
+				ids.add(doc.get("_id"));
+				bytes += bson.length;
+			}
+			Message first = mongoTemplate.getConverter().read(Message.class, batch.get(0));
+			Message last = mongoTemplate.getConverter().read(Message.class, batch.get(packed.size() - 1));
+
+			try {
+				mongoTemplate.insert(new MessageSegment(chatId + ":" + first.getId(), chatId, packed.size(), first.getTimestamp(),
+						last.getTimestamp(), compress(packed), LocalDateTime.now()));
+			} catch (DuplicateKeyException e) {
+				// Written by an interrupted run, messages sent or deleted since then make this batch differ from it
+				// Only the messages the stored segment holds are deleted, the rest of the batch goes to the next segment
+				// A segment deleted with its chat in between deletes nothing and the batch is read again
+				MessageSegment stored = mongoTemplate.findById(chatId + ":" + first.getId(), MessageSegment.class);
+				ids = stored != null ? storedIds(stored) : List.of();
+			}
+			archived += (int) mongoTemplate.remove(new Query(Criteria.where("_id").in(ids)), "messages").getDeletedCount();
+
+			// A short batch that went whole into the segment means there are no more messages older than the cutoff
+			if (batch.size() < SEGMENT_SIZE && ids.size() == batch.size()) {
+				return archived;
+			}
+		}
+	}
+
+	// Moves the buckets of the chat whose newest message is older than the cutoff, each bucket becomes one segment
+	private int archiveBuckets(String chatId, LocalDateTime cutoff) {
+		int archived = 0;
+		for (Document bucket : mongoTemplate.find(expiredBucketsQuery(chatId, cutoff), Document.class, "message_buckets")) {
+			// The messages are packed oldest first, the order in which the segments are read
+			List<Document> docs = new ArrayList<>(bucket.getList("messages", Document.class));
+			List<Message> mssgs = new ArrayList<>();
+			for (Document doc : docs) {
+				mssgs.add(mongoTemplate.getConverter().read(Message.class, doc));
+			}
+			List<Integer> order = new ArrayList<>();
+			for (int i = 0; i < mssgs.size(); i++) {
+				order.add(i);
+			}
+			order.sort(Comparator.comparing((Integer i) -> mssgs.get(i).getTimestamp()).thenComparing(i -> mssgs.get(i).getId()));
+
+			if (!order.isEmpty()) {
+				List<byte[]> packed = new ArrayList<>();
+				for (int i : order) {
+					packed.add(toBson(docs.get(i)));
+				}
+				Message first = mssgs.get(order.get(0));
+				Message last = mssgs.get(order.get(order.size() - 1));
+				try {
+					mongoTemplate.insert(new MessageSegment(chatId + ":" + first.getId(), chatId, packed.size(), first.getTimestamp(),
+							last.getTimestamp(), compress(packed), LocalDateTime.now()));
+				} catch (DuplicateKeyException e) {
+					// Written by an interrupted run, its bucket is still to be deleted
+				}
+			}
+			mongoTemplate.remove(new Query(Criteria.where("_id").is(bucket.get("_id"))), "message_buckets");
+			archived += mssgs.size();
+		}
+		return archived;
+	}
+
+	// Finds up to limit archived messages of the chat older than the (timestamp, id) position, newest first
+	// A null beforeTimestamp starts from the newest archived message, the segments are read one at a time until the page is full
+	public List<Message> findHistory(String chatId, LocalDateTime beforeTimestamp, String beforeId, int limit) {
+		List<Message> mssgs = new ArrayList<>();
+		if (limit <= 0) {
+			return mssgs;
+		}
+		try (Stream<MessageSegment> segments = mongoTemplate.stream(segmentsQuery(chatId, beforeTimestamp), MessageSegment.class)) {
+			Iterator<MessageSegment> iterator = segments.iterator();
+			while (mssgs.size() < limit && iterator.hasNext()) {
+				List<Message> unpacked = unpack(iterator.next());
+				for (int i = unpacked.size() - 1; i >= 0 && mssgs.size() < limit; i--) {
+					Message mssg = unpacked.get(i);
+					if (isBefore(mssg, beforeTimestamp, beforeId)) {
+						mssgs.add(mssg);
+					}
+				}
+			}
+		}
+		return mssgs;
+	}
+
+	// Finds up to limit archived messages of the chat after skipping the newest ones, newest first
+	// Whole segments are skipped by their count, only the segments holding the page are read
+	public List<Message> findLatest(String chatId, int skip, int limit) {
+		if (limit <= 0) {
+			return List.of();
+		}
+		Query countsQuery = segmentsQuery(chatId, null);
+		countsQuery.fields().include("count");
+
+		int offset = skip;
+		int available = 0;
+		List<String> ids = new ArrayList<>();
+		for (MessageSegment segment : mongoTemplate.find(countsQuery, MessageSegment.class)) {
+			if (ids.isEmpty() && offset >= segment.getCount()) {
+				offset -= segment.getCount();
+				continue;
+			}
+			ids.add(segment.getId());
+			available += segment.getCount();
+			if (available - offset >= limit) {
+				break;
+			}
+		}
+		if (ids.isEmpty()) {
+			return List.of();
+		}
+
+		List<Message> mssgs = new ArrayList<>();
+		for (MessageSegment segment : mongoTemplate.find(new Query(Criteria.where("_id").in(ids)).with(SEGMENT_ORDER), MessageSegment.class)) {
+			List<Message> unpacked = unpack(segment);
+			for (int i = unpacked.size() - 1; i >= 0; i--) {
+				mssgs.add(unpacked.get(i));
+			}
+		}
+		return mssgs.subList(Math.min(offset, mssgs.size()), Math.min(offset + limit, mssgs.size()));
+	}
+
+	// Streams every archived message of the chat oldest first, one segment at a time
+	// The stream has to be closed to release the cursor
+	public Stream<Message> streamChat(String chatId) {
+		return mongoTemplate.stream(exportQuery(chatId), MessageSegment.class).flatMap(segment -> unpack(segment).stream());
+	}
+
+	// Deletes the archived messages of a chat
+	public void deleteChat(String chatId) {
+		mongoTemplate.remove(new Query(Criteria.where("chatId").is(chatId)), MessageSegment.class);
+	}
+
+	// Builds the query of the oldest hot messages of a chat older than the cutoff, served by the chat_history index, also used by the query plan tests
+	public static Query archivableQuery(String chatId, LocalDateTime cutoff, int limit) {
+		// The query runs without an entity class, the date is converted here the same way the mapping does
+		Date before = Date.from(cutoff.atZone(ZoneId.systemDefault()).toInstant());
+		return new Query(Criteria.where("chatId").is(chatId).and("timestamp").lt(before)).with(ARCHIVE_ORDER).limit(limit);
+	}
+
+	// Builds the query of the buckets of a chat whose newest message is older than the cutoff, served by the bucket chat_history index, also used by the query plan tests
+	public static Query expiredBucketsQuery(String chatId, LocalDateTime cutoff) {
+		Date before = Date.from(cutoff.atZone(ZoneId.systemDefault()).toInstant());
+		return new Query(Criteria.where("chatId").is(chatId).and("end").lt(before)).cursorBatchSize(2);
+	}
+
+	// Builds the query of every segment of a chat, oldest first, also used by the query plan tests
+	public static Query exportQuery(String chatId) {
+		return new Query(Criteria.where("chatId").is(chatId)).with(EXPORT_ORDER).cursorBatchSize(2);
+	}
+
+	// Builds the query of the segments of a chat holding messages at or before the timestamp, newest first, also used by the query plan tests
+	// The segments are fetched two at a time since a page rarely needs more
+	public static Query segmentsQuery(String chatId, LocalDateTime beforeTimestamp) {
+		Criteria criteria = Criteria.where("chatId").is(chatId);
+		if (beforeTimestamp != null) {
+			criteria.and("from").lte(beforeTimestamp);
+		}
+		return new Query(criteria).with(SEGMENT_ORDER).cursorBatchSize(2);
+	}
+
+	// IDs of the messages of a segment as they are stored
+	private static List<Object> storedIds(MessageSegment segment) {
+		List<Object> ids = new ArrayList<>();
+		for (Document doc : decode(segment.getData())) {
+			ids.add(doc.get("_id"));
+		}
+		return ids;
+	}
+
+	// Messages of a segment, oldest first
+	private List<Message> unpack(MessageSegment segment) {
+		List<Message> mssgs = new ArrayList<>();
+		for (Document doc : decode(segment.getData())) {
+			mssgs.add(mongoTemplate.getConverter().read(Message.class, doc));
+		}
+		return mssgs;
+	}
+
+	// Whether the message comes before the (timestamp, id) position in the history
+	private static boolean isBefore(Message mssg, LocalDateTime beforeTimestamp, String beforeId) {
+		if (beforeTimestamp == null) {
+			return true;
+		}
+		int order = mssg.getTimestamp().compareTo(beforeTimestamp);
+		return order < 0 || (order == 0 && mssg.getId().compareTo(beforeId) < 0);
+	}
+
+	// BSON bytes of a document
+	static byte[] toBson(Document doc) {
+		ByteBuffer buffer = new RawBsonDocument(doc, CODEC).getByteBuffer().asNIO();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	// Gzip compressed sequence of BSON documents, the same layout as a mongodump file
+	static byte[] compress(List<byte[]> docs) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			for (byte[] doc : docs) {
+				gzip.write(doc);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+
+	// Documents of a compressed sequence, each one starts with its length
+	static List<Document> decode(byte[] data) {
+		List<Document> docs = new ArrayList<>();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+			byte[] header;
+			while ((header = in.readNBytes(4)).length == 4) {
+				int length = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt();
+				byte[] bson = new byte[length];
+				System.arraycopy(header, 0, bson, 0, 4);
+				if (in.readNBytes(bson, 4, length - 4) != length - 4) {
+					throw new IOException("Truncated message segment");
+				}
+				docs.add(new RawBsonDocument(bson).decode(CODEC));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return docs;
+	}
+}
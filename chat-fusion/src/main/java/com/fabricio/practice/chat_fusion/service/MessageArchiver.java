@@ -0,0 +1,115 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Projections;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Background job that moves the messages older than messages.archive.after into the archive, one chat at a time
+// The progress of the current or last run is reported by the /actuator/archive endpoint
+@Component
+public class MessageArchiver {
+
+	private static final Logger log = LoggerFactory.getLogger(MessageArchiver.class);
+
+	// Archive the messages are moved to
+	private final MessageArchive messageArchive;
+	// MongoTemplate to list the chats and size the collections
+	private final MongoTemplate mongoTemplate;
+	// Whether the job runs, when off the messages stay in the hot collection
+	private final boolean enabled;
+	// Age after which a message is archived
+	private final Duration after;
+	// Guards against overlapping runs
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final Counter archivedCounter;
+
+	// Progress of the current or last run
+	private volatile Instant startedAt;
+	private volatile Instant finishedAt;
+	private volatile LocalDateTime cutoff;
+	private volatile long totalChats;
+	private volatile long chatsScanned;
+	private volatile long messagesArchived;
+	private volatile String lastError;
+
+	// Constructor for dependency injection
+	public MessageArchiver(MessageArchive messageArchive, MongoTemplate mongoTemplate, MeterRegistry meterRegistry,
+			@Value("${messages.archive.enabled:false}") boolean enabled,
+			@Value("${messages.archive.after:P180D}") Duration after) {
+		this.messageArchive = messageArchive;
+		this.mongoTemplate = mongoTemplate;
+		this.enabled = enabled;
+		this.after = after;
+		this.archivedCounter = Counter.builder("messages.archived")
+				.description("Messages moved to the archive")
+				.register(meterRegistry);
+	}
+
+	// Archives the old messages of every chat, the chats are listed by ID so the scan is cheap
+	@Scheduled(fixedDelayString = "${messages.archive.interval-ms:3600000}", initialDelayString = "${messages.archive.initial-delay-ms:60000}")
+	public void archive() {
+		if (!enabled || !running.compareAndSet(false, true)) {
+			return;
+		}
+		startedAt = Instant.now();
+		finishedAt = null;
+		cutoff = LocalDateTime.now().minus(after);
+		totalChats = mongoTemplate.getCollection("chats").estimatedDocumentCount();
+		chatsScanned = 0;
+		messagesArchived = 0;
+		lastError = null;
+		try (MongoCursor<Document> chats = mongoTemplate.getCollection("chats").find()
+				.projection(Projections.include("_id")).iterator()) {
+			while (chats.hasNext()) {
+				int archived = messageArchive.archiveChat(chats.next().get("_id").toString(), cutoff);
+				archivedCounter.increment(archived);
+				messagesArchived += archived;
+				chatsScanned++;
+			}
+			log.info("Archived {} messages older than {} from {} chats", messagesArchived, cutoff, chatsScanned);
+		} catch (RuntimeException e) {
+			// The next run continues from the messages left in the hot collection
+			lastError = e.getMessage();
+			log.warn("Message archival stopped after {} chats: {}", chatsScanned, e.getMessage());
+		} finally {
+			finishedAt = Instant.now();
+			running.set(false);
+		}
+	}
+
+	// Progress of the current or last run and the size of both tiers
+	public Map<String, Object> progress() {
+		Map<String, Object> progress = new LinkedHashMap<>();
+		progress.put("enabled", enabled);
+		progress.put("after", after.toString());
+		progress.put("running", running.get());
+		progress.put("startedAt", startedAt);
+		progress.put("finishedAt", finishedAt);
+		progress.put("cutoff", cutoff);
+		progress.put("chatsScanned", chatsScanned);
+		progress.put("totalChats", totalChats);
+		progress.put("messagesArchived", messagesArchived);
+		progress.put("lastError", lastError);
+		progress.put("hotMessages", mongoTemplate.getCollection("messages").estimatedDocumentCount());
+		progress.put("hotBuckets", mongoTemplate.getCollection("message_buckets").estimatedDocumentCount());
+		progress.put("archivedSegments", mongoTemplate.getCollection("messages_archive").estimatedDocumentCount());
+		return progress;
+	}
+}
@@ -0,0 +1,36 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+import com.fabricio.practice.chat_fusion.exception.MessageException;
+import com.fabricio.practice.chat_fusion.model.Message;
+
+// Position in a chat history, sent to clients as an opaque token
+// The token is the Base64 (URL safe) of "timestamp|id" of the last message returned
+public record MessageCursor(LocalDateTime timestamp, String id) {
+
+	// Builds the cursor pointing right after the message
+	public static MessageCursor after(Message message) {
+		return new MessageCursor(message.getTimestamp(), message.getId());
+	}
+
+	// Encodes the cursor as an opaque token
+	public String encode() {
+		String raw = timestamp + "|" + id;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+	}
+
+	// Decodes a token received from a client
+	public static MessageCursor decode(String token) throws MessageException {
+		try {
+			String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+			int separator = raw.indexOf('|');
+			return new MessageCursor(LocalDateTime.parse(raw.substring(0, separator)), raw.substring(separator + 1));
+		} catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+			throw new MessageException("Invalid cursor");
+		}
+	}
+}
@@ -3,6 +3,7 @@ package com.fabricio.practice.chat_fusion.service;
 import java.io.IOException;
 import java.util.List;
 
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.fabricio.practice.chat_fusion.exception.ChatException;
 import com.fabricio.practice.chat_fusion.exception.MessageException;
@@ -10,6 +11,8 @@ import com.fabricio.practice.chat_fusion.model.Message;
 import com.fabricio.practice.chat_fusion.model.User;
 import com.fabricio.practice.chat_fusion.request.EditMessageRequest;
 import com.fabricio.practice.chat_fusion.request.SendMessageRequest;
+import com.fabricio.practice.chat_fusion.response.MessageSearchResponse;
+import com.fabricio.practice.chat_fusion.response.MessageSliceResponse;
 
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkClientException;
@@ -24,6 +27,15 @@ public interface MessageService {
 	// Retrieves messages from a specified chat with pagination 
 	public List<Message> getChatMessages(String chatId, User reqUser, int limit, int skip) throws ChatException;
 	
+	// Retrieves a page of messages older than the cursor (or the latest ones without a cursor), newest first
+	public MessageSliceResponse getChatHistory(String chatId, User reqUser, String before, int limit) throws ChatException, MessageException;
+	
+	// Searches the text messages of one chat, or of all the chats of the user when chatId is null, best match first
+	public MessageSearchResponse searchMessages(User reqUser, String text, String chatId, int page, int size) throws ChatException, MessageException;
+	
+	// Exports the whole history of a chat, oldest first, as NDJSON or JSON optionally followed by the manifest of its media files
+	public StreamingResponseBody exportChat(String chatId, User reqUser, String format, boolean includeMedia) throws ChatException, MessageException;
+	
 	// Finds a messaged by its unique ID
 	public Message findMessageById(String messageId) throws MessageException; 
 	
@@ -2,29 +2,30 @@ package com.fabricio.practice.chat_fusion.service;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fabricio.practice.chat_fusion.config.IdGenerator;
 import com.fabricio.practice.chat_fusion.exception.ChatException;
 import com.fabricio.practice.chat_fusion.exception.MessageException;
 import com.fabricio.practice.chat_fusion.model.Chat;
+import com.fabricio.practice.chat_fusion.model.MemberState;
 import com.fabricio.practice.chat_fusion.model.Message;
 import com.fabricio.practice.chat_fusion.model.User;
 import com.fabricio.practice.chat_fusion.repository.ChatRepository;
+import com.fabricio.practice.chat_fusion.repository.MemberStateRepository;
 import com.fabricio.practice.chat_fusion.repository.MessageRepository;
 import com.fabricio.practice.chat_fusion.request.EditMessageRequest;
 import com.fabricio.practice.chat_fusion.request.SendMessageRequest;
+import com.fabricio.practice.chat_fusion.response.MessageSearchResponse;
+import com.fabricio.practice.chat_fusion.response.MessageSliceResponse;
 
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkClientException;
@@ -34,6 +35,10 @@ import software.amazon.awssdk.services.s3.model.S3Exception;
 @Service
 public class MessageServiceImplementation implements MessageService {
 
+	// Number of top results that can be paged through in a search, deeper pages must refine the search text
+	private static final int MAX_SEARCH_RESULTS = 500;
+	// Number of chats searched when no chat is given, the most recently active ones, older chats have to be searched one at a time
+	static final int MAX_SEARCH_CHATS = 50;
 
 	// Chat Service for handling user-related operations
 	public ChatService chatService;
@@ -47,15 +52,45 @@ public class MessageServiceImplementation implements MessageService {
 	private MongoTemplate mongoTemplate;
 	// Websocket service for real time notifications
 	private WebsocketService websocketService;
+	// Presence registry to know which members have the chat open
+	private PresenceService presenceService;
+	// Group commit writer for new messages
+	private MessageWriteBatcher messageWriteBatcher;
+	// Generator for the IDs of new messages
+	private IdGenerator idGenerator;
+	// Member state repository holding the read watermarks
+	private MemberStateRepository memberStateRepository;
+	// Write-behind buffer for the unread counters of the members
+	private UnreadCounterBuffer unreadCounterBuffer;
+	// Inbox entries of the members, moved to the latest message
+	private InboxProjection inboxProjection;
+	// Change feed read by reconnecting clients
+	private ChangeFeed changeFeed;
+	// Cold tier holding the old messages
+	private MessageArchive messageArchive;
+	// Writer of the chat exports
+	private ChatExporter chatExporter;
+	// Current profiles of the authors of new messages
+	private AuthorProfiles authorProfiles;
 	
 	// Constructor for dependency injection of ChatService, ChatRepository, MongoTemplate, MessageRepository and AwsService
-	public MessageServiceImplementation(ChatService chatService, ChatRepository chatRepository, MessageRepository messageRepository, AwsService awsS3Client, MongoTemplate mongoTemplate, WebsocketService websocketService) {
+	public MessageServiceImplementation(ChatService chatService, ChatRepository chatRepository, MessageRepository messageRepository, AwsService awsS3Client, MongoTemplate mongoTemplate, WebsocketService websocketService, PresenceService presenceService, MessageWriteBatcher messageWriteBatcher, IdGenerator idGenerator, MemberStateRepository memberStateRepository, UnreadCounterBuffer unreadCounterBuffer, InboxProjection inboxProjection, ChangeFeed changeFeed, MessageArchive messageArchive, ChatExporter chatExporter, AuthorProfiles authorProfiles) {
 		this.chatService = chatService;
 		this.chatRepository = chatRepository;
 		this.messageRepository = messageRepository;
 		this.awsS3Client = awsS3Client;
 		this.mongoTemplate = mongoTemplate;
 		this.websocketService = websocketService;
+		this.presenceService = presenceService;
+		this.messageWriteBatcher = messageWriteBatcher;
+		this.idGenerator = idGenerator;
+		this.memberStateRepository = memberStateRepository;
+		this.unreadCounterBuffer = unreadCounterBuffer;
+		this.inboxProjection = inboxProjection;
+		this.changeFeed = changeFeed;
+		this.messageArchive = messageArchive;
+		this.chatExporter = chatExporter;
+		this.authorProfiles = authorProfiles;
 	}
 	
 	// Creates a message in the specified chat
@@ -70,12 +105,12 @@ public class MessageServiceImplementation implements MessageService {
 			throw new MessageException("Message content cannot be empty.");
 		}
 		
-		// Creates a new message and sets it fields
+		// Creates a new message and sets it fields, the author is the current profile and not the one in the token
 		Message mssg = new Message();
-		mssg.setUser(reqUser);
+		mssg.setUser(authorProfiles.of(reqUser));
 		
-	    // Generates a unique ID for the message
-	    String messageId = UUID.randomUUID().toString();
+	    // Generates a unique, time ordered ID for the message
+	    String messageId = idGenerator.nextId();
 	    mssg.setId(messageId);
 		
 		// If a message is text, stores it to the database
@@ -90,79 +125,198 @@ public class MessageServiceImplementation implements MessageService {
 		mssg.setChatId(chat.getId());
 		mssg.setTimestamp(LocalDateTime.now());
 		
+		// IDs of the members whose unread count increases
+		List<String> unreadUserIds = new ArrayList<>();
+		// IDs of the members that read the message as it arrives
+		List<String> readerIds = new ArrayList<>();
+		
 		// Iterates over the members to notify those that are not online of the new message
-		for (User member : chat.getMembers()) {
-			String userId = member.getId();
+		for (String userId : chat.getMemberIds()) {
 			// Skips the author of the message
 			if(userId.equals(reqUser.getId())) {
 				continue;
 			}
-			// Marks the message as read by those users that are connected at the moment the message is created
-			if(chat.getConnectedUserIds().contains(userId )) {
-				mssg.getReadBy().add(member);
+			// Those users that are connected at the moment the message is created read it right away
+			if(presenceService.isConnected(chat.getId(), userId)) {
+				readerIds.add(userId);
 			} else {
 				// Increases the unread count or those that are not connected
-				chat.getUnreadCounts().put(userId, chat.getUnreadCounts().getOrDefault(userId, 0) + 1);
-				// Websocket notification to increase the user unread count real time for a chat
-				websocketService.chatNotificationEvent(chat.getId(),userId, "updateUnreadCounts",chat.getId() );
+				unreadUserIds.add(userId);
 			}
 		}
 		
-		// Emits WebSocket new message even
-		websocketService.messageEvent(mssg.getChatId(), "send", mssg);
+		// Saves the new message, through the group commit batch when it is enabled
+		Message saved = messageWriteBatcher.isEnabled() ? messageWriteBatcher.insert(mssg) : messageRepository.insert(mssg);
 	    
-	    // Saves the changes to the chat
-	    chatRepository.save(chat);
+	    // Buffers the unread count increments, they are coalesced and written in bulk away from the chat document
+	    unreadCounterBuffer.increment(chat.getId(), unreadUserIds);
+	    // Buffers the new message for the inbox entries of the members, written in bulk with the latest messages of other chats
+	    inboxProjection.messageSent(saved, chat.getMemberIds());
 	    
-		// Saves and returns the new message
-		return messageRepository.save(mssg);
+	    // Websocket notification to increase the unread count real time for the members that are not connected
+	    for (String userId : unreadUserIds) {
+	    	websocketService.chatNotificationEvent(chat.getId(), userId, "updateUnreadCounts", chat.getId());
+	    }
+		
+		// Emits WebSocket new message event once the message is stored
+		websocketService.messageEvent(mssg.getChatId(), "send", saved);
+		changeFeed.chatChanged(mssg.getChatId(), "send", saved);
+		
+		// Moves the read watermark of the connected members up to the new message
+		markRead(chat.getId(), readerIds, mssg.getTimestamp());
+	    
+		return saved;
 	}
 
 	// Retrieves messages from a specified chat with pagination
 	@Override
 	public List<Message> getChatMessages(String chatId, User reqUser,int limit, int skip) throws ChatException{
+		// Checks membership and marks the chat as read when the latest messages are requested
+		openChat(chatId, reqUser, skip == 0);
+	    
+	    // Queries messages ordered by timestamp in descending order, skipping exactly the requested messages and without a count query
+	    List<Message> mssgs = messageRepository.findLatest(chatId, skip, limit);
+	    if (mssgs.size() < limit) {
+	    	// The page goes past the oldest hot message, the rest comes from the archive
+	    	long hotCount = mssgs.isEmpty() ? messageRepository.countByChatId(chatId) : skip + mssgs.size();
+	    	mssgs = new ArrayList<>(mssgs);
+	    	mssgs.addAll(messageArchive.findLatest(chatId, (int) Math.max(0, skip - hotCount), limit - mssgs.size()));
+	    }
+	    return mssgs;
+	}
+
+	// Retrieves a page of messages older than the cursor, newest first
+	@Override
+	public MessageSliceResponse getChatHistory(String chatId, User reqUser, String before, int limit) throws ChatException, MessageException {
+		// Decodes the cursor before touching the database so invalid tokens fail fast
+		MessageCursor cursor = before == null || before.isBlank() ? null : MessageCursor.decode(before);
+		
+		// Checks membership and marks the chat as read when the latest messages are requested
+		openChat(chatId, reqUser, cursor == null);
+		
+		// Fetches one extra message to know if there are older ones without counting
+		List<Message> mssgs = cursor == null
+				? messageRepository.findHistory(chatId, null, null, limit + 1)
+				: messageRepository.findHistory(chatId, cursor.timestamp(), cursor.id(), limit + 1);
+		
+		if (mssgs.size() <= limit) {
+			// The hot messages ran out, the page continues in the archive from the oldest hot message or the cursor
+			Message oldest = mssgs.isEmpty() ? null : mssgs.get(mssgs.size() - 1);
+			LocalDateTime beforeTimestamp = oldest != null ? oldest.getTimestamp() : cursor != null ? cursor.timestamp() : null;
+			String beforeId = oldest != null ? oldest.getId() : cursor != null ? cursor.id() : null;
+			mssgs = new ArrayList<>(mssgs);
+			mssgs.addAll(messageArchive.findHistory(chatId, beforeTimestamp, beforeId, limit + 1 - mssgs.size()));
+		}
+		
+		boolean hasMore = mssgs.size() > limit;
+		if (hasMore) {
+			mssgs = mssgs.subList(0, limit);
+		}
+		// The next page starts right after the oldest message returned
+		String nextCursor = hasMore ? MessageCursor.after(mssgs.get(mssgs.size() - 1)).encode() : null;
+		
+		// The watermarks are sent with the first page only, later pages reuse them and read events keep them current
+		Map<String, LocalDateTime> readWatermarks = null;
+		if (cursor == null) {
+			readWatermarks = new HashMap<>();
+			for (MemberState state : memberStateRepository.findByChatId(chatId)) {
+				readWatermarks.put(state.getUserId(), state.getLastReadAt());
+			}
+		}
+		
+		return new MessageSliceResponse(mssgs, nextCursor, hasMore, readWatermarks);
+	}
+	
+	// Searches the text messages of one chat, or of all the chats of the user when chatId is null, best match first
+	// The content text index is kept up to date by MongoDB as messages are sent, edited and deleted
+	@Override
+	public MessageSearchResponse searchMessages(User reqUser, String text, String chatId, int page, int size) throws ChatException, MessageException {
+		// Validates the search text
+		if (text == null || text.isBlank()) {
+			throw new MessageException("Search text cannot be empty.");
+		}
+		// Bounds the results that have to be ranked to reach the page
+		int skip = page * size;
+		if (page < 0 || skip + size > MAX_SEARCH_RESULTS) {
+			throw new MessageException("Only the first " + MAX_SEARCH_RESULTS + " results can be browsed, refine the search");
+		}
+		
+		// Scopes the search to the chat, checking the membership, or to the most recently active chats of the user
+		// The text index is per chat, a search of several chats costs one index lookup per chat, so their number is capped
+		List<String> chatIds = new ArrayList<>();
+		if (chatId != null && !chatId.isBlank()) {
+			openChat(chatId, reqUser, false);
+			chatIds.add(chatId);
+		} else {
+			for (MemberState entry : inboxProjection.findInbox(reqUser.getId(), 0, MAX_SEARCH_CHATS)) {
+				chatIds.add(entry.getChatId());
+			}
+		}
+		if (chatIds.isEmpty()) {
+			return new MessageSearchResponse(List.of(), page, false);
+		}
+		
+		// Fetches one extra message to know if there are more results without counting
+		List<Message> mssgs = messageRepository.search(chatIds, text.trim(), skip, size + 1);
+		boolean hasMore = mssgs.size() > size;
+		if (hasMore) {
+			mssgs = mssgs.subList(0, size);
+		}
+		return new MessageSearchResponse(mssgs, page, hasMore);
+	}
+	
+	// Exports the whole history of a chat, oldest first, as NDJSON or JSON
+	@Override
+	public StreamingResponseBody exportChat(String chatId, User reqUser, String format, boolean includeMedia) throws ChatException, MessageException {
+		// Validates the format before touching the database
+		if (!"ndjson".equals(format) && !"json".equals(format)) {
+			throw new MessageException("Unsupported export format: " + format);
+		}
+		// Checks membership, the chat is not marked as read
+		openChat(chatId, reqUser, false);
+		
+		// The body is written by the async executor from the database cursors, after the request thread has been released
+		if ("ndjson".equals(format)) {
+			return out -> chatExporter.writeNdjson(chatId, includeMedia, out);
+		}
+		return out -> chatExporter.writeJson(chatId, includeMedia, out);
+	}
+	
+	// Verifies the user is a member of the chat and optionally marks it as read
+	private Chat openChat(String chatId, User reqUser, boolean markRead) throws ChatException {
 		// Queries the chat in the database
 	    Chat chat = chatService.findChatById(chatId);
 	    
 	    // Checks if the requesting user is a member of the chat
-	    if (!chat.getMembers().contains(reqUser)) {
+	    if (!chat.hasMember(reqUser.getId())) {
 	        throw new ChatException("You are not a member of this chat and cannot view its messages.");
 	    }
 	    
-	    
-	 // Gets the unread count for the user
-	    int unreadCount = chat.getUnreadCounts().getOrDefault(reqUser.getId(), 0);
-	    
-	    if (unreadCount > 0) {
-	    	// Query to find unread messages not marked as read by the user
-	        Query query = new Query()
-	            .addCriteria(Criteria.where("chatId").is(chatId)
-	                .and("readBy").not().elemMatch(Criteria.where("_id").is(reqUser.getId()))
-	                // Excludes messages from the user
-	                .and("user").ne(reqUser));
-
-
-	        // Adds user to `readBy` field
-	        Update update = new Update().addToSet("readBy", reqUser.getId()); 
-	        
-			// Performs bulk update
-	        mongoTemplate.updateMulti(query, update, Message.class); 
-
-	        // Resets the unread count for the user
-	        chat.getUnreadCounts().put(reqUser.getId(), 0);
-	        
-	        chatRepository.save(chat);
+	    if (markRead) {
+	    	// Marking as read is a single write to the watermark of the member, the messages are left untouched
+	    	markRead(chatId, List.of(reqUser.getId()), LocalDateTime.now());
+	    	
+	    	// Resets the unread count for the user
+	    	unreadCounterBuffer.reset(chatId, reqUser.getId());
 	    }
 	    
-	    // Queries messages with pagination, ordered by timestamp in descending order
-	    Pageable pageable = PageRequest.of(skip / limit, limit, Sort.by(Sort.Order.desc("timestamp")));
-	    Page<Message> messagePage = messageRepository.findByChatId(chatId, pageable);
-	    
-
-	    return messagePage.getContent();
+	    return chat;
 	}
-
 	
+	// Moves the read watermark of the members and lets the open clients know who has seen the messages
+	private void markRead(String chatId, List<String> userIds, LocalDateTime readAt) {
+		if (userIds.isEmpty()) {
+			return;
+		}
+		memberStateRepository.markRead(chatId, userIds, readAt);
+		
+		// Emits WebSocket read event with the new watermarks
+		List<MemberState> states = new ArrayList<>();
+		for (String userId : userIds) {
+			states.add(new MemberState(MemberState.idOf(chatId, userId), chatId, userId, readAt));
+		}
+		websocketService.messageEvent(chatId, "read", states);
+	}
 
 	// Finds a messaged by its unique ID
 	@Override
@@ -195,7 +349,11 @@ public class MessageServiceImplementation implements MessageService {
 	    		// Emits WebSocket event for editing the message
 	    		websocketService.messageEvent(mssg.getChatId(), "edit", mssg);
 	            
-	            return messageRepository.save(mssg);
+	            Message saved = messageRepository.save(mssg);
+	            // Updates the inbox preview if the message is the latest of the chat
+	            inboxProjection.messageEdited(saved);
+	            changeFeed.chatChanged(saved.getChatId(), "edit", saved);
+	            return saved;
 	        }
 	        // If the user is not the author of the message throws an exception
 		 	throw new MessageException("Cannot update messages from another user");
@@ -231,6 +389,10 @@ public class MessageServiceImplementation implements MessageService {
 	        	
 	        	// Deletes the message from the repository
 	        	messageRepository.deleteById(messageId);
+	        	// Records a tombstone so clients that were offline drop the message too
+	        	changeFeed.chatChanged(mssg.getChatId(), "delete", messageId);
+	        	// Replaces the inbox preview if the message was the latest of the chat
+	        	inboxProjection.messageDeleted(mssg.getChatId(), messageId);
 	        	
 	            return;
 	        } 
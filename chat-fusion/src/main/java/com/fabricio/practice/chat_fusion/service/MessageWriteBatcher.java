@@ -0,0 +1,202 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.exception.MessageException;
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.repository.MessageRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+// Group commit for message inserts
+// Messages are queued and a single writer inserts them in batches of up to batch-size, waiting at most linger-ms to fill a batch
+// The caller blocks until the batch containing its message has been written, or at most write-timeout-ms
+// Each batch is an unordered insert, a message that fails only fails its own caller
+@Component
+public class MessageWriteBatcher {
+
+	private static final Logger log = LoggerFactory.getLogger(MessageWriteBatcher.class);
+
+	// Whether the group commit mode is on, when off messages are saved one by one by the caller
+	private final boolean enabled;
+	private final int batchSize;
+	private final long lingerNanos;
+	private final long writeTimeoutMillis;
+	// Messages waiting to be written
+	private final BlockingQueue<PendingWrite> queue;
+	// Message repository for the bulk inserts, which follow the configured storage layout
+	private final MessageRepository messageRepository;
+	// Thread that drains the queue and writes the batches
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	// Metrics for the batches
+	private final Timer batchTimer;
+	private final DistributionSummary batchSizes;
+	private final Counter rejected;
+	private final Counter failed;
+
+	// Constructor for dependency injection
+	public MessageWriteBatcher(MessageRepository messageRepository, MeterRegistry meterRegistry,
+			@Value("${messages.group-commit.enabled:false}") boolean enabled,
+			@Value("${messages.group-commit.batch-size:100}") int batchSize,
+			@Value("${messages.group-commit.linger-ms:5}") long lingerMillis,
+			@Value("${messages.group-commit.queue-capacity:10000}") int queueCapacity,
+			@Value("${messages.group-commit.write-timeout-ms:10000}") long writeTimeoutMillis) {
+		this.messageRepository = messageRepository;
+		this.enabled = enabled;
+		this.batchSize = batchSize;
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+		this.writeTimeoutMillis = writeTimeoutMillis;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+		this.batchTimer = Timer.builder("messages.group-commit.write")
+				.description("Time to insert one batch of messages")
+				.register(meterRegistry);
+		this.batchSizes = DistributionSummary.builder("messages.group-commit.batch.size")
+				.description("Messages inserted per batch")
+				.register(meterRegistry);
+		this.rejected = Counter.builder("messages.group-commit.rejected")
+				.description("Messages rejected because the write queue was full")
+				.register(meterRegistry);
+		this.failed = Counter.builder("messages.group-commit.failed")
+				.description("Messages that could not be written")
+				.register(meterRegistry);
+		Gauge.builder("messages.group-commit.queue", queue, BlockingQueue::size)
+				.description("Messages waiting to be written")
+				.register(meterRegistry);
+
+		this.writer = new Thread(this::run, "message-writer");
+		this.writer.setDaemon(true);
+		if (enabled) {
+			writer.start();
+		}
+	}
+
+	// Checks if the group commit mode is on
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	// Queues the message and waits until the batch that contains it has been written
+	public Message insert(Message message) throws MessageException {
+		PendingWrite write = new PendingWrite(message, new CompletableFuture<>());
+		// Rejects right away when the queue is full, handled as SERVICE_UNAVAILABLE
+		if (!running || !queue.offer(write)) {
+			rejected.increment();
+			throw new RejectedExecutionException("Message write queue is full");
+		}
+
+		// Bounded wait, the writer may stop between the check above and the offer and leave the message queued
+		try {
+			write.done().get(writeTimeoutMillis, TimeUnit.MILLISECONDS);
+			return message;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessageException("Interrupted while saving the message");
+		} catch (ExecutionException e) {
+			throw new MessageException("Failed to save the message: " + e.getCause().getMessage());
+		} catch (TimeoutException e) {
+			throw new MessageException("Timed out while saving the message");
+		}
+	}
+
+	// Writer loop, takes the first message and lingers for more until the batch is full or the linger time ends
+	private void run() {
+		List<PendingWrite> batch = new ArrayList<>(batchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+
+				long deadline = System.nanoTime() + lingerNanos;
+				while (batch.size() < batchSize) {
+					// Takes whatever is already queued without waiting
+					if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+						continue;
+					}
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						break;
+					}
+					PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+
+			} catch (InterruptedException e) {
+				// Stops waiting and lets the loop drain what is left
+				running = false;
+			}
+			// Writes what was taken from the queue, also when the linger was interrupted, so every caller is completed
+			if (!batch.isEmpty()) {
+				write(batch);
+				batch.clear();
+			}
+		}
+
+		// Fails the messages queued after the loop ended instead of leaving their callers waiting
+		List<PendingWrite> left = new ArrayList<>();
+		queue.drainTo(left);
+		left.forEach(write -> write.done().completeExceptionally(new RejectedExecutionException("Message writer stopped")));
+	}
+
+	// Inserts the batch in one unordered bulk insert and completes the callers, those whose message failed with its error
+	private void write(List<PendingWrite> batch) {
+		List<Message> messages = batch.stream().map(PendingWrite::message).toList();
+		try {
+			Map<String, String> errors = batchTimer.record(() -> messageRepository.insertUnordered(messages));
+			batchSizes.record(messages.size());
+			for (PendingWrite write : batch) {
+				String error = errors.get(write.message().getId());
+				if (error == null) {
+					write.done().complete(null);
+				} else {
+					failed.increment();
+					write.done().completeExceptionally(new MessageException(error));
+				}
+			}
+		} catch (RuntimeException e) {
+			log.warn("Failed to insert a batch of {} messages", messages.size(), e);
+			failed.increment(messages.size());
+			batch.forEach(write -> write.done().completeExceptionally(e));
+		}
+	}
+
+	// Stops accepting messages and writes the ones still queued
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		running = false;
+		if (enabled) {
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		}
+	}
+
+	// Message waiting to be written and the future completed once its batch is written
+	private record PendingWrite(Message message, CompletableFuture<Void> done) {
+	}
+}
@@ -0,0 +1,8 @@
+package com.fabricio.practice.chat_fusion.service;
+
+// Service interface to batch online status changes and deliver them to each user's contacts
+public interface PresenceDigestService {
+
+	// Records an online status change, it is delivered with the next digest
+	public void statusChanged(String userId, boolean online);
+}
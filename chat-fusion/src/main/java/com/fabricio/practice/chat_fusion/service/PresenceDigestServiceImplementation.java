@@ -0,0 +1,103 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+
+// Implementation of the PresenceDigestService interface
+// Status changes are collapsed per user and pushed every interval as one frame per connected contact
+@Service
+public class PresenceDigestServiceImplementation implements PresenceDigestService {
+
+	// User ID -> status change not delivered yet
+	private final Map<String, Change> pending = new ConcurrentHashMap<>();
+	// User ID -> IDs of the users sharing a chat with them
+	private final LoadingCache<String, Set<String>> contacts;
+	// Template for sending messages to clients over WebSocket
+	private final SimpMessagingTemplate simpMessagingTemplate;
+	// Registry of the users with an open WebSocket session
+	private final SimpUserRegistry simpUserRegistry;
+	// MongoTemplate used to read the chat members
+	private final MongoTemplate mongoTemplate;
+
+	// Constructor for dependency injection
+	public PresenceDigestServiceImplementation(SimpMessagingTemplate simpMessagingTemplate, SimpUserRegistry simpUserRegistry,
+			MongoTemplate mongoTemplate, @Value("${presence.digest.contacts-ttl:PT1M}") Duration contactsTtl) {
+		this.simpMessagingTemplate = simpMessagingTemplate;
+		this.simpUserRegistry = simpUserRegistry;
+		this.mongoTemplate = mongoTemplate;
+		// Contacts only change when chats are created or their members change, so a short TTL is enough
+		this.contacts = Caffeine.newBuilder()
+				.maximumSize(10_000)
+				.expireAfterWrite(contactsTtl)
+				.build(this::loadContacts);
+	}
+
+	// Records an online status change, it is delivered with the next digest
+	@Override
+	public void statusChanged(String userId, boolean online) {
+		// Keeps the status from before the first change of the interval so a flap that ends where it started is dropped
+		pending.merge(userId, new Change(!online, online), (previous, current) -> new Change(previous.before(), online));
+	}
+
+	// Delivers the collapsed changes to the connected contacts of each user
+	@Scheduled(fixedDelayString = "${presence.digest.interval-ms:500}")
+	public void flush() {
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		// Recipient ID -> user ID -> online status
+		Map<String, Map<String, Boolean>> digests = new HashMap<>();
+		for (String userId : Set.copyOf(pending.keySet())) {
+			Change change = pending.remove(userId);
+			// Skips the flaps that ended with the same status they started with
+			if (change == null || change.before() == change.after()) {
+				continue;
+			}
+			for (String contactId : contacts.get(userId)) {
+				// Only users with an open session can receive the digest
+				if (simpUserRegistry.getUser(contactId) != null) {
+					digests.computeIfAbsent(contactId, id -> new HashMap<>()).put(userId, change.after());
+				}
+			}
+		}
+
+		// Sends one frame per recipient with every change of the interval
+		digests.forEach((recipientId, digest) ->
+			simpMessagingTemplate.convertAndSendToUser(recipientId, "/queue/presence", digest));
+	}
+
+	// Loads the IDs of every member of the chats the user belongs to, reading only the member IDs
+	private Set<String> loadContacts(String userId) {
+		Set<String> ids = new HashSet<>();
+		for (Document chat : mongoTemplate.getCollection("chats")
+				.find(Filters.eq("memberIds", userId))
+				.projection(Projections.include("memberIds"))) {
+			ids.addAll(chat.getList("memberIds", String.class, List.of()));
+		}
+		ids.remove(userId);
+		return ids;
+	}
+
+	// Status before the first change of the interval and after the last one
+	private record Change(boolean before, boolean after) {
+	}
+}
@@ -0,0 +1,22 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.util.Set;
+
+// Service interface to track which users have a chat open at the moment
+public interface PresenceService {
+
+	// Registers a session of the user as connected to the chat
+	public void connect(String chatId, String userId, String sessionId);
+
+	// Removes a session of the user from the chat, returns true if the user has no other session left in it
+	public boolean disconnect(String chatId, String userId, String sessionId);
+
+	// Removes a closed session from every chat, returns the IDs of the chats the user is no longer connected to
+	public Set<String> disconnectSession(String userId, String sessionId);
+
+	// Checks if the user has the chat open in any session
+	public boolean isConnected(String chatId, String userId);
+
+	// Retrieves the IDs of the users that have the chat open
+	public Set<String> getConnectedUserIds(String chatId);
+}
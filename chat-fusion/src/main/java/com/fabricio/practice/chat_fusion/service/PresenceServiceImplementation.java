@@ -0,0 +1,87 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Service;
+
+// Implementation of the PresenceService interface
+// Presence is kept in memory per instance, it only lives as long as the WebSocket sessions that created it
+@Service
+public class PresenceServiceImplementation implements PresenceService {
+
+	// Chat ID -> user ID -> IDs of the sessions of that user with the chat open
+	private final Map<String, Map<String, Set<String>>> chats = new ConcurrentHashMap<>();
+	// Session ID -> IDs of the chats open in that session, used to clean up dropped sockets
+	private final Map<String, Set<String>> sessions = new ConcurrentHashMap<>();
+
+	// Registers a session of the user as connected to the chat
+	@Override
+	public void connect(String chatId, String userId, String sessionId) {
+		// Updates inside compute so a concurrent disconnect can't prune the entry while it is being added to
+		chats.compute(chatId, (id, users) -> {
+			Map<String, Set<String>> entry = users == null ? new ConcurrentHashMap<>() : users;
+			entry.computeIfAbsent(userId, uid -> ConcurrentHashMap.newKeySet()).add(sessionId);
+			return entry;
+		});
+		sessions.computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet()).add(chatId);
+	}
+
+	// Removes a session of the user from the chat, returns true if the user has no other session left in it
+	@Override
+	public boolean disconnect(String chatId, String userId, String sessionId) {
+		// Removes the chat from the session index, dropping the entry once the session has no chats open
+		sessions.computeIfPresent(sessionId, (id, chatIds) -> {
+			chatIds.remove(chatId);
+			return chatIds.isEmpty() ? null : chatIds;
+		});
+		return removeSession(chatId, userId, sessionId);
+	}
+
+	// Removes a closed session from every chat, returns the IDs of the chats the user is no longer connected to
+	@Override
+	public Set<String> disconnectSession(String userId, String sessionId) {
+		Set<String> offline = new HashSet<>();
+		Set<String> chatIds = sessions.remove(sessionId);
+		if (chatIds == null || userId == null) {
+			return offline;
+		}
+
+		for (String chatId : chatIds) {
+			if (removeSession(chatId, userId, sessionId)) {
+				offline.add(chatId);
+			}
+		}
+		return offline;
+	}
+
+	// Checks if the user has the chat open in any session
+	@Override
+	public boolean isConnected(String chatId, String userId) {
+		Map<String, Set<String>> users = chats.get(chatId);
+		return users != null && users.containsKey(userId);
+	}
+
+	// Retrieves the IDs of the users that have the chat open
+	@Override
+	public Set<String> getConnectedUserIds(String chatId) {
+		Map<String, Set<String>> users = chats.get(chatId);
+		return users == null ? Set.of() : Set.copyOf(users.keySet());
+	}
+
+	// Removes the session from the user's entry in the chat, pruning empty entries atomically
+	private boolean removeSession(String chatId, String userId, String sessionId) {
+		boolean[] userLeft = { false };
+		chats.computeIfPresent(chatId, (id, users) -> {
+			users.computeIfPresent(userId, (uid, sessionIds) -> {
+				sessionIds.remove(sessionId);
+				userLeft[0] = sessionIds.isEmpty();
+				return userLeft[0] ? null : sessionIds;
+			});
+			return users.isEmpty() ? null : users;
+		});
+		return userLeft[0];
+	}
+}
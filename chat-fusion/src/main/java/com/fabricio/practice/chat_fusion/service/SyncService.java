@@ -0,0 +1,11 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import com.fabricio.practice.chat_fusion.exception.ChatException;
+import com.fabricio.practice.chat_fusion.response.SyncResponse;
+
+// Service interface to define the delta sync of reconnecting clients
+public interface SyncService {
+
+	// Retrieves a page of the changes visible to the user after the since token, without a token returns the current position
+	public SyncResponse findChanges(String userId, String since, int size) throws ChatException;
+}
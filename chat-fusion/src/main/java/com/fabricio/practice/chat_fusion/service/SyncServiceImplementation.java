@@ -0,0 +1,85 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fabricio.practice.chat_fusion.exception.ChatException;
+import com.fabricio.practice.chat_fusion.model.ChangeEvent;
+import com.fabricio.practice.chat_fusion.model.Chat;
+import com.fabricio.practice.chat_fusion.repository.ChatRepository;
+import com.fabricio.practice.chat_fusion.response.SyncResponse;
+
+// Implementation of the SyncService interface
+@Service
+public class SyncServiceImplementation implements SyncService {
+
+	// Change feed holding the mutations
+	private ChangeFeed changeFeed;
+	// Chat repository to find the chats of the user
+	private ChatRepository chatRepository;
+	// Events newer than this are not returned yet, so an event whose insert is still in flight is never skipped by a token
+	private Duration settle;
+
+	// Constructor for dependency injection
+	public SyncServiceImplementation(ChangeFeed changeFeed, ChatRepository chatRepository, @Value("${sync.settle:PT2S}") Duration settle) {
+		this.changeFeed = changeFeed;
+		this.chatRepository = chatRepository;
+		this.settle = settle;
+	}
+
+	// Retrieves a page of the changes visible to the user after the since token
+	@Override
+	public SyncResponse findChanges(String userId, String since, int size) throws ChatException {
+		// The positions are generated with the clock of the database server, so the window is measured with it as well
+		// An event whose position is older than the settle window has finished its insert, the bound is the write latency
+		Instant now = changeFeed.serverTime();
+		// Every event before the until token is settled
+		String until = ChangeFeed.tokenAt(now.minus(settle));
+
+		if (since != null && !since.isBlank() && !ChangeFeed.isToken(since)) {
+			// Tokens from before the positions were generated by the server are event IDs, the client has to reload
+			if (ObjectId.isValid(since)) {
+				return new SyncResponse(List.of(), until, false, true);
+			}
+			throw new ChatException("Invalid sync token");
+		}
+		// The events after a token older than the retention may already be removed, the client has to reload
+		if (since != null && !since.isBlank() && ChangeFeed.instantOf(since).isBefore(now.minus(changeFeed.getRetention()))) {
+			return new SyncResponse(List.of(), until, false, true);
+		}
+
+		// Chats the user is a member of, the events addressed to the user are found by their ID
+		List<String> chatIds = new ArrayList<>();
+		for (Chat chat : chatRepository.findChatIdsByUserId(userId)) {
+			chatIds.add(chat.getId());
+		}
+
+		// Without a token the client starts from the current position, after the newest event it can already see,
+		// so the first catch up does not replay the changes that are part of the state it just loaded
+		if (since == null || since.isBlank()) {
+			String latest = changeFeed.findLatestToken(userId, chatIds).orElse(until);
+			return new SyncResponse(List.of(), latest.compareTo(until) > 0 ? latest : until, false, false);
+		}
+		// Nothing settled after the token yet
+		if (since.compareTo(until) >= 0) {
+			return new SyncResponse(List.of(), since, false, false);
+		}
+
+		// Retrieves one extra event to know if there are more
+		List<ChangeEvent> events = changeFeed.findChanges(userId, chatIds, since, until, size + 1);
+		boolean hasMore = events.size() > size;
+		if (hasMore) {
+			events = events.subList(0, size);
+			// The next page starts after the last returned event
+			return new SyncResponse(events, events.get(size - 1).getToken(), true, false);
+		}
+		// Every settled event was returned
+		return new SyncResponse(events, until, false, false);
+	}
+}
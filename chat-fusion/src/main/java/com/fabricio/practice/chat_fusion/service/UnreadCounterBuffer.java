@@ -0,0 +1,179 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.model.MemberState;
+
+import com.mongodb.bulk.BulkWriteError;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+// Write-behind buffer for the unread counters of the members, stored in their member state
+// Changes to the same counter are coalesced and the pending ones are written in periodic unordered bulk updates
+// The writes only update existing member states, which are created when the member joins and deleted when they leave,
+// so a change still buffered or being written when a member is removed never brings their state back
+// A failed write only retries the changes that were surely not applied, so no increment is ever counted twice
+@Component
+public class UnreadCounterBuffer {
+
+	private static final Logger log = LoggerFactory.getLogger(UnreadCounterBuffer.class);
+
+	// Pending change of a counter, a reset sets the counter to the delta instead of increasing it
+	record PendingCount(String chatId, String userId, boolean reset, int delta) {
+
+		// Combines this change with a newer one
+		PendingCount then(PendingCount newer) {
+			return newer.reset() ? newer : new PendingCount(chatId, userId, reset, delta + newer.delta());
+		}
+
+		// Applies the change to the stored counter
+		int applyTo(int stored) {
+			return reset ? delta : stored + delta;
+		}
+	}
+
+	// User ID -> chat ID -> pending change of the counter of the user in the chat
+	// The inner maps are only read and changed inside compute calls on their user, which makes each change atomic
+	private final Map<String, Map<String, PendingCount>> pending = new ConcurrentHashMap<>();
+	// Member state IDs of the changes being written, a discard during the write removes them so a failed write does not put them back
+	private final Set<String> writing = ConcurrentHashMap.newKeySet();
+	// MongoTemplate for the bulk updates
+	private final MongoTemplate mongoTemplate;
+
+	// Constructor for dependency injection
+	public UnreadCounterBuffer(MongoTemplate mongoTemplate, MeterRegistry meterRegistry) {
+		this.mongoTemplate = mongoTemplate;
+		// Exposes how many counters are waiting to be written
+		Gauge.builder("chat.unread-counts.pending", pending, map -> map.values().stream().mapToInt(Map::size).sum())
+			.description("Unread counters with changes buffered and not yet written")
+			.register(meterRegistry);
+	}
+
+	// Increases by one the counter of each member
+	public void increment(String chatId, Collection<String> userIds) {
+		for (String userId : userIds) {
+			add(new PendingCount(chatId, userId, false, 1));
+		}
+	}
+
+	// Sets the counter of the member to zero, increments buffered before are dropped
+	public void reset(String chatId, String userId) {
+		add(new PendingCount(chatId, userId, true, 0));
+	}
+
+	// Drops the pending changes of members whose state is being deleted, including those being written
+	public void discard(String chatId, Collection<String> userIds) {
+		for (String userId : userIds) {
+			writing.remove(MemberState.idOf(chatId, userId));
+			pending.computeIfPresent(userId, (id, chats) -> {
+				chats.remove(chatId);
+				return chats.isEmpty() ? null : chats;
+			});
+		}
+	}
+
+	// Applies the pending changes of the user to the stored counters, by chat ID
+	public Map<String, Integer> applyPending(String userId, Map<String, Integer> stored) {
+		pending.computeIfPresent(userId, (id, chats) -> {
+			for (PendingCount count : chats.values()) {
+				stored.put(count.chatId(), count.applyTo(stored.getOrDefault(count.chatId(), 0)));
+			}
+			return chats;
+		});
+		return stored;
+	}
+
+	// Writes the pending changes in a single unordered bulk operation
+	@Scheduled(fixedDelayString = "${chat.unread-counts.flush-ms:500}")
+	public void flush() {
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		// Takes the changes out of the buffer one user at a time, changes made during the write start new entries for the next flush
+		List<PendingCount> batch = new ArrayList<>();
+		for (String userId : pending.keySet()) {
+			Map<String, PendingCount> chats = pending.remove(userId);
+			if (chats != null) {
+				for (PendingCount count : chats.values()) {
+					writing.add(MemberState.idOf(count.chatId(), count.userId()));
+					batch.add(count);
+				}
+			}
+		}
+
+		// Update only, the state of a member removed since the change was buffered is not created again
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, MemberState.class);
+		for (PendingCount count : batch) {
+			Update update = count.reset() ? new Update().set("unreadCount", count.delta()) : new Update().inc("unreadCount", count.delta());
+			ops.updateOne(new Query(Criteria.where("_id").is(MemberState.idOf(count.chatId(), count.userId()))), update);
+		}
+
+		try {
+			ops.execute();
+		} catch (BulkOperationException e) {
+			// The other updates of the unordered write were applied, only the failed ones are retried
+			log.warn("Failed to flush {} of {} unread counter updates", e.getErrors().size(), batch.size(), e);
+			List<PendingCount> failed = new ArrayList<>();
+			for (BulkWriteError error : e.getErrors()) {
+				failed.add(batch.get(error.getIndex()));
+			}
+			retry(failed);
+		} catch (RuntimeException e) {
+			// The write may have been applied before it failed, increments are dropped rather than counted twice
+			// Resets set the counter and are retried since writing them again gives the same value
+			log.warn("Failed to flush {} unread counter updates, only the resets are retried", batch.size(), e);
+			retry(batch.stream().filter(PendingCount::reset).toList());
+		} finally {
+			writing.clear();
+		}
+	}
+
+	// Puts failed changes back in front of the newer ones so the next flush writes them, except those discarded during the write
+	private void retry(List<PendingCount> failed) {
+		for (PendingCount count : failed) {
+			if (writing.remove(MemberState.idOf(count.chatId(), count.userId()))) {
+				pending.compute(count.userId(), (id, chats) -> {
+					Map<String, PendingCount> merged = chats == null ? new HashMap<>() : chats;
+					merged.merge(count.chatId(), count, (newer, old) -> old.then(newer));
+					return merged;
+				});
+			}
+		}
+	}
+
+	// Buffers a change of a counter, combined with the change already pending for it
+	private void add(PendingCount count) {
+		pending.compute(count.userId(), (id, chats) -> {
+			Map<String, PendingCount> merged = chats == null ? new HashMap<>() : chats;
+			merged.merge(count.chatId(), count, PendingCount::then);
+			return merged;
+		});
+	}
+
+	// Writes whatever is still pending before the application stops
+	@PreDestroy
+	public void shutdown() {
+		flush();
+	}
+}
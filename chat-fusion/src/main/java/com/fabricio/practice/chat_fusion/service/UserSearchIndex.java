@@ -0,0 +1,115 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.fabricio.practice.chat_fusion.model.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+// Typeahead search over the normalized search keys of the users, served by the search_keys index
+// Results for the same text are cached for a short time since consecutive keystrokes repeat the hot prefixes
+@Component
+public class UserSearchIndex {
+
+	// Users fetched from the index by each query before ranking
+	private static final int CANDIDATES = 50;
+	// Matching keys in index order, the exact key and the shortest extensions of the text first
+	private static final Sort KEY_ORDER = Sort.by("searchKeys");
+
+	// MongoTemplate for the prefix queries
+	private final MongoTemplate mongoTemplate;
+	// Maximum number of users returned by a search
+	private final int limit;
+	// Normalized search text -> ranked results
+	private final Cache<String, List<User>> results;
+
+	// Constructor to build the cache and to register its metrics
+	public UserSearchIndex(MongoTemplate mongoTemplate, MeterRegistry meterRegistry,
+			@Value("${users.search.limit:20}") int limit,
+			@Value("${users.search.cache-ttl:PT30S}") Duration cacheTtl) {
+		this.mongoTemplate = mongoTemplate;
+		this.limit = limit;
+		this.results = Caffeine.newBuilder()
+				.maximumSize(10_000)
+				// Profile changes show up in the results once the entry expires
+				.expireAfterWrite(cacheTtl)
+				.recordStats()
+				.build();
+		// Exposes hit, miss and eviction counters under the "users.search" cache name
+		CaffeineCacheMetrics.monitor(meterRegistry, results, "users.search");
+	}
+
+	// Finds the users whose username, a word of it, email or email name starts with the text, best match first
+	public List<User> search(String text) {
+		String normalized = User.normalize(text);
+		if (normalized.isEmpty()) {
+			return List.of();
+		}
+		return results.get(normalized, this::find);
+	}
+
+	// Queries the exact matches and the prefix candidates and ranks them
+	// The exact matches are queried on their own so a common prefix with more than CANDIDATES users never leaves them out
+	private List<User> find(String normalized) {
+		Map<String, User> candidates = new LinkedHashMap<>();
+		for (User user : mongoTemplate.find(exactQuery(normalized), User.class)) {
+			candidates.put(user.getId(), user);
+		}
+		for (User user : mongoTemplate.find(prefixQuery(normalized), User.class)) {
+			candidates.putIfAbsent(user.getId(), user);
+		}
+		return candidates.values().stream()
+				.sorted(Comparator.comparingInt((User user) -> rank(user, normalized))
+						.thenComparing(user -> User.normalize(user.getUsername())))
+				.limit(limit)
+				.toList();
+	}
+
+	// Builds the query of the users with a search key equal to the text, also used by the query plan tests
+	public static Query exactQuery(String normalized) {
+		Query query = new Query(Criteria.where("searchKeys").is(normalized)).limit(CANDIDATES);
+		query.fields().exclude("password").exclude("searchKeys");
+		return query;
+	}
+
+	// Builds the prefix query, also used by the query plan tests
+	// A range inside $elemMatch gives tight bounds on the multikey index, the text is never interpreted as a regex
+	// The range is read in key order so the candidates are the users with the shortest keys after the text, not arbitrary ones
+	public static Query prefixQuery(String normalized) {
+		Query query = new Query(Criteria.where("searchKeys").elemMatch(new Criteria().gte(normalized).lt(normalized + Character.MAX_VALUE)))
+				.with(KEY_ORDER)
+				.limit(CANDIDATES);
+		query.fields().exclude("password").exclude("searchKeys");
+		return query;
+	}
+
+	// Ranks a match, exact username or email first, then username prefix, then email prefix, then a word inside the username
+	static int rank(User user, String normalized) {
+		String username = User.normalize(user.getUsername());
+		String email = User.normalize(user.getEmail());
+		if (username.equals(normalized) || email.equals(normalized)) {
+			return 0;
+		}
+		if (username.startsWith(normalized)) {
+			return 1;
+		}
+		if (email.startsWith(normalized)) {
+			return 2;
+		}
+		return 3;
+	}
+}
@@ -2,6 +2,7 @@ package com.fabricio.practice.chat_fusion.service;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 import com.fabricio.practice.chat_fusion.exception.UserException;
@@ -21,16 +22,22 @@ public interface UserService {
 	// Finds an user by their unique ID
 	public User findUserById(String id) throws UserException;
 	
+	// Finds the users with the given IDs in one query, failing if any of them does not exist
+	public List<User> findUsersByIds(Collection<String> ids) throws UserException;
+	
 	// Finds an user based on a query on their email or username
 	public List<User> searchUsers(String query);
 	
 	// Updates an user information based on the provided ID and update request
 	public User updateUser(String id, UpdateRequest req)  throws UserException , S3Exception, AwsServiceException, SdkClientException, IOException;
 
-	// Updates the user's last connection
-	public void updateLastConnection(String email, Instant lastConnection) throws UserException;
+	// Updates the user's last connection, the write to the database is deferred and coalesced
+	public void updateLastConnection(String id, Instant lastConnection);
 
 	// Fetches the user last connection
 	Instant getLastConnection(String id) throws UserException;
 	
+	// Replaces the stored password hash if it still matches the current one (used to upgrade the BCrypt cost)
+	public void updatePasswordHash(String id, String currentHash, String newHash);
+	
 }
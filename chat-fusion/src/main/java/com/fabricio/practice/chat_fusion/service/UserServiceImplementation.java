@@ -2,15 +2,27 @@ package com.fabricio.practice.chat_fusion.service;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
-
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.stereotype.Service;
 
 import com.fabricio.practice.chat_fusion.config.JwtProvider;
 import com.fabricio.practice.chat_fusion.exception.UserException;
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
 import com.fabricio.practice.chat_fusion.model.User;
+import com.fabricio.practice.chat_fusion.repository.MessageRepository;
 import com.fabricio.practice.chat_fusion.repository.UserRepository;
 import com.fabricio.practice.chat_fusion.request.UpdateRequest;
 
@@ -22,18 +34,38 @@ import software.amazon.awssdk.services.s3.model.S3Exception;
 @Service
 public class UserServiceImplementation implements UserService {
 	
+	private static final Logger log = LoggerFactory.getLogger(UserServiceImplementation.class);
+	
 	// User repository to interact with user data in the database
 	private UserRepository userRepository;
 	// Dependency for JWT operations
 	private JwtProvider jwtProvider;
 	// AWS Service to interact with the S3 bucket
 	private AwsService awsS3Client;
+	// MongoTemplate for performing targeted updates
+	private MongoTemplate mongoTemplate;
+	// Write-behind buffer for the last connection updates
+	private LastConnectionBuffer lastConnectionBuffer;
+	// Message repository to refresh the author snapshots
+	private MessageRepository messageRepository;
+	// Indexed typeahead search of the users
+	private UserSearchIndex userSearchIndex;
+	// Inbox entries whose title is the user's profile
+	private InboxProjection inboxProjection;
+	// Profiles embedded as the author of new messages
+	private AuthorProfiles authorProfiles;
 	
-	// Constructor for dependency injection of UserRepository, JwtProvider and AwsServide
-	public UserServiceImplementation (UserRepository userRepository, JwtProvider jwtProvider, AwsService awsS3Client) {
+	// Constructor for dependency injection of UserRepository, JwtProvider, AwsServide, MongoTemplate, LastConnectionBuffer, MessageRepository, UserSearchIndex, InboxProjection and AuthorProfiles
+	public UserServiceImplementation (UserRepository userRepository, JwtProvider jwtProvider, AwsService awsS3Client, MongoTemplate mongoTemplate, LastConnectionBuffer lastConnectionBuffer, MessageRepository messageRepository, UserSearchIndex userSearchIndex, InboxProjection inboxProjection, AuthorProfiles authorProfiles) {
 		this.userRepository = userRepository;
 		this.jwtProvider = jwtProvider;
 		this.awsS3Client = awsS3Client;
+		this.mongoTemplate = mongoTemplate;
+		this.lastConnectionBuffer = lastConnectionBuffer;
+		this.messageRepository = messageRepository;
+		this.userSearchIndex = userSearchIndex;
+		this.inboxProjection = inboxProjection;
+		this.authorProfiles = authorProfiles;
 	}
 
 	// Retrieves the profile of an user based on the provided JWT
@@ -73,13 +105,29 @@ public class UserServiceImplementation implements UserService {
 		throw new UserException("User not found with id " + id);
 	}
 
+	// Finds the users with the given IDs in one query, failing if any of them does not exist
+	@Override
+	public List<User> findUsersByIds(Collection<String> ids) throws UserException {
+		Set<String> distinctIds = new HashSet<>(ids);
+		// Queries the database for every user at once
+		List<User> users = userRepository.findAllById(distinctIds);
+		
+		// If any user is missing throws an userException naming it
+		if (users.size() < distinctIds.size()) {
+			for (User user : users) {
+				distinctIds.remove(user.getId());
+			}
+			throw new UserException("User not found with id " + distinctIds.iterator().next());
+		}
+		return users;
+	}
+
 	
 	// Finds an user based on a query on their email or username
 	@Override
 	public List<User> searchUsers(String query) {
-		// Retrieves matching users using the repository
-		List<User> users = userRepository.searchUser(query);
-		return users;
+		// Retrieves the best matching users by prefix through the search index
+		return userSearchIndex.search(query);
 	}
 
 	// Updates an user information based on the provided ID and update request
@@ -87,6 +135,8 @@ public class UserServiceImplementation implements UserService {
 	public User updateUser(String id, UpdateRequest req) throws UserException, S3Exception, AwsServiceException, SdkClientException, IOException {
 	    // Finds the user to update
 	    User user = findUserById(id);
+	    // Snapshot of the public profile before the changes
+	    MessageAuthor previous = MessageAuthor.of(user);
 
 	    // Update the username if provided and valid
 	    if (req.getName() != null && !req.getName().isBlank()) {
@@ -108,34 +158,53 @@ public class UserServiceImplementation implements UserService {
 	    }
 
 	    // Save the updated user to the database
-	    return userRepository.save(user);
+	    User saved = userRepository.save(user);
+	    
+	    // Refreshes the author snapshots of the user's messages and the inbox titles of their one to one chats in the background, the profile update does not wait for it
+	    MessageAuthor current = MessageAuthor.of(saved);
+	    if (!current.equals(previous)) {
+	    	// New messages take the new profile right away
+	    	authorProfiles.updated(current);
+	    	CompletableFuture.runAsync(() -> {
+	    			messageRepository.updateAuthor(current);
+	    			inboxProjection.profileUpdated(current);
+	    		})
+	    		.exceptionally(e -> {
+	    			log.warn("Could not refresh the author snapshots of user {}: {}", id, e.getMessage());
+	    			return null;
+	    		});
+	    }
+	    return saved;
 	}
 
 	// Updates the user's last connection
 	@Override
-	public void updateLastConnection(String email, Instant lastConnection) throws UserException {
-	    // Finds the user by email
-	    User user = userRepository.findByEmail(email);
-
-	    // Ensures the user exists before proceeding
-	    if (user == null) {
-	        throw new UserException("User not found with email: " + email);
-	    }
-
-	    // Updates the user's last connection timestamp
-	    user.setLastconnection(lastConnection);
-
-	    // Saves the updated user to the database
-	    userRepository.save(user);
+	public void updateLastConnection(String id, Instant lastConnection) {
+	    // Buffers the user's last connection, the buffer writes the latest value per user in bulk
+	    lastConnectionBuffer.put(id, lastConnection);
 	}
 
 	// Fetches the user last connection
 	@Override
 	public Instant getLastConnection(String id) throws UserException {
+		// Returns the buffered value when it was not written yet
+		Optional<Instant> buffered = lastConnectionBuffer.get(id);
+		if (buffered != null) {
+			return buffered.orElse(null);
+		}
 		// Finds the user to get their last connection
 		User user = findUserById(id);
 		// Returns the user last connection
 		return user.getLastConnection();
 	}
 
+	// Replaces the stored password hash if it still matches the current one (used to upgrade the BCrypt cost)
+	@Override
+	public void updatePasswordHash(String id, String currentHash, String newHash) {
+		// Matches on the current hash so a concurrent password change is never overwritten
+		Query query = new Query(Criteria.where("_id").is(id).and("password").is(currentHash));
+		// Only the password field is written
+		mongoTemplate.updateFirst(query, new Update().set("password", newHash), User.class);
+	}
+
 }
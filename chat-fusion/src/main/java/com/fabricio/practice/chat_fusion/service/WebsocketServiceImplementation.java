@@ -41,8 +41,8 @@ public class WebsocketServiceImplementation implements WebsocketService{
 		
 		event.put("payload", payload);
 		
-		 // Emits WebSocket message event
-		 simpMessagingTemplate.convertAndSend("/chat/notifications/" + userId, event);
+		 // Emits WebSocket message event to the user's sessions through the user destination
+		 simpMessagingTemplate.convertAndSendToUser(userId, "/queue/notifications", event);
 		}
 
 }
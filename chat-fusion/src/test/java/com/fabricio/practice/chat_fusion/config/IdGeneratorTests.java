@@ -0,0 +1,89 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+// Unit tests for the ID generator strategies
+public class IdGeneratorTests {
+
+	private final IdGeneratorConfig config = new IdGeneratorConfig();
+
+	// Unit test to ensure UUIDv7 values carry the version and sort by creation time
+	@Test
+	void uuidv7_shouldBeVersion7AndTimeOrdered() throws Exception {
+		IdGenerator generator = config.idGenerator("uuidv7");
+
+		String first = generator.nextId();
+		// Waits past the millisecond so the timestamps differ
+		Thread.sleep(2);
+		String second = generator.nextId();
+
+		// Assertions, verifies the version and that the later ID sorts after the earlier one
+		assertEquals(7, UUID.fromString(first).version());
+		assertEquals(2, UUID.fromString(first).variant());
+		assertTrue(first.compareTo(second) < 0);
+	}
+
+	// Benchmark comparing insert throughput and _id index size of each strategy on a large messages-like collection
+	// Runs only against a real MongoDB: mvn test -Dtest=IdGeneratorTests -Dbenchmark.mongo.uri=mongodb://localhost:27017
+	// The number of documents can be changed with -Dbenchmark.documents (default 1000000)
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark.mongo.uri", matches = ".+")
+	void benchmark_shouldCompareInsertThroughputAndIndexSize(TestReporter reporter) {
+		int documents = Integer.getInteger("benchmark.documents", 1_000_000);
+
+		try (MongoClient client = MongoClients.create(System.getProperty("benchmark.mongo.uri"))) {
+			MongoDatabase database = client.getDatabase("chat_fusion_benchmark");
+
+			for (String strategy : List.of("uuid", "uuidv7", "objectid")) {
+				IdGenerator generator = config.idGenerator(strategy);
+				MongoCollection<Document> collection = database.getCollection("messages_" + strategy);
+				collection.drop();
+
+				long start = System.nanoTime();
+				List<Document> batch = new ArrayList<>(1000);
+				for (int i = 0; i < documents; i++) {
+					String id = generator.nextId();
+					// ObjectId strings are stored as ObjectId, like Spring Data does for String IDs
+					Object key = "objectid".equals(strategy) ? new ObjectId(id) : id;
+					batch.add(new Document("_id", key)
+							.append("chatId", "chat" + (i % 100))
+							.append("content", "benchmark message " + i)
+							.append("timestamp", new Date()));
+					if (batch.size() == 1000) {
+						collection.insertMany(batch);
+						batch.clear();
+					}
+				}
+				if (!batch.isEmpty()) {
+					collection.insertMany(batch);
+				}
+				double seconds = (System.nanoTime() - start) / 1e9;
+
+				Document stats = database.runCommand(new Document("collStats", "messages_" + strategy));
+				Number idIndexSize = stats.get("indexSizes", Document.class).get("_id_", Number.class);
+
+				reporter.publishEntry(strategy, String.format("%,.0f inserts/s, _id index %,d bytes", documents / seconds, idIndexSize.longValue()));
+				assertEquals(documents, collection.countDocuments());
+			}
+
+			database.drop();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.fabricio.practice.chat_fusion.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.Date;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Unit tests for JwtTokenVerifier
+public class JwtTokenVerifierTests {
+	// Secret used to sign the test tokens (must be at least 256 bits for HS256)
+	private static final String SECRET = "a-test-secret-that-is-long-enough-for-hs256";
+
+	private SimpleMeterRegistry meterRegistry;
+	private JwtTokenVerifier verifier;
+
+	// Creates a fresh verifier and registry before each test
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		verifier = new JwtTokenVerifier(new JwtSecretProvider(SECRET), meterRegistry, 100, Duration.ofHours(24));
+	}
+
+	// Unit test to ensure a valid token is verified once and then served from the cache
+	@Test
+	void verify_shouldCacheVerifiedClaims() {
+		String jwt = token(SECRET, 60_000);
+
+		// Verifies the same token twice
+		Claims first = verifier.verify(jwt);
+		Claims second = verifier.verify(jwt);
+
+		// Assertions, the claims are read and the second call is a cache hit
+		assertEquals("jhon@gmail.com", first.get("email"));
+		assertSame(first, second);
+		assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "jwt.verified").tag("result", "hit").functionCounter().count());
+	}
+
+	// Unit test to ensure tokens signed with another key are rejected
+	@Test
+	void verify_shouldRejectTokenWithInvalidSignature() {
+		String jwt = token("another-secret-that-is-also-long-enough-for-hs256", 60_000);
+
+		assertThrows(JwtException.class, () -> verifier.verify(jwt));
+	}
+
+	// Unit test to ensure expired tokens are rejected
+	@Test
+	void verify_shouldRejectExpiredToken() {
+		String jwt = token(SECRET, -1_000);
+
+		assertThrows(JwtException.class, () -> verifier.verify(jwt));
+	}
+
+	// Builds a signed token that expires after the given milliseconds
+	private static String token(String secret, long expiresInMillis) {
+		return Jwts.builder().setIssuer("Chat-fusion")
+				.setIssuedAt(new Date())
+				.setExpiration(new Date(System.currentTimeMillis() + expiresInMillis))
+				.claim("email", "jhon@gmail.com")
+				.signWith(Keys.hmacShaKeyFor(secret.getBytes()))
+				.compact();
+	}
+}
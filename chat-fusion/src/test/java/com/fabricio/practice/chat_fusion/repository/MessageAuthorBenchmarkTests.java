@@ -0,0 +1,124 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import com.fabricio.practice.chat_fusion.config.IndexCatalog;
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
+import com.fabricio.practice.chat_fusion.model.User;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+// Benchmark comparing the latency of a history page with authors referenced by @DBRef and with embedded author snapshots
+// Runs only against a real MongoDB: mvn test -Dtest=MessageAuthorBenchmarkTests -Dbenchmark.mongo.uri=mongodb://localhost:27017
+// The chat size and the number of distinct authors can be changed with -Dbenchmark.messages (default 20000) and -Dbenchmark.authors (default 500)
+@EnabledIfSystemProperty(named = "benchmark.mongo.uri", matches = ".+")
+public class MessageAuthorBenchmarkTests {
+
+	private static final String CHAT_ID = "benchmark-chat";
+	private static final int PAGE_SIZE = 100;
+
+	// Previous layout of the messages, the author is a reference resolved with one lookup per distinct author
+	@Document(collection = "messages_dbref")
+	static class ReferencedAuthorMessage {
+		@Id
+		String id;
+		String chatId;
+		LocalDateTime timestamp;
+		@DBRef
+		User user;
+	}
+
+	@Test
+	void benchmark_shouldCompareHistoryPageLatency(TestReporter reporter) {
+		int messages = Integer.getInteger("benchmark.messages", 20_000);
+		int authors = Integer.getInteger("benchmark.authors", 500);
+
+		try (MongoClient client = MongoClients.create(System.getProperty("benchmark.mongo.uri"))) {
+			MongoTemplate mongoTemplate = new MongoTemplate(client, "chat_fusion_benchmark");
+			mongoTemplate.getDb().drop();
+
+			// Creates the authors and the same chat in both layouts
+			List<User> users = new ArrayList<>(authors);
+			for (int i = 0; i < authors; i++) {
+				User user = new User();
+				user.setId(new ObjectId().toHexString());
+				user.setUsername("author" + i);
+				user.setPassword("$2a$10$benchmarkbenchmarkbenchmarkbenchmarkbenchmarkbenchmark");
+				users.add(user);
+			}
+			mongoTemplate.insert(users, User.class);
+
+			LocalDateTime start = LocalDateTime.now().minusDays(1);
+			List<Message> embedded = new ArrayList<>(messages);
+			List<ReferencedAuthorMessage> referenced = new ArrayList<>(messages);
+			for (int i = 0; i < messages; i++) {
+				User author = users.get(i % authors);
+				String id = new ObjectId().toHexString();
+				LocalDateTime timestamp = start.plusNanos(i * 1_000_000L);
+
+				Message mssg = new Message(id, "text", "benchmark message " + i, timestamp, MessageAuthor.of(author), CHAT_ID);
+				embedded.add(mssg);
+
+				ReferencedAuthorMessage old = new ReferencedAuthorMessage();
+				old.id = id;
+				old.chatId = CHAT_ID;
+				old.timestamp = timestamp;
+				old.user = author;
+				referenced.add(old);
+			}
+			mongoTemplate.insert(embedded, Message.class);
+			mongoTemplate.insert(referenced, ReferencedAuthorMessage.class);
+
+			// Same history index on both collections
+			new IndexCatalog(mongoTemplate, false).ensureIndexes();
+			mongoTemplate.getCollection("messages_dbref").createIndex(new org.bson.Document("chatId", 1).append("timestamp", -1).append("_id", -1));
+
+			long[] dbref = pageLatencies(mongoTemplate, ReferencedAuthorMessage.class, messages);
+			long[] snapshot = pageLatencies(mongoTemplate, Message.class, messages);
+
+			reporter.publishEntry("dbref", String.format("p50 %.2f ms, p95 %.2f ms", percentile(dbref, 50), percentile(dbref, 95)));
+			reporter.publishEntry("embedded", String.format("p50 %.2f ms, p95 %.2f ms", percentile(snapshot, 50), percentile(snapshot, 95)));
+
+			mongoTemplate.getDb().drop();
+		}
+	}
+
+	// Reads the whole chat page by page, newest first, and returns the time taken by each page in nanoseconds
+	private long[] pageLatencies(MongoTemplate mongoTemplate, Class<?> type, int messages) {
+		int pages = messages / PAGE_SIZE;
+		long[] latencies = new long[pages];
+		// Warms up the connection pool and the JIT with a few pages
+		for (int i = 0; i < 5; i++) {
+			mongoTemplate.find(MessageRepositoryCustomImpl.latestQuery(CHAT_ID, i * PAGE_SIZE, PAGE_SIZE), type);
+		}
+		for (int page = 0; page < pages; page++) {
+			long start = System.nanoTime();
+			List<?> result = mongoTemplate.find(MessageRepositoryCustomImpl.latestQuery(CHAT_ID, page * PAGE_SIZE, PAGE_SIZE), type);
+			latencies[page] = System.nanoTime() - start;
+			assertEquals(PAGE_SIZE, result.size());
+		}
+		return latencies;
+	}
+
+	// Returns the given percentile of the latencies in milliseconds
+	private double percentile(long[] latencies, int percentile) {
+		long[] sorted = latencies.clone();
+		Arrays.sort(sorted);
+		return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)] / 1e6;
+	}
+}
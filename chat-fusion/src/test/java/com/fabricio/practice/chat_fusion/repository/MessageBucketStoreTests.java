@@ -0,0 +1,85 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessageBucket;
+
+// Unit tests for the page assembly of MessageBucketStore
+public class MessageBucketStoreTests {
+
+	private static final LocalDateTime START = LocalDateTime.of(2025, 1, 1, 12, 0, 0);
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final MessageBucketStore store = new MessageBucketStore(mongoTemplate, 200, Duration.ofDays(7));
+
+	// Unit test to ensure overlapping buckets are merged in order and the buckets are no longer read once the page is full
+	@Test
+	void findHistory_shouldMergeOverlappingBucketsAndStopWhenThePageIsFull() {
+		// Two buckets filled at the same time by different writers and two older ones
+		MessageBucket first = bucket(10, 6, 4);
+		MessageBucket second = bucket(9, 8, 5);
+		MessageBucket older = bucket(3, 2);
+		MessageBucket oldest = bucket(1);
+		List<MessageBucket> read = new ArrayList<>();
+		when(mongoTemplate.stream(any(Query.class), eq(MessageBucket.class)))
+				.thenReturn(Stream.of(first, second, older, oldest).peek(read::add));
+
+		List<Message> page = store.findHistory("chat1", null, null, 4);
+
+		// Assertions, the newest four messages across both buckets, reading stops at the first bucket older than the page
+		assertEquals(List.of("m10", "m9", "m8", "m6"), page.stream().map(Message::getId).toList());
+		assertEquals(List.of(first, second, older), read);
+	}
+
+	// Unit test to ensure a page after a cursor skips the messages at or after the position, the ID breaks timestamp ties
+	@Test
+	void findHistory_shouldStartAfterTheCursor() {
+		MessageBucket bucket = bucket(3, 2, 1);
+		Message tie = message("m2a", 2);
+		bucket.getMessages().add(tie);
+		when(mongoTemplate.stream(any(Query.class), eq(MessageBucket.class))).thenReturn(Stream.of(bucket));
+
+		List<Message> page = store.findHistory("chat1", START.plusMinutes(2), "m2a", 10);
+
+		// Assertions, the message with the cursor ID is skipped but the one with the same timestamp and a lower ID is not
+		assertEquals(List.of("m2", "m1"), page.stream().map(Message::getId).toList());
+	}
+
+	// Bucket holding messages sent the given minutes after the start, in append order
+	private static MessageBucket bucket(int... minutes) {
+		MessageBucket bucket = new MessageBucket();
+		bucket.setId("bucket" + minutes[0]);
+		bucket.setChatId("chat1");
+		for (int minute : minutes) {
+			bucket.getMessages().add(message("m" + minute, minute));
+		}
+		bucket.setStart(START.plusMinutes(minutes[minutes.length - 1]));
+		bucket.setEnd(START.plusMinutes(minutes[0]));
+		bucket.setSize(minutes.length);
+		bucket.setCount(minutes.length);
+		return bucket;
+	}
+
+	private static Message message(String id, int minute) {
+		Message mssg = new Message();
+		mssg.setId(id);
+		mssg.setChatId("chat1");
+		mssg.setType("text");
+		mssg.setTimestamp(START.plusMinutes(minute));
+		return mssg;
+	}
+}
@@ -0,0 +1,107 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.fabricio.practice.chat_fusion.config.IndexCatalog;
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+// Benchmark comparing the document and bucket layouts of the messages: insert rate, history page latency and index size
+// Runs only against a real MongoDB: mvn test -Dtest=MessageStorageBenchmarkTests -Dbenchmark.mongo.uri=mongodb://localhost:27017
+// The number of messages and chats can be changed with -Dbenchmark.messages (default 20000) and -Dbenchmark.chats (default 20)
+@EnabledIfSystemProperty(named = "benchmark.mongo.uri", matches = ".+")
+public class MessageStorageBenchmarkTests {
+
+	private static final int PAGE_SIZE = 100;
+
+	@Test
+	void benchmark_shouldCompareStorageLayouts(TestReporter reporter) {
+		int messages = Integer.getInteger("benchmark.messages", 20_000);
+		int chats = Integer.getInteger("benchmark.chats", 20);
+
+		try (MongoClient client = MongoClients.create(System.getProperty("benchmark.mongo.uri"))) {
+			MongoTemplate mongoTemplate = new MongoTemplate(client, "chat_fusion_benchmark");
+			mongoTemplate.getDb().drop();
+			new IndexCatalog(mongoTemplate, false).ensureIndexes();
+
+			// Same messages for both layouts, spread over the chats one minute apart
+			LocalDateTime start = LocalDateTime.now().minusDays(30);
+			MessageAuthor author = new MessageAuthor(new ObjectId().toHexString(), "author", null);
+			List<Message> mssgs = new ArrayList<>(messages);
+			for (int i = 0; i < messages; i++) {
+				mssgs.add(new Message(new ObjectId().toHexString(), "text", "benchmark message " + i, start.plusMinutes(i), author, "chat" + (i % chats)));
+			}
+
+			for (String storage : List.of("document", "bucket")) {
+				MessageRepositoryCustomImpl repository = new MessageRepositoryCustomImpl(mongoTemplate, storage, 200, Duration.ofDays(7));
+
+				// Inserts the messages one by one, the way they are sent
+				long insertStart = System.nanoTime();
+				for (Message mssg : mssgs) {
+					repository.insert(mssg);
+				}
+				double insertRate = messages / ((System.nanoTime() - insertStart) / 1e9);
+
+				long[] latencies = pageLatencies(repository, messages / chats);
+				Document stats = storageStats(mongoTemplate, "document".equals(storage) ? "messages" : "message_buckets");
+
+				reporter.publishEntry(storage, String.format("%.0f inserts/s, page p50 %.2f ms, p95 %.2f ms, data %d KB, indexes %d KB", insertRate,
+						percentile(latencies, 50), percentile(latencies, 95),
+						stats.get("size", Number.class).longValue() / 1024, stats.get("totalIndexSize", Number.class).longValue() / 1024));
+			}
+
+			mongoTemplate.getDb().drop();
+		}
+	}
+
+	// Reads the history of the first chat page by page with the cursor, newest first, and returns the time taken by each page in nanoseconds
+	private long[] pageLatencies(MessageRepositoryCustomImpl repository, int chatMessages) {
+		// Warms up the connection pool and the JIT with a few first pages
+		for (int i = 0; i < 5; i++) {
+			repository.findHistory("chat0", null, null, PAGE_SIZE);
+		}
+		int pages = chatMessages / PAGE_SIZE;
+		long[] latencies = new long[pages];
+		Message last = null;
+		for (int page = 0; page < pages; page++) {
+			long start = System.nanoTime();
+			List<Message> result = last == null
+					? repository.findHistory("chat0", null, null, PAGE_SIZE)
+					: repository.findHistory("chat0", last.getTimestamp(), last.getId(), PAGE_SIZE);
+			latencies[page] = System.nanoTime() - start;
+			assertEquals(PAGE_SIZE, result.size());
+			last = result.get(result.size() - 1);
+		}
+		return latencies;
+	}
+
+	// Storage statistics of a collection, the data size and the size of its indexes
+	private Document storageStats(MongoTemplate mongoTemplate, String collection) {
+		Document stats = mongoTemplate.getCollection(collection)
+				.aggregate(List.of(new Document("$collStats", new Document("storageStats", new Document()))))
+				.first();
+		return stats.get("storageStats", Document.class);
+	}
+
+	// Returns the given percentile of the latencies in milliseconds
+	private double percentile(long[] latencies, int percentile) {
+		long[] sorted = latencies.clone();
+		Arrays.sort(sorted);
+		return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)] / 1e6;
+	}
+}
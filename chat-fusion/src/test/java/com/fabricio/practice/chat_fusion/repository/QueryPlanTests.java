@@ -0,0 +1,300 @@
+package com.fabricio.practice.chat_fusion.repository;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+
+import com.fabricio.practice.chat_fusion.config.IndexCatalog;
+import com.fabricio.practice.chat_fusion.model.ChangeEvent;
+import com.fabricio.practice.chat_fusion.model.Chat;
+import com.fabricio.practice.chat_fusion.model.MemberState;
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
+import com.fabricio.practice.chat_fusion.model.MessageBucket;
+import com.fabricio.practice.chat_fusion.model.MessageSegment;
+import com.fabricio.practice.chat_fusion.model.User;
+import com.fabricio.practice.chat_fusion.service.ChangeFeed;
+import com.fabricio.practice.chat_fusion.service.InboxProjection;
+import com.fabricio.practice.chat_fusion.service.MessageArchive;
+import com.fabricio.practice.chat_fusion.service.UserSearchIndex;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+
+// Runs explain() on every repository query against a real MongoDB and fails when the winning plan is a collection scan
+// Queries built in code are explained through their builders, derived and @Query methods are run through the repository with the profiler on
+// Runs only with a local MongoDB: mvn test -Dtest=QueryPlanTests -Dmongo.test.uri=mongodb://localhost:27017
+// Add a test here for every new query and its index to IndexCatalog
+@EnabledIfSystemProperty(named = "mongo.test.uri", matches = ".+")
+public class QueryPlanTests {
+
+	private static final String USER_1 = "64a7ff02b876123e9f6cfa91";
+	private static final String USER_2 = "64a7ff02b876123e9f6cfa92";
+
+	private static MongoClient client;
+	private static MongoTemplate mongoTemplate;
+	// Repositories created like Spring does, with their custom fragments
+	private static ChatRepository chatRepository;
+	private static MemberStateRepository memberStateRepository;
+	private static UserRepository userRepository;
+
+	// Creates a scratch database with a few documents and the catalog indexes
+	@BeforeAll
+	static void setUp() {
+		client = MongoClients.create(System.getProperty("mongo.test.uri"));
+		mongoTemplate = new MongoTemplate(client, "chat_fusion_query_plans");
+		mongoTemplate.getDb().drop();
+
+		for (int i = 0; i < 50; i++) {
+			mongoTemplate.getCollection("users").insertOne(new Document("email", "user" + i + "@test.com")
+					.append("searchKeys", User.searchKeysOf("user " + i, "user" + i + "@test.com")));
+			Document chat = new Document("isGroup", i % 2 == 0)
+					.append("memberIds", List.of(new ObjectId().toHexString(), new ObjectId().toHexString()));
+			// Only one to one chats have a pair key
+			if (i % 2 != 0) {
+				chat.append("pairKey", "pair" + i);
+			}
+			mongoTemplate.getCollection("chats").insertOne(chat);
+			mongoTemplate.getCollection("messages").insertOne(new Document("chatId", "chat" + (i % 5))
+					.append("timestamp", new Date()).append("author", new Document("_id", new ObjectId()).append("username", "user" + i))
+					.append("type", "text").append("content", "hello number " + i));
+			mongoTemplate.getCollection("member_states").insertOne(new Document("_id", "chat" + (i % 5) + ":" + i)
+					.append("chatId", "chat" + (i % 5)).append("userId", String.valueOf(i)).append("lastReadAt", new Date()).append("unreadCount", i % 3)
+					.append("lastActivityAt", new Date()).append("peerId", String.valueOf(i + 1)));
+			Document event = new Document("_id", new ObjectId()).append("chatId", "chat" + (i % 5)).append("type", "send")
+					.append("position", new BsonTimestamp((int) Instant.now().getEpochSecond(), i))
+					.append("expiresAt", new Date());
+			// Removals are addressed to the removed users
+			if (i % 10 == 0) {
+				event.append("userIds", List.of(String.valueOf(i)));
+			}
+			mongoTemplate.getCollection("change_events").insertOne(event);
+			mongoTemplate.getCollection("messages_archive").insertOne(new Document("_id", "chat" + (i % 5) + ":" + i)
+					.append("chatId", "chat" + (i % 5)).append("count", 500).append("from", new Date()).append("to", new Date()));
+			mongoTemplate.getCollection("message_buckets").insertOne(new Document("chatId", "chat" + (i % 5))
+					.append("start", new Date()).append("end", new Date()).append("count", 1).append("size", 1)
+					.append("messages", List.of(new Document("_id", new ObjectId()).append("timestamp", new Date())
+							.append("author", new Document("_id", new ObjectId()).append("username", "user" + i))
+							.append("type", "text").append("content", "hello number " + i))));
+		}
+
+		new IndexCatalog(mongoTemplate, false).ensureIndexes();
+
+		MongoRepositoryFactory factory = new MongoRepositoryFactory(mongoTemplate);
+		chatRepository = factory.getRepository(ChatRepository.class, new ChatRepositoryCustomImpl(mongoTemplate));
+		memberStateRepository = factory.getRepository(MemberStateRepository.class, new MemberStateRepositoryCustomImpl(mongoTemplate));
+		userRepository = factory.getRepository(UserRepository.class);
+	}
+
+	@AfterAll
+	static void tearDown() {
+		mongoTemplate.getDb().drop();
+		client.close();
+	}
+
+	// MessageRepository.findHistory, first page and a page after a cursor
+	@Test
+	void findHistory_shouldUseAnIndex() {
+		assertNoCollectionScan("messages", Message.class, MessageRepositoryCustomImpl.historyQuery("chat1", null, null, 101));
+		assertNoCollectionScan("messages", Message.class, MessageRepositoryCustomImpl.historyQuery("chat1", LocalDateTime.now(), new ObjectId().toHexString(), 101));
+	}
+
+	// MessageRepository.streamChat and MessageArchive.streamChat, every message of a chat oldest first, in both layouts
+	@Test
+	void streamChat_shouldUseAnIndex() {
+		assertNoCollectionScan("messages", Message.class, MessageRepositoryCustomImpl.exportQuery("chat1"));
+		assertNoCollectionScan("message_buckets", MessageBucket.class, MessageBucketStore.exportQuery("chat1"));
+		assertNoCollectionScan("messages_archive", MessageSegment.class, MessageArchive.exportQuery("chat1"));
+	}
+
+	// MessageRepository.findLatest
+	@Test
+	void findLatest_shouldUseAnIndex() {
+		assertNoCollectionScan("messages", Message.class, MessageRepositoryCustomImpl.latestQuery("chat1", 200, 100));
+	}
+
+	// MessageRepository.search, the messages of a chat served by the compound text index
+	@Test
+	void search_shouldUseAnIndex() {
+		assertNoCollectionScan("messages", Message.class, MessageRepositoryCustomImpl.searchQuery("chat1", "hello", 21));
+	}
+
+	// MessageBucketStore.search, the buckets of a chat served by the compound text index
+	@Test
+	void searchBuckets_shouldUseAnIndex() {
+		assertNoCollectionScan("message_buckets", MessageBucket.class, MessageBucketStore.searchQuery("chat1", "hello"));
+	}
+
+	// MessageRepository.updateAuthor
+	@Test
+	void updateAuthor_shouldUseAnIndex() {
+		assertNoCollectionScan("messages", Message.class, MessageRepositoryCustomImpl.authorQuery(new MessageAuthor(USER_1, "user", null)));
+	}
+
+	// MessageBucketStore.insert, the open bucket of a chat
+	@Test
+	void findOpenBucket_shouldUseAnIndex() {
+		assertNoCollectionScan("message_buckets", MessageBucket.class, MessageBucketStore.openBucketQuery("chat1", LocalDateTime.now(), 1, 200, Duration.ofDays(7)));
+	}
+
+	// MessageBucketStore.findHistory and findLatest
+	@Test
+	void findBuckets_shouldUseAnIndex() {
+		assertNoCollectionScan("message_buckets", MessageBucket.class, MessageBucketStore.bucketsQuery("chat1", null));
+		assertNoCollectionScan("message_buckets", MessageBucket.class, MessageBucketStore.bucketsQuery("chat1", LocalDateTime.now()));
+	}
+
+	// MessageBucketStore.findById, save and deleteById
+	@Test
+	void findBucketByMessageId_shouldUseAnIndex() {
+		assertNoCollectionScan("message_buckets", MessageBucket.class, MessageBucketStore.messageQuery(new ObjectId().toHexString()));
+	}
+
+	// MessageBucketStore.updateAuthor
+	@Test
+	void updateBucketAuthor_shouldUseAnIndex() {
+		assertNoCollectionScan("message_buckets", MessageBucket.class, MessageBucketStore.authorQuery(new MessageAuthor(USER_1, "user", null)));
+	}
+
+	// MessageArchive.archiveChat in bucket mode, buckets of a chat before the cutoff
+	@Test
+	void findExpiredBuckets_shouldUseAnIndex() {
+		assertNoCollectionScan("message_buckets", MessageBucket.class, MessageArchive.expiredBucketsQuery("chat1", LocalDateTime.now()));
+	}
+
+	// ChatRepository.findChatByUserId, @Query("{ 'memberIds': ?0 }")
+	@Test
+	void findChatByUserId_shouldUseAnIndex() {
+		assertNoCollectionScan("chats", () -> chatRepository.findChatByUserId(USER_1));
+		assertNoCollectionScan("chats", () -> chatRepository.findChatIdsByUserId(USER_1));
+	}
+
+	// ChatRepository.findByPairKey and insertDirectChatIfAbsent
+	@Test
+	void findByPairKey_shouldUseAnIndex() {
+		assertNoCollectionScan("chats", () -> chatRepository.findByPairKey(Chat.pairKeyOf(USER_1, USER_2)));
+	}
+
+	// MemberStateRepository.findByChatId
+	@Test
+	void findMemberStatesByChatId_shouldUseAnIndex() {
+		assertNoCollectionScan("member_states", () -> memberStateRepository.findByChatId("chat1"));
+	}
+
+	// MemberStateRepository.findByUserIdAndUnreadCountGreaterThan
+	@Test
+	void findUnreadCountsByUserId_shouldUseAnIndex() {
+		assertNoCollectionScan("member_states", () -> memberStateRepository.findByUserIdAndUnreadCountGreaterThan("1", 0));
+	}
+
+	// InboxProjection.findInbox, a later page
+	@Test
+	void findInbox_shouldUseAnIndex() {
+		assertNoCollectionScan("member_states", MemberState.class, InboxProjection.inboxQuery("1", 30, 31));
+	}
+
+	// InboxProjection.flush, the entries of the members of a chat older than a new message
+	@Test
+	void findInboxEntriesOfMembers_shouldUseAnIndex() {
+		assertNoCollectionScan("member_states", MemberState.class, InboxProjection.sentQuery("1", List.of("1", "2"), LocalDateTime.now()));
+	}
+
+	// InboxProjection.profileUpdated
+	@Test
+	void findInboxEntriesByPeer_shouldUseAnIndex() {
+		assertNoCollectionScan("member_states", MemberState.class, InboxProjection.peerQuery("2"));
+	}
+
+	// MessageArchive.archiveChat, oldest messages of a chat before the cutoff
+	@Test
+	void findArchivable_shouldUseAnIndex() {
+		assertNoCollectionScan("messages", Message.class, MessageArchive.archivableQuery("chat1", LocalDateTime.now(), 500));
+	}
+
+	// MessageArchive.findHistory and findLatest
+	@Test
+	void findSegments_shouldUseAnIndex() {
+		assertNoCollectionScan("messages_archive", MessageSegment.class, MessageArchive.segmentsQuery("chat1", LocalDateTime.now()));
+	}
+
+	// ChangeFeed.findChanges, both branches of the $or
+	@Test
+	void findChanges_shouldUseAnIndex() {
+		String since = ChangeFeed.tokenAt(Instant.now().minusSeconds(3600));
+		String until = ChangeFeed.tokenAt(Instant.now().plusSeconds(3600));
+		assertNoCollectionScan("change_events", ChangeEvent.class, ChangeFeed.changesQuery("10", List.of("chat1", "chat2"), since, until, 201));
+	}
+
+	// ChangeFeed.findLatestToken, both branches of the $or walked backwards
+	@Test
+	void findLatestToken_shouldUseAnIndex() {
+		assertNoCollectionScan("change_events", ChangeEvent.class, ChangeFeed.latestQuery("10", List.of("chat1", "chat2")));
+	}
+
+	// UserRepository.findByEmail
+	@Test
+	void findByEmail_shouldUseAnIndex() {
+		assertNoCollectionScan("users", () -> userRepository.findByEmail("user1@test.com"));
+	}
+
+	// UserSearchIndex.search, exact key and prefix range on the search keys
+	@Test
+	void searchUsers_shouldUseAnIndex() {
+		assertNoCollectionScan("users", User.class, UserSearchIndex.exactQuery("user 1"));
+		assertNoCollectionScan("users", User.class, UserSearchIndex.prefixQuery("user 1"));
+	}
+
+	// Runs a repository method with the profiler on and checks the plan of every query it sent to the collection
+	private void assertNoCollectionScan(String collectionName, Runnable repositoryCall) {
+		MongoDatabase db = mongoTemplate.getDb();
+		db.runCommand(new Document("profile", 2));
+		try {
+			repositoryCall.run();
+		} finally {
+			db.runCommand(new Document("profile", 0));
+		}
+		List<Document> operations = db.getCollection("system.profile").find(Filters.eq("ns", db.getName() + "." + collectionName)).into(new ArrayList<>());
+		db.getCollection("system.profile").drop();
+
+		assertFalse(operations.isEmpty(), () -> "No query on " + collectionName + " was profiled");
+		for (Document operation : operations) {
+			assertFalse(operation.getString("planSummary").contains("COLLSCAN"),
+					() -> collectionName + " query " + operation.get("command", Document.class).toJson() + " uses a collection scan");
+		}
+	}
+
+	// Maps the query like the repositories do, runs explain and checks every stage of the winning plan
+	private void assertNoCollectionScan(String collectionName, Class<?> type, Query query) {
+		MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext().getPersistentEntity(type);
+		QueryMapper mapper = new QueryMapper(mongoTemplate.getConverter());
+		Document filter = mapper.getMappedObject(query.getQueryObject(), entity);
+		Document sort = mapper.getMappedSort(query.getSortObject(), entity);
+
+		MongoCollection<Document> collection = mongoTemplate.getCollection(collectionName);
+		Document explain = collection.find(filter).sort(sort).skip((int) query.getSkip()).limit(query.getLimit()).explain();
+		Document winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+
+		assertFalse(winningPlan.toJson().contains("\"COLLSCAN\""),
+				() -> collectionName + " query " + filter.toJson() + " sorted by " + sort.toJson() + " uses a collection scan: " + winningPlan.toJson());
+	}
+}
@@ -0,0 +1,48 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
+import com.fabricio.practice.chat_fusion.model.User;
+import com.fabricio.practice.chat_fusion.repository.UserRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Unit tests for AuthorProfiles
+public class AuthorProfilesTests {
+
+	private final UserRepository userRepository = mock(UserRepository.class);
+	private final AuthorProfiles authorProfiles = new AuthorProfiles(userRepository, new SimpleMeterRegistry(), 100, Duration.ofMinutes(1));
+
+	// Unit test to ensure the author is the stored profile and not the one of the token, read once and replaced on update
+	@Test
+	void of_shouldUseTheStoredProfileAndTakeUpdates() {
+		// The token still carries the name of the login
+		User token = user("old name");
+		when(userRepository.findById("user1")).thenReturn(Optional.of(user("new name")));
+
+		// Assertions, the stored profile is used and cached
+		assertEquals(new MessageAuthor("user1", "new name", null), authorProfiles.of(token));
+		assertEquals(new MessageAuthor("user1", "new name", null), authorProfiles.of(token));
+		verify(userRepository, times(1)).findById("user1");
+
+		// An update replaces the cached profile without a new read
+		authorProfiles.updated(new MessageAuthor("user1", "newer name", null));
+		assertEquals(new MessageAuthor("user1", "newer name", null), authorProfiles.of(token));
+		verify(userRepository, times(1)).findById("user1");
+	}
+
+	// Creates user1 with the given name
+	private User user(String username) {
+		User user = new User();
+		user.setId("user1");
+		user.setUsername(username);
+		return user;
+	}
+}
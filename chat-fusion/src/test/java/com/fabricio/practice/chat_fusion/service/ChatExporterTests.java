@@ -0,0 +1,96 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
+import com.fabricio.practice.chat_fusion.repository.MessageRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Unit tests for ChatExporter
+public class ChatExporterTests {
+
+	private static final LocalDateTime START = LocalDateTime.of(2025, 1, 1, 12, 0, 0);
+	private static final String URL = "https://chat-fusion.s3.us-east-1.amazonaws.com/chat1/m3";
+
+	private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+	private final MessageRepository messageRepository = mock(MessageRepository.class);
+	private final MessageArchive messageArchive = mock(MessageArchive.class);
+	private final ChatExporter exporter = new ChatExporter(objectMapper, messageRepository, messageArchive);
+
+	// Unit test to ensure the archive comes first, a message in both tiers is written once and the manifest follows the messages
+	@Test
+	void writeNdjson_shouldWriteBothTiersInOrderFollowedByTheManifest() throws Exception {
+		// m2 was archived while the export was running and is still in the hot messages
+		when(messageArchive.streamChat("chat1")).thenAnswer(inv -> Stream.of(message("m1", 1, "text", "hi"), message("m2", 2, "text", "hello")));
+		when(messageRepository.streamChat("chat1")).thenAnswer(inv -> Stream.of(message("m2", 2, "text", "hello"), message("m3", 3, "image", URL)));
+		when(messageRepository.findOldestTimestamp("chat1")).thenReturn(Optional.of(START.plusMinutes(2)));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		exporter.writeNdjson("chat1", true, out);
+		String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+
+		// Assertions, three messages oldest first and one manifest entry with the object key
+		assertEquals(4, lines.length);
+		assertEquals(List.of("m1", "m2", "m3"), List.of(objectMapper.readTree(lines[0]).get("id").asText(),
+				objectMapper.readTree(lines[1]).get("id").asText(), objectMapper.readTree(lines[2]).get("id").asText()));
+		JsonNode media = objectMapper.readTree(lines[3]).get("media");
+		assertEquals("m3", media.get("messageId").asText());
+		assertEquals("chat1/m3", media.get("key").asText());
+		assertFalse(lines[1].startsWith(" "));
+	}
+
+	// Unit test to ensure a hot message older than the newest archived one is still written when it was not archived
+	@Test
+	void writeNdjson_shouldDedupeByIdInTheOverlapWindow() throws Exception {
+		// m3 is in both tiers, m2 sits in an overlapping hot bucket and was never archived
+		when(messageArchive.streamChat("chat1")).thenAnswer(inv -> Stream.of(message("m1", 1, "text", "a"), message("m3", 3, "text", "c")));
+		when(messageRepository.streamChat("chat1")).thenAnswer(inv -> Stream.of(message("m3", 3, "text", "c"), message("m2", 2, "text", "b"), message("m4", 4, "text", "d")));
+		when(messageRepository.findOldestTimestamp("chat1")).thenReturn(Optional.of(START.plusMinutes(2)));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		exporter.writeNdjson("chat1", false, out);
+		String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+
+		// Assertions, every message is written exactly once
+		assertEquals(List.of("m1", "m3", "m2", "m4"), Stream.of(lines).map(line -> {
+			try {
+				return objectMapper.readTree(line).get("id").asText();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}).toList());
+	}
+
+	// Unit test to ensure the JSON export is a single document holding the messages
+	@Test
+	void writeJson_shouldWriteASingleDocument() throws Exception {
+		when(messageArchive.streamChat("chat1")).thenAnswer(inv -> Stream.empty());
+		when(messageRepository.streamChat("chat1")).thenAnswer(inv -> Stream.of(message("m1", 1, "text", "hi"), message("m2", 2, "text", "hello")));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		exporter.writeJson("chat1", false, out);
+		JsonNode export = objectMapper.readTree(out.toByteArray());
+
+		// Assertions, the chat ID and both messages, no manifest when it was not requested
+		assertEquals("chat1", export.get("chatId").asText());
+		assertEquals(2, export.get("messages").size());
+		assertFalse(export.has("media"));
+	}
+
+	private static Message message(String id, int minute, String type, String content) {
+		return new Message(id, type, content, START.plusMinutes(minute), new MessageAuthor("u1", "user", null), "chat1");
+	}
+}
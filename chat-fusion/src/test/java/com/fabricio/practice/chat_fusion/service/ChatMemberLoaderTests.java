@@ -0,0 +1,76 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.fabricio.practice.chat_fusion.model.Chat;
+import com.fabricio.practice.chat_fusion.model.User;
+
+// Unit tests for ChatMemberLoader
+@ExtendWith(MockitoExtension.class)
+public class ChatMemberLoaderTests {
+
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	@InjectMocks
+	private ChatMemberLoader chatMemberLoader;
+
+	// Unit test to ensure the members of every chat are loaded with one query over the distinct IDs
+	@Test
+	void loadMembers_shouldFetchDistinctMembersOfAllChatsInOneQuery() {
+		// Creates two chats sharing a member
+		Chat first = chat("64a7ff02b876123e9f6cfa91", "64a7ff02b876123e9f6cfa92");
+		Chat second = chat("64a7ff02b876123e9f6cfa91", "64a7ff02b876123e9f6cfa93");
+
+		// Simulates the users lookup, the third user no longer exists
+		when(mongoTemplate.find(any(Query.class), eq(User.class)))
+				.thenReturn(List.of(user("64a7ff02b876123e9f6cfa91"), user("64a7ff02b876123e9f6cfa92")));
+
+		chatMemberLoader.loadMembers(List.of(first, second));
+
+		// Assertions, a single query for the three distinct IDs without the password field
+		ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate, times(1)).find(query.capture(), eq(User.class));
+		Collection<?> ids = (Collection<?>) query.getValue().getQueryObject().get("_id", Document.class).get("$in");
+		assertEquals(3, ids.size());
+		assertEquals(0, query.getValue().getFieldsObject().get("password"));
+		// The missing user is left out of the members
+		assertEquals(2, first.getMembers().size());
+		assertEquals(1, second.getMembers().size());
+		assertTrue(second.getMembers().stream().allMatch(member -> member.getId().equals("64a7ff02b876123e9f6cfa91")));
+	}
+
+	// Builds a chat with the given member IDs
+	private Chat chat(String... memberIds) {
+		Chat chat = new Chat();
+		chat.setMemberIds(Set.of(memberIds));
+		return chat;
+	}
+
+	// Builds a user with the given ID
+	private User user(String id) {
+		User user = new User();
+		user.setId(id);
+		return user;
+	}
+}
@@ -2,12 +2,20 @@ package com.fabricio.practice.chat_fusion.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
+import com.fabricio.practice.chat_fusion.config.IdGenerator;
+import com.fabricio.practice.chat_fusion.exception.ChatException;
 import com.fabricio.practice.chat_fusion.model.Chat;
+import com.fabricio.practice.chat_fusion.model.MemberState;
 import com.fabricio.practice.chat_fusion.model.User;
 import com.fabricio.practice.chat_fusion.repository.ChatRepository;
+import com.fabricio.practice.chat_fusion.repository.MemberStateRepository;
+import com.fabricio.practice.chat_fusion.response.InboxResponse;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -15,6 +23,12 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
 // Unit tests for ChatServiceImplementation
 // Enables Mockito's integration with JUnit 5 (so @Mock and @InjectMocks work properly)
 @ExtendWith(MockitoExtension.class)
@@ -26,6 +40,20 @@ public class ChatServiceTests {
 	private ChatRepository chatRepository;
 	@Mock
 	private WebsocketService websocketService;
+	@Mock
+	private IdGenerator idGenerator;
+	@Mock
+	private ChatMemberLoader chatMemberLoader;
+	@Mock
+	private MemberStateRepository memberStateRepository;
+	@Mock
+	private UnreadCounterBuffer unreadCounterBuffer;
+	@Mock
+	private InboxProjection inboxProjection;
+	@Mock
+	private ChangeFeed changeFeed;
+	@Mock
+	private MessageArchive messageArchive;
 	
 	// Injects the above mocks into ChatServiceImplementation like Spring would
 	// So when chatService calls userService for example, it will use the mocks and no real services
@@ -39,16 +67,23 @@ public class ChatServiceTests {
 		// Creates the mock users
 		User reqUser= new User();
 		reqUser.setId("64a7ff02b876123e9f6cfa91");
+		reqUser.setUsername("old name");
+		// Stored profile of the requester, renamed since the token was issued
+		User creator = new User();
+		creator.setId("64a7ff02b876123e9f6cfa91");
+		creator.setUsername("new name");
 		
 		User user2 = new User();
 		user2.setId("64a7ff02b876123e9f6cfa92");
 		
-		// Simulates that user2 exists when looked up by id
+		// Simulates that both users exist when looked up by id
 		when(userService.findUserById("64a7ff02b876123e9f6cfa92")).thenReturn(user2);
+		when(userService.findUserById("64a7ff02b876123e9f6cfa91")).thenReturn(creator);
 		// Simulates there is no existing chat between the users
-		when(chatRepository.findSingleChatByUserIds(any(), any())).thenReturn(null);
-		// Simulates saving to the DB by returning the same Chat object passed in
-		when(chatRepository.save(any())).thenAnswer(inv -> inv.getArgument(0));
+		when(chatRepository.findByPairKey("64a7ff02b876123e9f6cfa91:64a7ff02b876123e9f6cfa92")).thenReturn(null);
+		// Simulates the upsert inserting the same Chat object passed in
+		when(chatRepository.insertDirectChatIfAbsent(any())).thenAnswer(inv -> inv.getArgument(0));
+		when(idGenerator.nextId()).thenReturn("69a7ff02b87f6cf46123ea92");
 		
 		// Executes the service method with the mocks in place
 		Chat result = chatService.createChat(reqUser, "64a7ff02b876123e9f6cfa92");
@@ -59,8 +94,37 @@ public class ChatServiceTests {
 		// Verifies side effects
 		// Websocket should notify both users
 		verify(websocketService, times(2)).chatNotificationEvent(any(), any(), eq("addChat"), any());
-		// Ensures the chat was saved to the repository
-		verify(chatRepository).save(any(Chat.class));
+		// Ensures the chat was inserted with its pair key
+		verify(chatRepository).insertDirectChatIfAbsent(any(Chat.class));
+		assertEquals("64a7ff02b876123e9f6cfa91:64a7ff02b876123e9f6cfa92", result.getPairKey());
+		// The inbox entry of user2 is titled with the stored profile of the requester
+		verify(inboxProjection).addDirectEntries(result, creator, user2);
+	}
+	
+	// Unit test to ensure a chat created by a simultaneous request is returned instead of a duplicate
+	@Test
+	void createChat_shouldReturnChatCreatedBySimultaneousRequest() throws Exception {
+		// Creates the mock users
+		User reqUser = new User();
+		reqUser.setId("64a7ff02b876123e9f6cfa92");
+		User user2 = new User();
+		user2.setId("64a7ff02b876123e9f6cfa91");
+		// Creates the chat stored by the other request
+		Chat storedChat = new Chat();
+		storedChat.setId("69a7ff02b87f6cf46123ea91");
+		
+		// Simulates the chat did not exist when looked up but the upsert matched the one created in between
+		when(userService.findUserById("64a7ff02b876123e9f6cfa91")).thenReturn(user2);
+		when(userService.findUserById("64a7ff02b876123e9f6cfa92")).thenReturn(reqUser);
+		when(chatRepository.findByPairKey("64a7ff02b876123e9f6cfa91:64a7ff02b876123e9f6cfa92")).thenReturn(null);
+		when(idGenerator.nextId()).thenReturn("69a7ff02b87f6cf46123ea92");
+		when(chatRepository.insertDirectChatIfAbsent(any())).thenReturn(storedChat);
+		
+		Chat result = chatService.createChat(reqUser, "64a7ff02b876123e9f6cfa91");
+		
+		// Assertions, the stored chat is returned and nobody is notified twice
+		assertEquals("69a7ff02b87f6cf46123ea91", result.getId());
+		verify(websocketService, never()).chatNotificationEvent(any(), any(), any(), any());
 	}
 	
 	// Unit test to ensure a new chat is not created when it already exists
@@ -78,7 +142,7 @@ public class ChatServiceTests {
 		//Simulates the user2 exists when looked up by id
 		when(userService.findUserById("user2")).thenReturn(user2);
 		// Simulates the chat exists when looked up 
-		when(chatRepository.findSingleChatByUserIds(any(),any())).thenReturn(existingChat);
+		when(chatRepository.findByPairKey(any())).thenReturn(existingChat);
 		
 		// Executes the service method with the mocks in place
 		Chat result = chatService.createChat(reqUser, "user2");
@@ -90,4 +154,101 @@ public class ChatServiceTests {
 		// Verifies no websocket event should be emitted
 		verify(websocketService, never()).chatNotificationEvent(any(), any(), any(),any());
 	}
+	
+	// Unit test to ensure a removal is rejected when the chat changed after it was read
+	@Test
+	void removeFromGroup_shouldThrowWhenChatWasModifiedConcurrently() throws Exception {
+		// Creates the mock users
+		User admin = new User();
+		admin.setId("64a7ff02b876123e9f6cfa91");
+		User member = new User();
+		member.setId("64a7ff02b876123e9f6cfa92");
+		// Creates the mock group read at version 3
+		Chat group = new Chat();
+		group.setId("69a7ff02b87f6cf46123ea92");
+		group.setGroup(true);
+		group.setVersion(3L);
+		group.getAdminIds().add(admin.getId());
+		group.addMember(admin);
+		group.addMember(member);
+		
+		// Simulates the chat and the user exist when looked up by id
+		when(chatRepository.findById("69a7ff02b87f6cf46123ea92")).thenReturn(Optional.of(group));
+		when(userService.findUserById("64a7ff02b876123e9f6cfa92")).thenReturn(member);
+		// Simulates another request changed the chat, so the version conditioned update matches nothing
+		when(chatRepository.removeMember("69a7ff02b87f6cf46123ea92", 3L, "64a7ff02b876123e9f6cfa92", null)).thenReturn(null);
+		
+		// Executes the service method and asserts it reports the conflict
+		ChatException ex = assertThrows(ChatException.class, () -> chatService.removeFromGroup(admin, "64a7ff02b876123e9f6cfa92", "69a7ff02b87f6cf46123ea92"));
+		assertEquals("The chat was modified by another request, try again", ex.getMessage());
+		// Verifies no websocket event should be emitted and the whole chat is never saved
+		verify(websocketService, never()).chatNotificationEvent(any(), any(), any(), any());
+		verify(chatRepository, never()).save(any());
+	}
+	
+	// Unit test to ensure a bulk add validates the users with one query, changes the chat with one update and coalesces the events
+	@Test
+	void addUsersToGroup_shouldAddEveryUserWithSingleUpdateAndEvent() throws Exception {
+		// Creates the mock admin, an existing member and the group
+		User admin = new User();
+		admin.setId("64a7ff02b876123e9f6cfa91");
+		Chat group = new Chat();
+		group.setId("69a7ff02b87f6cf46123ea92");
+		group.setGroup(true);
+		group.getAdminIds().add(admin.getId());
+		group.setMemberIds(new HashSet<>(List.of(admin.getId(), "64a7ff02b876123e9f6cfa92")));
+		
+		// Creates the group as returned by the update, with the two new members
+		Chat updated = new Chat();
+		updated.setId(group.getId());
+		updated.setGroup(true);
+		updated.getAdminIds().add(admin.getId());
+		updated.setMemberIds(new HashSet<>(List.of(admin.getId(), "64a7ff02b876123e9f6cfa92", "64a7ff02b876123e9f6cfa93", "64a7ff02b876123e9f6cfa94")));
+		Set<String> newIds = Set.of("64a7ff02b876123e9f6cfa93", "64a7ff02b876123e9f6cfa94");
+		
+		// Simulates the chat lookup and the single update, the existing member in the request is skipped
+		when(chatRepository.findById("69a7ff02b87f6cf46123ea92")).thenReturn(Optional.of(group));
+		when(chatRepository.addMembers("69a7ff02b87f6cf46123ea92", admin.getId(), newIds)).thenReturn(updated);
+		
+		Chat result = chatService.addUsersToGroup(admin.getId(), List.of("64a7ff02b876123e9f6cfa92", "64a7ff02b876123e9f6cfa93", "64a7ff02b876123e9f6cfa94"), "69a7ff02b87f6cf46123ea92");
+		
+		// Assertions, one lookup for the new users, one update, the chat ID for the new members and one event per existing member
+		assertEquals(updated, result);
+		verify(userService).findUsersByIds(newIds);
+		verify(userService, never()).findUserById(any());
+		verify(chatRepository, times(1)).addMembers(any(), any(), any());
+		verify(websocketService).chatNotificationEvent("69a7ff02b87f6cf46123ea92", "64a7ff02b876123e9f6cfa93", "addChat", "69a7ff02b87f6cf46123ea92");
+		verify(websocketService).chatNotificationEvent("69a7ff02b87f6cf46123ea92", "64a7ff02b876123e9f6cfa94", "addChat", "69a7ff02b87f6cf46123ea92");
+		verify(websocketService).chatNotificationEvent(eq("69a7ff02b87f6cf46123ea92"), eq(admin.getId()), eq("membersChanged"), any());
+		verify(websocketService).chatNotificationEvent(eq("69a7ff02b87f6cf46123ea92"), eq("64a7ff02b876123e9f6cfa92"), eq("membersChanged"), any());
+		verifyNoMoreInteractions(websocketService);
+	}
+	
+	// Unit test to ensure the inbox is one page of entries with the buffered unread counts applied
+	@Test
+	void findInbox_shouldReturnPageWithPendingUnreadCounts() {
+		// Creates three stored entries for a page size of two
+		MemberState first = new MemberState("chat1:user1", "chat1", "user1", null);
+		first.setUnreadCount(2);
+		MemberState second = new MemberState("chat2:user1", "chat2", "user1", null);
+		MemberState third = new MemberState("chat3:user1", "chat3", "user1", null);
+		
+		// Simulates the inbox query asking for one extra entry and a buffered increment in the first chat
+		when(inboxProjection.findInbox("user1", 2, 3)).thenReturn(List.of(first, second, third));
+		when(unreadCounterBuffer.applyPending(eq("user1"), any())).thenAnswer(inv -> {
+			Map<String, Integer> counts = inv.getArgument(1);
+			counts.merge("chat1", 1, Integer::sum);
+			return counts;
+		});
+		
+		InboxResponse inbox = chatService.findInbox("user1", 1, 2);
+		
+		// Assertions, the extra entry is dropped and the stored count includes the pending increment
+		assertEquals(List.of(first, second), inbox.getEntries());
+		assertTrue(inbox.isHasMore());
+		assertEquals(3, first.getUnreadCount());
+		assertEquals(0, second.getUnreadCount());
+		// The chats themselves are never read
+		verify(chatRepository, never()).findChatByUserId(any());
+	}
 }
@@ -0,0 +1,88 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.fabricio.practice.chat_fusion.model.MemberState;
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessagePreview;
+import com.fabricio.practice.chat_fusion.repository.MessageRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Unit tests for InboxProjection
+public class InboxProjectionTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final BulkOperations ops = mock(BulkOperations.class);
+	private final InboxProjection inboxProjection = new InboxProjection(mongoTemplate, mock(MessageRepository.class), new SimpleMeterRegistry());
+
+	// Unit test to ensure many messages to a chat become a single update restricted to its members, with the latest message
+	@Test
+	void flush_shouldWriteOnlyTheLatestMessageToTheMembers() {
+		when(mongoTemplate.bulkOps(BulkMode.UNORDERED, MemberState.class)).thenReturn(ops);
+		LocalDateTime now = LocalDateTime.now();
+		Message first = message("m1", now.minusSeconds(1));
+		Message latest = message("m2", now);
+
+		// The later message is buffered first, an older one arriving after it does not replace it
+		inboxProjection.messageSent(latest, Set.of("user1", "user2"));
+		inboxProjection.messageSent(first, Set.of("user1", "user2"));
+		inboxProjection.flush();
+		inboxProjection.flush();
+
+		// Assertions, one bulk write with one update of the entries of the members
+		verify(ops).updateMulti(eq(InboxProjection.sentQuery("chat1", Set.of("user1", "user2"), now)),
+				eq(new Update().set("lastMessage", MessagePreview.of(latest)).set("lastActivityAt", now)));
+		verify(ops, times(1)).updateMulti(any(Query.class), any(Update.class));
+		verify(ops, never()).upsert(any(Query.class), any(Update.class));
+		verify(ops, times(1)).execute();
+	}
+
+	// Unit test to ensure the inbox shows a pending preview to the members only
+	@Test
+	void findInbox_shouldShowThePendingPreviewToMembers() {
+		LocalDateTime now = LocalDateTime.now();
+		inboxProjection.messageSent(message("m1", now), Set.of("user1"));
+		when(mongoTemplate.find(any(Query.class), eq(MemberState.class)))
+			.thenAnswer(inv -> List.of(entry("user1", now.minusMinutes(1))))
+			.thenAnswer(inv -> List.of(entry("user2", now.minusMinutes(1))));
+
+		// Assertions, the member sees the new message and a user that was not a member when it was sent does not
+		assertEquals(now, inboxProjection.findInbox("user1", 0, 20).get(0).getLastActivityAt());
+		assertEquals(now.minusMinutes(1), inboxProjection.findInbox("user2", 0, 20).get(0).getLastActivityAt());
+	}
+
+	// Creates a message of chat1
+	private Message message(String id, LocalDateTime timestamp) {
+		Message mssg = new Message();
+		mssg.setId(id);
+		mssg.setChatId("chat1");
+		mssg.setType("text");
+		mssg.setContent("Hello");
+		mssg.setTimestamp(timestamp);
+		return mssg;
+	}
+
+	// Creates the entry of a user in chat1
+	private MemberState entry(String userId, LocalDateTime lastActivityAt) {
+		MemberState entry = new MemberState();
+		entry.setChatId("chat1");
+		entry.setUserId(userId);
+		entry.setLastActivityAt(lastActivityAt);
+		return entry;
+	}
+}
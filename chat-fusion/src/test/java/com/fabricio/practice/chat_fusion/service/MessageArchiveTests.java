@@ -0,0 +1,150 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessageSegment;
+import com.mongodb.client.result.DeleteResult;
+
+// Unit tests for MessageArchive and the encoding of its segments
+public class MessageArchiveTests {
+
+	private static final LocalDateTime NOW = LocalDateTime.of(2025, 1, 1, 12, 0, 0);
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final MessageArchive messageArchive = new MessageArchive(mongoTemplate, "document");
+
+	// Reads the messages with the real mapping, as the template does
+	@BeforeEach
+	void setUp() {
+		MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+		MongoMappingContext mappingContext = new MongoMappingContext();
+		mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+		MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+		converter.setCustomConversions(conversions);
+		converter.afterPropertiesSet();
+		when(mongoTemplate.getConverter()).thenReturn(converter);
+	}
+
+	// Unit test to ensure a segment decodes to the same documents, in order and with their BSON types
+	@Test
+	void decode_shouldReturnTheCompressedDocumentsInOrder() {
+		// Creates a full segment of repetitive text messages
+		List<Document> docs = new ArrayList<>();
+		List<byte[]> packed = new ArrayList<>();
+		int size = 0;
+		for (int i = 0; i < MessageArchive.SEGMENT_SIZE; i++) {
+			Document doc = new Document("_id", new ObjectId()).append("chatId", "chat1").append("type", "text")
+					.append("content", "hello number " + i).append("timestamp", new Date(1_700_000_000_000L + i))
+					.append("author", new Document("_id", new ObjectId()).append("username", "user"));
+			docs.add(doc);
+			byte[] bson = MessageArchive.toBson(doc);
+			packed.add(bson);
+			size += bson.length;
+		}
+
+		byte[] data = MessageArchive.compress(packed);
+
+		// Assertions, the documents round trip and the segment is a fraction of their size
+		assertEquals(docs, MessageArchive.decode(data));
+		assertTrue(data.length < size / 3, "compressed " + data.length + " of " + size);
+	}
+
+	// Unit test to ensure whole segments are skipped by their count and the page is cut from the segments that hold it
+	@Test
+	void findLatest_shouldSkipWholeSegmentsByTheirCount() {
+		// Three segments of three messages, newest first: m9 to m7, m6 to m4 and m3 to m1
+		MessageSegment newest = segment(7, 9);
+		MessageSegment middle = segment(4, 6);
+		MessageSegment oldest = segment(1, 3);
+		when(mongoTemplate.find(any(Query.class), eq(MessageSegment.class)))
+			.thenReturn(List.of(newest, middle, oldest))
+			.thenReturn(List.of(middle, oldest));
+
+		// Skips four messages: the whole newest segment and one message of the middle one
+		List<Message> page = messageArchive.findLatest("chat1", 4, 3);
+
+		// Assertions, the page starts after the skipped messages and only the segments holding it are read
+		assertEquals(List.of("m5", "m4", "m3"), page.stream().map(Message::getId).toList());
+		verify(mongoTemplate).find(new Query(Criteria.where("_id").in(List.of(middle.getId(), oldest.getId()))).with(Sort.by(Sort.Order.desc("to"))),
+				MessageSegment.class);
+	}
+
+	// Unit test to ensure a skip past every archived message reads no segment
+	@Test
+	void findLatest_shouldReturnNothingPastTheOldestSegment() {
+		when(mongoTemplate.find(any(Query.class), eq(MessageSegment.class))).thenReturn(List.of(segment(4, 6), segment(1, 3)));
+
+		// Assertions, the counts alone answer the page
+		assertTrue(messageArchive.findLatest("chat1", 6, 3).isEmpty());
+		verify(mongoTemplate, times(1)).find(any(Query.class), eq(MessageSegment.class));
+	}
+
+	// Unit test to ensure a run that finds its segment already written only deletes the messages that segment holds
+	@Test
+	void archiveChat_shouldDeleteOnlyTheMessagesOfASegmentWrittenByAnInterruptedRun() {
+		LocalDateTime cutoff = NOW.plusDays(1);
+		Query archivable = MessageArchive.archivableQuery("chat1", cutoff, MessageArchive.SEGMENT_SIZE);
+		// The interrupted run archived m1 and m2, m3 became old enough before the retry
+		when(mongoTemplate.find(archivable, Document.class, "messages"))
+			.thenReturn(List.of(document(1), document(2), document(3)))
+			.thenReturn(List.of(document(3)));
+		when(mongoTemplate.insert(any(MessageSegment.class)))
+			.thenThrow(new DuplicateKeyException("segment already written"))
+			.thenAnswer(inv -> inv.getArgument(0));
+		when(mongoTemplate.findById("chat1:m1", MessageSegment.class)).thenReturn(segment(1, 2));
+		when(mongoTemplate.remove(any(Query.class), eq("messages")))
+			.thenAnswer(inv -> DeleteResult.acknowledged(inv.getArgument(0, Query.class).getQueryObject().get("_id", Document.class).getList("$in", Object.class).size()));
+
+		int archived = messageArchive.archiveChat("chat1", cutoff);
+
+		// Assertions, m3 is not deleted with the stored segment but moved to a segment of its own
+		ArgumentCaptor<MessageSegment> segments = ArgumentCaptor.forClass(MessageSegment.class);
+		verify(mongoTemplate, times(2)).insert(segments.capture());
+		assertEquals(List.of("chat1:m1", "chat1:m3"), segments.getAllValues().stream().map(MessageSegment::getId).toList());
+		verify(mongoTemplate).remove(new Query(Criteria.where("_id").in(List.of("m1", "m2"))), "messages");
+		verify(mongoTemplate).remove(new Query(Criteria.where("_id").in(List.of("m3"))), "messages");
+		assertEquals(3, archived);
+	}
+
+	// Creates a segment of chat1 with the messages from the first to the last number, oldest first
+	private MessageSegment segment(int first, int last) {
+		List<byte[]> packed = new ArrayList<>();
+		for (int i = first; i <= last; i++) {
+			packed.add(MessageArchive.toBson(document(i)));
+		}
+		return new MessageSegment("chat1:m" + first, "chat1", last - first + 1, NOW.plusMinutes(first), NOW.plusMinutes(last),
+				MessageArchive.compress(packed), NOW);
+	}
+
+	// Creates the stored document of message number i of chat1, later numbers are newer
+	private Document document(int i) {
+		return new Document("_id", "m" + i).append("chatId", "chat1").append("type", "text").append("content", "hello " + i)
+				.append("timestamp", Date.from(NOW.plusMinutes(i).atZone(ZoneId.systemDefault()).toInstant()));
+	}
+}
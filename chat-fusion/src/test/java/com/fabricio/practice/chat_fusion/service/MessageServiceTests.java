@@ -3,26 +3,37 @@ package com.fabricio.practice.chat_fusion.service;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
+import com.fabricio.practice.chat_fusion.config.IdGenerator;
 import com.fabricio.practice.chat_fusion.exception.ChatException;
 import com.fabricio.practice.chat_fusion.model.Chat;
+import com.fabricio.practice.chat_fusion.model.MemberState;
 import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
 import com.fabricio.practice.chat_fusion.model.User;
 import com.fabricio.practice.chat_fusion.repository.ChatRepository;
+import com.fabricio.practice.chat_fusion.repository.MemberStateRepository;
 import com.fabricio.practice.chat_fusion.repository.MessageRepository;
+import com.fabricio.practice.chat_fusion.request.EditMessageRequest;
 import com.fabricio.practice.chat_fusion.request.SendMessageRequest;
+import com.fabricio.practice.chat_fusion.response.MessageSearchResponse;
+import com.fabricio.practice.chat_fusion.response.MessageSliceResponse;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 
 
 // Unit tests for MessageServiceImplementation
@@ -38,6 +49,26 @@ public class MessageServiceTests {
     private WebsocketService websocketService;
     @Mock
     private MessageRepository messageRepository;
+    @Mock
+    private PresenceService presenceService;
+    @Mock
+    private MessageWriteBatcher messageWriteBatcher;
+    @Mock
+    private IdGenerator idGenerator;
+    @Mock
+    private MemberStateRepository memberStateRepository;
+    @Mock
+    private UnreadCounterBuffer unreadCounterBuffer;
+    @Mock
+    private InboxProjection inboxProjection;
+    @Mock
+    private ChangeFeed changeFeed;
+    @Mock
+    private MessageArchive messageArchive;
+    @Mock
+    private ChatExporter chatExporter;
+    @Mock
+    private AuthorProfiles authorProfiles;
     
     // Injects the above mocks into MessageServiceImplementation like Spring would
     // So when messageService calls a dependency it will use the mocks and not the real services
@@ -51,6 +82,8 @@ public class MessageServiceTests {
         // Creates the mock user to send the message
         User sender = new User();
         sender.setId("64a7ff02b876123e9f6cfa91");
+        sender.setUsername("sender");
+        sender.setPassword("hash");
         
         // Creates the mock send message request
         SendMessageRequest request = new SendMessageRequest();
@@ -61,13 +94,14 @@ public class MessageServiceTests {
         // Creates the mock chat to receive the message
         Chat chat = new Chat();
         chat.setId("64a7ff02b876123e9f6cfa92");
-        chat.setMembers(new HashSet<>(List.of(sender)));
-        chat.setConnectedUserIds(new HashSet<>());
+        chat.setMemberIds(new HashSet<>(List.of(sender.getId())));
         
         // Simulates that the chat exists when looked up by id
         when(chatService.findChatById("64a7ff02b876123e9f6cfa92")).thenReturn(chat);
         // Simulates saving to the DB by returning the same message object passed
-        when(messageRepository.save(any())).thenAnswer(inv -> inv.getArgument(0));
+        when(messageRepository.insert(any(Message.class))).thenAnswer(inv -> inv.getArgument(0));
+        // Simulates a profile renamed since the token was issued
+        when(authorProfiles.of(sender)).thenReturn(new MessageAuthor("64a7ff02b876123e9f6cfa91", "renamed", null));
 
         // Executes the service method with the mocks in place
         Message result = messageService.sendMessage(request, sender);
@@ -76,11 +110,16 @@ public class MessageServiceTests {
         assertNotNull(result); // The message is not null (exists)
         assertEquals("Hello there", result.getContent()); // The content is the passed one
         assertEquals("64a7ff02b876123e9f6cfa92", result.getChatId()); // The chat id is the passed one
+        assertEquals(new MessageAuthor("64a7ff02b876123e9f6cfa91", "renamed", null), result.getUser()); // Only the current public profile is embedded
         // Verifies side effects
         // Websocket should emmit to the chat id "chat123" a "send" event with a message
         verify(websocketService).messageEvent(eq("64a7ff02b876123e9f6cfa92"), eq("send"), any(Message.class));
         // Ensures the message was saved to the repository
-        verify(messageRepository).save(any(Message.class));
+        verify(messageRepository).insert(any(Message.class));
+        // The new message is buffered for the inbox entries of the current members
+        verify(inboxProjection).messageSent(result, chat.getMemberIds());
+        // The message is recorded in the change feed for the members that are offline
+        verify(changeFeed).chatChanged(result.getChatId(), "send", result);
     }
     
     // Unit test to no text message is created nor broadcasted when the id is invalid
@@ -110,8 +149,213 @@ public class MessageServiceTests {
         // No websocket event should be emitted
         verify(websocketService, never()).messageEvent(any(), any(), any());
         // No message should be saved to the repository
-        verify(messageRepository, never()).save(any());
+        verify(messageRepository, never()).insert(any(Message.class));
     }
     
-}
+    // Unit test to ensure an older message read before the author backfill still knows its author
+    @Test
+    void editMessage_shouldFallBackOnTheAuthorReferenceOfOlderMessages() throws Exception {
+    	// Creates an older message with only the author reference, the way it is read before the backfill
+    	User author = new User();
+    	author.setId("64a7ff02b876123e9f6cfa91");
+    	author.setUsername("author");
+    	Message mssg = new Message();
+    	mssg.setId("64a7ff02b876123e9f6cfa94");
+    	mssg.setChatId("64a7ff02b876123e9f6cfa92");
+    	mssg.setContent("Hello");
+    	ReflectionTestUtils.setField(mssg, "legacyUser", author);
+    	when(messageRepository.findById("64a7ff02b876123e9f6cfa94")).thenReturn(Optional.of(mssg));
+    	when(messageRepository.save(mssg)).thenReturn(mssg);
+    	EditMessageRequest req = new EditMessageRequest();
+    	req.setMessageId("64a7ff02b876123e9f6cfa94");
+    	req.setNewContent("Edited");
 
+    	// Executes the service method
+    	Message edited = messageService.editMessage(req, "64a7ff02b876123e9f6cfa91");
+
+    	// Assertions, the author is taken from the reference
+    	assertEquals("Edited", edited.getContent());
+    	assertEquals(new MessageAuthor("64a7ff02b876123e9f6cfa91", "author", null), edited.getUser());
+    }
+    
+    // Unit test to ensure an export is refused before anything is streamed when the user is not a member of the chat
+    @Test
+    void exportChat_shouldRejectNonMembersBeforeStreaming() throws Exception {
+    	// Creates the mock user and a chat they are not a member of
+    	User outsider = new User();
+    	outsider.setId("64a7ff02b876123e9f6cfa91");
+    	Chat chat = new Chat();
+    	chat.setId("64a7ff02b876123e9f6cfa92");
+    	chat.setMemberIds(new HashSet<>(List.of("64a7ff02b876123e9f6cfa93")));
+    	when(chatService.findChatById("64a7ff02b876123e9f6cfa92")).thenReturn(chat);
+    	
+    	// Executes the service method and asserts it throws an exception
+    	assertThrows(ChatException.class, () -> messageService.exportChat("64a7ff02b876123e9f6cfa92", outsider, "ndjson", false));
+    	
+    	// Verifies nothing was exported
+    	verifyNoInteractions(chatExporter);
+    }
+    
+    // Unit test to ensure the history returns a cursor pointing after the oldest message when there are older ones
+    @Test
+    void getChatHistory_shouldReturnNextCursorWhenMoreMessagesExist() throws Exception {
+    	// Creates the mock member and chat
+    	User member = new User();
+    	member.setId("64a7ff02b876123e9f6cfa91");
+    	Chat chat = new Chat();
+    	chat.setId("64a7ff02b876123e9f6cfa92");
+    	chat.setMemberIds(new HashSet<>(List.of(member.getId())));
+    	
+    	// Creates three messages, newest first, for a page size of two
+    	LocalDateTime now = LocalDateTime.of(2025, 1, 1, 12, 0, 0);
+    	List<Message> stored = List.of(message("m3", now), message("m2", now.minusSeconds(1)), message("m1", now.minusSeconds(2)));
+    	
+    	// Simulates the chat lookup and the history query asking for one extra message
+    	when(chatService.findChatById("64a7ff02b876123e9f6cfa92")).thenReturn(chat);
+    	when(messageRepository.findHistory("64a7ff02b876123e9f6cfa92", null, null, 3)).thenReturn(stored);
+    	
+    	MessageSliceResponse slice = messageService.getChatHistory("64a7ff02b876123e9f6cfa92", member, null, 2);
+    	
+    	// Assertions, the extra message is dropped and the cursor points after the oldest returned one
+    	assertEquals(2, slice.getMessages().size());
+    	assertTrue(slice.isHasMore());
+    	MessageCursor cursor = MessageCursor.decode(slice.getNextCursor());
+    	assertEquals("m2", cursor.id());
+    	assertEquals(now.minusSeconds(1), cursor.timestamp());
+    }
+    
+    // Unit test to ensure a page that goes past the oldest hot message continues in the archive
+    @Test
+    void getChatHistory_shouldContinueInTheArchiveWhenHotMessagesRunOut() throws Exception {
+    	// Creates the mock member and chat
+    	User member = new User();
+    	member.setId("64a7ff02b876123e9f6cfa91");
+    	Chat chat = new Chat();
+    	chat.setId("64a7ff02b876123e9f6cfa92");
+    	chat.setMemberIds(new HashSet<>(List.of(member.getId())));
+    	
+    	// One hot message left and two archived ones, for a page size of two
+    	LocalDateTime now = LocalDateTime.of(2025, 1, 1, 12, 0, 0);
+    	Message hot = message("m3", now);
+    	List<Message> archived = List.of(message("m2", now.minusDays(200)), message("m1", now.minusDays(201)));
+    	
+    	// Simulates the chat lookup, the hot history and the archive read from the oldest hot message
+    	when(chatService.findChatById("64a7ff02b876123e9f6cfa92")).thenReturn(chat);
+    	when(messageRepository.findHistory("64a7ff02b876123e9f6cfa92", null, null, 3)).thenReturn(List.of(hot));
+    	when(messageArchive.findHistory("64a7ff02b876123e9f6cfa92", now, "m3", 2)).thenReturn(archived);
+    	
+    	MessageSliceResponse slice = messageService.getChatHistory("64a7ff02b876123e9f6cfa92", member, null, 2);
+    	
+    	// Assertions, the page spans both tiers and the cursor points into the archive
+    	assertEquals(List.of("m3", "m2"), slice.getMessages().stream().map(Message::getId).toList());
+    	assertTrue(slice.isHasMore());
+    	assertEquals("m2", MessageCursor.decode(slice.getNextCursor()).id());
+    }
+    
+    // Unit test to ensure a page that starts past the hot messages skips the rest of the offset in the archive
+    @Test
+    void getChatMessages_shouldSkipTheHotMessagesInTheArchiveWhenTheHotPageIsEmpty() throws Exception {
+    	// Creates the mock member and chat
+    	User member = new User();
+    	member.setId("64a7ff02b876123e9f6cfa91");
+    	Chat chat = new Chat();
+    	chat.setId("64a7ff02b876123e9f6cfa92");
+    	chat.setMemberIds(new HashSet<>(List.of(member.getId())));
+    	
+    	// Twenty hot messages, the page skips twenty five
+    	LocalDateTime now = LocalDateTime.of(2025, 1, 1, 12, 0, 0);
+    	List<Message> archived = List.of(message("m2", now.minusDays(200)), message("m1", now.minusDays(201)));
+    	when(chatService.findChatById("64a7ff02b876123e9f6cfa92")).thenReturn(chat);
+    	when(messageRepository.findLatest("64a7ff02b876123e9f6cfa92", 25, 10)).thenReturn(List.of());
+    	when(messageRepository.countByChatId("64a7ff02b876123e9f6cfa92")).thenReturn(20L);
+    	when(messageArchive.findLatest("64a7ff02b876123e9f6cfa92", 5, 10)).thenReturn(archived);
+    	
+    	// Assertions, the archive skips only the five messages the hot collection could not
+    	assertEquals(archived, messageService.getChatMessages("64a7ff02b876123e9f6cfa92", member, 10, 25));
+    }
+    
+    // Unit test to ensure a page that runs out of hot messages is completed from the newest archived one without counting
+    @Test
+    void getChatMessages_shouldCompleteAShortHotPageFromTheArchive() throws Exception {
+    	// Creates the mock member and chat
+    	User member = new User();
+    	member.setId("64a7ff02b876123e9f6cfa91");
+    	Chat chat = new Chat();
+    	chat.setId("64a7ff02b876123e9f6cfa92");
+    	chat.setMemberIds(new HashSet<>(List.of(member.getId())));
+    	
+    	// The last hot message and one archived message, for a page of three skipping two
+    	LocalDateTime now = LocalDateTime.of(2025, 1, 1, 12, 0, 0);
+    	Message hot = message("m3", now);
+    	Message archived = message("m2", now.minusDays(200));
+    	when(chatService.findChatById("64a7ff02b876123e9f6cfa92")).thenReturn(chat);
+    	when(messageRepository.findLatest("64a7ff02b876123e9f6cfa92", 2, 3)).thenReturn(List.of(hot));
+    	when(messageArchive.findLatest("64a7ff02b876123e9f6cfa92", 0, 2)).thenReturn(List.of(archived));
+    	
+    	// Assertions, the page spans both tiers and the hot messages are not counted
+    	assertEquals(List.of(hot, archived), messageService.getChatMessages("64a7ff02b876123e9f6cfa92", member, 3, 2));
+    	verify(messageRepository, never()).countByChatId(any());
+    }
+    
+    // Unit test to ensure opening a chat moves the watermark of the member and returns the watermarks of the chat
+    @Test
+    void getChatHistory_shouldMarkReadWithWatermarkInsteadOfUpdatingMessages() throws Exception {
+    	// Creates the mock member and chat with an unread message
+    	User member = new User();
+    	member.setId("64a7ff02b876123e9f6cfa91");
+    	Chat chat = new Chat();
+    	chat.setId("64a7ff02b876123e9f6cfa92");
+    	chat.setMemberIds(new HashSet<>(List.of(member.getId())));
+    	LocalDateTime readAt = LocalDateTime.of(2025, 1, 1, 12, 0, 0);
+    	MemberState other = new MemberState("64a7ff02b876123e9f6cfa92:u2", "64a7ff02b876123e9f6cfa92", "u2", readAt);
+    	
+    	// Simulates the chat lookup, an empty history and the stored watermarks
+    	when(chatService.findChatById("64a7ff02b876123e9f6cfa92")).thenReturn(chat);
+    	when(messageRepository.findHistory("64a7ff02b876123e9f6cfa92", null, null, 21)).thenReturn(List.of());
+    	when(memberStateRepository.findByChatId("64a7ff02b876123e9f6cfa92")).thenReturn(List.of(other));
+    	
+    	MessageSliceResponse slice = messageService.getChatHistory("64a7ff02b876123e9f6cfa92", member, null, 20);
+    	
+    	// Assertions, a single watermark write for the member, the counter reset and the read event, messages are not saved
+    	verify(memberStateRepository).markRead(eq("64a7ff02b876123e9f6cfa92"), eq(List.of(member.getId())), any(LocalDateTime.class));
+    	verify(unreadCounterBuffer).reset("64a7ff02b876123e9f6cfa92", member.getId());
+    	verify(websocketService).messageEvent(eq("64a7ff02b876123e9f6cfa92"), eq("read"), any());
+    	verify(messageRepository, never()).save(any());
+    	assertEquals(readAt, slice.getReadWatermarks().get("u2"));
+    }
+    
+    // Unit test to ensure a search without a chat is scoped to the most recently active chats of the user and pages without counting
+    @Test
+    void searchMessages_shouldSearchTheRecentChatsOfTheUser() throws Exception {
+    	// Creates the mock member of two chats
+    	User member = new User();
+    	member.setId("64a7ff02b876123e9f6cfa91");
+    	MemberState chat1 = new MemberState();
+    	chat1.setChatId("chat1");
+    	MemberState chat2 = new MemberState();
+    	chat2.setChatId("chat2");
+    	
+    	// Simulates the lookup of the most recently active chats and a search returning one more result than the page size
+    	LocalDateTime now = LocalDateTime.of(2025, 1, 1, 12, 0, 0);
+    	when(inboxProjection.findInbox(member.getId(), 0, MessageServiceImplementation.MAX_SEARCH_CHATS)).thenReturn(List.of(chat1, chat2));
+    	when(messageRepository.search(List.of("chat1", "chat2"), "hello", 2, 3)).thenReturn(List.of(message("m1", now), message("m2", now), message("m3", now)));
+    	
+    	MessageSearchResponse results = messageService.searchMessages(member, " hello ", null, 1, 2);
+    	
+    	// Assertions, the extra result is dropped and flags the next page
+    	assertEquals(2, results.getMessages().size());
+    	assertEquals(1, results.getPage());
+    	assertTrue(results.isHasMore());
+    	// The chat documents are never loaded whole
+    	verify(chatService, never()).findChatById(any());
+    }
+    
+    // Builds a message with the given ID and timestamp
+    private Message message(String id, LocalDateTime timestamp) {
+    	Message mssg = new Message();
+    	mssg.setId(id);
+    	mssg.setTimestamp(timestamp);
+    	return mssg;
+    }
+    
+}
@@ -0,0 +1,90 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.fabricio.practice.chat_fusion.exception.MessageException;
+import com.fabricio.practice.chat_fusion.model.Message;
+import com.fabricio.practice.chat_fusion.repository.MessageRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Unit tests for MessageWriteBatcher
+public class MessageWriteBatcherTests {
+
+	// Mocked repository that records the size of every bulk insert
+	private final MessageRepository messageRepository = mock(MessageRepository.class);
+	private final List<Integer> batches = new ArrayList<>();
+	// Batches of up to 10 messages with a generous linger so concurrent sends share a batch
+	private final MessageWriteBatcher batcher = new MessageWriteBatcher(messageRepository, new SimpleMeterRegistry(), true, 10, 200, 100, 5000);
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		batcher.shutdown();
+	}
+
+	// Unit test to ensure concurrent messages are written together and every caller completes
+	@Test
+	void insert_shouldWriteConcurrentMessagesInOneBatch() throws Exception {
+		// Records the batch sizes as the writer inserts them
+		when(messageRepository.insertUnordered(anyList())).thenAnswer(inv -> {
+			synchronized (batches) {
+				batches.add(((Collection<?>) inv.getArgument(0)).size());
+			}
+			return Map.of();
+		});
+
+		// Sends five messages at the same time
+		List<CompletableFuture<Message>> sends = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Message message = new Message();
+			message.setId("message" + i);
+			sends.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return batcher.insert(message);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}));
+		}
+		CompletableFuture.allOf(sends.toArray(CompletableFuture[]::new)).join();
+
+		// Assertions, every message was written once and in fewer inserts than messages
+		assertEquals(5, batches.stream().mapToInt(Integer::intValue).sum());
+		assertTrue(batches.size() < 5);
+	}
+
+	// Unit test to ensure a message that fails in the bulk insert only fails its own caller
+	@Test
+	void insert_shouldFailOnlyTheMessageThatWasNotWritten() throws Exception {
+		when(messageRepository.insertUnordered(anyList())).thenReturn(Map.of("duplicate", "E11000 duplicate key error"));
+		Message duplicate = new Message();
+		duplicate.setId("duplicate");
+		Message message = new Message();
+		message.setId("message");
+
+		// Assertions, the other message is written and the failed one reports the error of the write
+		CompletableFuture<Message> other = CompletableFuture.supplyAsync(() -> {
+			try {
+				return batcher.insert(message);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		MessageException e = assertThrows(MessageException.class, () -> batcher.insert(duplicate));
+		assertTrue(e.getMessage().contains("E11000"));
+		assertEquals(message, other.join());
+	}
+}
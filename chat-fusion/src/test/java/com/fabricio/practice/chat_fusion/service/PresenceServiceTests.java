@@ -0,0 +1,46 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+// Unit tests for PresenceServiceImplementation
+public class PresenceServiceTests {
+
+	// The registry has no dependencies, so a plain instance is used
+	private final PresenceServiceImplementation presenceService = new PresenceServiceImplementation();
+
+	// Unit test to ensure a user stays connected until the last of their sessions leaves the chat
+	@Test
+	void disconnect_shouldKeepUserConnectedWhileAnotherSessionIsOpen() {
+		presenceService.connect("chat1", "user1", "sessionA");
+		presenceService.connect("chat1", "user1", "sessionB");
+
+		// Leaving from one session reports the user is still there
+		assertFalse(presenceService.disconnect("chat1", "user1", "sessionA"));
+		assertTrue(presenceService.isConnected("chat1", "user1"));
+
+		// Leaving from the last session reports the user left
+		assertTrue(presenceService.disconnect("chat1", "user1", "sessionB"));
+		assertFalse(presenceService.isConnected("chat1", "user1"));
+	}
+
+	// Unit test to ensure a dropped socket is removed from every chat it had open
+	@Test
+	void disconnectSession_shouldRemoveSessionFromAllChats() {
+		presenceService.connect("chat1", "user1", "sessionA");
+		presenceService.connect("chat2", "user1", "sessionA");
+		presenceService.connect("chat2", "user2", "sessionC");
+
+		Set<String> offline = presenceService.disconnectSession("user1", "sessionA");
+
+		// Assertions, verifies the user left both chats and the other member is untouched
+		assertEquals(Set.of("chat1", "chat2"), offline);
+		assertFalse(presenceService.isConnected("chat1", "user1"));
+		assertEquals(Set.of("user2"), presenceService.getConnectedUserIds("chat2"));
+	}
+}
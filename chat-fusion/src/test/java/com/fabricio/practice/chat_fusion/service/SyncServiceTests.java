@@ -0,0 +1,101 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.bson.BsonTimestamp;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fabricio.practice.chat_fusion.exception.ChatException;
+import com.fabricio.practice.chat_fusion.model.ChangeEvent;
+import com.fabricio.practice.chat_fusion.model.Chat;
+import com.fabricio.practice.chat_fusion.repository.ChatRepository;
+import com.fabricio.practice.chat_fusion.response.SyncResponse;
+
+// Unit tests for SyncServiceImplementation
+public class SyncServiceTests {
+
+	private final ChangeFeed changeFeed = mock(ChangeFeed.class);
+	private final ChatRepository chatRepository = mock(ChatRepository.class);
+	private final SyncServiceImplementation syncService = new SyncServiceImplementation(changeFeed, chatRepository, Duration.ofSeconds(2));
+
+	// The clock of the database server
+	@BeforeEach
+	void setUp() {
+		when(changeFeed.serverTime()).thenReturn(Instant.now());
+	}
+
+	// Unit test to ensure a client without a token starts after the newest event it can already see
+	@Test
+	void findChanges_withoutToken_shouldReturnCurrentPosition() throws ChatException {
+		// An event written a moment ago, inside the settle window, is already part of the state the client loads
+		String latest = ChangeEvent.tokenOf(new BsonTimestamp((int) Instant.now().getEpochSecond(), 7));
+		when(changeFeed.findLatestToken(eq("user1"), any())).thenReturn(Optional.of(latest));
+
+		SyncResponse response = syncService.findChanges("user1", null, 2);
+
+		// Assertions, the token is past that event and no events are read
+		assertTrue(response.getEvents().isEmpty());
+		assertEquals(latest, response.getToken());
+		verify(changeFeed, never()).findChanges(anyString(), any(), anyString(), anyString(), anyInt());
+	}
+
+	// Unit test to ensure a full page returns the ID of its last event as the next token
+	@Test
+	void findChanges_shouldPageAfterTheToken() throws ChatException {
+		when(changeFeed.getRetention()).thenReturn(Duration.ofDays(7));
+		Chat chat = new Chat();
+		chat.setId("chat1");
+		when(chatRepository.findChatIdsByUserId("user1")).thenReturn(List.of(chat));
+
+		// Three events after the token for a page size of two
+		String since = ChangeFeed.tokenAt(Instant.now().minusSeconds(60));
+		ChangeEvent first = event("send", null, 1);
+		ChangeEvent second = event("delete", "message1", 2);
+		ChangeEvent third = event("removeChat", "chat1", 3);
+		when(changeFeed.findChanges(eq("user1"), eq(List.of("chat1")), eq(since), anyString(), eq(3))).thenReturn(List.of(first, second, third));
+
+		SyncResponse response = syncService.findChanges("user1", since, 2);
+
+		// Assertions, the extra event is dropped and the next page starts after the last returned one
+		assertEquals(List.of(first, second), response.getEvents());
+		assertTrue(response.isHasMore());
+		assertEquals(second.getToken(), response.getToken());
+		assertFalse(response.isResetRequired());
+	}
+
+	// Unit test to ensure a token older than the retention asks for a reload and an invalid one is rejected
+	@Test
+	void findChanges_withExpiredOrInvalidToken_shouldNotReadTheFeed() throws ChatException {
+		when(changeFeed.getRetention()).thenReturn(Duration.ofDays(7));
+
+		SyncResponse response = syncService.findChanges("user1", ChangeFeed.tokenAt(Instant.now().minus(Duration.ofDays(8))), 2);
+
+		// Assertions, a token from before the positions were generated by the server also asks for a reload
+		assertTrue(response.isResetRequired());
+		assertTrue(syncService.findChanges("user1", new ObjectId().toHexString(), 2).isResetRequired());
+		assertThrows(ChatException.class, () -> syncService.findChanges("user1", "not-a-token", 2));
+		verify(changeFeed, never()).findChanges(anyString(), any(), anyString(), anyString(), anyInt());
+	}
+
+	// Creates an event of chat1 written 30 seconds ago
+	private static ChangeEvent event(String type, Object payload, int inc) {
+		ChangeEvent event = new ChangeEvent(new ObjectId().toHexString(), "chat1", null, type, payload, null, null);
+		event.setPosition(new BsonTimestamp((int) Instant.now().minusSeconds(30).getEpochSecond(), inc));
+		return event;
+	}
+}
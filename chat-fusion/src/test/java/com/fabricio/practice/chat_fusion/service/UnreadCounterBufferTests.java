@@ -0,0 +1,135 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.fabricio.practice.chat_fusion.model.MemberState;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Unit tests for UnreadCounterBuffer
+public class UnreadCounterBufferTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final BulkOperations ops = mock(BulkOperations.class);
+	private final UnreadCounterBuffer buffer = new UnreadCounterBuffer(mongoTemplate, new SimpleMeterRegistry());
+
+	// Unit test to ensure many increments to the same counter become a single update and the buffer is emptied
+	@Test
+	void flush_shouldCoalesceIncrementsIntoOneUpdatePerCounter() {
+		when(mongoTemplate.bulkOps(BulkMode.UNORDERED, MemberState.class)).thenReturn(ops);
+
+		// Three messages for two offline members of the same chat
+		for (int i = 0; i < 3; i++) {
+			buffer.increment("chat1", List.of("user1", "user2"));
+		}
+		buffer.flush();
+
+		// Assertions, one bulk write with one $inc of 3 per member
+		verify(ops, times(2)).updateOne(any(Query.class), any(Update.class));
+		verify(ops).updateOne(eq(new Query(Criteria.where("_id").is("chat1:user1"))), eq(new Update().inc("unreadCount", 3)));
+		verify(ops, times(1)).execute();
+		assertEquals(Map.of(), buffer.applyPending("user1", new HashMap<>()));
+	}
+
+	// Unit test to ensure a member removed while their increment is being written does not get their state back
+	@Test
+	void flush_shouldNotRestoreTheStateOfAMemberRemovedDuringTheWrite() {
+		when(mongoTemplate.bulkOps(BulkMode.UNORDERED, MemberState.class)).thenReturn(ops);
+		buffer.increment("chat1", List.of("user1"));
+		// The member is removed from the chat while the bulk write runs, and the write fails
+		when(ops.execute()).thenAnswer(inv -> {
+			buffer.discard("chat1", List.of("user1"));
+			throw new DataAccessResourceFailureException("Connection reset");
+		});
+
+		buffer.flush();
+
+		// Assertions, the write never creates states and the failed change is not queued again for the removed member
+		verify(ops, never()).upsert(any(Query.class), any(Update.class));
+		verify(ops).updateOne(any(Query.class), eq(new Update().inc("unreadCount", 1)));
+		assertEquals(Map.of(), buffer.applyPending("user1", new HashMap<>()));
+		buffer.flush();
+		verify(mongoTemplate, times(1)).bulkOps(BulkMode.UNORDERED, MemberState.class);
+	}
+
+	// Unit test to ensure a write that may have been applied only retries the resets, which give the same value when written twice
+	@Test
+	void flush_shouldRetryOnlyTheResetsOfAnAmbiguousFailure() {
+		when(mongoTemplate.bulkOps(BulkMode.UNORDERED, MemberState.class)).thenReturn(ops);
+		when(ops.execute()).thenThrow(new DataAccessResourceFailureException("Connection reset")).thenReturn(null);
+		buffer.increment("chat1", List.of("user1"));
+		buffer.reset("chat2", "user1");
+		buffer.increment("chat2", List.of("user1"));
+
+		buffer.flush();
+		// A new increment arrives before the retry
+		buffer.increment("chat2", List.of("user1"));
+
+		// Assertions, the increment of chat1 is not applied again and the reset of chat2 is combined with the newer increment
+		assertEquals(Map.of("chat1", 5, "chat2", 2), buffer.applyPending("user1", new HashMap<>(Map.of("chat1", 5, "chat2", 5))));
+	}
+
+	// Unit test to ensure a partial failure of the unordered write retries only the updates that were not applied
+	@Test
+	void flush_shouldRetryOnlyTheFailedUpdatesOfAPartialFailure() {
+		when(mongoTemplate.bulkOps(BulkMode.UNORDERED, MemberState.class)).thenReturn(ops);
+		buffer.increment("chat1", List.of("user1", "user2"));
+		// Only the second update of the batch fails, its member is the one the failure points to
+		List<String> written = new ArrayList<>();
+		when(ops.updateOne(any(Query.class), any(Update.class))).thenAnswer(inv -> {
+			written.add(inv.getArgument(0, Query.class).getQueryObject().getString("_id"));
+			return ops;
+		});
+		when(ops.execute()).thenThrow(new BulkOperationException("Write failed", new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+				List.of(new BulkWriteError(50, "Operation exceeded time limit", new BsonDocument(), 1)), null, new ServerAddress(), Set.of())));
+
+		buffer.flush();
+
+		// Assertions, the applied increment is not queued again and the failed one is
+		String failed = written.get(1).substring("chat1:".length());
+		String applied = written.get(0).substring("chat1:".length());
+		assertEquals(Map.of("chat1", 1), buffer.applyPending(failed, new HashMap<>()));
+		assertEquals(Map.of(), buffer.applyPending(applied, new HashMap<>()));
+	}
+
+	// Unit test to ensure a reset drops the earlier increments and keeps the later ones
+	@Test
+	void applyPending_shouldApplyResetsAndIncrementsInOrder() {
+		buffer.increment("chat1", List.of("user1"));
+		buffer.increment("chat1", List.of("user1"));
+		buffer.reset("chat1", "user1");
+		buffer.increment("chat1", List.of("user1"));
+		buffer.increment("chat2", List.of("user1"));
+
+		// Stored counters of 5 in both chats
+		Map<String, Integer> counts = buffer.applyPending("user1", new HashMap<>(Map.of("chat1", 5, "chat2", 5)));
+
+		// Assertions, the reset replaces the stored value while a plain increment adds to it
+		assertEquals(1, counts.get("chat1"));
+		assertEquals(6, counts.get("chat2"));
+	}
+}
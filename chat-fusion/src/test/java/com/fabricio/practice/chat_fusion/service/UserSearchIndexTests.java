@@ -0,0 +1,77 @@
+package com.fabricio.practice.chat_fusion.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.fabricio.practice.chat_fusion.model.User;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Unit tests for UserSearchIndex
+public class UserSearchIndexTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final UserSearchIndex searchIndex = new UserSearchIndex(mongoTemplate, new SimpleMeterRegistry(), 20, Duration.ofSeconds(30));
+
+	// Unit test to ensure the candidates are ranked exact, then prefix, then a word inside the name
+	@Test
+	void search_shouldRankExactThenPrefixThenWordMatches() {
+		// Candidates in index order, the exact match is also found by its own query
+		List<User> candidates = List.of(user("Mary Ann"), user("Annabel"), user("Ann"), user("Ánnie"));
+		when(mongoTemplate.find(UserSearchIndex.exactQuery("ann"), User.class)).thenReturn(List.of(user("Ann")));
+		when(mongoTemplate.find(UserSearchIndex.prefixQuery("ann"), User.class)).thenReturn(candidates);
+
+		List<User> result = searchIndex.search("  ANN ");
+
+		// Assertions, case and accents are ignored and the order follows the rank then the name
+		assertEquals(List.of("Ann", "Annabel", "Ánnie", "Mary Ann"), result.stream().map(User::getUsername).toList());
+	}
+
+	// Unit test to ensure the exact match comes first even when the prefix candidates are full of other users
+	@Test
+	void search_shouldKeepTheExactMatchWhenThePrefixCandidatesAreFull() {
+		List<User> others = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			others.add(user("Ann Other " + i));
+		}
+		when(mongoTemplate.find(UserSearchIndex.exactQuery("ann"), User.class)).thenReturn(List.of(user("Ann")));
+		when(mongoTemplate.find(UserSearchIndex.prefixQuery("ann"), User.class)).thenReturn(others);
+
+		// Assertions, the exact match is ranked first
+		assertEquals("Ann", searchIndex.search("ann").get(0).getUsername());
+	}
+
+	// Unit test to ensure a repeated search is served from the cache and the text is never sent as a regex
+	@Test
+	void search_shouldCacheNormalizedTextAndUsePrefixRange() {
+		when(mongoTemplate.find(any(Query.class), eq(User.class))).thenReturn(List.of(user("Ann")));
+
+		searchIndex.search("Ann");
+		searchIndex.search("ann");
+
+		// Assertions, a single search for both keystrokes, with an exact and a range query on the search keys
+		verify(mongoTemplate, times(2)).find(any(Query.class), eq(User.class));
+		String query = UserSearchIndex.prefixQuery("a.*").getQueryObject().toJson();
+		assertFalse(query.contains("$regex"));
+	}
+
+	// Builds a user with the given username
+	private User user(String username) {
+		User user = new User();
+		user.setId(username);
+		user.setUsername(username);
+		user.setEmail(User.normalize(username).replace(" ", "") + "@test.com");
+		return user;
+	}
+}
@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -18,7 +19,9 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import com.fabricio.practice.chat_fusion.exception.UserException;
+import com.fabricio.practice.chat_fusion.model.MessageAuthor;
 import com.fabricio.practice.chat_fusion.model.User;
+import com.fabricio.practice.chat_fusion.repository.MessageRepository;
 import com.fabricio.practice.chat_fusion.repository.UserRepository;
 import com.fabricio.practice.chat_fusion.request.UpdateRequest;
 
@@ -31,6 +34,14 @@ public class UserSeviceTests {
 	private UserRepository userRepository;
 	@Mock 
 	private AwsService awsS3Client;
+	@Mock
+	private MessageRepository messageRepository;
+	@Mock
+	private UserSearchIndex userSearchIndex;
+	@Mock
+	private InboxProjection inboxProjection;
+	@Mock
+	private AuthorProfiles authorProfiles;
 	// Injects the above mocks into UserServiceImplementation like Spring would
     // So when userService calls a dependency it will use the mocks and not the real services
 	@InjectMocks
@@ -57,7 +68,7 @@ public class UserSeviceTests {
 		// Makes a list from the mock users
 		List<User> mockResults = List.of(user1,user2);
 		// Simulates the query returns the mock users
-		when(userRepository.searchUser(query)).thenReturn(mockResults);
+		when(userSearchIndex.search(query)).thenReturn(mockResults);
 		
 		// Executes the service method with the mocks in place
 		List<User> result = userService.searchUsers(query);
@@ -67,7 +78,7 @@ public class UserSeviceTests {
 		assertEquals(2,result.size()); // The list should contain 2 user objects
 		assertEquals("johnny", result.get(0).getUsername()); // Verifies that the method returns the mock list in the order it was provided
 		// Verifies the query is executed
-		verify(userRepository).searchUser(query);
+		verify(userSearchIndex).search(query);
 	}
 	
 	// Unit test to ensure updateUser throws an exception when the username exceeds 50 characters
@@ -99,4 +110,28 @@ public class UserSeviceTests {
 		// Should not attempt to save to the database
 		verify(userRepository, never()).save(any());
 	}
+	
+	// Unit test to ensure a new username is copied to the author snapshots of the user's messages
+	@Test
+	void updateUser_shouldRefreshAuthorSnapshotsWhenUsernameChanges() throws Exception {
+		// Mock user id
+		String userId = "64a7ff02b876123e9f6cfa91";
+		// Creates the mock user with that id
+		User user1 = new User();
+		user1.setId(userId);
+		user1.setUsername("old name");
+		// Creates the mock update request
+		UpdateRequest req = new UpdateRequest();
+		req.setName("new name");
+		
+		// Simulates the user lookup and the save returning the same user
+		when(userRepository.findById(userId)).thenReturn(Optional.of(user1));
+		when(userRepository.save(any())).thenAnswer(inv -> inv.getArgument(0));
+		
+		userService.updateUser(userId, req);
+		
+		// Verifies side effects, new messages take the new profile and the snapshots are refreshed in the background
+		verify(authorProfiles).updated(new MessageAuthor(userId, "new name", null));
+		verify(messageRepository, timeout(1000)).updateAuthor(new MessageAuthor(userId, "new name", null));
+	}
 }
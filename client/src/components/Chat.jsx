@@ -2,7 +2,7 @@ import ChatHeader from "./ChatHeader";
 import ChatBody from "./ChatBody";
 import ChatInput from "./ChatInput";
 import { useSelector } from "react-redux";
-import { useState, useEffect } from "react";
+import { useEffect } from "react";
 
 import ws from "../utils/ws";
 
@@ -10,11 +10,6 @@ import ws from "../utils/ws";
 // Chat component combining the header, body and input sections
 export default function Chat({ chat, setSelectedView }) {
 
-    // State variable to manage the last user to connect to the chat
-    const [lastConnectedUser, setLastconnectedUser] = useState(null);
-
-
-
     // Retrieves the current user data and current chat data from the Redux store
     const currentUser = useSelector((state) => state.user.user);
 
@@ -29,21 +24,9 @@ export default function Chat({ chat, setSelectedView }) {
 
         ws.publish(`/app/connected/${chat.id}`, { userId: currentUser.id, online: true }); // Notifies the others about the connection to the chat
 
-        const topic = `/chat/${chat.id}/connected`;
-        // Initializes a subscription to listen on connections to a chat
-        ws.subscribe(topic,(event) =>{
-            if(event.online) { 
-                // Set the lastConnectedUser to the user with the id from the event
-                setLastconnectedUser(chat.members.find((member) => member.id === event.userId));
-            } else {
-                setLastconnectedUser(null);
-            }
-        } )
-        
-        // Cleanup function to unsubscribe from the chat connections events
+        // Cleanup function to notify the disconnection, read state arrives through the read events of the chat
         return () => {
             ws.publish(`/app/connected/${chat.id}`, { userId: currentUser.id, online: false }); // Notifies the others about the disconnection to the chat
-            ws.unsubscribe(topic);
         };
 
     }, [chat])
@@ -60,7 +43,7 @@ export default function Chat({ chat, setSelectedView }) {
             <ChatHeader chat={chat} currentUser={currentUser} />
             <div className="flex-1 overflow-y-auto">
                 {/* Chat boy where the messages are displayed */}
-                <ChatBody chat={chat} currentUser={currentUser} lastConnectedUser={lastConnectedUser} />
+                <ChatBody chat={chat} currentUser={currentUser} />
             </div>
             {/* Input field for sending new messages */}
             <ChatInput chatId={chat.id} />
@@ -4,14 +4,18 @@ import Message from "./Message";
 import ws from "../utils/ws";
 
 
-export default function ChatBody({ chat, currentUser, lastConnectedUser }) {
+export default function ChatBody({ chat, currentUser }) {
     // State variables for managing messages, and loading state
     const [messages, setMessages] = useState([]);
 
     const [loading, setLoading] = useState(false);
+    // Last read timestamp of each member by user ID
+    const [readWatermarks, setReadWatermarks] = useState({});
 
-    // Reference to track the skipped messages
-    const skipRef = useRef(0);
+    // Reference to the cursor of the next (older) page, null when the first page has not been loaded
+    const cursorRef = useRef(null);
+    // Reference to the flag that tells if there are older messages to load
+    const hasMoreRef = useRef(true);
     // Reference for the chat body element
     const chatBodyRef = useRef(null);
     // Reference for the end of the chat
@@ -21,14 +25,12 @@ export default function ChatBody({ chat, currentUser, lastConnectedUser }) {
     // Reference to mantain the heigh once old messages are prepended
     const prevScrollHeightRef = useRef(0);
 
-    // Increments the skip count when scrolled to the top
+    // Loads the older messages when scrolled to the top
     const handleScroll = () => {
-        if (chatBodyRef.current.scrollTop === 0) {
+        if (chatBodyRef.current.scrollTop === 0 && hasMoreRef.current && !loading) {
             isPrependingRef.current = true;
             prevScrollHeightRef.current = chatBodyRef.current.scrollHeight;
-            skipRef.current += 100;
             console.log("Fetching messages");
-            console.log(skipRef.current);
             fetchMessages();
         }
     };
@@ -38,10 +40,18 @@ export default function ChatBody({ chat, currentUser, lastConnectedUser }) {
         try {
             // Sets the loading flag to indicate it is loading
             setLoading(true);
-            // Makes API call to get the messages for the current chat and skip the indiated messages
-            const response = await get(`/api/messages/chat/${chat.id}?skip=${skipRef.current}`);
+            // Makes API call to get the messages for the current chat older than the cursor
+            const query = cursorRef.current ? `?before=${encodeURIComponent(cursorRef.current)}` : "";
+            const response = await get(`/api/messages/chat/${chat.id}/history${query}`);
+            // Keeps the cursor for the next page
+            cursorRef.current = response.nextCursor;
+            hasMoreRef.current = response.hasMore;
+            // The watermarks come with the first page only
+            if (response.readWatermarks) {
+                setReadWatermarks((prevWatermarks) => ({ ...prevWatermarks, ...response.readWatermarks }));
+            }
             // Prepends the fetched messages to the existing list
-            setMessages((prevMessages) => [...response.reverse(), ...prevMessages]);
+            setMessages((prevMessages) => [...response.messages.reverse(), ...prevMessages]);
 
         } catch (error) {
             console.log("Error fetching messages", error.message);
@@ -58,11 +68,13 @@ export default function ChatBody({ chat, currentUser, lastConnectedUser }) {
         }
     };
 
-    // Fetches the messages when the chat or the skip changes
+    // Fetches the messages when the chat changes
     useEffect(() => {
-        skipRef.current = 0;
-        //Clear the messages for each chat
+        cursorRef.current = null;
+        hasMoreRef.current = true;
+        //Clear the messages and watermarks for each chat
         setMessages([]);
+        setReadWatermarks({});
         fetchMessages();
 
         const topic = `/chat/${chat.id}`;
@@ -70,7 +82,9 @@ export default function ChatBody({ chat, currentUser, lastConnectedUser }) {
         ws.subscribe(topic, (event) => {
             // If it is a send event adds the new message to the chat
             if (event.type === "send") {
-                setMessages((prevMessages) => [...prevMessages, event.payload]);
+                // Skips a message already listed, a resync after a reconnection can deliver it twice
+                setMessages((prevMessages) => prevMessages.some((msg) => msg.id === event.payload.id)
+                    ? prevMessages : [...prevMessages, event.payload]);
             } else if (event.type === "edit") {
                 // Replaces the edited message in the chat
                 setMessages((prevMessages) =>
@@ -78,6 +92,17 @@ export default function ChatBody({ chat, currentUser, lastConnectedUser }) {
             } else if (event.type === "delete") {
                 // Removes the delete message from the chat
                 setMessages((prevMessages) => prevMessages.filter((msg) => msg.id !== event.payload));
+            } else if (event.type === "read") {
+                // Moves the watermarks of the members that read the chat
+                setReadWatermarks((prevWatermarks) => {
+                    const watermarks = { ...prevWatermarks };
+                    event.payload.forEach((state) => {
+                        if (!watermarks[state.userId] || new Date(state.lastReadAt) > new Date(watermarks[state.userId])) {
+                            watermarks[state.userId] = state.lastReadAt;
+                        }
+                    });
+                    return watermarks;
+                });
             }
         })
 
@@ -115,19 +140,11 @@ export default function ChatBody({ chat, currentUser, lastConnectedUser }) {
         return () => chatBody.removeEventListener("scroll", handleScroll);
     }, [loading]); // Re-attaches event listener when `loading` changes
 
-    // UseEffect to mark the unread messsages as read
-    useEffect(() => {
-        // Early return if there is no lastConnected user
-        if (!lastConnectedUser) {
-            return;
-        }
-        // Iterates over the message lista and adds the lastConnectedUser if not included in the readBy field
-        setMessages((prevMessages) =>
-            prevMessages.map((message) =>
-                message.user.id !== lastConnectedUser.id && !message.readBy.some(user => user.id === lastConnectedUser.id) ? { ...message, readBy: [...message.readBy, lastConnectedUser] } : message
-            )
-        )
-    }, [lastConnectedUser]); // Uses the lastConnectedUser as a dependency array so that it triggers on each connection 
+    // Members other than the author whose watermark reached the message
+    const readersOf = (message) =>
+        chat.members.filter((member) =>
+            member.id !== message.user.id && readWatermarks[member.id] && new Date(readWatermarks[member.id]) >= new Date(message.timestamp)
+        );
 
 
     return (
@@ -145,6 +162,7 @@ export default function ChatBody({ chat, currentUser, lastConnectedUser }) {
                 <Message
                     key={msg.id}
                     message={msg}
+                    readBy={readersOf(msg)}
                     currentUser={{ ...currentUser, isAdmin: chat.adminIds.includes(currentUser.id) }}
                     chatId={chat.id}
                 />
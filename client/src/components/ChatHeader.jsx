@@ -77,9 +77,11 @@ export default function ChatHeader({ chat, currentUser }) {
             }
         }
 
-        const topic = `/topic/online-status/${otherUser.email}`;
-        // Subscribes to the online status of the other user
-        ws.subscribe(topic, (isOnline)=> {
+        // Listens to the presence digests and picks the status of the other user
+        const removePresenceListener = ws.addPresenceListener((digest) => {
+            const isOnline = digest[otherUser.id];
+            // The digest only contains the contacts whose status changed
+            if (isOnline === undefined) return;
             // If the user is online set the last connection to null and if the user disconnets sets their last connection to that moment
             isOnline ? setLastConnetion(null) : setLastConnetion(new Date().toLocaleString('en-US', { year: '2-digit', month: '2-digit', day: '2-digit', hour: '2-digit', minute: '2-digit', hour12: true }).replace(',', ''));
         });
@@ -89,7 +91,7 @@ export default function ChatHeader({ chat, currentUser }) {
 
         // Cleanup on unmount
         return () => {
-            ws.unsubscribe(topic);
+            removePresenceListener();
         }
 
     }, [chat.id]);
@@ -1,9 +1,9 @@
 import { useState } from "react";
 import { del, put } from "../utils/api";
 
-export default function Message({ message, currentUser, chatId }) {
+export default function Message({ message, readBy, currentUser, chatId }) {
     // Deconstructs the message
-    const { id, content, user, timestamp, type, readBy } = message;
+    const { id, content, user, timestamp, type } = message;
 
     // State variables to handle editing state, the edit content and error messages
     const [isEditing, setIsEditing] = useState(false);
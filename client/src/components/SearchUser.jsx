@@ -1,4 +1,4 @@
-import { useState } from "react";
+import { useEffect, useState } from "react";
 import { get } from "../utils/api";
 
 export default function SearchUser({ onSelectUser, searchPlaceHolder }) {
@@ -8,6 +8,18 @@ export default function SearchUser({ onSelectUser, searchPlaceHolder }) {
     const [results, setResults] = useState([]);
     const [loading, setLoading] = useState(false);
 
+    // Searches as the user types, once the typing pauses for a moment
+    useEffect(() => {
+        // Clears the results when the query is emptied
+        if (!query.trim()) {
+            setResults([]);
+            return;
+        }
+        const timeout = setTimeout(handleSearch, 250);
+        return () => clearTimeout(timeout);
+        // eslint-disable-next-line react-hooks/exhaustive-deps
+    }, [query]);
+
     // Function to make the query from the api
     const handleSearch = async () => {
         // Returns early if the query only contains white space
@@ -19,7 +31,7 @@ export default function SearchUser({ onSelectUser, searchPlaceHolder }) {
 
         try {
             // Makes the api call
-            const response = await get(`/api/users/${query.trim()}`);
+            const response = await get(`/api/users/${encodeURIComponent(query.trim())}`);
             // Updates the state variable to the fetched data
             setResults(response);
 
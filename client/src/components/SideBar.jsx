@@ -1,10 +1,11 @@
 import { useEffect } from "react";
 import { get } from "../utils/api";
 import ws from "../utils/ws";
+import sync from "../utils/sync";
 
 import { useSelector, useDispatch } from "react-redux";
 import { setUser } from "../redux/userSlice";
-import { addAdmin, addChat, addMember, removeMember, removeChat, setChats, updateChat, updateUnreadCounts, } from "../redux/chatsSlice";
+import { addAdmin, addChat, addMember, removeMember, removeChat, membersChanged, setChats, upsertChat, updateChat, updateUnreadCounts, } from "../redux/chatsSlice";
 
 
 export default function SideBar({ onSelectView }) {
@@ -20,6 +21,10 @@ export default function SideBar({ onSelectView }) {
         // Asynchronous function to fetch sidebar data
         const fetchSidebarData = async () => {
             try {
+                // Takes the position in the change feed to catch up from after a reconnection
+                // It is taken before the chats are loaded so a change made in between is never missed,
+                // the server places it after every change the user can see so the first catch up does not count them again
+                await sync.start();
                 // Awaits the resolution of both API calls simultaneously using Promise.all
                 const [userData, chatsData] = await Promise.all([
                     get("/api/users/profile"),
@@ -45,7 +50,8 @@ export default function SideBar({ onSelectView }) {
     useEffect(() => {
         if (!currentUser) return;
 
-        const topic = `/chat/notifications/${currentUser.id}`;
+        // User destination resolved by the server from the authenticated session
+        const topic = "/user/queue/notifications";
         const delay = 500;
 
         const timeout = setTimeout(() => {
@@ -55,7 +61,14 @@ export default function SideBar({ onSelectView }) {
                         dispatch(updateUnreadCounts({ chatId: eventData.chatId, userId: currentUser.id, increase: true }));
                         break;
                     case "addChat":
-                        dispatch(addChat(eventData.payload));
+                        // Users added in bulk receive the chat ID and fetch the chat, like the changes of the change feed
+                        if (typeof eventData.payload === "string") {
+                            get(`/api/chats/${eventData.payload}`)
+                                .then((chat) => dispatch(upsertChat(chat)))
+                                .catch((error) => console.log("Error fetching the new chat", error.message));
+                        } else {
+                            dispatch(addChat(eventData.payload));
+                        }
                         break;
                     case "updateChat":
                         dispatch(updateChat(eventData.payload));
@@ -69,6 +82,9 @@ export default function SideBar({ onSelectView }) {
                     case "removeMember":
                         dispatch(removeMember({ chatId: eventData.chatId, removedUserId: eventData.payload }));
                         break;
+                    case "membersChanged":
+                        dispatch(membersChanged({ chatId: eventData.chatId, ...eventData.payload }));
+                        break;
                     case "removeChat":
                         dispatch(removeChat(eventData.chatId));
                         break;
@@ -78,9 +94,48 @@ export default function SideBar({ onSelectView }) {
             });
         }, delay);
 
+        // Applies the changes sent while the connection was down instead of reloading every chat
+        const catchUp = async () => {
+            // Chats whose details or members changed, fetched once each after the changes are read
+            const changedChatIds = new Set();
+            try {
+                await sync.catchUp((change) => {
+                    switch (change.type) {
+                        case "send":
+                        case "edit":
+                        case "delete": {
+                            // Hands the message change to the chat body if the chat is open
+                            const open = ws.replay(`/chat/${change.chatId}`, { type: change.type, payload: change.payload });
+                            if (change.type === "send" && !open && change.payload.user.id !== currentUser.id) {
+                                dispatch(updateUnreadCounts({ chatId: change.chatId, userId: currentUser.id, increase: true }));
+                            }
+                            break;
+                        }
+                        case "removeChat":
+                            changedChatIds.delete(change.chatId);
+                            dispatch(removeChat(change.chatId));
+                            break;
+                        default:
+                            changedChatIds.add(change.chatId);
+                    }
+                }, async () => {
+                    // The changes are no longer kept, reloads the chats
+                    dispatch(setChats(await get("/api/chats/user")));
+                });
+
+                for (const chatId of changedChatIds) {
+                    dispatch(upsertChat(await get(`/api/chats/${chatId}`)));
+                }
+            } catch (error) {
+                console.log("Error catching up on the missed changes", error.message);
+            }
+        };
+        const removeReconnectListener = ws.addReconnectListener(catchUp);
+
         return () => {
             clearTimeout(timeout); // cleanup timer if unmounted early
             ws.unsubscribe(topic); // also unsubscribe from the topic
+            removeReconnectListener(); // stops catching up on reconnections
         };
     }, [currentUser]);
 
@@ -83,7 +83,8 @@ export default function Dashboard() {
             })
 
             // Listens for call events of the current user
-            const topic = `/topic/call/${auth.getEmail()}`;
+            // User destination resolved by the server from the authenticated session
+            const topic = "/user/queue/call";
             ws.subscribe(topic, (incoming) => {
                 console.log("Incoming call from", incoming.displayName);
                 // If  not already in a call, update the incoming call state to open the incoming call modal
@@ -17,6 +17,17 @@ const chatsSlice = createSlice({
 
 
 
+        // Replaces a chat with its latest version or adds it if it is not listed, the listed unread counts are kept
+        upsertChat: (state, action) => {
+            // Finds the index of the chat to replace
+            const index = state.chats.findIndex(chat => chat.id === action.payload.id);
+            if (index !== -1) {
+                state.chats[index] = { ...action.payload, unreadCounts: state.chats[index].unreadCounts };
+            } else {
+                state.chats.push(action.payload);
+            }
+        },
+
         // Updates the chat details  (group chat name, profile picture) of an specific chat
         updateChat: (state, action) => {
             // Finds the index of the desired chat to update
@@ -85,6 +96,23 @@ const chatsSlice = createSlice({
             }
         },
 
+        // Applies several membership changes of a chat at once
+        membersChanged: (state, action) => {
+            // Gets the id of the chat, the added members, the ids of the removed members and the current admins
+            const { chatId, added, removed, adminIds } = action.payload;
+            // Finds the index of the desired chat to update
+            const index = state.chats.findIndex(chat => chat.id === chatId);
+
+            // Ensures the chat is present
+            if (index !== -1) {
+                const chat = state.chats[index];
+                // Removes the removed users and adds the new members that are not listed yet
+                chat.members = chat.members.filter(member => !removed.includes(member.id));
+                chat.members.push(...added.filter(newMember => !chat.members.some(member => member.id === newMember.id)));
+                chat.adminIds = adminIds;
+            }
+        },
+
         // Clears the chats data (I dont know if I will use this one)
         clearChats: (state) => {
             state.chats = [];
@@ -92,6 +120,6 @@ const chatsSlice = createSlice({
     },
 });
 
-export const { setChats, addChat, updateChat, updateUnreadCounts, addMember, addAdmin, removeChat, removeMember } = chatsSlice.actions;
+export const { setChats, addChat, upsertChat, updateChat, updateUnreadCounts, addMember, addAdmin, removeChat, removeMember, membersChanged } = chatsSlice.actions;
 
 export default chatsSlice.reducer;
\ No newline at end of file
@@ -0,0 +1,43 @@
+import { get } from "./api";
+
+// Keeps the position of the client in the change feed and catches up on the changes missed while disconnected
+class SyncService {
+    constructor(){
+        // Token of the last change applied, null until the first sync
+        this.token = null;
+        // Flag to avoid overlapping catch ups when the connection flaps
+        this.syncing = false;
+    }
+
+    // Method to take the current position, called right before the initial load of the chats
+    // The server returns the position after the newest change visible to the user, not a settled one in the past
+    async start(){
+        const response = await get("/api/sync");
+        this.token = response.token;
+    }
+
+    // Method to fetch every change after the token page by page, onReset is called when the token is too old to catch up
+    async catchUp(onChange, onReset){
+        if(!this.token || this.syncing) return;
+        this.syncing = true;
+        try {
+            let hasMore = true;
+            while(hasMore){
+                const response = await get(`/api/sync?since=${encodeURIComponent(this.token)}`);
+                this.token = response.token;
+                if(response.resetRequired){
+                    await onReset();
+                    return;
+                }
+                for (const change of response.events) {
+                    await onChange(change);
+                }
+                hasMore = response.hasMore;
+            }
+        } finally {
+            this.syncing = false;
+        }
+    }
+}
+
+export default new SyncService();
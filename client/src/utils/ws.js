@@ -1,5 +1,6 @@
 import { Client } from "@stomp/stompjs";
 import SockJS from "sockjs-client/dist/sockjs";
+import auth from "./auth";
 
 const backendUrl = import.meta.env.VITE_API_URL || 'http://localhost:8080'
 
@@ -7,8 +8,14 @@ class WebSocketService{
     constructor(){
         // WebSocket client ref
         this.client = null;
-        // Map to manage the subscriptions
+        // Map to manage the subscriptions, topic to its callback and current subscription
         this.subscriptions = new Map();
+        // Set of callbacks listening to the presence digests
+        this.presenceListeners = new Set();
+        // Set of callbacks run when the connection is restored after a drop
+        this.reconnectListeners = new Set();
+        // Flag to tell the first connection from the reconnections
+        this.connectedBefore = false;
     }
 
     // Method to initialize the websocket connection
@@ -19,6 +26,11 @@ class WebSocketService{
         this.client = new Client({
             // Uses SockJS as te websocket factory
             webSocketFactory: () => new SockJS(`${backendUrl}/ws`),
+            // Sends the JWT on the CONNECT frame so the server can authenticate the session
+            // Read on every (re)connect so a refreshed token is picked up
+            beforeConnect: () => {
+                this.client.connectHeaders = { Authorization: `Bearer ${auth.getToken()}` };
+            },
             // Sets reconnection attempts after 5 seconds
             reconnectDelay: 5000,
             // Debug log
@@ -28,6 +40,19 @@ class WebSocketService{
         // Logs message on successfull connection
         this.client.onConnect = () => {
             console.log("Connected to Websocket");
+            // The subscriptions do not survive a dropped connection, renews them on the new one
+            this.subscriptions.forEach(({ callback }, topic) => this.subscribe(topic, callback));
+            // Single subscription for the presence digests of all contacts, fanned out to the listeners
+            if(!this.subscriptions.has("/user/queue/presence")){
+                this.subscribe("/user/queue/presence", (digest) => {
+                    this.presenceListeners.forEach((listener) => listener(digest));
+                });
+            }
+            // Lets the listeners catch up on the events sent while the connection was down
+            if(this.connectedBefore){
+                this.reconnectListeners.forEach((listener) => listener());
+            }
+            this.connectedBefore = true;
             // Callback function on a successfull connection
             if(onConnectCallback) onConnectCallback();
         };
@@ -49,6 +74,7 @@ class WebSocketService{
             this.client.deactivate();
             this.client = null;
             this.subscriptions.clear();
+            this.connectedBefore = false;
         }
     }
 
@@ -68,16 +94,41 @@ class WebSocketService{
                 const data = JSON.parse(messageOutput.body);
                 callback(data);
             });
-            this.subscriptions.set(topic, subscription);
+            this.subscriptions.set(topic, { callback, subscription });
+        } else if(this.client){
+            // Keeps the callback while the connection is down, the subscription is made once it is restored
+            this.subscriptions.set(topic, { callback, subscription: null });
         } else{
             console.error("Websocket is not conneted");
         }
     }
 
+    // Method to hand an event to the callback of a topic as if it came from the server, returns false if the topic has no subscription
+    replay(topic, data){
+        if(!this.subscriptions.has(topic)) return false;
+        this.subscriptions.get(topic).callback(data);
+        return true;
+    }
+
+    // Method to run a callback each time the connection is restored after a drop
+    // Returns a function that removes the listener
+    addReconnectListener(listener){
+        this.reconnectListeners.add(listener);
+        return () => this.reconnectListeners.delete(listener);
+    }
+
+    // Method to listen to the online status changes of the contacts, receives a map of user ID to online status
+    // Returns a function that removes the listener
+    addPresenceListener(listener){
+        this.presenceListeners.add(listener);
+        return () => this.presenceListeners.delete(listener);
+    }
+
     // Method to stop listening on an specific topic
     unsubscribe(topic){
         if(this.subscriptions.has(topic)){
-            this.subscriptions.get(topic).unsubscribe();
+            const { subscription } = this.subscriptions.get(topic);
+            if(subscription) subscription.unsubscribe();
             this.subscriptions.delete(topic);
         }
     }